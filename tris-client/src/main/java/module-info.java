@@ -3,6 +3,8 @@ module org.trisclient.trisclient {
     requires javafx.fxml;
     requires javafx.graphics;
     requires javafx.base;
+    requires jdk.jfr;
+    requires java.management;
 
     opens org.trisclient.trisclient to javafx.fxml;
     exports org.trisclient.trisclient;
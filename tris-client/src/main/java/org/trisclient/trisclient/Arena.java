@@ -0,0 +1,162 @@
+package org.trisclient.trisclient;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Partite strategia contro strategia senza rete né JavaFX, su tutti i core: la griglia sono due maschere di bit e ogni thread
+// prende blocchi di partite da un contatore comune. Ogni blocco ha il suo seme, quindi con lo stesso tris.arena.seed i risultati
+// non dipendono dal numero di thread. A gioca X nelle partite pari e O nelle dispari.
+public class Arena {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final int BLOCK_GAMES = 1 << 14;
+    // intervallo di confidenza al 95%
+    private static final double Z = 1.96;
+
+    // Esiti dal punto di vista di A, separati per chi ha iniziato.
+    private static final class Tally {
+        long winsAsX, drawsAsX, lossesAsX;
+        long winsAsO, drawsAsO, lossesAsO;
+
+        long games() {
+            return winsAsX + drawsAsX + lossesAsX + winsAsO + drawsAsO + lossesAsO;
+        }
+
+        void merge(Tally other) {
+            winsAsX += other.winsAsX;
+            drawsAsX += other.drawsAsX;
+            lossesAsX += other.lossesAsX;
+            winsAsO += other.winsAsO;
+            drawsAsO += other.drawsAsO;
+            lossesAsO += other.lossesAsO;
+        }
+    }
+
+    private final String nameA;
+    private final String nameB;
+    private final Strategy a;
+    private final Strategy b;
+
+    public Arena(String nameA, String nameB) {
+        this.nameA = nameA;
+        this.nameB = nameB;
+        this.a = Strategy.forName(nameA);
+        this.b = Strategy.forName(nameB);
+    }
+
+    // Esito per X: 1 vittoria, 0 pareggio, -1 sconfitta.
+    private static int play(Strategy x, Strategy o, SplittableRandom random) {
+        int xCells = 0, oCells = 0;
+        for (int turn = 0; ; turn++) {
+            boolean xMoves = (turn & 1) == 0;
+            int mine = xMoves ? xCells : oCells;
+            int theirs = xMoves ? oCells : xCells;
+            int cell = (xMoves ? x : o).chooseMove(mine, theirs, random);
+            int bit = 1 << cell;
+            if (cell < 0 || cell >= ServerEvent.BOARD_CELLS || ((mine | theirs) & bit) != 0) {
+                throw new IllegalStateException("mossa non valida " + cell + " con X=" + Integer.toBinaryString(xCells) + " O=" + Integer.toBinaryString(oCells));
+            }
+            mine |= bit;
+            if (xMoves) xCells = mine; else oCells = mine;
+            if (Strategy.isWin(mine)) return xMoves ? 1 : -1;
+            if ((xCells | oCells) == Strategy.FULL_BOARD) return 0;
+        }
+    }
+
+    private Tally playBlocks(AtomicLong nextBlock, long games, long seed) {
+        Tally tally = new Tally();
+        long block;
+        while ((block = nextBlock.getAndIncrement()) * BLOCK_GAMES < games) {
+            SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + block);
+            long first = block * BLOCK_GAMES;
+            long last = Math.min(games, first + BLOCK_GAMES);
+            for (long game = first; game < last; game++) {
+                if ((game & 1) == 0) {
+                    switch (play(a, b, random)) {
+                        case 1 -> tally.winsAsX++;
+                        case 0 -> tally.drawsAsX++;
+                        default -> tally.lossesAsX++;
+                    }
+                } else {
+                    switch (play(b, a, random)) {
+                        case 1 -> tally.lossesAsO++;
+                        case 0 -> tally.drawsAsO++;
+                        default -> tally.winsAsO++;
+                    }
+                }
+            }
+        }
+        return tally;
+    }
+
+    // Intervallo di Wilson: resta sensato anche con frequenze vicine a 0 o a 1 (minimax non perde mai).
+    private static String rate(long count, long total) {
+        if (total == 0) return "-";
+        double p = (double) count / total;
+        double denominator = 1 + Z * Z / total;
+        double centre = (p + Z * Z / (2.0 * total)) / denominator;
+        double margin = Z * Math.sqrt(p * (1 - p) / total + Z * Z / (4.0 * total * total)) / denominator;
+        return String.format("%7.3f%% [%7.3f%%, %7.3f%%]", 100 * p, 100 * Math.max(0, centre - margin), 100 * Math.min(1, centre + margin));
+    }
+
+    public void run(long games, int threads, long seed) throws Exception {
+        System.out.println(getCurrentTimestamp() + " - Arena: " + nameA + " contro " + nameB + ", " + games + " partite su " + threads + " thread, seme " + seed + "...");
+        // la tabella di minimax si calcola qui e non dentro la misura
+        a.chooseMove(0, 0, new SplittableRandom(seed));
+        b.chooseMove(0, 0, new SplittableRandom(seed));
+        long start = System.nanoTime();
+        AtomicLong nextBlock = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Tally>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) futures.add(pool.submit(() -> playBlocks(nextBlock, games, seed)));
+        Tally total = new Tally();
+        try {
+            for (Future<Tally> future : futures) total.merge(future.get());
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long played = total.games();
+        long asX = total.winsAsX + total.drawsAsX + total.lossesAsX;
+        long asO = played - asX;
+        System.out.printf("%s - Arena: %d partite in %.2f s (%.0f partite/s).%n", getCurrentTimestamp(), played, seconds, played / seconds);
+        System.out.printf("  %-22s %-31s %-31s %s%n", "", "vittorie " + nameA, "pareggi", "vittorie " + nameB);
+        System.out.printf("  %-22s %s   %s   %s%n", "totale", rate(total.winsAsX + total.winsAsO, played),
+                rate(total.drawsAsX + total.drawsAsO, played), rate(total.lossesAsX + total.lossesAsO, played));
+        System.out.printf("  %-22s %s   %s   %s%n", nameA + " con X", rate(total.winsAsX, asX), rate(total.drawsAsX, asX), rate(total.lossesAsX, asX));
+        System.out.printf("  %-22s %s   %s   %s%n", nameA + " con O", rate(total.winsAsO, asO), rate(total.drawsAsO, asO), rate(total.lossesAsO, asO));
+    }
+
+    public static void main(String[] args) throws Exception {
+        long games = Long.getLong("tris.arena.games", 1_000_000L);
+        int threads = Integer.getInteger("tris.arena.threads", Runtime.getRuntime().availableProcessors());
+        long seed = Long.getLong("tris.arena.seed", 1L);
+        if (args.length > 0) games = Long.parseLong(args[0]);
+        // senza tris.arena.a / tris.arena.b: ogni coppia di strategie di base
+        String nameA = System.getProperty("tris.arena.a");
+        String nameB = System.getProperty("tris.arena.b");
+        if (nameA != null || nameB != null) {
+            new Arena(nameA != null ? nameA : "heuristic", nameB != null ? nameB : "random").run(games, threads, seed);
+            return;
+        }
+        for (int i = 0; i < Strategy.BASELINES.size(); i++) {
+            for (int j = i; j < Strategy.BASELINES.size(); j++) {
+                new Arena(Strategy.BASELINES.get(i), Strategy.BASELINES.get(j)).run(games, threads, seed);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.trisclient.trisclient;
+
+import javafx.scene.control.ListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Vista della chat: la ListView crea celle solo per le righe visibili e il modello tiene al massimo tris.chat.maxLines righe.
+public class ChatLog {
+
+    private static final int MAX_LINES = Math.max(1, Integer.getInteger("tris.chat.maxLines", 200));
+
+    private final ListView<String> view;
+
+    public ChatLog(ListView<String> view) {
+        this.view = view;
+    }
+
+    public void append(List<NetworkService.ChatMessage> messages) {
+        List<String> lines = new ArrayList<>(messages.size());
+        int first = Math.max(0, messages.size() - MAX_LINES);
+        for (int i = first; i < messages.size(); i++) {
+            lines.add(messages.get(i).toString());
+        }
+        appendLines(lines);
+    }
+
+    public void appendSystem(String text) {
+        appendLines(List.of("* " + text));
+    }
+
+    private void appendLines(List<String> lines) {
+        if (view == null || lines.isEmpty()) return;
+        List<String> items = view.getItems();
+        int overflow = items.size() + lines.size() - MAX_LINES;
+        if (overflow > 0) view.getItems().remove(0, Math.min(overflow, items.size()));
+        items.addAll(lines);
+        view.scrollTo(items.size() - 1);
+    }
+
+    public void clear() {
+        if (view != null) view.getItems().clear();
+    }
+}
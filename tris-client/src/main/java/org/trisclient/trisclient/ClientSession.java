@@ -0,0 +1,170 @@
+package org.trisclient.trisclient;
+
+import javafx.fxml.FXMLLoader;
+import javafx.stage.Stage;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stato di un giocatore: connessione (con gli shard), nome, finestra e motivo dell'ultimo rientro in lobby.
+// Una sessione per finestra (o per posto headless): più sessioni condividono lo stesso toolkit FX e la stessa JVM.
+// I controller la ricevono nel costruttore tramite la factory di loader(); va usata dal thread FX.
+public class ClientSession {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final int id = nextId.getAndIncrement();
+    private final Stage stage;
+    private final String seatLabel;
+    private NetworkService network;
+    private ShardRouter shardRouter;
+    private String playerName;
+    private volatile String lastReturnReason = null;
+    private volatile String pendingJoinRequest = null;
+
+    // stage null per le sessioni headless; seatLabel ("" con un solo posto) distingue le finestre nel titolo
+    public ClientSession(Stage stage, String seatLabel) {
+        this.stage = stage;
+        this.seatLabel = seatLabel;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public String windowTitle(String title) {
+        return seatLabel.isEmpty() ? title : title + " - " + seatLabel;
+    }
+
+    public NetworkService getNetwork() {
+        return network;
+    }
+
+    public void setNetwork(NetworkService network) {
+        this.network = network;
+    }
+
+    public ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public void setPlayerName(String playerName) {
+        this.playerName = playerName;
+    }
+
+    public boolean isConnected() {
+        return network != null && network.isConnected();
+    }
+
+    // Motivo passato dalla schermata di partita alla nuova HomePage (letto una sola volta).
+    public void setLastReturnReason(String reason) {
+        this.lastReturnReason = reason;
+    }
+
+    public String getLastReturnReason() {
+        return lastReturnReason;
+    }
+
+    public String takeLastReturnReason() {
+        String reason = lastReturnReason;
+        lastReturnReason = null;
+        return reason;
+    }
+
+    // JOIN_REQUEST arrivata alla partita dopo REMATCH_ACCEPTED, prima che la nuova HomePage diventi il listener.
+    public void setPendingJoinRequest(String requesterName) {
+        this.pendingJoinRequest = requesterName;
+    }
+
+    public String takePendingJoinRequest() {
+        String requesterName = pendingJoinRequest;
+        pendingJoinRequest = null;
+        return requesterName;
+    }
+
+    // Nuova connessione: un ShardRouter sugli endpoint di tris.servers, la cui connessione attiva diventa quella della sessione.
+    public NetworkService openRouter() {
+        shardRouter = new ShardRouter(ShardRing.endpointsFromProperty());
+        shardRouter.setOnPeerReady(this::onShardReady);
+        network = shardRouter.getActive();
+        return network;
+    }
+
+    // Connessione persa: alla prossima azione se ne apre una nuova.
+    public void dropConnection() {
+        if (network != null) network.disconnect();
+        if (shardRouter != null) shardRouter.disconnectPeers();
+        shardRouter = null;
+        network = null;
+    }
+
+    // Chiusura della finestra: disconnect() non aspetta il socket, la chiusura prosegue su un thread virtuale.
+    public void close() {
+        System.out.println(getCurrentTimestamp() + " - ClientSession " + id + ": Chiusura sessione" + (playerName != null ? " di " + playerName : "") + ".");
+        if (network != null && network.isConnected()) network.disconnect();
+        if (shardRouter != null) shardRouter.disconnectPeers();
+    }
+
+    public boolean isSharded() {
+        return shardRouter != null && shardRouter.isSharded();
+    }
+
+    // Con più shard la JOIN_REQUEST va allo shard che possiede la partita, che diventa quello attivo.
+    public NetworkService activateShard(String endpoint) {
+        if (shardRouter == null) return network;
+        NetworkService service = shardRouter.activate(endpoint);
+        if (service != null) network = service;
+        return service;
+    }
+
+    // Shard per una nuova partita (vedi ShardRouter.firstShardForNewGame); diventa quello attivo.
+    public NetworkService shardForNewGame() {
+        network = shardRouter.firstShardForNewGame(playerName);
+        return network;
+    }
+
+    // Un nuovo shard pronto: se la lobby è visibile la si ricarica per mostrare anche le sue partite.
+    private void onShardReady() {
+        NetworkService service = network;
+        if (service != null && service.isConnected() && service.getServerListener() instanceof HomePageController) {
+            service.requestLobby(LobbyCache.Policy.FRESH);
+        }
+    }
+
+    public String shardLabel(String endpoint) {
+        return shardRouter != null ? shardRouter.labelFor(endpoint) : "";
+    }
+
+    // FXMLLoader i cui controller ricevono questa sessione.
+    public FXMLLoader loader(String resource) {
+        FXMLLoader loader = new FXMLLoader(ClientSession.class.getResource(resource));
+        loader.setControllerFactory(this::createController);
+        return loader;
+    }
+
+    private Object createController(Class<?> type) {
+        if (type == HomePageController.class) return new HomePageController(this);
+        if (type == PartitaItemController.class) return new PartitaItemController(this);
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Impossibile creare il controller " + type.getName(), e);
+        }
+    }
+}
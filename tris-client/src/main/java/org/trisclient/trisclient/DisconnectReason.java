@@ -0,0 +1,25 @@
+package org.trisclient.trisclient;
+
+// Motivo della chiusura della connessione; expected indica le chiusure che non richiedono un avviso all'utente.
+public enum DisconnectReason {
+    CLIENT_REQUEST("Disconnesso dal client", true),
+    SERVER_SHUTDOWN("Il server si sta spegnendo", true),
+    SERVER_CLOSED("Il server ha chiuso la connessione", true),
+    SESSION_CLOSED("Sessione chiusa dal server", true),
+    CONNECTION_ERROR("Errore di connessione", false),
+    IO_ERROR("Errore I/O", false),
+    WRITE_FAILED("Invio fallito", false),
+    NOT_CONNECTED("Tentativo di invio mentre disconnesso", false);
+
+    public final String label;
+    public final boolean expected;
+
+    DisconnectReason(String label, boolean expected) {
+        this.label = label;
+        this.expected = expected;
+    }
+
+    public String describe(String detail) {
+        return (detail == null || detail.isEmpty()) ? label : label + ": " + detail;
+    }
+}
@@ -0,0 +1,716 @@
+package org.trisclient.trisclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class EdgeGateway {
+
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_UPSTREAM_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 256 * 1024;
+    private static final int MAX_UPSTREAM_PENDING_OUTPUT = 4 * 1024 * 1024;
+    private static final int MAX_HANDSHAKE_LENGTH = 8192;
+    private static final int PROBE_PAGE_SIZE = 50;
+    private static final long STATS_INTERVAL_MILLIS = 30_000;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private final String serverHost;
+    private final int serverPort;
+    private final int tcpPort;
+    private final int webSocketPort;
+    private final int upstreamCount;
+    private final long lobbyTtlMillis;
+
+    private Selector selector;
+    private volatile boolean running = false;
+    private final List<Upstream> upstreams = new ArrayList<>();
+    private final LobbyProbe lobbyProbe = new LobbyProbe();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+
+    private int downstreamCount = 0;
+    private long acceptedTotal = 0;
+    private long listFromCache = 0;
+    private long listRefreshes = 0;
+    private long listForwarded = 0;
+    private long lastStatsMillis = System.currentTimeMillis();
+
+    public EdgeGateway(String serverHost, int serverPort, int tcpPort, int webSocketPort, int upstreamCount, long lobbyTtlMillis) {
+        if (upstreamCount <= 0) throw new IllegalArgumentException("Servono almeno una connessione verso il server: " + upstreamCount);
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.tcpPort = tcpPort;
+        this.webSocketPort = webSocketPort;
+        this.upstreamCount = upstreamCount;
+        this.lobbyTtlMillis = lobbyTtlMillis;
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        running = true;
+
+        for (int i = 0; i < upstreamCount; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverHost, serverPort));
+            channel.configureBlocking(false);
+            Upstream upstream = new Upstream(i, channel);
+            upstream.key = channel.register(selector, SelectionKey.OP_READ, upstream);
+            upstreams.add(upstream);
+            System.out.println(getCurrentTimestamp() + " - EdgeGateway: Connessione upstream " + i + " verso " + serverHost + ":" + serverPort + " stabilita.");
+        }
+        lobbyProbe.start(upstreams.get(0));
+
+        openListener(tcpPort, false);
+        if (webSocketPort > 0) openListener(webSocketPort, true);
+
+        while (running) {
+            selector.select(1000);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    accept(key);
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) connection.read();
+                if (key.isValid() && key.isWritable()) connection.flush();
+            }
+            maybeLogStats();
+        }
+
+        System.out.println(getCurrentTimestamp() + " - EdgeGateway: Arresto, chiusura connessioni.");
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore chiusura canale: " + e.getMessage());
+            }
+        }
+        selector.close();
+    }
+
+    public void stop() {
+        running = false;
+        Selector current = selector;
+        if (current != null) current.wakeup();
+    }
+
+    private void openListener(int port, boolean webSocket) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT, webSocket);
+        System.out.println(getCurrentTimestamp() + " - EdgeGateway: In ascolto su porta " + port + (webSocket ? " (WebSocket)" : " (TCP)"));
+    }
+
+    private void accept(SelectionKey key) {
+        boolean webSocket = (Boolean) key.attachment();
+        SocketChannel channel;
+        try {
+            channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) return;
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore accept: " + e.getMessage());
+            return;
+        }
+
+        Downstream downstream = new Downstream(channel, webSocket);
+        downstreamCount++;
+        acceptedTotal++;
+        try {
+            downstream.key = channel.register(selector, SelectionKey.OP_READ, downstream);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Registrazione client fallita: " + e.getMessage());
+            downstream.close();
+            return;
+        }
+        if (!webSocket) downstream.attach();
+    }
+
+    private Upstream leastLoadedUpstream() {
+        Upstream best = null;
+        for (Upstream upstream : upstreams) {
+            if (upstream.closed) continue;
+            if (best == null || upstream.sessions.size() < best.sessions.size()) best = upstream;
+        }
+        return best;
+    }
+
+    private void maybeLogStats() {
+        long now = System.currentTimeMillis();
+        if (now - lastStatsMillis < STATS_INTERVAL_MILLIS) return;
+        lastStatsMillis = now;
+        StringBuilder sessions = new StringBuilder();
+        for (Upstream upstream : upstreams) {
+            if (sessions.length() > 0) sessions.append('/');
+            sessions.append(upstream.closed ? "-" : String.valueOf(upstream.sessions.size()));
+        }
+        System.out.println(getCurrentTimestamp() + " - EdgeGateway: Statistiche | client connessi: " + downstreamCount
+                + " (totale " + acceptedTotal + ") | sessioni per upstream: " + sessions
+                + " | LIST dalla cache: " + listFromCache + ", aggiornamenti cache: " + listRefreshes + ", inoltrate: " + listForwarded);
+    }
+
+    private static class LineAccumulator {
+        private final int maxLineLength;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean discarding = false;
+
+        LineAccumulator(int maxLineLength) {
+            this.maxLineLength = maxLineLength;
+        }
+
+        // Restituisce false se una riga ha superato il limite (la riga viene scartata).
+        boolean feed(ByteBuffer data, Consumer<String> onLine) {
+            boolean withinLimit = true;
+            while (data.hasRemaining()) {
+                byte b = data.get();
+                if (b == '\n') {
+                    if (!discarding) onLine.accept(line.toString(StandardCharsets.UTF_8));
+                    line.reset();
+                    discarding = false;
+                } else if (b != '\r' && !discarding) {
+                    if (line.size() >= maxLineLength) {
+                        discarding = true;
+                        withinLimit = false;
+                        line.reset();
+                    } else {
+                        line.write(b);
+                    }
+                }
+            }
+            return withinLimit;
+        }
+    }
+
+    // Ogni connessione ha un tetto ai byte in coda di scrittura: chi non legge viene chiuso invece di far crescere la coda senza limite.
+    private abstract class Connection {
+        final SocketChannel channel;
+        final int maxPendingBytes;
+        SelectionKey key;
+        final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        int pendingBytes = 0;
+        boolean closed = false;
+
+        Connection(SocketChannel channel, int maxPendingBytes) {
+            this.channel = channel;
+            this.maxPendingBytes = maxPendingBytes;
+        }
+
+        void read() {
+            readBuffer.clear();
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            onBytes(readBuffer);
+        }
+
+        void enqueue(ByteBuffer data) {
+            if (closed) return;
+            pendingBytes += data.remaining();
+            pendingWrites.add(data);
+            flush();
+            if (!closed && pendingBytes > maxPendingBytes) onOverflow();
+        }
+
+        void flush() {
+            try {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer head = pendingWrites.peek();
+                    int written = channel.write(head);
+                    pendingBytes -= written;
+                    if (head.hasRemaining()) break;
+                    pendingWrites.poll();
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (key != null && key.isValid()) {
+                key.interestOps(pendingWrites.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore chiusura canale: " + e.getMessage());
+            }
+            onClosed();
+        }
+
+        abstract void onBytes(ByteBuffer data);
+
+        abstract void onOverflow();
+
+        abstract void onClosed();
+    }
+
+    private class Upstream extends Connection {
+        final int index;
+        final Map<Integer, Downstream> sessions = new HashMap<>();
+        final LineAccumulator lines = new LineAccumulator(MAX_UPSTREAM_LINE_LENGTH);
+        int nextSessionId = 1;
+
+        Upstream(int index, SocketChannel channel) {
+            super(channel, MAX_UPSTREAM_PENDING_OUTPUT);
+            this.index = index;
+        }
+
+        int allocateSessionId() {
+            return nextSessionId++;
+        }
+
+        void sendLine(String line) {
+            enqueue(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        void onBytes(ByteBuffer data) {
+            if (!lines.feed(data, this::onLine)) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Riga dall'upstream " + index + " oltre " + MAX_UPSTREAM_LINE_LENGTH + " byte scartata.");
+            }
+        }
+
+        private void onLine(String line) {
+            if (line.startsWith("@")) {
+                int space = line.indexOf(' ');
+                int sessionId;
+                try {
+                    sessionId = Integer.parseInt(line.substring(1, space < 0 ? line.length() : space));
+                } catch (NumberFormatException e) {
+                    System.err.println(getCurrentTimestamp() + " - EdgeGateway: Prefisso mux non valido dall'upstream " + index + ": " + line);
+                    return;
+                }
+                String payload = space < 0 ? "" : line.substring(space + 1);
+                if (lobbyProbe.ownsSession(this, sessionId)) {
+                    lobbyProbe.onProbeLine(payload);
+                    return;
+                }
+                Downstream downstream = sessions.get(sessionId);
+                if (downstream != null) downstream.onServerLine(payload);
+            } else if (line.startsWith("RESP:MUX_OPENED ")) {
+                Downstream downstream = sessions.get(parseSessionId(line));
+                if (downstream != null) downstream.sessionOpened = true;
+            } else if (line.startsWith("RESP:MUX_CLOSED ")) {
+                Downstream downstream = sessions.remove(parseSessionId(line));
+                if (downstream != null) {
+                    downstream.upstream = null;
+                    downstream.closeAfterFlush();
+                }
+            } else if (line.startsWith("ERROR:")) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore dall'upstream " + index + ": " + line);
+            } else if (line.startsWith("NOTIFY:SERVER_SHUTDOWN")) {
+                System.out.println(getCurrentTimestamp() + " - EdgeGateway: Il server si sta spegnendo (upstream " + index + ").");
+            }
+        }
+
+        // Il server non legge più: si chiude l'upstream e con esso le sue sessioni (vedi onClosed).
+        @Override
+        void onOverflow() {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Upstream " + index + " non legge (" + pendingBytes + " byte in coda), chiuso.");
+            close();
+        }
+
+        private int parseSessionId(String line) {
+            try {
+                return Integer.parseInt(line.substring(line.indexOf(' ') + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        void onClosed() {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Connessione upstream " + index + " chiusa, disconnessione di " + sessions.size() + " client.");
+            for (Downstream downstream : new ArrayList<>(sessions.values())) {
+                downstream.upstream = null;
+                downstream.sendLine("NOTIFY:SERVER_SHUTDOWN");
+                downstream.closeAfterFlush();
+            }
+            sessions.clear();
+            lobbyProbe.onUpstreamClosed(this);
+            if (leastLoadedUpstream() == null) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Nessuna connessione upstream attiva, arresto del gateway.");
+                stop();
+            }
+        }
+    }
+
+    private class Downstream extends Connection implements WebSocketCodec.FrameHandler {
+        final boolean webSocket;
+        final LineAccumulator lines = new LineAccumulator(MAX_LINE_LENGTH);
+        WebSocketCodec.Decoder frameDecoder;
+        ByteArrayOutputStream handshake;
+        Upstream upstream;
+        int sessionId;
+        boolean sessionOpened = false;
+        // Il server accetta LIST solo in LOBBY, WAITING e QUEUED: la cache risponde solo quando lo stato è certo, altrimenti si inoltra.
+        // Si entra in partita sempre con NOTIFY:GAME_START; dopo la partita vale la prima LIST inoltrata che riceve una pagina.
+        boolean listAllowed = false;
+        boolean closing = false;
+
+        Downstream(SocketChannel channel, boolean webSocket) {
+            super(channel, MAX_PENDING_OUTPUT);
+            this.webSocket = webSocket;
+            if (webSocket) handshake = new ByteArrayOutputStream();
+        }
+
+        void attach() {
+            upstream = leastLoadedUpstream();
+            if (upstream == null) {
+                sendLine("ERROR:Il server è pieno. Riprova più tardi.");
+                closeAfterFlush();
+                return;
+            }
+            sessionId = upstream.allocateSessionId();
+            upstream.sessions.put(sessionId, this);
+            upstream.sendLine("MUX OPEN " + sessionId);
+        }
+
+        void sendLine(String line) {
+            if (closed || closing) return;
+            enqueue(webSocket ? WebSocketCodec.encodeText(line) : ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        // Vale anche per pong e chiusure WebSocket e per un client già in chiusura che non legge più.
+        @Override
+        void onOverflow() {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Client troppo lento (" + pendingBytes + " byte in coda), disconnesso.");
+            close();
+        }
+
+        void closeAfterFlush() {
+            if (pendingWrites.isEmpty()) close();
+            else closing = true;
+        }
+
+        @Override
+        void flush() {
+            super.flush();
+            if (closing && pendingWrites.isEmpty()) close();
+        }
+
+        void onServerLine(String payload) {
+            if (payload.startsWith("RESP:NAME_OK") || payload.startsWith("RESP:GAMES_")) {
+                listAllowed = true;
+            } else if (payload.startsWith("NOTIFY:GAME_START") || payload.startsWith("RESP:JOIN_ACCEPTED")) {
+                listAllowed = false;
+            } else if (!sessionOpened && payload.startsWith("ERROR:")) {
+                upstream.sessions.remove(sessionId);
+                upstream = null;
+                sendLine(payload);
+                closeAfterFlush();
+                return;
+            }
+            sendLine(payload);
+        }
+
+        @Override
+        void onBytes(ByteBuffer data) {
+            if (closing) return;
+            if (!webSocket) {
+                if (!lines.feed(data, this::onClientLine)) {
+                    System.err.println(getCurrentTimestamp() + " - EdgeGateway: Comando dal client oltre " + MAX_LINE_LENGTH + " byte scartato.");
+                }
+                return;
+            }
+            if (frameDecoder == null) {
+                handshake.write(data.array(), data.position(), data.remaining());
+                String request = handshake.toString(StandardCharsets.ISO_8859_1);
+                int end = request.indexOf("\r\n\r\n");
+                if (end < 0) {
+                    if (handshake.size() > MAX_HANDSHAKE_LENGTH) close();
+                    return;
+                }
+                String response = WebSocketCodec.handshakeResponse(request.substring(0, end + 4));
+                if (response == null) {
+                    enqueue(ByteBuffer.wrap("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+                    closeAfterFlush();
+                    return;
+                }
+                enqueue(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+                frameDecoder = new WebSocketCodec.Decoder(MAX_LINE_LENGTH);
+                handshake = null;
+                attach();
+                byte[] rest = request.substring(end + 4).getBytes(StandardCharsets.ISO_8859_1);
+                if (rest.length > 0) frameDecoder.feed(ByteBuffer.wrap(rest), this);
+                return;
+            }
+            frameDecoder.feed(data, this);
+        }
+
+        private void onClientLine(String line) {
+            if (upstream == null || closing) return;
+            if (line.startsWith("@") || line.startsWith("MUX ")) {
+                sendLine("ERROR:Comando non consentito tramite gateway");
+                return;
+            }
+            // un ACCEPT può far iniziare la partita prima che la NOTIFY:GAME_START torni indietro
+            if (line.startsWith("ACCEPT ")) listAllowed = false;
+            if (listAllowed && (line.equals("LIST") || line.startsWith("LIST "))) {
+                lobbyProbe.serve(this, line);
+                return;
+            }
+            forward(line);
+        }
+
+        void forward(String line) {
+            if (upstream != null) upstream.sendLine("@" + sessionId + " " + line);
+        }
+
+        @Override
+        public void onText(String text) {
+            for (String line : text.split("\n")) {
+                String command = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+                if (!command.isEmpty()) onClientLine(command);
+            }
+        }
+
+        @Override
+        public void onPing(byte[] payload) {
+            enqueue(WebSocketCodec.encodePong(payload));
+        }
+
+        @Override
+        public void onClose() {
+            enqueue(WebSocketCodec.encodeClose());
+            closeAfterFlush();
+        }
+
+        @Override
+        public void onProtocolError(String reason) {
+            System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore protocollo WebSocket: " + reason);
+            close();
+        }
+
+        @Override
+        void onClosed() {
+            downstreamCount--;
+            if (upstream != null) {
+                upstream.sessions.remove(sessionId);
+                if (!upstream.closed) upstream.sendLine("MUX CLOSE " + sessionId);
+                upstream = null;
+            }
+        }
+    }
+
+    private record PendingList(Downstream downstream, String command) {
+    }
+
+    // Cache della lobby del gateway (da non confondere con LobbyCache del client), alimentata da una sessione mux di sonda;
+    // le LIST dei client vengono servite da qui finché la cache è fresca.
+    private class LobbyProbe {
+        private Upstream probeUpstream;
+        private int probeSessionId;
+        private String probeName = "gateway-lobby";
+        private boolean probeReady = false;
+        private boolean refreshing = false;
+        private List<String> entries = new ArrayList<>();
+        private List<String> collecting = new ArrayList<>();
+        private long fetchedAtMillis = 0;
+        private final List<PendingList> waiters = new ArrayList<>();
+
+        void start(Upstream upstream) {
+            probeUpstream = upstream;
+            probeSessionId = upstream.allocateSessionId();
+            upstream.sendLine("MUX OPEN " + probeSessionId);
+        }
+
+        boolean ownsSession(Upstream upstream, int sessionId) {
+            return upstream == probeUpstream && sessionId == probeSessionId;
+        }
+
+        void serve(Downstream downstream, String command) {
+            if (!probeReady) {
+                listForwarded++;
+                downstream.forward(command);
+                return;
+            }
+            if (System.currentTimeMillis() - fetchedAtMillis <= lobbyTtlMillis) {
+                listFromCache++;
+                reply(downstream, command);
+                return;
+            }
+            waiters.add(new PendingList(downstream, command));
+            if (!refreshing) {
+                refreshing = true;
+                listRefreshes++;
+                collecting = new ArrayList<>();
+                sendProbe("LIST 0 " + PROBE_PAGE_SIZE);
+            }
+        }
+
+        void onProbeLine(String payload) {
+            if (payload.startsWith("CMD:GET_NAME")) {
+                sendProbe("NAME " + probeName);
+            } else if (payload.startsWith("RESP:NAME_OK")) {
+                probeReady = true;
+                System.out.println(getCurrentTimestamp() + " - EdgeGateway: Cache lobby attiva (TTL " + lobbyTtlMillis + " ms) con nome '" + probeName + "'.");
+            } else if (payload.startsWith("ERROR:NAME_TAKEN")) {
+                probeName = probeName + "_";
+                sendProbe("NAME " + probeName);
+            } else if (payload.startsWith("RESP:GAMES_PAGE ")) {
+                int separator = payload.indexOf(';');
+                if (separator < 0) return;
+                for (String entry : payload.substring(separator + 1).split("\\|")) {
+                    if (!entry.isEmpty()) collecting.add(entry);
+                }
+            } else if (payload.startsWith("RESP:GAMES_END ")) {
+                int nextCursor;
+                try {
+                    nextCursor = Integer.parseInt(payload.substring("RESP:GAMES_END ".length()).trim());
+                } catch (NumberFormatException e) {
+                    nextCursor = 0;
+                }
+                if (nextCursor != 0) {
+                    sendProbe("LIST " + nextCursor + " " + PROBE_PAGE_SIZE);
+                    return;
+                }
+                entries = collecting;
+                collecting = new ArrayList<>();
+                fetchedAtMillis = System.currentTimeMillis();
+                refreshing = false;
+                List<PendingList> ready = new ArrayList<>(waiters);
+                waiters.clear();
+                for (PendingList waiter : ready) {
+                    if (!waiter.downstream().closed) reply(waiter.downstream(), waiter.command());
+                }
+            } else if (payload.startsWith("ERROR:")) {
+                System.err.println(getCurrentTimestamp() + " - EdgeGateway: Errore sulla sessione della cache lobby: " + payload);
+                failWaiters();
+            }
+        }
+
+        void onUpstreamClosed(Upstream upstream) {
+            if (upstream != probeUpstream) return;
+            probeReady = false;
+            probeUpstream = null;
+            failWaiters();
+        }
+
+        private void failWaiters() {
+            refreshing = false;
+            List<PendingList> pending = new ArrayList<>(waiters);
+            waiters.clear();
+            for (PendingList waiter : pending) {
+                if (!waiter.downstream().closed) {
+                    listForwarded++;
+                    waiter.downstream().forward(waiter.command());
+                }
+            }
+        }
+
+        private void sendProbe(String command) {
+            if (probeUpstream != null) probeUpstream.sendLine("@" + probeSessionId + " " + command);
+        }
+
+        private void reply(Downstream downstream, String command) {
+            if (command.equals("LIST")) {
+                downstream.sendLine("RESP:GAMES_LIST;" + String.join("|", entries));
+                return;
+            }
+            String[] parts = command.substring("LIST ".length()).trim().split("\\s+");
+            int cursor;
+            int limit;
+            try {
+                cursor = Integer.parseInt(parts[0]);
+                limit = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                listForwarded++;
+                downstream.forward(command);
+                return;
+            }
+            if (cursor < 0 || limit <= 0) {
+                listForwarded++;
+                downstream.forward(command);
+                return;
+            }
+            limit = Math.min(limit, PROBE_PAGE_SIZE);
+
+            StringBuilder page = new StringBuilder("RESP:GAMES_PAGE ").append(cursor).append(';');
+            int included = 0;
+            int lastId = 0;
+            boolean more = false;
+            for (String entry : entries) {
+                int id = entryId(entry);
+                if (id <= cursor) continue;
+                if (included == limit) {
+                    more = true;
+                    break;
+                }
+                if (included > 0) page.append('|');
+                page.append(entry);
+                lastId = id;
+                included++;
+            }
+            downstream.sendLine(page.toString());
+            downstream.sendLine("RESP:GAMES_END " + (more ? lastId : 0));
+        }
+
+        private int entryId(String entry) {
+            int comma = entry.indexOf(',');
+            try {
+                return Integer.parseInt(comma < 0 ? entry : entry.substring(0, comma));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int serverPort = Integer.getInteger("tris.server.port", 12345);
+        int tcpPort = Integer.getInteger("tris.gateway.port", 12346);
+        int webSocketPort = Integer.getInteger("tris.gateway.wsPort", 12347);
+        int upstreams = Integer.getInteger("tris.gateway.upstreams", 2);
+        long lobbyTtl = Long.getLong("tris.gateway.lobbyTtlMs", 500L);
+
+        System.out.println("-------------------- Avvio Edge Gateway Tris --------------------");
+        EdgeGateway gateway = new EdgeGateway(host, serverPort, tcpPort, webSocketPort, upstreams, lobbyTtl);
+        Runtime.getRuntime().addShutdownHook(new Thread(gateway::stop, "EdgeGatewayShutdown"));
+        try {
+            gateway.run();
+        } catch (IOException e) {
+            System.err.println("EdgeGateway: ERRORE FATALE: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("-------------------- Chiusura Edge Gateway Tris ---------------------");
+    }
+}
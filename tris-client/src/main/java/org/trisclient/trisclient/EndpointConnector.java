@@ -0,0 +1,152 @@
+package org.trisclient.trisclient;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Connessione "happy eyeballs" (RFC 8305) a una lista di endpoint "host:porta": ogni indirizzo risolto è un tentativo, i tentativi
+// partono scaglionati di tris.connect.staggerMs (default 250) nell'ordine di EndpointHealth, e il primo che si connette vince.
+// Un tentativo fallito fa partire subito il successivo, quindi un endpoint morto non costa il timeout del sistema operativo;
+// uno che non risponde affatto si ferma dopo tris.connect.timeoutMs (default 3000). Gli esiti aggiornano EndpointHealth.
+public class EndpointConnector {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    public record Connection(Socket socket, String endpoint, InetSocketAddress address) {}
+
+    private record Attempt(String endpoint, InetSocketAddress address) {}
+
+    private record Outcome(Attempt attempt, Socket socket, long connectNanos, IOException error) {}
+
+    private final EndpointHealth health;
+    private final long staggerNanos;
+    private final int timeoutMillis;
+
+    public EndpointConnector(EndpointHealth health, long staggerMillis, int timeoutMillis) {
+        this.health = health;
+        this.staggerNanos = TimeUnit.MILLISECONDS.toNanos(staggerMillis);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static EndpointConnector fromProperties() {
+        return new EndpointConnector(EndpointHealth.shared(), Long.getLong("tris.connect.staggerMs", 250L), Integer.getInteger("tris.connect.timeoutMs", 3000));
+    }
+
+    // Indirizzi degli endpoint nell'ordine dei tentativi: per ogni endpoint IPv6 e IPv4 alternati, come chiede la RFC.
+    private List<Attempt> plan(List<String> endpoints, List<IOException> errors) {
+        List<Attempt> attempts = new ArrayList<>();
+        for (String endpoint : health.order(endpoints)) {
+            String host = ShardRing.parseHost(endpoint);
+            int port = ShardRing.parsePort(endpoint);
+            InetAddress[] resolved;
+            try {
+                resolved = InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                System.err.println(getCurrentTimestamp() + " - EndpointConnector: Host sconosciuto " + host + " per " + endpoint + ".");
+                health.recordFailure(endpoint);
+                errors.add(e);
+                continue;
+            }
+            List<InetAddress> v6 = new ArrayList<>(), v4 = new ArrayList<>();
+            for (InetAddress address : resolved) (address instanceof Inet6Address ? v6 : v4).add(address);
+            boolean v6First = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+            for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+                List<InetAddress> first = v6First ? v6 : v4, second = v6First ? v4 : v6;
+                if (i < first.size()) attempts.add(new Attempt(endpoint, new InetSocketAddress(first.get(i), port)));
+                if (i < second.size()) attempts.add(new Attempt(endpoint, new InetSocketAddress(second.get(i), port)));
+            }
+        }
+        return attempts;
+    }
+
+    // Bloccante, dal thread di rete. Gli altri tentativi vengono chiusi appena uno riesce.
+    public Connection connect(List<String> endpoints) throws IOException {
+        List<IOException> errors = new ArrayList<>();
+        List<Attempt> attempts = plan(endpoints, errors);
+        if (attempts.isEmpty()) throw errors.isEmpty() ? new IOException("Nessun endpoint configurato") : errors.get(errors.size() - 1);
+
+        LinkedBlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        List<Socket> pending = new ArrayList<>();
+        int started = 0, inFlight = 0;
+        long nextStart = System.nanoTime();
+        Outcome winner = null;
+        try {
+            while (winner == null) {
+                if (started < attempts.size() && (inFlight == 0 || System.nanoTime() >= nextStart)) {
+                    Socket socket = new Socket();
+                    pending.add(socket);
+                    start(attempts.get(started++), socket, outcomes);
+                    inFlight++;
+                    nextStart = System.nanoTime() + staggerNanos;
+                    continue;
+                }
+                if (inFlight == 0) break;
+                Outcome outcome = started < attempts.size()
+                        ? outcomes.poll(Math.max(0, nextStart - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        : outcomes.take();
+                if (outcome == null) continue;
+                inFlight--;
+                if (outcome.error() == null) {
+                    winner = outcome;
+                    health.recordSuccess(outcome.attempt().endpoint(), outcome.connectNanos());
+                } else {
+                    System.out.println(getCurrentTimestamp() + " - EndpointConnector: " + outcome.attempt().endpoint() + " (" + outcome.attempt().address() + ") non raggiungibile: " + outcome.error().getMessage());
+                    health.recordFailure(outcome.attempt().endpoint());
+                    errors.add(outcome.error());
+                    // si passa subito al prossimo invece di aspettare lo scaglionamento
+                    nextStart = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(new IOException("Connessione interrotta"));
+        } finally {
+            for (Socket socket : pending) {
+                if (winner == null || socket != winner.socket()) closeQuietly(socket);
+            }
+            health.save();
+        }
+        if (winner == null) throw errors.get(errors.size() - 1);
+
+        Attempt attempt = winner.attempt();
+        System.out.println(getCurrentTimestamp() + " - EndpointConnector: Connesso a " + attempt.endpoint() + " (" + attempt.address() + ") in "
+                + winner.connectNanos() / 1_000_000.0 + " ms, " + started + " tentativi su " + attempts.size() + ".");
+        return new Connection(winner.socket(), attempt.endpoint(), attempt.address());
+    }
+
+    private void start(Attempt attempt, Socket socket, LinkedBlockingQueue<Outcome> outcomes) {
+        Thread thread = new Thread(() -> {
+            long begin = System.nanoTime();
+            try {
+                socket.connect(attempt.address(), timeoutMillis);
+                outcomes.add(new Outcome(attempt, socket, System.nanoTime() - begin, null));
+            } catch (IOException e) {
+                outcomes.add(new Outcome(attempt, socket, System.nanoTime() - begin, e));
+            }
+        }, "EndpointConnector-" + attempt.address());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // tentativo perdente: niente da fare
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.trisclient.trisclient;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Esito degli ultimi tentativi di connessione per endpoint "host:porta", conservato fra un avvio e l'altro in
+// tris.connect.healthFile (default ~/.tris-client-endpoints.properties). EndpointConnector prova prima gli endpoint che hanno
+// risposto, dal più rapido, poi quelli mai provati e per ultimi quelli falliti da meno di tris.connect.downMs (default 10 minuti).
+public class EndpointHealth {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final long DOWN_MILLIS = Long.getLong("tris.connect.downMs", 600_000L);
+
+    private static EndpointHealth shared;
+
+    private static final class Entry {
+        long lastSuccessMillis;
+        long lastFailureMillis;
+        long connectMicros;
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public EndpointHealth(Path file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized EndpointHealth shared() {
+        if (shared == null) {
+            String path = System.getProperty("tris.connect.healthFile", Path.of(System.getProperty("user.home"), ".tris-client-endpoints.properties").toString());
+            shared = new EndpointHealth(path.isEmpty() ? null : Path.of(path));
+        }
+        return shared;
+    }
+
+    // Riga "endpoint=ultimo_successo_ms,ultimo_fallimento_ms,connessione_us"; un file illeggibile vale come vuoto.
+    private void load() {
+        if (file == null || !Files.isReadable(file)) return;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(getCurrentTimestamp() + " - EndpointHealth: File " + file + " ignorato: " + e.getMessage());
+            return;
+        }
+        for (String endpoint : properties.stringPropertyNames()) {
+            String[] parts = properties.getProperty(endpoint).split(",");
+            if (parts.length != 3) continue;
+            try {
+                Entry entry = new Entry();
+                entry.lastSuccessMillis = Long.parseLong(parts[0].trim());
+                entry.lastFailureMillis = Long.parseLong(parts[1].trim());
+                entry.connectMicros = Long.parseLong(parts[2].trim());
+                entries.put(endpoint, entry);
+            } catch (NumberFormatException e) {
+                // voce rovinata: l'endpoint torna "mai provato"
+            }
+        }
+    }
+
+    public synchronized void save() {
+        if (file == null) return;
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            properties.setProperty(item.getKey(), entry.lastSuccessMillis + "," + entry.lastFailureMillis + "," + entry.connectMicros);
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path temporary = Files.createTempFile(parent, ".tris-endpoints", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                properties.store(writer, "tris-client: esito delle ultime connessioni");
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - EndpointHealth: Impossibile salvare " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Tempo di connessione come media mobile (peso 1/4 all'ultimo campione), così un picco isolato non riordina gli endpoint.
+    public synchronized void recordSuccess(String endpoint, long connectNanos) {
+        Entry entry = entries.computeIfAbsent(endpoint, k -> new Entry());
+        long micros = Math.max(1, connectNanos / 1000);
+        entry.connectMicros = entry.connectMicros == 0 ? micros : (3 * entry.connectMicros + micros) / 4;
+        entry.lastSuccessMillis = System.currentTimeMillis();
+    }
+
+    public synchronized void recordFailure(String endpoint) {
+        entries.computeIfAbsent(endpoint, k -> new Entry()).lastFailureMillis = System.currentTimeMillis();
+    }
+
+    // 0 = ha risposto l'ultima volta, 1 = mai provato o fallito da tempo, 2 = fallito di recente
+    private int rank(String endpoint, long now) {
+        Entry entry = entries.get(endpoint);
+        if (entry == null) return 1;
+        if (entry.lastFailureMillis > entry.lastSuccessMillis) return now - entry.lastFailureMillis < DOWN_MILLIS ? 2 : 1;
+        return entry.lastSuccessMillis > 0 ? 0 : 1;
+    }
+
+    public synchronized boolean isDown(String endpoint) {
+        return rank(endpoint, System.currentTimeMillis()) == 2;
+    }
+
+    // Ordine dei tentativi; a parità di stato vale l'ordine della configurazione.
+    public synchronized List<String> order(List<String> endpoints) {
+        long now = System.currentTimeMillis();
+        List<String> ordered = new ArrayList<>(endpoints);
+        ordered.sort(Comparator.<String>comparingInt(endpoint -> rank(endpoint, now))
+                .thenComparingLong(endpoint -> rank(endpoint, now) == 0 ? entries.get(endpoint).connectMicros : 0));
+        return ordered;
+    }
+
+    public synchronized String describe(String endpoint) {
+        Entry entry = entries.get(endpoint);
+        return switch (rank(endpoint, System.currentTimeMillis())) {
+            case 0 -> "ok, " + entry.connectMicros / 1000.0 + " ms";
+            case 2 -> "fallito di recente";
+            default -> entry == null ? "mai provato" : "da riprovare";
+        };
+    }
+}
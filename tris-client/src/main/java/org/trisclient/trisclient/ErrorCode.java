@@ -0,0 +1,55 @@
+package org.trisclient.trisclient;
+
+// Codici numerici per le risposte ERROR: del server, riconosciuti una sola volta dal prefisso del testo.
+// I codici 9xx sono errori rilevati dal client (messaggi malformati o troppo grandi).
+public enum ErrorCode {
+    NAME_TAKEN(101, "Nome già preso.", "NAME_TAKEN"),
+    NAME_INVALID(102, "Nome non valido.", "Name cannot be empty"),
+    CHAT_EMPTY(201, "Il messaggio è vuoto.", "CHAT_EMPTY"),
+    CHAT_RATE_LIMITED(202, "Stai scrivendo troppo velocemente, attendi un momento.", "CHAT_RATE_LIMITED"),
+    NOT_YOUR_TURN(301, "Non è il tuo turno.", "Non è il tuo turno"),
+    INVALID_MOVE(302, "Mossa non valida.", "Mossa non valida", "Formato della mossa"),
+    GAME_NOT_FOUND(311, null, "Partita non trovata"),
+    GAME_UNAVAILABLE(312, null, "La partita non è in attesa", "Partita già iniziata", "Partita terminata", "Partita non in corso"),
+    OWN_GAME(313, null, "Non puoi unirti alla tua partita"),
+    JOIN_FAILED(314, null, "Il creatore della partita", "Il giocatore che ha richiesto", "Nessuna richiesta di adesione"),
+    NOT_QUEUED(321, null, "Non sei in coda"),
+    REMATCH_INVALID(331, null, "Comando rematch", "Scelta del comando rematch", "Solo il vincitore", "Impossibile richiedere il rematch"),
+    INVALID_STATE(401, null, "Comando disponibile solo", "Comando sconosciuto", "Not creator"),
+    INVALID_REQUEST(402, null, "Formato", "Sessione mux", "Troppe sessioni mux"),
+    INTERNAL(500, null, "Si è verificato un errore interno"),
+    SERVER_FULL(501, null, "Il server è pieno", "Server pieno"),
+    GENERIC(0, null),
+    MALFORMED_MESSAGE(900, null),
+    FRAME_TOO_LARGE(901, null),
+    CLIENT_FAILURE(902, null);
+
+    public final int code;
+    private final String label;
+    private final String[] prefixes;
+
+    ErrorCode(int code, String label, String... prefixes) {
+        this.code = code;
+        this.label = label;
+        this.prefixes = prefixes;
+    }
+
+    public static ErrorCode fromWire(String text) {
+        for (ErrorCode errorCode : values()) {
+            for (String prefix : errorCode.prefixes) {
+                if (text.startsWith(prefix)) return errorCode;
+            }
+        }
+        return GENERIC;
+    }
+
+    // Testo da mostrare all'utente: la traduzione fissa se esiste, altrimenti il testo (già in italiano) del server.
+    public String describe(String detail) {
+        return label != null ? label : detail;
+    }
+
+    @Override
+    public String toString() {
+        return name() + "(" + code + ")";
+    }
+}
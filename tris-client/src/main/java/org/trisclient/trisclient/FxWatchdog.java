@@ -0,0 +1,248 @@
+package org.trisclient.trisclient;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cane da guardia del thread FX, attivo con -Dtris.fx.watchdog=true. Misura:
+// - l'intervallo fra due pulse (un AnimationTimer tiene i pulse continui, a 60 Hz: tenerlo attivo ha un costo);
+// - l'attesa in coda FX di una sonda che un thread a parte posta con Platform.runLater ogni tris.fx.probeMs;
+// - attesa e durata dei task FX di NetworkService, per callback del listener (track).
+// Un task o un pulse oltre tris.fx.hitchMs è un "intoppo" e viene registrato con la sua origine; se il thread FX resta fermo
+// oltre la soglia dentro codice non tracciato (Platform.runLater dei controller), la sonda ne prende lo stack come origine.
+public final class FxWatchdog {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final int MAX_HITCHES = 200;
+    private static final int STACK_FRAMES = 6;
+
+    public record Hitch(LocalDateTime at, String kind, String origin, long durationMicros, long queuedMicros, String detail) {}
+
+    // Task FX in esecuzione, scritto e letto dal thread FX; la sonda lo legge per attribuire uno stallo.
+    private static final class Running {
+        final String origin;
+        volatile boolean nestedLoop = false;
+        volatile String stalledAt = null;
+
+        Running(String origin) {
+            this.origin = origin;
+        }
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("tris.fx.watchdog");
+    private static final long hitchNanos = Long.getLong("tris.fx.hitchMs", 50L) * 1_000_000L;
+    private static final long probeMillis = Math.max(1, Long.getLong("tris.fx.probeMs", 100L));
+
+    private static final LatencyHistogram pulses = new LatencyHistogram("pulse");
+    private static final LatencyHistogram queue = new LatencyHistogram("coda FX");
+    private static final Map<String, LatencyHistogram> tasks = new TreeMap<>();
+    private static final ArrayDeque<Hitch> hitches = new ArrayDeque<>();
+    private static final AtomicLong hitchCount = new AtomicLong();
+
+    private static volatile Thread fxThread;
+    private static volatile Running running;
+    private static volatile long lastPulseNanos = 0;
+    private static volatile long probePostedNanos = 0;
+    private static long stallSampledFor = 0;
+    private static Thread prober;
+    private static AnimationTimer pulseTimer;
+
+    private FxWatchdog() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Thread FX, da Main.start.
+    public static void start() {
+        if (!enabled || pulseTimer != null) return;
+        fxThread = Thread.currentThread();
+        pulseTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse(System.nanoTime());
+            }
+        };
+        pulseTimer.start();
+        prober = new Thread(FxWatchdog::probeLoop, "FxWatchdogProbe");
+        prober.setDaemon(true);
+        prober.start();
+        System.out.println(getCurrentTimestamp() + " - FxWatchdog: attivo, soglia " + hitchNanos / 1_000_000 + " ms, sonda ogni " + probeMillis + " ms.");
+    }
+
+    private static void onPulse(long now) {
+        long previous = lastPulseNanos;
+        lastPulseNanos = now;
+        Running task = running;
+        // un pulse durante un task: il task ha aperto un ciclo annidato (showAndWait), il thread FX non è fermo
+        if (task != null) task.nestedLoop = true;
+        if (previous == 0) return;
+        long interval = now - previous;
+        pulses.recordNanos(interval);
+        if (interval > hitchNanos) {
+            addHitch("pulse", task != null ? task.origin : "-", interval, 0, "frame saltati: " + (interval / 16_666_667L));
+        }
+    }
+
+    // Avvolge un task destinato al thread FX: attesa in coda e durata finiscono nell'istogramma della sua origine.
+    public static Runnable track(String origin, Runnable task) {
+        if (!enabled) return task;
+        long postedNanos = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            Running outer = running;
+            Running current = new Running(origin);
+            running = current;
+            try {
+                task.run();
+            } finally {
+                running = outer;
+                long duration = System.nanoTime() - start;
+                histogram(origin).recordNanos(duration);
+                if (duration > hitchNanos) {
+                    String detail = current.nestedLoop ? "ciclo annidato (dialogo modale): il thread FX non era bloccato" : current.stalledAt;
+                    addHitch("task", origin, duration, start - postedNanos, detail);
+                }
+            }
+        };
+    }
+
+    private static LatencyHistogram histogram(String origin) {
+        synchronized (tasks) {
+            return tasks.computeIfAbsent(origin, LatencyHistogram::new);
+        }
+    }
+
+    private static void addHitch(String kind, String origin, long durationNanos, long queuedNanos, String detail) {
+        hitchCount.incrementAndGet();
+        Hitch hitch = new Hitch(LocalDateTime.now(), kind, origin, durationNanos / 1000, Math.max(0, queuedNanos) / 1000, detail);
+        synchronized (hitches) {
+            if (hitches.size() == MAX_HITCHES) hitches.removeFirst();
+            hitches.addLast(hitch);
+        }
+        System.err.println(getCurrentTimestamp() + " - FxWatchdog: intoppo " + kind + " " + origin + " " + hitch.durationMicros() / 1000.0 + " ms"
+                + (hitch.queuedMicros() > 0 ? " (in coda da " + hitch.queuedMicros() / 1000.0 + " ms)" : "") + (detail != null ? " - " + detail : ""));
+    }
+
+    // Thread della sonda: una sola sonda in volo alla volta; se non parte entro la soglia, il thread FX è fermo e se ne guarda lo stack.
+    private static void probeLoop() {
+        while (enabled) {
+            try {
+                Thread.sleep(probeMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long posted = probePostedNanos;
+            if (posted == 0) {
+                long now = System.nanoTime();
+                probePostedNanos = now;
+                Platform.runLater(() -> {
+                    queue.recordNanos(System.nanoTime() - now);
+                    probePostedNanos = 0;
+                });
+            } else if (posted != stallSampledFor && System.nanoTime() - posted > hitchNanos) {
+                stallSampledFor = posted;
+                sampleStall(System.nanoTime() - posted);
+            }
+        }
+    }
+
+    // Una volta per sonda in ritardo: i primi frame del client nello stack del thread FX dicono dove si è fermato.
+    // Per un task tracciato lo stack finisce nel suo intoppo; altrimenti l'intoppo si registra subito, con la durata vista finora.
+    private static void sampleStall(long stalledNanos) {
+        Thread thread = fxThread;
+        if (thread == null) return;
+        Running task = running;
+        if (task != null && (task.stalledAt != null || task.nestedLoop)) return;
+        String where = describeStack(thread.getStackTrace());
+        if (task != null) task.stalledAt = "fermo in " + where;
+        else addHitch("stallo", where, stalledNanos, 0, "task FX non tracciato, durata minima");
+    }
+
+    private static String describeStack(StackTraceElement[] stack) {
+        List<String> frames = new ArrayList<>();
+        for (StackTraceElement frame : stack) {
+            if (frames.isEmpty() && !frame.getClassName().startsWith("org.trisclient.")) continue;
+            if (frame.getClassName().equals(FxWatchdog.class.getName())) break;
+            frames.add(frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1) + "." + frame.getMethodName() + ":" + frame.getLineNumber());
+            if (frames.size() == STACK_FRAMES) break;
+        }
+        if (frames.isEmpty() && stack.length > 0) return stack[0].getClassName() + "." + stack[0].getMethodName() + " (fuori dal client)";
+        return String.join(" < ", frames);
+    }
+
+    public static List<Hitch> getHitches() {
+        synchronized (hitches) {
+            return new ArrayList<>(hitches);
+        }
+    }
+
+    public static String summary() {
+        StringBuilder out = new StringBuilder("FX: " + hitchCount.get() + " intoppi oltre " + hitchNanos / 1_000_000 + " ms");
+        out.append("\n  ").append(pulses.summary());
+        out.append("\n  ").append(queue.summary());
+        synchronized (tasks) {
+            for (LatencyHistogram histogram : tasks.values()) out.append("\n  ").append(histogram.summary());
+        }
+        return out.toString();
+    }
+
+    // Istogrammi nello stesso formato di MoveTracer, poi gli ultimi intoppi.
+    public static void exportCsv(Path file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("# tris-client FxWatchdog - ").append(LocalDateTime.now()).append(" - soglia ").append(hitchNanos / 1_000_000).append(" ms\n");
+        out.append("serie,da_us,a_us,conteggio\n");
+        pulses.appendCsv(out);
+        queue.appendCsv(out);
+        synchronized (tasks) {
+            for (LatencyHistogram histogram : tasks.values()) histogram.appendCsv(out);
+        }
+        out.append("\nora,tipo,origine,durata_us,attesa_us,dettaglio\n");
+        for (Hitch hitch : getHitches()) {
+            out.append(hitch.at()).append(',').append(hitch.kind()).append(',').append(csv(hitch.origin())).append(',')
+                    .append(hitch.durationMicros()).append(',').append(hitch.queuedMicros()).append(',').append(csv(hitch.detail())).append('\n');
+        }
+        Files.writeString(file, out.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value : '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // Thread FX, da Main.stop: ferma timer e sonda, scrive il riepilogo e, con tris.fx.watchdog.file, l'esportazione.
+    public static void stop() {
+        if (!enabled || pulseTimer == null) return;
+        pulseTimer.stop();
+        enabled = false;
+        prober.interrupt();
+        System.out.println(getCurrentTimestamp() + " - FxWatchdog: " + summary());
+        String file = System.getProperty("tris.fx.watchdog.file");
+        if (file == null || file.isEmpty()) return;
+        try {
+            exportCsv(Path.of(file));
+            System.out.println(getCurrentTimestamp() + " - FxWatchdog: Statistiche esportate in " + file);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - FxWatchdog: Errore esportazione in " + file + ": " + e.getMessage());
+        }
+    }
+}
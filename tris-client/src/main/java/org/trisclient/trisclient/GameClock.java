@@ -0,0 +1,53 @@
+package org.trisclient.trisclient;
+
+import java.util.concurrent.TimeUnit;
+
+// Punto di sincronizzazione dell'orologio di partita, "NOTIFY:CLOCK <seq> <ms X> <ms O> <turno> <ms mossa> [<scaduto>]": tempi residui
+// al momento dell'invio, -1 se senza limite, turno '-' a orologio fermo. Il server non manda un messaggio al secondo: il client fa scorrere
+// il tempo di chi è di turno da receivedNanos con System.nanoTime(), più mezzo RTT (oneWayNanos) per il viaggio del messaggio.
+public record GameClock(int seq, long xMillis, long oMillis, char turn, long moveMillis, char timedOut, long receivedNanos, long oneWayNanos) {
+
+    public static final char NONE = '-';
+
+    static GameClock fromWire(String payload, long receivedNanos) {
+        String[] parts = payload.split(" ");
+        char timedOut = parts.length > 5 ? parts[5].charAt(0) : NONE;
+        return new GameClock(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3].charAt(0),
+                Long.parseLong(parts[4]), timedOut, receivedNanos, 0);
+    }
+
+    public GameClock synced(long receivedNanos, long oneWayNanos) {
+        return new GameClock(seq, xMillis, oMillis, turn, moveMillis, timedOut, receivedNanos, oneWayNanos);
+    }
+
+    public boolean isRunning() {
+        return turn != NONE;
+    }
+
+    public boolean hasTimedOut() {
+        return timedOut != NONE;
+    }
+
+    private long elapsedMillis(long nowNanos) {
+        return isRunning() ? TimeUnit.NANOSECONDS.toMillis(Math.max(0, nowNanos - receivedNanos + oneWayNanos)) : 0;
+    }
+
+    // Tempo residuo del giocatore all'istante nowNanos, -1 se senza limite.
+    public long remainingMillis(char symbol, long nowNanos) {
+        long base = symbol == 'X' ? xMillis : oMillis;
+        if (base < 0) return -1;
+        return symbol == turn ? Math.max(0, base - elapsedMillis(nowNanos)) : base;
+    }
+
+    public long moveRemainingMillis(long nowNanos) {
+        return moveMillis < 0 ? -1 : Math.max(0, moveMillis - elapsedMillis(nowNanos));
+    }
+
+    // "1:05", con i decimi sotto i 10 secondi ("7.3"), "--" senza limite.
+    public static String format(long millis) {
+        if (millis < 0) return "--";
+        if (millis < 10_000) return String.format("%d.%d", millis / 1000, (millis % 1000) / 100);
+        long seconds = (millis + 999) / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -1,47 +1,59 @@
 package org.trisclient.trisclient;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.GridPane;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import java.net.URL;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javafx.fxml.Initializable;
 
 public class GameController implements Initializable, NetworkService.ServerListener {
 
     @FXML private Label TextTurno;
+    @FXML private Label labelOrologio;
     @FXML private GridPane gridPane;
     @FXML private Button buttonLeave;
+    @FXML private ListView<String> listViewChat;
+    @FXML private TextField textFieldChat;
+    @FXML private Label labelLatenza;
 
     private NetworkService networkService;
     private int gameId;
     private char mySymbol;
     private String opponentName;
     private Consumer<String> returnToHomeCallback;
+    private Consumer<String> joinRequestCallback;
+
+    private static final String CELL_STYLE = "-fx-font-size: 36px; -fx-font-weight: bold;";
+    private static final String PREMOVE_STYLE = CELL_STYLE + " -fx-text-fill: #9e9e9e;";
 
     private Button[][] buttons = new Button[3][3];
-    private boolean myTurn = false;
-    private final AtomicBoolean isSetupComplete = new AtomicBoolean(false);
-    private final AtomicBoolean gameActive = new AtomicBoolean(false);
-    private final AtomicBoolean gameFinishedWaitingRematch = new AtomicBoolean(false);
-    private String lastGameResult = null;
-    private final AtomicBoolean opponentDeclinedWhileWaiting = new AtomicBoolean(false);
-    private volatile String[] cachedBoard = null;
-    private final AtomicBoolean cachedTurn = new AtomicBoolean(false);
-    private final AtomicBoolean isReturningHome = new AtomicBoolean(false);
+    // Flag e decisioni della partita (turno, premossa mostrata in grigio, rivincita, ritorno alla lobby), condivisi con ProtocolSimulator.
+    private final GameGuard guard = new GameGuard();
+    private ChatLog chatLog;
+    // Orologio di partita: l'ultimo NOTIFY:CLOCK, fatto scorrere in locale (5 volte al secondo) senza traffico di rete. Solo thread FX.
+    private GameClock clock;
+    private AnimationTimer clockTicker;
+    private Alert rematchAlert;
+    private static final long CLOCK_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
@@ -53,15 +65,19 @@ public class GameController implements Initializable, NetworkService.ServerListe
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
         System.out.println(getCurrentTimestamp()+" - GameController ("+this.hashCode()+"): FXML initialize CHIAMATO");
-        this.lastGameResult = null; this.opponentDeclinedWhileWaiting.set(false);
-        isSetupComplete.set(false); gameActive.set(false); gameFinishedWaitingRematch.set(false);
-        cachedBoard = null; cachedTurn.set(false); myTurn = false;
-        isReturningHome.set(false);
+        LeakTracker.track("GameController", this);
+        guard.reset();
+        chatLog = new ChatLog(listViewChat);
+        if (labelLatenza != null) {
+            boolean overlay = Boolean.getBoolean("tris.trace.overlay");
+            labelLatenza.setVisible(overlay);
+            labelLatenza.setManaged(overlay);
+        }
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
                 Button btn = new Button(" ");
                 btn.setMinSize(95, 95); btn.setMaxSize(100,100);
-                btn.setStyle("-fx-font-size: 36px; -fx-font-weight: bold;");
+                btn.setStyle(CELL_STYLE);
                 final int row = i; final int col = j;
                 btn.setOnAction(e -> handleCellClick(row, col));
                 buttons[i][j] = btn;
@@ -73,17 +89,13 @@ public class GameController implements Initializable, NetworkService.ServerListe
     }
 
     public void setupGame(NetworkService serviceInstance, int gameId, char symbol, String opponentName,
-                          Consumer<String> returnCallback,
-                          String[] initialBoard, boolean initialTurn) {
+                          Consumer<String> returnCallback, Consumer<String> joinRequestCallback,
+                          char[] initialBoard, boolean initialTurn, boolean opponentLeft) {
         System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): setupGame CHIAMATO. GameID: " + gameId);
-        this.lastGameResult = null; this.opponentDeclinedWhileWaiting.set(false);
         this.networkService = serviceInstance; this.gameId = gameId; this.mySymbol = symbol;
         this.opponentName = opponentName; this.returnToHomeCallback = returnCallback;
-        this.isSetupComplete.set(false); this.gameActive.set(false);
-        this.gameFinishedWaitingRematch.set(false); this.myTurn = false;
-        this.isReturningHome.set(false);
-        if (initialBoard != null) this.cachedBoard = initialBoard; else this.cachedBoard = null;
-        this.cachedTurn.set(initialTurn);
+        this.joinRequestCallback = joinRequestCallback;
+        guard.setup(initialBoard, initialTurn, opponentLeft);
 
         if (this.networkService == null) {
             System.err.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): Errore critico in setupGame - NetworkService è null!");
@@ -95,57 +107,136 @@ public class GameController implements Initializable, NetworkService.ServerListe
         }
         System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): Impostazione listener");
         this.networkService.setServerListener(this);
+        this.networkService.sendChatHistoryRequest();
 
         Platform.runLater(() -> {
+            if (!guard.completeSetup()) {
+                System.out.println(getCurrentTimestamp() + " - GC (runLater): Setup interrotto, partita già abbandonata.");
+                return;
+            }
             TextTurno.setText("Partita " + gameId + " vs " + opponentName + ". Sei " + mySymbol + ".");
             gridPane.setDisable(true); if (buttonLeave != null) buttonLeave.setDisable(false);
-            isSetupComplete.set(true); gameActive.set(true);
             System.out.println(getCurrentTimestamp() + " - GC (runLater): Setup COMPLETATO. gameActive=true");
             processCachedMessages();
+            applyClock(networkService.getLastClock());
         });
     }
 
     private void processCachedMessages() {
         System.out.println(getCurrentTimestamp() + " - GC: Elaborazione messaggi in cache...");
-        String[] boardToProcess = this.cachedBoard;
-        if (boardToProcess != null) { this.cachedBoard = null; handleBoardUpdateInternal(boardToProcess); }
-        if (this.cachedTurn.getAndSet(false)) { handleYourTurnInternal(); }
+        char[] boardToProcess = guard.takeCachedBoard();
+        if (boardToProcess != null) handleBoardUpdateInternal(boardToProcess);
+        if (guard.takeCachedOpponentLeft()) { handleOpponentLeftInternal(); return; }
+        if (guard.takeCachedTurn()) { handleYourTurnInternal(); }
     }
 
     @Override
-    public void onBoardUpdate(String[] boardCells) {
-        if (!isSetupComplete.get()) { this.cachedBoard = boardCells; return; }
-        if (!gameActive.get() && !gameFinishedWaitingRematch.get()) return;
-        handleBoardUpdateInternal(boardCells);
+    public void onBoardUpdate(char[] boardCells) {
+        if (guard.board(boardCells) == GameGuard.Delivery.APPLIED) handleBoardUpdateInternal(boardCells);
     }
 
-    private void handleBoardUpdateInternal(String[] boardCells) {
-        if (boardCells.length != 9) return;
+    private void handleBoardUpdateInternal(char[] boardCells) {
+        if (boardCells.length != ServerEvent.BOARD_CELLS) return;
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
                 if (buttons[i][j] == null) continue;
-                String symbol = boardCells[i * 3 + j]; boolean isEmpty = "-".equals(symbol);
-                buttons[i][j].setText(isEmpty ? " " : symbol);
+                char symbol = boardCells[i * 3 + j];
+                buttons[i][j].setText(symbol == ServerEvent.EMPTY_CELL ? " " : String.valueOf(symbol));
+                buttons[i][j].setStyle(CELL_STYLE);
+            }
+        }
+        if (guard.hasPremove()) checkPremove(boardCells[guard.getPremoveRow() * 3 + guard.getPremoveCol()]);
+        updateGridEnabled();
+        if (networkService != null) {
+            networkService.getMoveTracer().markApplied();
+            traceRender(networkService.getMoveTracer());
+        }
+    }
+
+    // Delta di una mossa: si aggiorna solo la cella cambiata. Prima del setup va nella griglia in cache.
+    @Override
+    public void onMoveApplied(int row, int col, char symbol) {
+        switch (guard.move(row, col, symbol)) {
+            case LOST -> { System.err.println(getCurrentTimestamp()+" - GC: Mossa "+row+","+col+" ricevuta prima della griglia completa."); return; }
+            case CACHED, IGNORED -> { return; }
+            case APPLIED -> { }
+        }
+        Button btn = buttons[row][col];
+        if (btn == null) return;
+        btn.setText(String.valueOf(symbol));
+        btn.setStyle(CELL_STYLE);
+        if (guard.isPremoveAt(row, col)) checkPremove(symbol);
+        updateGridEnabled();
+        if (networkService != null) {
+            networkService.getMoveTracer().markApplied();
+            traceRender(networkService.getMoveTracer());
+        }
+    }
+
+    // Simbolo arrivato dal server nella cella della premossa: la nostra è stata giocata oppure la cella è stata presa.
+    private void checkPremove(char symbol) {
+        String cell = guard.getPremoveRow() + "," + guard.getPremoveCol();
+        switch (guard.checkPremove(symbol, mySymbol)) {
+            case PLAYED -> System.out.println(getCurrentTimestamp()+" - GC: Premossa "+cell+" giocata dal server.");
+            case PENDING -> showPremove();
+            case TAKEN -> {
+                System.out.println(getCurrentTimestamp()+" - GC: Premossa "+cell+" annullata, cella occupata dall'avversario.");
+                TextTurno.setText("Premossa annullata: cella occupata.");
             }
         }
-        gridPane.setDisable(!gameActive.get() || !myTurn);
+    }
+
+    // La traccia della mossa si chiude al primo pulse dopo l'aggiornamento, quando la griglia è stata ridisposta.
+    private void traceRender(MoveTracer tracer) {
+        Scene scene = gridPane.getScene();
+        if (scene == null || !tracer.isAwaitingRender()) return;
+        Runnable[] hook = new Runnable[1];
+        hook[0] = () -> {
+            scene.removePostLayoutPulseListener(hook[0]);
+            tracer.markRendered();
+            if (labelLatenza != null && labelLatenza.isVisible()) labelLatenza.setText(tracer.getOverlayText());
+        };
+        scene.addPostLayoutPulseListener(hook[0]);
     }
 
 
     @Override
     public void onYourTurn() {
-        System.out.println(getCurrentTimestamp()+" - GC: onYourTurn ricevuto. isSetupComplete="+isSetupComplete.get()+" | gameActive="+gameActive.get());
-        if (!isSetupComplete.get()) { this.cachedTurn.set(true); return; }
-        if (!gameActive.get()) {
-            System.out.println(getCurrentTimestamp()+" - GC: Ignoro onYourTurn perché gameActive è false.");
-            return;
+        System.out.println(getCurrentTimestamp()+" - GC: onYourTurn ricevuto. isSetupComplete="+guard.isSetupComplete()+" | gameActive="+guard.isActive());
+        switch (guard.yourTurn()) {
+            case IGNORED -> System.out.println(getCurrentTimestamp()+" - GC: Ignoro onYourTurn perché gameActive è false.");
+            case APPLIED -> handleYourTurnInternal();
+            default -> { }
+        }
+    }
+
+    private void updateGridEnabled() {
+        gridPane.setDisable(!guard.isGridEnabled());
+    }
+
+    private void showPremove() {
+        buttons[guard.getPremoveRow()][guard.getPremoveCol()].setText(String.valueOf(mySymbol));
+        buttons[guard.getPremoveRow()][guard.getPremoveCol()].setStyle(PREMOVE_STYLE);
+    }
+
+    private void clearPremove() {
+        if (!guard.hasPremove()) return;
+        Button btn = buttons[guard.getPremoveRow()][guard.getPremoveCol()];
+        if (btn != null && PREMOVE_STYLE.equals(btn.getStyle())) {
+            btn.setText(" ");
+            btn.setStyle(CELL_STYLE);
         }
-        handleYourTurnInternal();
+        guard.clearPremove();
     }
 
     private void handleYourTurnInternal() {
-        if (!gameActive.get()) return;
-        myTurn = true;
+        GameGuard.TurnStart start = guard.startTurn();
+        if (start == GameGuard.TurnStart.INACTIVE) return;
+        if (start == GameGuard.TurnStart.PREMOVE_IN_FLIGHT) {
+            System.out.println(getCurrentTimestamp()+" - GC: YOUR_TURN con premossa in volo, attesa conferma.");
+            Platform.runLater(() -> TextTurno.setText("Invio mossa..."));
+            return;
+        }
         Platform.runLater(() -> {
             TextTurno.setText("È il tuo turno! (" + mySymbol + ")");
             System.out.println(getCurrentTimestamp()+" - GC (UI): Abilitazione gridPane per il tuo turno.");
@@ -155,27 +246,71 @@ public class GameController implements Initializable, NetworkService.ServerListe
 
     private void handleCellClick(int row, int col) {
         if (buttons[row][col] == null) return;
-        if (myTurn && gameActive.get() && buttons[row][col].getText().trim().isEmpty()) {
+        boolean cellEmpty = buttons[row][col].getText().trim().isEmpty();
+        GameGuard.Click click = guard.click(row, col, cellEmpty, networkService != null);
+        if (click == GameGuard.Click.MOVE) {
             System.out.println(getCurrentTimestamp()+" - GC: Gestione click su "+row+","+col);
-            myTurn = false;
+            if (networkService != null) networkService.getMoveTracer().begin();
             buttons[row][col].setText(String.valueOf(mySymbol));
             gridPane.setDisable(true);
             TextTurno.setText("Invio mossa...");
-            if(networkService != null) networkService.sendMove(row, col);
-            else {
+            if(networkService != null) {
+                if (!networkService.sendMove(row, col)) {
+                    networkService.getMoveTracer().cancel();
+                    System.err.println(getCurrentTimestamp()+" - GC: Mossa "+row+","+col+" non accodata (coda di invio piena o connessione persa).");
+                    guard.moveNotSent();
+                    buttons[row][col].setText(" ");
+                    gridPane.setDisable(false);
+                    TextTurno.setText("Rete congestionata, riprova la mossa.");
+                }
+            } else {
                 System.err.println(getCurrentTimestamp()+" - GC: Errore di rete durante l'invio della mossa!");
                 if (returnToHomeCallback != null) Platform.runLater(()->returnToHomeCallback.accept("Errore di Rete"));
             }
+        } else if (click == GameGuard.Click.PREMOVE) {
+            System.out.println(getCurrentTimestamp()+" - GC: Premossa su "+row+","+col);
+            showPremove();
+            gridPane.setDisable(true);
+            TextTurno.setText("Premossa pronta: verrà giocata appena l'avversario muove.");
+            if (!networkService.sendPremove(row, col)) {
+                System.err.println(getCurrentTimestamp()+" - GC: Premossa "+row+","+col+" non accodata (coda di invio piena o connessione persa).");
+                clearPremove();
+                updateGridEnabled();
+                TextTurno.setText("Rete congestionata, premossa non inviata.");
+            }
         } else {
-            System.out.println(getCurrentTimestamp()+" - GC: Click ignorato su "+row+","+col + " (myTurn="+myTurn+", gameActive="+gameActive.get()+", buttonText='"+buttons[row][col].getText()+"')");
+            System.out.println(getCurrentTimestamp()+" - GC: Click ignorato su "+row+","+col + " (myTurn="+guard.isMyTurn()+", gameActive="+guard.isActive()+", buttonText='"+buttons[row][col].getText()+"')");
         }
     }
 
+    @Override
+    public void onPremoveQueued(int row, int col) {
+        System.out.println(getCurrentTimestamp()+" - GC: Premossa "+row+","+col+" accodata dal server.");
+    }
+
+    @Override
+    public void onPremoveRejected(int row, int col) {
+        System.out.println(getCurrentTimestamp()+" - GC: Premossa "+row+","+col+" scartata dal server.");
+        if (!guard.isPremoveAt(row, col)) return;
+        clearPremove();
+        if (!guard.isActive()) return;
+        TextTurno.setText("Premossa annullata: cella occupata.");
+        updateGridEnabled();
+    }
+
     @Override
     public void onOpponentLeft() {
         System.out.println(getCurrentTimestamp() + " - GC: onOpponentLeft ricevuto.");
-        gameActive.set(false); gameFinishedWaitingRematch.set(false); myTurn = false;
+        if (guard.opponentLeft() == GameGuard.Delivery.CACHED) {
+            System.out.println(getCurrentTimestamp() + " - GC: onOpponentLeft prima del setup, messo in cache.");
+            return;
+        }
+        handleOpponentLeftInternal();
+    }
+
+    private void handleOpponentLeftInternal() {
         Platform.runLater(() -> {
+            if (rematchAlert != null) rematchAlert.close();
             gridPane.setDisable(true);
             String message = "L'avversario ha abbandonato. Hai vinto!";
             TextTurno.setText(message);
@@ -185,11 +320,9 @@ public class GameController implements Initializable, NetworkService.ServerListe
     }
 
     @Override
-    public void onNameRejected(String reason) {
+    public void onNameRejected(ErrorCode reason) {
         System.err.println(getCurrentTimestamp() + " - GameController ("+this.hashCode()+"): !!! INASPETTATO onNameRejected ricevuto: " + reason + " !!!");
-        gameActive.set(false);
-        gameFinishedWaitingRematch.set(false);
-        myTurn = false;
+        guard.stop();
         Platform.runLater(() -> {
             showError("Errore Critico di Stato", "Ricevuto rifiuto nome durante la partita: " + reason + "\nRitorno alla lobby.");
             if (gridPane != null) gridPane.setDisable(true);
@@ -207,8 +340,13 @@ public class GameController implements Initializable, NetworkService.ServerListe
 
     @Override
     public void onRematchOffer() {
-        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): onRematchOffer ricevuto. Ultimo risultato: " + lastGameResult + ". Flag AttesaRivincita: " + gameFinishedWaitingRematch.get());
-        if (!gameFinishedWaitingRematch.get()) {
+        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): onRematchOffer ricevuto. Ultimo risultato: " + guard.getLastResult() + ". Flag AttesaRivincita: " + guard.isWaitingRematch());
+        if (guard.isReturningHome()) {
+            // Abbandona cliccato mentre la mossa vincente era in volo: l'offerta non ha più una partita a cui riferirsi
+            System.out.println(getCurrentTimestamp()+" - GC: Ignoro onRematchOffer, ritorno alla lobby già in corso.");
+            return;
+        }
+        if (!guard.isWaitingRematch()) {
             System.err.println(getCurrentTimestamp()+" - GC: ATTENZIONE - onRematchOffer ricevuto ma gameFinishedWaitingRematch è false!");
         }
 
@@ -217,12 +355,9 @@ public class GameController implements Initializable, NetworkService.ServerListe
             alert.setTitle("Rivincita?");
             String headerText = "Partita Terminata!";
             String contentText = "Giocare ancora?";
-            boolean isDraw = "DRAW".equalsIgnoreCase(this.lastGameResult);
-            boolean isWinner = "WIN".equalsIgnoreCase(this.lastGameResult);
-
-            if(isDraw) { headerText = "È un Pareggio!"; contentText = "Giocare ancora?"; }
-            else if (isWinner) { headerText = "Hai Vinto!"; contentText = "Ospitare una nuova partita?"; }
-            else { System.err.println(getCurrentTimestamp()+" - GC: ERRORE - Ricevuta offerta rivincita ma risultato era SCONFITTA? Non dovrebbe succedere."); alert.close(); if(returnToHomeCallback!=null) returnToHomeCallback.accept("Errore: Offerta rivincita inaspettata"); return; }
+            if (!guard.canOfferRematch()) { System.err.println(getCurrentTimestamp()+" - GC: ERRORE - Ricevuta offerta rivincita ma risultato era SCONFITTA? Non dovrebbe succedere."); alert.close(); if(returnToHomeCallback!=null) returnToHomeCallback.accept("Errore: Offerta rivincita inaspettata"); return; }
+            if (guard.getLastResult() == GameResult.DRAW) { headerText = "È un Pareggio!"; contentText = "Giocare ancora?"; }
+            else { headerText = "Hai Vinto!"; contentText = "Ospitare una nuova partita?"; }
 
             alert.setHeaderText(headerText);
             alert.setContentText(contentText);
@@ -232,11 +367,19 @@ public class GameController implements Initializable, NetworkService.ServerListe
             alert.getButtonTypes().setAll(buttonTypeYes, buttonTypeNo);
             try { Stage owner = getCurrentStage(); if(owner != null && owner.isShowing()) alert.initOwner(owner); } catch(Exception e) { System.err.println("GC: Errore impostazione owner per alert rivincita: "+e.getMessage()); }
 
+            rematchAlert = alert;
             Optional<ButtonType> result = alert.showAndWait();
+            rematchAlert = null;
+
+            boolean myChoiceIsYes = result.isPresent() && result.get() == buttonTypeYes;
+            GameGuard.RematchChoice choice = guard.rematchChosen(myChoiceIsYes);
+            if (choice == GameGuard.RematchChoice.CLOSED_BY_SERVER) {
+                System.out.println(getCurrentTimestamp()+" - GC: Popup rivincita chiuso dal server (tempo scaduto). Nessuna scelta inviata.");
+                return;
+            }
 
-            if (opponentDeclinedWhileWaiting.getAndSet(false)) {
+            if (choice == GameGuard.RematchChoice.OPPONENT_DECLINED) {
                 System.out.println(getCurrentTimestamp()+" - GC: Avversario ha rifiutato (rilevato DOPO popup). Scelta ignorata. Ritorno home.");
-                gameFinishedWaitingRematch.set(false);
                 Platform.runLater(() -> {
                     showInfo("Rivincita Annullata", "L'avversario ha rifiutato la rivincita mentre stavi decidendo.\nRitorno alla lobby.");
                     if (returnToHomeCallback != null) {
@@ -248,23 +391,22 @@ public class GameController implements Initializable, NetworkService.ServerListe
                 return;
             }
 
-            boolean myChoiceIsYes = result.isPresent() && result.get() == buttonTypeYes;
-
-            if (myChoiceIsYes) {
+            if (choice == GameGuard.RematchChoice.YES) {
                 System.out.println(getCurrentTimestamp()+" - GC: Utente ha scelto SÌ per rivincita. Invio REMATCH YES.");
                 if(networkService != null){
                     TextTurno.setText("Invio scelta... Attesa avversario/server...");
                     networkService.sendRematchChoice(true);
-                    gameFinishedWaitingRematch.set(true);
-                    System.out.println(getCurrentTimestamp()+" - GC: Inviato REMATCH YES, flag waitingRematch="+gameFinishedWaitingRematch.get());
-                } else { gameFinishedWaitingRematch.set(false); TextTurno.setText("Errore di Rete!"); showError("Errore di Rete", "Impossibile inviare la scelta per la rivincita."); if (returnToHomeCallback != null) Platform.runLater(()->returnToHomeCallback.accept("Errore di Rete")); }
+                    guard.awaitRematch();
+                    System.out.println(getCurrentTimestamp()+" - GC: Inviato REMATCH YES, flag waitingRematch="+guard.isWaitingRematch());
+                } else { guard.rematchNotSent(); TextTurno.setText("Errore di Rete!"); showError("Errore di Rete", "Impossibile inviare la scelta per la rivincita."); if (returnToHomeCallback != null) Platform.runLater(()->returnToHomeCallback.accept("Errore di Rete")); }
             } else {
                 System.out.println(getCurrentTimestamp()+" - GC: Utente ha scelto NO per rivincita. Invio REMATCH NO.");
                 if(networkService != null){
                     TextTurno.setText("Rifiuto rivincita...");
+                    if (buttonLeave != null) buttonLeave.setDisable(true);
                     networkService.sendRematchChoice(false);
-                    System.out.println(getCurrentTimestamp()+" - GC: Inviato REMATCH NO, flag waitingRematch="+gameFinishedWaitingRematch.get());
-                } else { gameFinishedWaitingRematch.set(false); TextTurno.setText("Errore di Rete!"); showError("Errore di Rete", "Impossibile inviare la scelta per la rivincita."); if (returnToHomeCallback != null) Platform.runLater(()->returnToHomeCallback.accept("Errore di Rete")); }
+                    System.out.println(getCurrentTimestamp()+" - GC: Inviato REMATCH NO, flag waitingRematch="+guard.isWaitingRematch());
+                } else { guard.rematchNotSent(); TextTurno.setText("Errore di Rete!"); showError("Errore di Rete", "Impossibile inviare la scelta per la rivincita."); if (returnToHomeCallback != null) Platform.runLater(()->returnToHomeCallback.accept("Errore di Rete")); }
             }
         });
     }
@@ -272,7 +414,10 @@ public class GameController implements Initializable, NetworkService.ServerListe
     @Override
     public void onRematchAccepted(int receivedGameId) {
         System.out.println(getCurrentTimestamp() + " - GC: onRematchAccepted ricevuto (Partita " + receivedGameId + ")");
-        gameFinishedWaitingRematch.set(false); gameActive.set(false); myTurn=false;
+        if (!guard.rematchAccepted()) {
+            System.out.println(getCurrentTimestamp() + " - GC: onRematchAccepted ignorato, partita già abbandonata.");
+            return;
+        }
         Platform.runLater(() -> {
             showInfo("Rivincita Accettata (Host)", "Rivincita accettata! Ospito la partita " + receivedGameId + ".\nRitorno alla lobby in attesa.");
             if (returnToHomeCallback != null) returnToHomeCallback.accept("Rivincita accettata, in attesa");
@@ -281,86 +426,56 @@ public class GameController implements Initializable, NetworkService.ServerListe
     }
 
     @Override
-    public void onGameOver(String result) {
-        System.out.println(getCurrentTimestamp() + " - GC: onGameOver - Risultato: " + result + " | gameActive attuale=" + gameActive.get());
+    public void onGameOver(GameResult result) {
+        System.out.println(getCurrentTimestamp() + " - GC: onGameOver - Risultato: " + result + " | gameActive attuale=" + guard.isActive());
 
-        if (!gameActive.compareAndSet(true, false)) {
+        if (!guard.gameOver(result)) {
             System.out.println(getCurrentTimestamp()+" - GC: Ignoro onGameOver ridondante ("+result+"). Partita già inattiva.");
             return;
         }
+        clearPremove();
 
-        this.lastGameResult = result;
-        gameFinishedWaitingRematch.set(true);
-        myTurn = false;
-        this.opponentDeclinedWhileWaiting.set(false);
-
-        final String finalResult = result;
+        final GameResult finalResult = result;
 
         Platform.runLater(() -> {
             gridPane.setDisable(true);
 
             String message = "Partita Terminata! ";
-            if ("WIN".equalsIgnoreCase(finalResult)) { message += "Hai Vinto!"; message += "\nIn attesa di opzioni per la rivincita..."; }
-            else if ("DRAW".equalsIgnoreCase(finalResult)) { message += "È un Pareggio!"; message += "\nIn attesa di opzioni per la rivincita..."; }
-            else if ("LOSE".equalsIgnoreCase(finalResult)){ message += "Hai Perso."; message += "\nRitorno alla lobby..."; }
-            else { message += "Risultato sconosciuto (" + finalResult + ")"; message += "\nRitorno alla lobby..."; }
+            switch (finalResult) {
+                case WIN -> message += "Hai Vinto!\nIn attesa di opzioni per la rivincita...";
+                case DRAW -> message += "È un Pareggio!\nIn attesa di opzioni per la rivincita...";
+                case LOSE -> message += "Hai Perso.\nRitorno alla lobby...";
+                case UNKNOWN -> message += "Risultato sconosciuto\nRitorno alla lobby...";
+            }
 
             TextTurno.setText(message);
-            System.out.println(getCurrentTimestamp()+" - GC (UI): UI Game Over aggiornata. Risultato: "+finalResult+". WaitingRematch="+gameFinishedWaitingRematch.get());
-            if(buttonLeave!=null) buttonLeave.setDisable(false);
+            stopClockTicker();
+            System.out.println(getCurrentTimestamp()+" - GC (UI): UI Game Over aggiornata. Risultato: "+finalResult+". WaitingRematch="+guard.isWaitingRematch());
+            if(buttonLeave!=null) buttonLeave.setDisable(!guard.canLeave());
         });
     }
 
     @Override
     public void onRematchDeclined() {
-        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): onRematchDeclined received. LastResult="+lastGameResult+" | WaitingFlag before:"+gameFinishedWaitingRematch.get());
+        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): onRematchDeclined received. LastResult="+guard.getLastResult()+" | WaitingFlag before:"+guard.isWaitingRematch());
 
-        if (isReturningHome.get()) {
+        GameGuard.Return back = guard.rematchDeclined();
+        if (back == null) {
             System.out.println(getCurrentTimestamp()+" - GC: onRematchDeclined ignorato, ritorno già in corso.");
             return;
         }
 
-        boolean wasWaiting = gameFinishedWaitingRematch.getAndSet(false);
-        gameActive.set(false);
-        myTurn = false;
-        opponentDeclinedWhileWaiting.set(false);
-
-        boolean showPopup = false;
-        String alertTitle = "Info Rivincita.";
-        String alertContent = "Ritorno alla lobby.";
-        String returnReason = "Rivincita rifiutata.";
-
-        if ("LOSE".equalsIgnoreCase(lastGameResult)) {
-            alertTitle = "Partita Terminata.";
-            alertContent = "Partita persa.\nRitorno alla lobby.";
-            returnReason = "Partita persa.";
-            showPopup = true;
-        } else if (wasWaiting && "DRAW".equalsIgnoreCase(lastGameResult)) {
-            alertTitle = "Rivincita Annullata.";
-            alertContent = "Ritorno alla lobby.";
-            returnReason = "La rivincita è stata rifiutata.";
-            showPopup = true;
-        }
-
-        if (isReturningHome.getAndSet(true)) {
-            System.out.println(getCurrentTimestamp() + " - GC: Doppia chiamata a ritorno home in onRematchDeclined, ignorando.");
-            return;
-        }
-
-        final String finalAlertContent = alertContent;
-        final String finalReturnReason = returnReason;
-        final String finalAlertTitle = alertTitle;
-        final boolean finalShowPopup = showPopup;
-
         Platform.runLater(() -> {
-            if (finalShowPopup) {
-                showInfo(finalAlertTitle, finalAlertContent);
+            stopClockTicker();
+            if (rematchAlert != null) rematchAlert.close();
+            if (back.popup()) {
+                showInfo(back.title(), back.content());
             } else {
                 System.out.println(getCurrentTimestamp() + " - GC: Ritorno silenzioso alla lobby dopo aver rifiutato la rivincita.");
             }
 
             if (returnToHomeCallback != null) {
-                returnToHomeCallback.accept(finalReturnReason);
+                returnToHomeCallback.accept(back.reason());
             } else {
                 System.err.println("GC: returnToHomeCallback null after onRematchDeclined!");
                 showError("Errore Critico", "Impossibile tornare alla lobby. Callback mancante.");
@@ -371,87 +486,62 @@ public class GameController implements Initializable, NetworkService.ServerListe
     @Override
     public void onOpponentRematchDecision(boolean opponentAccepted) {
         final String decision = opponentAccepted ? "accettato" : "rifiutato";
-        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): *** onOpponentRematchDecision ricevuto: "+decision+" *** | Flag attesa attuale: "+gameFinishedWaitingRematch.get() + " | isDraw: "+("DRAW".equalsIgnoreCase(lastGameResult)) + " | LastResult: " + lastGameResult);
-
-        if (isReturningHome.get()) {
-            System.out.println(getCurrentTimestamp()+" - GC: Ignoro onOpponentRematchDecision perché ritorno già in corso.");
-            return;
-        }
-        if (!gameActive.get() && !gameFinishedWaitingRematch.get()){
-            System.out.println(getCurrentTimestamp()+" - GC: Ignoro onOpponentRematchDecision, stato non attivo/in attesa.");
-            return;
-        }
-
-        if (!opponentAccepted) {
-            if ("LOSE".equalsIgnoreCase(lastGameResult)) {
-                System.err.println(getCurrentTimestamp()+" - GC: ERRORE LOGICO - onOpponentRematchDecision(false) chiamato per un perdente?");
-                gameFinishedWaitingRematch.set(false); gameActive.set(false); myTurn = false; isReturningHome.set(true);
-                return;
-            }
-
-            System.out.println(getCurrentTimestamp()+" - GC: Avversario ha RIFIUTATO la rivincita. Ritorno home.");
-
-            if (opponentDeclinedWhileWaiting.get()) {
-                System.out.println(getCurrentTimestamp()+" - GC: Rifiuto avversario rilevato mentre popup era aperto (o subito dopo). Flag gestito da onRematchOffer.");
-                gameFinishedWaitingRematch.set(false);
-                return;
-            }
-
-            if (isReturningHome.getAndSet(true)) return;
-            boolean wasWaiting = gameFinishedWaitingRematch.getAndSet(false);
-            gameActive.set(false);
-            myTurn = false;
-
-            Platform.runLater(() -> {
-                showInfo("Rivincita Rifiutata", "L'avversario ha rifiutato la rivincita.\nRitorno alla lobby.");
-                if (returnToHomeCallback != null) {
-                    returnToHomeCallback.accept("Avversario ha rifiutato la rivincita");
-                } else {
-                    System.err.println("GC: Callback null on Opponent DECLINED decision!");
-                    showError("Errore Critico", "Impossibile tornare alla lobby dopo il rifiuto dell'avversario. Callback mancante.");
-                    if(networkService != null) networkService.disconnect();
-                }
-            });
-
-        } else {
-            if ("DRAW".equalsIgnoreCase(lastGameResult)) {
-                System.out.println(getCurrentTimestamp()+" - GC: Avversario ha ACCETTATO (PAREGGIO). Aspetto GAME_START.");
-            } else {
-                System.err.println(getCurrentTimestamp()+" - GC: Ricevuto onOpponentRematchDecision(true) ma non era pareggio? Stato: " + lastGameResult +". Ignoro.");
+        System.out.println(getCurrentTimestamp() + " - GC ("+this.hashCode()+"): *** onOpponentRematchDecision ricevuto: "+decision+" *** | Flag attesa attuale: "+guard.isWaitingRematch() + " | isDraw: "+(guard.getLastResult() == GameResult.DRAW) + " | LastResult: " + guard.getLastResult());
+
+        switch (guard.opponentDecision(opponentAccepted)) {
+            case RETURNING -> System.out.println(getCurrentTimestamp()+" - GC: Ignoro onOpponentRematchDecision perché ritorno già in corso.");
+            case INACTIVE -> System.out.println(getCurrentTimestamp()+" - GC: Ignoro onOpponentRematchDecision, stato non attivo/in attesa.");
+            case LOSER -> System.err.println(getCurrentTimestamp()+" - GC: ERRORE LOGICO - onOpponentRematchDecision(false) chiamato per un perdente?");
+            case ALREADY_HANDLED -> System.out.println(getCurrentTimestamp()+" - GC: Rifiuto avversario rilevato mentre popup era aperto (o subito dopo). Flag gestito da onRematchOffer.");
+            case DRAW_ACCEPTED -> System.out.println(getCurrentTimestamp()+" - GC: Avversario ha ACCETTATO (PAREGGIO). Aspetto GAME_START.");
+            case UNEXPECTED_ACCEPT -> System.err.println(getCurrentTimestamp()+" - GC: Ricevuto onOpponentRematchDecision(true) ma non era pareggio? Stato: " + guard.getLastResult() +". Ignoro.");
+            case DECLINED -> {
+                System.out.println(getCurrentTimestamp()+" - GC: Avversario ha RIFIUTATO la rivincita. Ritorno home.");
+                Platform.runLater(() -> {
+                    showInfo("Rivincita Rifiutata", "L'avversario ha rifiutato la rivincita.\nRitorno alla lobby.");
+                    if (returnToHomeCallback != null) {
+                        returnToHomeCallback.accept("Avversario ha rifiutato la rivincita");
+                    } else {
+                        System.err.println("GC: Callback null on Opponent DECLINED decision!");
+                        showError("Errore Critico", "Impossibile tornare alla lobby dopo il rifiuto dell'avversario. Callback mancante.");
+                        if(networkService != null) networkService.disconnect();
+                    }
+                });
             }
         }
     }
 
 
     @Override
-    public void onError(String message) {
-        System.err.println(getCurrentTimestamp() + " - GC: onError ricevuto: " + message);
+    public void onError(ErrorCode code, String detail) {
+        String message = code.describe(detail);
+        System.err.println(getCurrentTimestamp() + " - GC: onError ricevuto " + code + ": " + message);
 
-        if (message != null && message.contains("Unknown command or invalid state (1) for command: REMATCH NO")) {
-            System.out.println(getCurrentTimestamp()+" - GC: IGNORO errore 'invalid state' atteso dopo invio REMATCH NO (perché avversario già rifiutato/uscito).");
+        GameGuard.ErrorAction action = guard.error(code, detail);
+        if (action == GameGuard.ErrorAction.EXPECTED) {
+            System.out.println(getCurrentTimestamp()+" - GC: IGNORO errore 'stato non valido' atteso dopo invio REMATCH NO (perché avversario già rifiutato/uscito).");
             return;
         }
 
-        if (!gameActive.get() && !gameFinishedWaitingRematch.get()) {
+        if (action == GameGuard.ErrorAction.IGNORED) {
             System.out.println(getCurrentTimestamp()+" - GC: Errore ricevuto ma partita non attiva/in attesa. Ignoro.");
             return;
         }
 
+        if (networkService != null) networkService.getMoveTracer().cancel();
         Platform.runLater(()-> {
-            if (message.contains("Not your turn") || message.contains("Invalid move")) {
-                String userMessage = message.replace("ERROR:", "").trim();
-                if (userMessage.contains("Not your turn")) userMessage = "Non è il tuo turno.";
-                else if (userMessage.contains("Invalid move")) userMessage = "Mossa non valida.";
-                TextTurno.setText(userMessage + " Riprova.");
-                if (myTurn && gameActive.get()) {
-                    gridPane.setDisable(false);
-                } else { gridPane.setDisable(true); }
-            } else {
-                showError("Errore del Server", message);
-                TextTurno.setText("Errore: " + message);
-                gridPane.setDisable(true);
-                gameActive.set(false); gameFinishedWaitingRematch.set(false); myTurn = false;
-                if (returnToHomeCallback != null) returnToHomeCallback.accept("Errore del Server");
+            switch (action) {
+                case RETRY_MOVE -> {
+                    TextTurno.setText(message + " Riprova.");
+                    gridPane.setDisable(!guard.canMove());
+                }
+                default -> {
+                    showError("Errore del Server", message);
+                    TextTurno.setText("Errore: " + message);
+                    gridPane.setDisable(true);
+                    guard.stop();
+                    if (returnToHomeCallback != null) returnToHomeCallback.accept("Errore del Server");
+                }
             }
         });
     }
@@ -459,11 +549,14 @@ public class GameController implements Initializable, NetworkService.ServerListe
     @FXML
     private void handleLeaveGame() {
         System.out.println(getCurrentTimestamp() + " - GC: Cliccato Abbandona Partita.");
-        gameActive.set(false); gameFinishedWaitingRematch.set(false); opponentDeclinedWhileWaiting.set(false);
-        myTurn = false;
+        if (!guard.leave()) {
+            System.out.println(getCurrentTimestamp() + " - GC: Abbandona ignorato, ritorno alla lobby già in corso.");
+            return;
+        }
         Platform.runLater(() -> {
             gridPane.setDisable(true); if(buttonLeave != null) buttonLeave.setDisable(true);
             TextTurno.setText("Abbandono...");
+            stopClockTicker();
         });
         final String callbackMsg = "ABBANDONO_VOLONTARIO";
         final String alertContent = "Hai abbandonato la partita.\nRitorno alla lobby.";
@@ -473,36 +566,116 @@ public class GameController implements Initializable, NetworkService.ServerListe
     }
 
     @Override
-    public void onDisconnected(String reason) {
-        System.out.println(getCurrentTimestamp() + " - GC: onDisconnected - Motivo: " + reason);
-        gameActive.set(false); gameFinishedWaitingRematch.set(false); opponentDeclinedWhileWaiting.set(false); myTurn = false;
-        final String finalReason = reason;
+    public void onDisconnected(DisconnectReason reason, String detail) {
+        String description = reason.describe(detail);
+        System.out.println(getCurrentTimestamp() + " - GC: onDisconnected - Motivo: " + reason + " (" + description + ")");
+        guard.leave();
         Platform.runLater(() -> {
             gridPane.setDisable(true); if(buttonLeave != null) buttonLeave.setDisable(true);
             TextTurno.setText("Disconnesso");
-            String userFriendlyReason = finalReason;
-            if ("Disconnected by client".equals(finalReason)) userFriendlyReason = "Disconnessione richiesta dal client";
-            else if ("Server closed connection".equals(finalReason)) userFriendlyReason = "Il server ha chiuso la connessione";
-            else if (finalReason.startsWith("Connection error:")) userFriendlyReason = "Errore di connessione: " + finalReason.substring("Connection error:".length()).trim();
-            else if (finalReason.startsWith("IO error:")) userFriendlyReason = "Errore I/O: " + finalReason.substring("IO error:".length()).trim();
-
-            if (!"Disconnected by client".equals(finalReason) && !"ABBANDONO_VOLONTARIO".equals(finalReason))
-                showInfo("Disconnesso", "Connessione persa: " + userFriendlyReason + "\nRitorno alla lobby.");
-            if (returnToHomeCallback != null) returnToHomeCallback.accept("Disconnesso: " + finalReason);
+            stopClockTicker();
+            if (reason != DisconnectReason.CLIENT_REQUEST)
+                showInfo("Disconnesso", "Connessione persa: " + description + "\nRitorno alla lobby.");
+            if (returnToHomeCallback != null) returnToHomeCallback.accept("Disconnesso: " + description);
             else System.err.println("GC: Callback null sulla disconnessione!");
         });
     }
 
+    @Override
+    public void onClock(GameClock newClock) {
+        Platform.runLater(() -> applyClock(newClock));
+    }
+
+    private void applyClock(GameClock newClock) {
+        if (newClock == null || labelOrologio == null) return;
+        clock = newClock;
+        refreshClock(System.nanoTime());
+        if (!newClock.isRunning()) {
+            stopClockTicker();
+            return;
+        }
+        if (clockTicker != null) return;
+        clockTicker = new AnimationTimer() {
+            private long lastRefresh;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastRefresh < CLOCK_REFRESH_NANOS) return;
+                lastRefresh = now;
+                if (!guard.isActive()) stopClockTicker();
+                else refreshClock(System.nanoTime());
+            }
+        };
+        clockTicker.start();
+    }
+
+    private void stopClockTicker() {
+        if (clockTicker == null) return;
+        clockTicker.stop();
+        clockTicker = null;
+    }
+
+    private void refreshClock(long nowNanos) {
+        GameClock current = clock;
+        char opponentSymbol = mySymbol == 'X' ? 'O' : 'X';
+        if (current.hasTimedOut()) {
+            labelOrologio.setText(current.timedOut() == mySymbol ? "Tempo scaduto: hai perso." : "Tempo scaduto per " + opponentName + ".");
+            return;
+        }
+        String text = "Tu " + GameClock.format(current.remainingMillis(mySymbol, nowNanos))
+                + "   " + opponentName + " " + GameClock.format(current.remainingMillis(opponentSymbol, nowNanos));
+        long moveMillis = current.moveRemainingMillis(nowNanos);
+        if (moveMillis >= 0) text += "   Mossa " + GameClock.format(moveMillis);
+        labelOrologio.setText(text);
+    }
+
     @Override public void onConnected() { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onConnected"); }
     @Override public void onNameRequested() { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onNameRequested"); }
     @Override public void onNameAccepted() { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onNameAccepted"); }
-    @Override public void onGamesList(List<NetworkService.GameInfo> g) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onGamesList"); }
+    @Override public void onGamesPage(int c, List<NetworkService.GameInfo> g) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onGamesPage"); }
+    @Override public void onGamesPageEnd(int nc) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onGamesPageEnd"); }
     @Override public void onGameCreated(int gid) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onGameCreated"); }
+    @Override public void onQueued(int q) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onQueued"); }
+    @Override public void onUnqueued() { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onUnqueued"); }
+    @FXML
+    private void handleInviaChat() {
+        if (textFieldChat == null || networkService == null) return;
+        String text = textFieldChat.getText() == null ? "" : textFieldChat.getText().trim();
+        if (text.isEmpty()) return;
+        if (networkService.sendChat(text)) textFieldChat.clear();
+        else chatLog.appendSystem("Coda di invio piena, messaggio non inviato.");
+    }
+
+    @Override
+    public void onChatMessages(List<NetworkService.ChatMessage> messages) {
+        List<NetworkService.ChatMessage> gameMessages = new ArrayList<>();
+        for (NetworkService.ChatMessage message : messages) {
+            if ("GAME".equals(message.room)) gameMessages.add(message);
+        }
+        Platform.runLater(() -> chatLog.append(gameMessages));
+    }
+
+    @Override
+    public void onChatRejected(ErrorCode code) {
+        Platform.runLater(() -> chatLog.appendSystem(code.describe(null)));
+    }
+
+    @Override public void onLeaderboard(int o, int t, List<NetworkService.LeaderboardEntry> e) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onLeaderboard"); }
+    @Override public void onRank(int r, int rt, int t) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onRank"); }
+    @Override public void onRatingUpdate(NetworkService.LeaderboardEntry e, int d, int t) { System.out.println(getCurrentTimestamp()+" - GC: Rating aggiornato ignorato in partita: "+e+" ("+d+")"); }
     @Override public void onJoinRequestSent(int gid) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onJoinRequestSent"); }
-    @Override public void onJoinRequestReceived(String n) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onJoinRequestReceived"); }
+    @Override
+    public void onJoinRequestReceived(String requesterName) {
+        if (guard.isHostingAfterRematch() && joinRequestCallback != null) {
+            System.out.println(getCurrentTimestamp()+" - GC: Richiesta di "+requesterName+" arrivata prima del ritorno alla lobby, passata alla HomePage.");
+            joinRequestCallback.accept(requesterName);
+        } else {
+            System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onJoinRequestReceived");
+        }
+    }
     @Override public void onJoinAccepted(int gid, char s, String on) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onJoinAccepted"); }
     @Override public void onJoinRejected(int gid, String cn) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onJoinRejected"); }
-    @Override public void onActionConfirmed(String m) { if (m != null && m.startsWith("QUIT_OK")) { System.out.println(getCurrentTimestamp()+" - GC: Ricevuto ActionConfirmed (probabilmente QUIT_OK): "+m); } else { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onActionConfirmed: "+m); } }
+    @Override public void onActionConfirmed(String m) { if (m != null && m.startsWith("QUIT_OK")) { System.out.println(getCurrentTimestamp()+" - GC: Ricevuto QUIT_OK: "+m); } else { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato onActionConfirmed: "+m); } }
     @Override public void onMessageReceived(String rm) { System.err.println(getCurrentTimestamp()+" - GC: Inaspettato messaggio raw: "+rm); }
 
     @Override
@@ -510,22 +683,19 @@ public class GameController implements Initializable, NetworkService.ServerListe
         System.out.println(getCurrentTimestamp()+" - GC: onGameStart ricevuto per partita "+recGameId);
         if(this.gameId != recGameId){ System.err.println("GC: ERRORE GameStart per ID errato!"); return; }
 
-        boolean isDrawRematch = gameFinishedWaitingRematch.compareAndSet(true,false);
-        gameActive.set(true);
+        boolean isDrawRematch = guard.gameStart();
         this.mySymbol = recSymbol; this.opponentName = recOpponentName;
-        this.myTurn = false;
 
         if (isDrawRematch) {
             System.out.println(getCurrentTimestamp() + " - GC: GameStart -> RIVINCITA PAREGGIO INIZIA!");
-            Platform.runLater(() -> {
-                TextTurno.setText("Rivincita! vs " + this.opponentName + " (Sei " + this.mySymbol + ")");
-                for (Button[] row : buttons) for (Button btn : row) if(btn!=null) btn.setText(" ");
-                if (buttonLeave != null) buttonLeave.setDisable(false);
-                System.out.println(getCurrentTimestamp()+" - GC (UI Rivincita): Griglia pulita. Stato griglia dipende dal prossimo YOUR_TURN.");
-            });
+            // siamo già sul thread FX: con un runLater la pulizia arriverebbe dopo BOARD e MOVE della nuova partita, già in coda
+            TextTurno.setText("Rivincita! vs " + this.opponentName + " (Sei " + this.mySymbol + ")");
+            for (Button[] row : buttons) for (Button btn : row) if(btn!=null) { btn.setText(" "); btn.setStyle(CELL_STYLE); }
+            if (buttonLeave != null) buttonLeave.setDisable(false);
+            System.out.println(getCurrentTimestamp()+" - GC (UI Rivincita): Griglia pulita. Stato griglia dipende dal prossimo YOUR_TURN.");
         } else {
             System.out.println(getCurrentTimestamp() + " - GC: GameStart -> Inizio partita NORMALE.");
-            if (isSetupComplete.get()) {
+            if (guard.isSetupComplete()) {
                 System.out.println(getCurrentTimestamp()+" - GC: Elaborazione messaggi cache immediatamente dopo GameStart normale (Setup completo).");
                 processCachedMessages();
             } else {
@@ -0,0 +1,351 @@
+package org.trisclient.trisclient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Stato di una partita lato client: setup, partita attiva, attesa della rivincita, ritorno alla lobby già avviato, premossa.
+// Eventi del server, scelte dell'utente negli Alert e runLater si incrociano in molti ordini; qui stanno solo i controlli e le
+// decisioni, senza JavaFX: GameController le applica a griglia e avvisi, ProtocolSimulator le mette alla prova.
+public class GameGuard {
+
+    // LOST: mossa arrivata prima del setup e prima della griglia completa
+    public enum Delivery { CACHED, LOST, IGNORED, APPLIED }
+    public enum TurnStart { INACTIVE, PREMOVE_IN_FLIGHT, MY_TURN }
+    public enum Click { MOVE, PREMOVE, IGNORED }
+    public enum PremoveCheck { PLAYED, PENDING, TAKEN }
+    public enum RematchChoice { CLOSED_BY_SERVER, OPPONENT_DECLINED, YES, NO }
+    public enum OpponentDecision { RETURNING, INACTIVE, LOSER, ALREADY_HANDLED, DECLINED, DRAW_ACCEPTED, UNEXPECTED_ACCEPT }
+    public enum ErrorAction { EXPECTED, IGNORED, RETRY_MOVE, RETURN_HOME }
+
+    // Ritorno alla lobby dopo REMATCH_DECLINED: avviso da mostrare (se popup) e motivo passato alla HomePage.
+    public record Return(boolean popup, String title, String content, String reason) {}
+
+    private final AtomicBoolean setupComplete = new AtomicBoolean(false);
+    private final AtomicBoolean active = new AtomicBoolean(false);
+    private final AtomicBoolean waitingRematch = new AtomicBoolean(false);
+    private final AtomicBoolean declinedWhileWaiting = new AtomicBoolean(false);
+    private final AtomicBoolean returningHome = new AtomicBoolean(false);
+    private volatile char[] cachedBoard = null;
+    private final AtomicBoolean cachedTurn = new AtomicBoolean(false);
+    private final AtomicBoolean cachedOpponentLeft = new AtomicBoolean(false);
+    private volatile GameResult lastResult = null;
+    private volatile boolean hostingAfterRematch = false;
+    private volatile boolean rematchRefused = false;
+    private boolean myTurn = false;
+    // Premossa in attesa (riga/colonna, -1 se nessuna) finché il server non la gioca o la scarta.
+    private int premoveRow = -1;
+    private int premoveCol = -1;
+
+    public void reset() {
+        setupComplete.set(false);
+        active.set(false);
+        waitingRematch.set(false);
+        declinedWhileWaiting.set(false);
+        returningHome.set(false);
+        cachedBoard = null;
+        cachedTurn.set(false);
+        cachedOpponentLeft.set(false);
+        lastResult = null;
+        hostingAfterRematch = false;
+        rematchRefused = false;
+        myTurn = false;
+        clearPremove();
+    }
+
+    // setupGame: si riparte da zero con griglia, turno e uscita dell'avversario che la HomePage ha tenuto da parte durante il passaggio.
+    public void setup(char[] initialBoard, boolean initialTurn, boolean opponentLeft) {
+        reset();
+        cachedBoard = initialBoard;
+        cachedTurn.set(initialTurn);
+        cachedOpponentLeft.set(opponentLeft);
+    }
+
+    // false se Abbandona è stato cliccato prima della fine del setup: la partita non va riattivata dai messaggi in cache
+    public boolean completeSetup() {
+        setupComplete.set(true);
+        if (returningHome.get()) return false;
+        active.set(true);
+        return true;
+    }
+
+    public char[] takeCachedBoard() {
+        char[] board = cachedBoard;
+        if (board != null) cachedBoard = null;
+        return board;
+    }
+
+    public boolean takeCachedTurn() {
+        return cachedTurn.getAndSet(false);
+    }
+
+    // true se l'avversario è uscito prima della fine del setup: la partita si chiude appena la griglia è pronta
+    public boolean takeCachedOpponentLeft() {
+        if (!cachedOpponentLeft.getAndSet(false)) return false;
+        stop();
+        returningHome.set(true);
+        return true;
+    }
+
+    public Delivery board(char[] cells) {
+        if (!setupComplete.get()) {
+            cachedBoard = cells;
+            return Delivery.CACHED;
+        }
+        if (!active.get() && !waitingRematch.get()) return Delivery.IGNORED;
+        return Delivery.APPLIED;
+    }
+
+    // Prima del setup la mossa va nella griglia in cache.
+    public Delivery move(int row, int col, char symbol) {
+        if (!setupComplete.get()) {
+            char[] board = cachedBoard;
+            if (board == null) return Delivery.LOST;
+            board[row * ServerEvent.BOARD_SIZE + col] = symbol;
+            return Delivery.CACHED;
+        }
+        if (!active.get() && !waitingRematch.get()) return Delivery.IGNORED;
+        return Delivery.APPLIED;
+    }
+
+    public Delivery yourTurn() {
+        if (!setupComplete.get()) {
+            cachedTurn.set(true);
+            return Delivery.CACHED;
+        }
+        if (!active.get()) return Delivery.IGNORED;
+        return Delivery.APPLIED;
+    }
+
+    // PREMOVE e YOUR_TURN incrociati: il server gioca la premossa come mossa normale e la conferma arriva con la griglia.
+    public TurnStart startTurn() {
+        if (!active.get()) return TurnStart.INACTIVE;
+        if (premoveRow >= 0) return TurnStart.PREMOVE_IN_FLIGHT;
+        myTurn = true;
+        return TurnStart.MY_TURN;
+    }
+
+    // Nel proprio turno il click è una mossa, fuori turno una premossa (una sola alla volta).
+    public Click click(int row, int col, boolean cellEmpty, boolean canPremove) {
+        if (myTurn && active.get() && cellEmpty) {
+            myTurn = false;
+            return Click.MOVE;
+        }
+        if (!myTurn && active.get() && premoveRow < 0 && canPremove && cellEmpty) {
+            premoveRow = row;
+            premoveCol = col;
+            return Click.PREMOVE;
+        }
+        return Click.IGNORED;
+    }
+
+    // mossa non accodata (coda piena o connessione persa): il turno resta nostro
+    public void moveNotSent() {
+        myTurn = true;
+    }
+
+    public boolean hasPremove() {
+        return premoveRow >= 0;
+    }
+
+    public int getPremoveRow() {
+        return premoveRow;
+    }
+
+    public int getPremoveCol() {
+        return premoveCol;
+    }
+
+    public boolean isPremoveAt(int row, int col) {
+        return premoveRow >= 0 && row == premoveRow && col == premoveCol;
+    }
+
+    public void clearPremove() {
+        premoveRow = -1;
+        premoveCol = -1;
+    }
+
+    // Simbolo arrivato dal server nella cella della premossa: la nostra è stata giocata oppure la cella è stata presa.
+    public PremoveCheck checkPremove(char symbol, char mySymbol) {
+        if (symbol == ServerEvent.EMPTY_CELL) return PremoveCheck.PENDING;
+        clearPremove();
+        return symbol == mySymbol ? PremoveCheck.PLAYED : PremoveCheck.TAKEN;
+    }
+
+    // Fuori turno la griglia resta attiva per una premossa; si blocca mentre ce n'è già una in attesa.
+    public boolean isGridEnabled() {
+        return active.get() && (myTurn || premoveRow < 0);
+    }
+
+    public boolean canMove() {
+        return myTurn && active.get();
+    }
+
+    // Prima del setup l'uscita dell'avversario resta in cache: completeSetup riattiverebbe la partita.
+    public Delivery opponentLeft() {
+        if (!setupComplete.get()) {
+            cachedOpponentLeft.set(true);
+            return Delivery.CACHED;
+        }
+        // il server ha già riportato il giocatore in lobby: un'eventuale scelta di rivincita ancora aperta non va inviata
+        stop();
+        returningHome.set(true);
+        return Delivery.APPLIED;
+    }
+
+    // Uscita dell'avversario, errore o rifiuto del nome: niente più mosse né rivincita.
+    public void stop() {
+        active.set(false);
+        waitingRematch.set(false);
+        myTurn = false;
+    }
+
+    // Abbandono o disconnessione: il ritorno alla lobby parte da qui e le risposte del server ancora in volo non ne avviano un altro.
+    // false se il ritorno era già avviato (rivincita accettata, rifiutata o avversario uscito): il clic su Abbandona va ignorato
+    public boolean leave() {
+        stop();
+        declinedWhileWaiting.set(false);
+        return !returningHome.getAndSet(true);
+    }
+
+    // false per un GAMEOVER ridondante (partita già inattiva)
+    public boolean gameOver(GameResult result) {
+        if (!active.compareAndSet(true, false)) return false;
+        lastResult = result;
+        waitingRematch.set(true);
+        myTurn = false;
+        declinedWhileWaiting.set(false);
+        return true;
+    }
+
+    // Dopo GAMEOVER LOSE o REMATCH NO il server ci ha già rimessi in lobby: un QUIT lì chiude la connessione.
+    public boolean canLeave() {
+        return lastResult != GameResult.LOSE && !rematchRefused;
+    }
+
+    public boolean canOfferRematch() {
+        return lastResult == GameResult.DRAW || lastResult == GameResult.WIN;
+    }
+
+    // Scelta chiusa nell'Alert della rivincita, che nel frattempo ha lasciato passare gli altri eventi.
+    public RematchChoice rematchChosen(boolean yes) {
+        // il server ha chiuso la scelta (tempo scaduto o avversario uscito): il ritorno alla lobby è già avviato
+        if (returningHome.get()) return RematchChoice.CLOSED_BY_SERVER;
+        if (declinedWhileWaiting.getAndSet(false)) {
+            waitingRematch.set(false);
+            return RematchChoice.OPPONENT_DECLINED;
+        }
+        if (yes) return RematchChoice.YES;
+        rematchRefused = true;
+        return RematchChoice.NO;
+    }
+
+    // REMATCH YES inviato: si resta in attesa della risposta del server
+    public void awaitRematch() {
+        waitingRematch.set(true);
+    }
+
+    public void rematchNotSent() {
+        waitingRematch.set(false);
+    }
+
+    // REMATCH_ACCEPTED: il vincitore ospita di nuovo la partita. Fino al passaggio del listener alla HomePage le
+    // JOIN_REQUEST arrivano ancora qui e vanno consegnate alla lobby invece di andare perse.
+    // false se il giocatore ha già abbandonato: il QUIT che segue REMATCH YES ha chiuso anche la partita ospitata
+    public boolean rematchAccepted() {
+        if (returningHome.getAndSet(true)) return false;
+        stop();
+        hostingAfterRematch = true;
+        return true;
+    }
+
+    public boolean isHostingAfterRematch() {
+        return hostingAfterRematch;
+    }
+
+    // null se il ritorno alla lobby è già avviato
+    public Return rematchDeclined() {
+        if (returningHome.get()) return null;
+        boolean wasWaiting = waitingRematch.getAndSet(false);
+        active.set(false);
+        myTurn = false;
+        declinedWhileWaiting.set(false);
+
+        Return result;
+        if (lastResult == GameResult.LOSE) {
+            result = new Return(true, "Partita Terminata.", "Partita persa.\nRitorno alla lobby.", "Partita persa.");
+        } else if (wasWaiting && lastResult == GameResult.DRAW) {
+            result = new Return(true, "Rivincita Annullata.", "Ritorno alla lobby.", "La rivincita è stata rifiutata.");
+        } else {
+            result = new Return(false, "Info Rivincita.", "Ritorno alla lobby.", "Rivincita rifiutata.");
+        }
+        if (returningHome.getAndSet(true)) return null;
+        return result;
+    }
+
+    public OpponentDecision opponentDecision(boolean accepted) {
+        if (returningHome.get()) return OpponentDecision.RETURNING;
+        if (!active.get() && !waitingRematch.get()) return OpponentDecision.INACTIVE;
+        if (accepted) return lastResult == GameResult.DRAW ? OpponentDecision.DRAW_ACCEPTED : OpponentDecision.UNEXPECTED_ACCEPT;
+
+        if (lastResult == GameResult.LOSE) {
+            stop();
+            returningHome.set(true);
+            return OpponentDecision.LOSER;
+        }
+        if (declinedWhileWaiting.get()) {
+            waitingRematch.set(false);
+            return OpponentDecision.ALREADY_HANDLED;
+        }
+        if (returningHome.getAndSet(true)) return OpponentDecision.RETURNING;
+        stop();
+        return OpponentDecision.DECLINED;
+    }
+
+    // MOVE o REMATCH partiti mentre la partita finiva (tempo scaduto, avversario uscito, rivincita rifiutata o scaduta):
+    // il server ci ha già rimessi in lobby. L'errore può arrivare anche alla HomePage, se il ritorno è stato più veloce della risposta.
+    public static boolean isLateGameCommand(ErrorCode code, String detail) {
+        if (code != ErrorCode.INVALID_STATE || detail == null) return false;
+        String command = detail.substring(detail.lastIndexOf(": ") + 1).trim();
+        return command.startsWith("MOVE ") || command.startsWith("REMATCH ");
+    }
+
+    public ErrorAction error(ErrorCode code, String detail) {
+        if (isLateGameCommand(code, detail)) return ErrorAction.EXPECTED;
+        // UNQUEUE partito mentre il matchmaking ci abbinava: la partita è questa
+        if (code == ErrorCode.NOT_QUEUED) return ErrorAction.EXPECTED;
+        if (!active.get() && !waitingRematch.get()) return ErrorAction.IGNORED;
+        return code == ErrorCode.NOT_YOUR_TURN || code == ErrorCode.INVALID_MOVE ? ErrorAction.RETRY_MOVE : ErrorAction.RETURN_HOME;
+    }
+
+    // GAME_START con la partita già aperta: true se è la rivincita di un pareggio, da ripartire su griglia vuota.
+    public boolean gameStart() {
+        boolean isDrawRematch = waitingRematch.compareAndSet(true, false);
+        active.set(true);
+        myTurn = false;
+        clearPremove();
+        return isDrawRematch;
+    }
+
+    public boolean isSetupComplete() {
+        return setupComplete.get();
+    }
+
+    public boolean isActive() {
+        return active.get();
+    }
+
+    public boolean isWaitingRematch() {
+        return waitingRematch.get();
+    }
+
+    public boolean isReturningHome() {
+        return returningHome.get();
+    }
+
+    public GameResult getLastResult() {
+        return lastResult;
+    }
+
+    public boolean isMyTurn() {
+        return myTurn;
+    }
+}
@@ -0,0 +1,13 @@
+package org.trisclient.trisclient;
+
+// Esito di NOTIFY:GAMEOVER visto dal giocatore locale.
+public enum GameResult {
+    WIN, LOSE, DRAW, UNKNOWN;
+
+    public static GameResult fromWire(String value) {
+        for (GameResult result : values()) {
+            if (result.name().equalsIgnoreCase(value)) return result;
+        }
+        return UNKNOWN;
+    }
+}
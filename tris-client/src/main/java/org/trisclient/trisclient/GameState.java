@@ -0,0 +1,33 @@
+package org.trisclient.trisclient;
+
+// Stato di una partita nella lobby, convertito una sola volta dalla stringa del server.
+public enum GameState {
+    WAITING("Waiting", "In attesa", "state-waiting"),
+    IN_PROGRESS("In Progress", "In corso", "state-inprogress"),
+    FINISHED("Finished", "Terminata", "state-finished"),
+    UNKNOWN("", "", "state-unknown");
+
+    public final String wire;
+    public final String label;
+    public final String styleClass;
+
+    GameState(String wire, String label, String styleClass) {
+        this.wire = wire;
+        this.label = label;
+        this.styleClass = styleClass;
+    }
+
+    public static GameState fromWire(String value) {
+        for (GameState state : values()) {
+            if (state != UNKNOWN && state.wire.equalsIgnoreCase(value)) return state;
+        }
+        return UNKNOWN;
+    }
+
+    public static String[] styleClasses() {
+        GameState[] states = values();
+        String[] classes = new String[states.length];
+        for (int i = 0; i < states.length; i++) classes[i] = states[i].styleClass;
+        return classes;
+    }
+}
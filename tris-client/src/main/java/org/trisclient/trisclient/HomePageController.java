@@ -14,31 +14,53 @@ import javafx.stage.Window;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HomePageController implements Initializable, NetworkService.ServerListener {
 
     @FXML private Button buttonCreaPartita;
     @FXML private Button buttonRefresh;
+    @FXML private Button buttonPartitaRapida;
     @FXML private FlowPane flowPanePartite;
+    @FXML private ScrollPane scrollPanePartite;
     @FXML private Label labelStatus;
+    @FXML private ListView<NetworkService.LeaderboardEntry> listViewClassifica;
+    @FXML private Label labelMiaPosizione;
+    @FXML private ListView<String> listViewChat;
+    @FXML private TextField textFieldChat;
 
-    public static NetworkService networkServiceInstance;
-    public static String staticPlayerName;
+    private final ClientSession session;
 
     private Stage currentStage;
 
-    private volatile String[] cachedBoardDuringNavigation = null;
-    private final AtomicBoolean cachedTurnDuringNavigation = new AtomicBoolean(false);
-    private final AtomicBoolean isNavigatingToGame = new AtomicBoolean(false);
-
-    private static volatile String lastReturnReason = null;
+    // Griglia e turno arrivati fra GAME_START e il setup del GameController, condivisi con ProtocolSimulator.
+    private final NavigationGuard navigation = new NavigationGuard();
+
+    private final List<NetworkService.GameInfo> lobbyGames = new ArrayList<>();
+    private int displayedGamesCount = 0;
+    private boolean amIWaiting = false;
+    private int myWaitingGameId = -1;
+    private int nextLobbyCursor = 0;
+    // Cursore del prossimo blocco di lobby atteso, -1 se nessuna LIST è aperta. Ogni LIST lo fissa e ogni blocco accettato lo porta
+    // all'ultima partita ricevuta; blocchi e GAMES_END che non tornano appartengono a una lista superata (es. una pagina successiva
+    // ancora in volo quando arriva una lista nuova, anche dalla cache) e vengono scartati.
+    private int expectedLobbyCursor = -1;
+    private boolean lobbyPageStarted = false;
+    private boolean lobbyMorePage = false;
+    private boolean amIQueued = false;
+    private boolean leaderboardRefreshPending = false;
+    private ChatLog chatLog;
+
+    private static final int LEADERBOARD_SIZE = 50;
+    private static final Comparator<NetworkService.LeaderboardEntry> LEADERBOARD_ORDER =
+            Comparator.comparingInt((NetworkService.LeaderboardEntry e) -> -e.rating).thenComparing(e -> e.name);
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
@@ -47,15 +69,24 @@ public class HomePageController implements Initializable, NetworkService.ServerL
         return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
     }
 
+    public HomePageController(ClientSession session) {
+        this.session = session;
+    }
+
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
-        System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): initialize CHIAMATO. LastReturnReason: " + lastReturnReason);
-        cachedBoardDuringNavigation = null;
-        cachedTurnDuringNavigation.set(false);
-        isNavigatingToGame.set(false);
+        System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): initialize CHIAMATO. Sessione " + session.getId() + ", LastReturnReason: " + session.getLastReturnReason());
+        LeakTracker.track("HomePageController", this);
+        navigation.reset();
+        chatLog = new ChatLog(listViewChat);
+        if (scrollPanePartite != null) {
+            scrollPanePartite.vvalueProperty().addListener((obs, oldValue, newValue) -> maybeLoadMoreGames());
+            // se la prima pagina non riempie la vista non si può scorrere: si ricontrolla a ogni nuovo layout
+            scrollPanePartite.viewportBoundsProperty().addListener((obs, oldValue, newValue) -> maybeLoadMoreGames());
+            if (flowPanePartite != null) flowPanePartite.heightProperty().addListener((obs, oldValue, newValue) -> maybeLoadMoreGames());
+        }
 
-        String returnReason = lastReturnReason;
-        lastReturnReason = null;
+        String returnReason = session.takeLastReturnReason();
 
         Platform.runLater(() -> {
             System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): initialize (runLater) START. Consumed ReturnReason: " + returnReason);
@@ -65,16 +96,15 @@ public class HomePageController implements Initializable, NetworkService.ServerL
                 currentStage = getCurrentStageFallback();
             }
 
-            if (networkServiceInstance != null && networkServiceInstance.isConnected()) {
+            if (session.isConnected()) {
                 System.out.println(getCurrentTimestamp() + " - Inizializzazione: Riutilizzo istanza NetworkService connessa esistente.");
                 prepareForReturn(returnReason);
             } else {
                 System.out.println(getCurrentTimestamp() + " - Inizializzazione: NetworkService è null o disconnesso. Necessaria nuova connessione.");
-                if (networkServiceInstance != null) {
+                if (session.getNetwork() != null) {
                     System.out.println(getCurrentTimestamp()+" - Inizializzazione: Pulizia NetworkService disconnesso.");
-                    networkServiceInstance.cleanupExecutor();
                 }
-                networkServiceInstance = null;
+                session.dropConnection();
 
                 labelStatus.setText("Inserisci il nome per connetterti.");
                 setButtonsDisabled(true);
@@ -88,7 +118,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
 
     private void prepareForReturn(String statusMessage) {
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): prepareForReturn CHIAMATO con stato: " + statusMessage);
-        if (networkServiceInstance == null || !networkServiceInstance.isConnected()) {
+        if (!session.isConnected()) {
             System.err.println(getCurrentTimestamp()+" - ERRORE in prepareForReturn: NetworkService non valido!");
             Platform.runLater(() -> {
                 labelStatus.setText("Errore: Connessione persa.");
@@ -98,12 +128,13 @@ public class HomePageController implements Initializable, NetworkService.ServerL
             return;
         }
 
-        isNavigatingToGame.set(false);
-        cachedBoardDuringNavigation = null;
-        cachedTurnDuringNavigation.set(false);
+        navigation.reset();
 
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Impostazione listener a QUESTA istanza.");
-        networkServiceInstance.setServerListener(this);
+        session.getNetwork().setServerListener(this);
+        // da qui le richieste arrivano a questa istanza; una arrivata prima è rimasta nella sessione
+        String pendingJoinRequest = session.takePendingJoinRequest();
+        if (LeakTracker.isEnabled()) System.out.println(getCurrentTimestamp()+" - LeakTracker: "+LeakTracker.summary());
 
         final boolean rematchAccepted = (statusMessage != null && statusMessage.contains("Rivincita accettata"));
 
@@ -112,7 +143,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
             if (rematchAccepted) {
                 initialStatus = "In attesa di un nuovo avversario...";
             } else if (statusMessage != null && !statusMessage.trim().isEmpty()) {
-                String welcomeBack = (staticPlayerName != null ? " Bentornato, " + staticPlayerName + "!" : "");
+                String welcomeBack = (session.getPlayerName() != null ? " Bentornato, " + session.getPlayerName() + "!" : "");
                 if (statusMessage.contains("Partita Terminata") || statusMessage.contains("Avversario disconnesso") ||
                         statusMessage.contains("Rivincita rifiutata") || statusMessage.contains("Avversario ha deciso") ||
                         statusMessage.contains("Nome già preso") || statusMessage.contains("Partita persa")) {
@@ -126,7 +157,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
                     initialStatus = statusMessage + welcomeBack;
                 }
             } else {
-                initialStatus = "Rientrato nella Lobby."+ (staticPlayerName != null ? " Bentornato, " + staticPlayerName + "!" : "");
+                initialStatus = "Rientrato nella Lobby."+ (session.getPlayerName() != null ? " Bentornato, " + session.getPlayerName() + "!" : "");
             }
             labelStatus.setText(initialStatus);
 
@@ -140,13 +171,16 @@ public class HomePageController implements Initializable, NetworkService.ServerL
                 Label waitingLabel = new Label("Sei in attesa di un avversario nella tua partita.");
                 if (flowPanePartite != null) flowPanePartite.getChildren().add(waitingLabel);
                 System.out.println(getCurrentTimestamp()+" - HomePageController: Salto richiesta LIST perché il giocatore è IN ATTESA.");
+                if (pendingJoinRequest != null) onJoinRequestReceived(pendingJoinRequest);
 
             } else {
                 System.out.println(getCurrentTimestamp()+" - HomePageController: Caso ritorno normale in prepareForReturn.");
                 setButtonsDisabled(true);
                 if (flowPanePartite != null) flowPanePartite.getChildren().clear();
                 System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): prepareForReturn: Richiesta lista partite.");
-                networkServiceInstance.sendListRequest();
+                requestFirstLobbyPage(LobbyCache.Policy.CACHED);
+                requestLeaderboard();
+                session.getNetwork().sendChatHistoryRequest();
             }
         });
     }
@@ -155,10 +189,10 @@ public class HomePageController implements Initializable, NetworkService.ServerL
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): askForNameAndConnect CHIAMATO");
 
         Platform.runLater(() -> {
-            if (networkServiceInstance == null) {
+            if (session.getNetwork() == null) {
                 System.out.println(getCurrentTimestamp()+" - askForNameAndConnect: Creazione nuova istanza NetworkService (era null).");
-                networkServiceInstance = new NetworkService();
-            } else if (networkServiceInstance.isConnected()){
+                session.openRouter();
+            } else if (session.getNetwork().isConnected()){
                 System.out.println(getCurrentTimestamp()+" - askForNameAndConnect: Già connesso, salto connessione. Richiesto solo nome.");
                 showNameDialogAndSend(null);
                 return;
@@ -168,21 +202,21 @@ public class HomePageController implements Initializable, NetworkService.ServerL
             setButtonsDisabled(true);
             if (flowPanePartite != null) flowPanePartite.getChildren().clear();
 
-            System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Connessione usando THIS come listener INIZIALE.");
-            networkServiceInstance.connect("127.0.0.1", 12345, this);
+            System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Connessione a " + session.getShardRouter().getActiveEndpoint() + " usando THIS come listener INIZIALE.");
+            session.getShardRouter().connectActive(this);
         });
     }
 
     private void showNameDialogAndSend(String headerText) {
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): showNameDialogAndSend CHIAMATO. Header: " + headerText);
         Platform.runLater(() -> {
-            if (networkServiceInstance == null) {
+            if (session.getNetwork() == null) {
                 System.err.println("showNameDialogAndSend: Impossibile mostrare dialogo, networkService è null.");
                 askForNameAndConnect();
                 return;
             }
 
-            TextInputDialog dialog = new TextInputDialog(staticPlayerName != null ? staticPlayerName : "");
+            TextInputDialog dialog = new TextInputDialog(session.getPlayerName() != null ? session.getPlayerName() : "");
             dialog.setTitle("Inserisci Nome Giocatore");
             dialog.setHeaderText(headerText != null ? headerText : "Inserisci il tuo nome per iniziare:");
             dialog.setContentText("Nome:");
@@ -195,16 +229,16 @@ public class HomePageController implements Initializable, NetworkService.ServerL
                 if (trimmedName.isEmpty()) {
                     showNameDialogAndSend("Attenzione, il nome non può essere vuoto. Inseriscine uno valido:");
                 } else {
-                    staticPlayerName = trimmedName;
-                    labelStatus.setText("Invio nome '" + staticPlayerName + "'...");
-                    System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Invio nome: " + staticPlayerName);
-                    networkServiceInstance.sendName(staticPlayerName);
+                    session.setPlayerName(trimmedName);
+                    labelStatus.setText("Invio nome '" + session.getPlayerName() + "'...");
+                    System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Invio nome: " + session.getPlayerName());
+                    session.getNetwork().sendName(session.getPlayerName());
                 }
             }, () -> {
                 labelStatus.setText("Inserimento nome annullato. Disconnessione.");
                 System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Utente ha annullato dialogo nome. Disconnessione.");
-                if(networkServiceInstance != null && networkServiceInstance.isConnected()) {
-                    networkServiceInstance.disconnect();
+                if(session.isConnected()) {
+                    session.getNetwork().disconnect();
                 }
                 setButtonsDisabled(true);
             });
@@ -214,25 +248,86 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     @FXML
     private void handleCreaPartita() {
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): handleCreaPartita CHIAMATO");
-        if (networkServiceInstance == null || !networkServiceInstance.isConnected()) {
+        if (!session.isConnected()) {
             System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Non connesso. Avvio processo di connessione...");
             askForNameAndConnect();
             return;
         }
         setButtonsDisabled(true);
-        labelStatus.setText("Creazione partita...");
         disableJoinButtons();
-        networkServiceInstance.sendCreateGame();
+        if (session.isSharded()) {
+            session.shardForNewGame();
+            labelStatus.setText("Creazione partita su " + session.getShardRouter().getActiveEndpoint() + "...");
+        } else {
+            labelStatus.setText("Creazione partita...");
+        }
+        session.getNetwork().sendCreateGame();
     }
 
+    @FXML
+    private void handlePartitaRapida() {
+        System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): handlePartitaRapida CHIAMATO. In coda: " + amIQueued);
+        if (!session.isConnected()) {
+            askForNameAndConnect();
+            return;
+        }
+        if (buttonPartitaRapida != null) buttonPartitaRapida.setDisable(true);
+        if (amIQueued) {
+            labelStatus.setText("Uscita dalla coda...");
+            session.getNetwork().sendUnqueue();
+        } else {
+            if (buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
+            disableJoinButtons();
+            labelStatus.setText("Ricerca di un avversario...");
+            session.getNetwork().sendQueue();
+        }
+    }
+
+    @Override
+    public void onQueued(int queuedPlayers) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onQueued, giocatori in coda: " + queuedPlayers);
+        Platform.runLater(() -> {
+            amIQueued = true;
+            if (buttonPartitaRapida != null) {
+                buttonPartitaRapida.setText("Annulla ricerca");
+                buttonPartitaRapida.setDisable(false);
+            }
+            if (buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
+            disableJoinButtons();
+            labelStatus.setText("In coda per una partita rapida (" + queuedPlayers + " giocatori in coda)...");
+        });
+    }
+
+    @Override
+    public void onUnqueued() {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onUnqueued");
+        Platform.runLater(() -> {
+            amIQueued = false;
+            if (buttonPartitaRapida != null) buttonPartitaRapida.setText("Partita rapida");
+            labelStatus.setText("Ricerca annullata.");
+            handleRefresh();
+        });
+    }
+
+    // Pulsante Aggiorna: lista in cache subito, poi LIST in background.
     @FXML
     private void handleRefresh() {
-        System.out.println(getCurrentTimestamp() + " - HomePageController (" + this.hashCode() + "): handleRefresh CHIAMATO");
-        if (networkServiceInstance != null && networkServiceInstance.isConnected()) {
+        refreshLobby(LobbyCache.Policy.REVALIDATE);
+    }
+
+    // Dopo CREATE, rifiuti ed errori la lista in cache non è più valida.
+    private void reloadLobby() {
+        refreshLobby(LobbyCache.Policy.FRESH);
+    }
+
+    private void refreshLobby(LobbyCache.Policy policy) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController (" + this.hashCode() + "): refreshLobby CHIAMATO (" + policy + ")");
+        if (session.isConnected()) {
             setButtonsDisabled(true);
             disableJoinButtons();
             labelStatus.setText("Aggiornamento lista partite...");
-            networkServiceInstance.sendListRequest();
+            requestFirstLobbyPage(policy);
+            requestLeaderboard();
         } else {
             System.err.println(getCurrentTimestamp() + " - HomePageController (" + this.hashCode() + "): Impossibile aggiornare, non connesso.");
             labelStatus.setText("Non connesso. Impossibile aggiornare.");
@@ -259,11 +354,11 @@ public class HomePageController implements Initializable, NetworkService.ServerL
 
 
     @Override
-    public void onNameRejected(String reason) {
-        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onNameRejected. Motivo: " + reason);
+    public void onNameRejected(ErrorCode code) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onNameRejected. Motivo: " + code);
         Platform.runLater(() -> {
             String dialogHeader = "Attenzione, nome già in uso o non valido. Inseriscine un altro:";
-            if (reason != null && reason.contains("Name already taken")) {
+            if (code == ErrorCode.NAME_TAKEN) {
                 dialogHeader = "Attenzione, nome già esistente. Inseriscine un altro:";
             }
             showNameDialogAndSend(dialogHeader);
@@ -275,142 +370,202 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     public void onNameAccepted() {
         System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onNameAccepted");
         Platform.runLater(() -> {
-            labelStatus.setText("Accesso effettuato come " + staticPlayerName + ". Richiesta lista partite...");
+            labelStatus.setText("Accesso effettuato come " + session.getPlayerName() + ". Richiesta lista partite...");
             setButtonsDisabled(true);
         });
-        networkServiceInstance.sendListRequest();
+        if (session.isSharded()) session.getShardRouter().connectPeers(session.getPlayerName());
+        requestFirstLobbyPage(LobbyCache.Policy.CACHED);
+        requestLeaderboard();
+        session.getNetwork().sendChatHistoryRequest();
     }
 
     @Override
-    public void onDisconnected(String reason) {
-        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onDisconnected. Motivo: " + reason);
-        lastReturnReason = reason;
+    public void onDisconnected(DisconnectReason reason, String detail) {
+        String displayReason = reason.describe(detail);
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onDisconnected. Motivo: " + reason + " (" + displayReason + ")");
+        session.setLastReturnReason("Disconnesso: " + displayReason);
 
         Platform.runLater(() -> {
-            String displayReason = reason;
-            if ("VOLUNTARY_LEAVE".equals(reason) || "ABBANDONO_VOLONTARIO".equals(reason)) displayReason = "Abbandono volontario";
-            else if ("Disconnected by client".equals(reason)) displayReason = "Disconnesso dal client";
-            else if (reason.contains("Name entry cancelled")) displayReason = "Inserimento nome annullato";
-            else if (reason.contains("Server is shutting down")) displayReason = "Il server si sta spegnendo";
-            else if (reason.contains("Server closed connection")) displayReason = "Il server ha chiuso la connessione";
-            else if (reason.startsWith("Connection error:")) displayReason = "Errore di connessione";
-            else if (reason.startsWith("IO error:")) displayReason = "Errore I/O";
-
             labelStatus.setText("Disconnesso: " + displayReason);
+            amIQueued = false;
+            if (buttonPartitaRapida != null) buttonPartitaRapida.setText("Partita rapida");
             setButtonsDisabled(true);
             if (flowPanePartite != null) flowPanePartite.getChildren().clear();
             System.out.println(getCurrentTimestamp() + " - GUI: Stato UI disconnesso aggiornato.");
 
-            boolean voluntaryDisconnect = "ABBANDONO_VOLONTARIO".equals(reason)
-                    || "Disconnected by client".equals(reason)
-                    || reason.contains("Rivincita")
-                    || reason.contains("Avversario ha deciso")
-                    || reason.contains("Name entry cancelled");
-            if (!voluntaryDisconnect && !reason.contains("Server is shutting down") && !reason.contains("Server closed connection")) {
+            if (!reason.expected) {
                 showError("Disconnesso", "Perdita di connessione inaspettata: " + displayReason);
             }
         });
     }
 
     @Override
-    public void onGamesList(List<NetworkService.GameInfo> games) {
-        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onGamesList con " + (games != null ? games.size() : 0) + " partite.");
+    public void onGamesPage(int cursor, List<NetworkService.GameInfo> games) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onGamesPage cursore " + cursor + " con " + (games != null ? games.size() : 0) + " partite.");
 
         Platform.runLater(() -> {
             if (flowPanePartite == null) {
                 System.err.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): FATALE - flowPanePartite è NULL!");
                 return;
             }
-
-            boolean amIWaiting = false;
-            int myWaitingGameId = -1;
-            String myStatusIfWaiting = "";
-
-            if (games != null && staticPlayerName != null) {
-                for (NetworkService.GameInfo gameInfo : games) {
-                    if (gameInfo != null && staticPlayerName.equals(gameInfo.creatorName) && "Waiting".equalsIgnoreCase(gameInfo.state)) {
-                        amIWaiting = true;
-                        myWaitingGameId = gameInfo.id;
-                        myStatusIfWaiting = gameInfo.state;
-                        System.out.println("onGamesList: Giocatore '" + staticPlayerName + "' è IN ATTESA (" + myStatusIfWaiting + ") nella partita " + gameInfo.id);
-                        break;
-                    }
+            TrisEvents.LobbyRebuild rebuild = new TrisEvents.LobbyRebuild();
+            rebuild.begin();
+            int displayedBefore = displayedGamesCount;
+
+            // il cursore 0 apre sempre una lista completa e aggiornata; -1 sono le partite degli altri shard in coda alla prima pagina
+            boolean accepted = cursor == 0 || (expectedLobbyCursor >= 0 && (cursor == expectedLobbyCursor || (cursor == -1 && lobbyPageStarted)));
+            if (!accepted) {
+                System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): Pagina dal cursore " + cursor + " della lista precedente scartata (atteso " + expectedLobbyCursor + ").");
+                return;
+            }
+            lobbyPageStarted = true;
+            if (cursor == 0) lobbyMorePage = false;
+            if (games != null && !games.isEmpty() && cursor >= 0) expectedLobbyCursor = games.get(games.size() - 1).id;
+            else if (cursor == 0) expectedLobbyCursor = 0;
+
+            if (cursor == 0) {
+                lobbyGames.clear();
+                flowPanePartite.getChildren().clear();
+                displayedGamesCount = 0;
+                amIWaiting = false;
+                myWaitingGameId = -1;
+            }
+            if (games == null) return;
+
+            for (NetworkService.GameInfo gameInfo : games) {
+                if (gameInfo == null) continue;
+                lobbyGames.add(gameInfo);
+
+                if (session.getPlayerName() != null && session.getPlayerName().equals(gameInfo.creatorName) && gameInfo.state == GameState.WAITING) {
+                    amIWaiting = true;
+                    myWaitingGameId = gameInfo.id;
+                    System.out.println("onGamesPage: Giocatore '" + session.getPlayerName() + "' è IN ATTESA nella partita " + gameInfo.id + ". Salto visualizzazione.");
+                    disableJoinButtons();
+                    continue;
                 }
+                addGameItem(gameInfo);
+            }
+            if (rebuild.shouldCommit()) {
+                rebuild.cursor = cursor;
+                rebuild.games = games.size();
+                rebuild.itemsAdded = displayedGamesCount - (cursor == 0 ? 0 : displayedBefore);
+                rebuild.fullRebuild = cursor == 0;
+                rebuild.commit();
             }
+        });
+    }
+
+    @Override
+    public void onGamesPageEnd(int nextCursor) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onGamesPageEnd, prossimo cursore " + nextCursor);
 
-            flowPanePartite.getChildren().clear();
-            int displayedGamesCount = 0;
+        Platform.runLater(() -> {
+            if (flowPanePartite == null) return;
+            // ogni pagina consegna almeno un blocco prima del suo GAMES_END: senza blocchi accettati è la fine di una lista superata
+            if (!lobbyPageStarted) {
+                System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GAMES_END della lista precedente scartato.");
+                return;
+            }
+            expectedLobbyCursor = -1;
+            lobbyPageStarted = false;
+            lobbyMorePage = false;
+            nextLobbyCursor = nextCursor;
+
+            if (nextCursor <= 0 && displayedGamesCount == 0) {
+                if (!amIWaiting) {
+                    flowPanePartite.getChildren().add(new Label("Nessun'altra partita disponibile a cui unirsi."));
+                } else {
+                    flowPanePartite.getChildren().add(new Label("Sei in attesa di un avversario..."));
+                }
+            }
+            updateLobbyControls();
+            maybeLoadMoreGames();
+        });
+    }
 
-            if (games != null) {
-                for (NetworkService.GameInfo gameInfo : games) {
-                    if (gameInfo == null) continue;
+    private void addGameItem(NetworkService.GameInfo gameInfo) {
+        try {
+            FXMLLoader loader = session.loader("/org/trisclient/trisclient/partita-item-view.fxml");
+            Node gameItemNode = loader.load();
+            PartitaItemController controller = loader.getController();
 
-                    boolean isMyWaitingGame = (amIWaiting && gameInfo.id == myWaitingGameId);
-                    if (isMyWaitingGame) {
-                        System.out.println("onGamesList: Salto visualizzazione della partita " + gameInfo.id + " perché appartiene al giocatore in attesa.");
-                        continue;
-                    }
+            controller.setData(gameInfo.id, gameInfo.creatorName, gameInfo.state, gameInfo.endpoint, session.getPlayerName(), amIWaiting);
 
-                    try {
-                        FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/trisclient/trisclient/partita-item-view.fxml"));
-                        Node gameItemNode = loader.load();
-                        PartitaItemController controller = loader.getController();
+            flowPanePartite.getChildren().add(gameItemNode);
+            displayedGamesCount++;
+        } catch (Exception e) {
+            System.err.println(getCurrentTimestamp() + " - Errore caricamento/impostazione PartitaItem: "+e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-                        controller.setData(gameInfo.id, gameInfo.creatorName, gameInfo.state, staticPlayerName, amIWaiting);
+    private void updateLobbyControls() {
+        boolean isConnected = session.isConnected();
+        if(isConnected){
+            if(buttonRefresh != null) buttonRefresh.setDisable(false);
 
-                        flowPanePartite.getChildren().add(gameItemNode);
-                        displayedGamesCount++;
-                    } catch (Exception e) {
-                        System.err.println(getCurrentTimestamp() + " - Errore caricamento/impostazione PartitaItem: "+e.getMessage());
-                        e.printStackTrace();
+            if(buttonPartitaRapida != null) buttonPartitaRapida.setDisable(amIWaiting);
+            if (amIWaiting) {
+                if(buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
+                labelStatus.setText("In attesa di avversario per partita " + (myWaitingGameId > 0 ? myWaitingGameId : "") + "...");
+            } else if (amIQueued) {
+                if(buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
+                disableJoinButtons();
+            } else {
+                if(buttonCreaPartita != null) buttonCreaPartita.setDisable(false);
+                int joinableGames = 0;
+                for(NetworkService.GameInfo gi : lobbyGames){
+                    if(gi.state == GameState.WAITING && (session.getPlayerName() == null || !session.getPlayerName().equals(gi.creatorName))){
+                        joinableGames++;
                     }
                 }
+                if (labelStatus.getText() == null || labelStatus.getText().isEmpty() || labelStatus.getText().startsWith("Accesso come") || labelStatus.getText().startsWith("Logged in") || labelStatus.getText().startsWith("Aggiornamento")) {
+                    labelStatus.setText("Accesso come " + session.getPlayerName() + ". Partite a cui unirsi: " + joinableGames + (nextLobbyCursor > 0 ? "+" : ""));
+                }
             }
+        } else {
+            if(buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
+            if(buttonRefresh != null) buttonRefresh.setDisable(true);
+            if(buttonPartitaRapida != null) buttonPartitaRapida.setDisable(true);
+            if(labelStatus!=null && !labelStatus.getText().startsWith("Disconnesso")) labelStatus.setText("Disconnesso.");
+            disableJoinButtons();
+        }
+    }
 
-            if (displayedGamesCount == 0 && !amIWaiting) {
-                flowPanePartite.getChildren().add(new Label("Nessun'altra partita disponibile a cui unirsi."));
-            } else if (displayedGamesCount == 0 && amIWaiting) {
-                flowPanePartite.getChildren().add(new Label("Sei in attesa di un avversario..."));
-            }
-
-            boolean isConnected = (networkServiceInstance != null && networkServiceInstance.isConnected());
-            if(isConnected){
-                if(buttonRefresh != null) buttonRefresh.setDisable(false);
+    private void maybeLoadMoreGames() {
+        if (scrollPanePartite == null || expectedLobbyCursor >= 0 || nextLobbyCursor <= 0) return;
+        Node content = scrollPanePartite.getContent();
+        boolean scrollable = content != null && content.getLayoutBounds().getHeight() > scrollPanePartite.getViewportBounds().getHeight();
+        if (scrollable && scrollPanePartite.getVvalue() < scrollPanePartite.getVmax() * 0.9) return;
+        if (!session.isConnected()) return;
+
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): Caricamento pagina successiva dal cursore " + nextLobbyCursor);
+        expectedLobbyCursor = nextLobbyCursor;
+        lobbyPageStarted = false;
+        lobbyMorePage = true;
+        if (!session.getNetwork().sendListPage(nextLobbyCursor, NetworkService.LOBBY_PAGE_SIZE)) expectedLobbyCursor = -1;
+    }
 
-                if (amIWaiting) {
-                    if(buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
-                    labelStatus.setText("In attesa di avversario per partita " + (myWaitingGameId > 0 ? myWaitingGameId : "") + "...");
-                } else {
-                    if(buttonCreaPartita != null) buttonCreaPartita.setDisable(false);
-                    int joinableGames = 0;
-                    if(games != null){
-                        for(NetworkService.GameInfo gi : games){
-                            if(gi != null && "Waiting".equalsIgnoreCase(gi.state) && (staticPlayerName == null || !staticPlayerName.equals(gi.creatorName))){
-                                joinableGames++;
-                            }
-                        }
-                    }
-                    if (labelStatus.getText() == null || labelStatus.getText().isEmpty() || labelStatus.getText().startsWith("Accesso come") || labelStatus.getText().startsWith("Logged in") || labelStatus.getText().startsWith("Aggiornamento")) {
-                        labelStatus.setText("Accesso come " + staticPlayerName + ". Partite a cui unirsi: " + joinableGames);
-                    }
-                }
-            } else {
-                if(buttonCreaPartita != null) buttonCreaPartita.setDisable(true);
-                if(buttonRefresh != null) buttonRefresh.setDisable(true);
-                if(labelStatus!=null && !labelStatus.getText().startsWith("Disconnesso")) labelStatus.setText("Disconnesso.");
-                disableJoinButtons();
-            }
-        });
+    // Prima pagina della lobby, fissata prima di chiederla perché la cache può rispondere subito.
+    // Una prima pagina già in arrivo resta valida: la cache può accorparle questa richiesta invece di mandare un'altra LIST.
+    private void requestFirstLobbyPage(LobbyCache.Policy policy) {
+        if (!lobbyPageStarted || lobbyMorePage) {
+            expectedLobbyCursor = 0;
+            lobbyPageStarted = false;
+        }
+        lobbyMorePage = false;
+        session.getNetwork().requestLobby(policy);
     }
 
     @Override
     public void onGameCreated(int gameId) {
         System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onGameCreated per partita " + gameId);
+        if (session.getShardRouter() != null) session.getShardRouter().clearPendingCreate();
         Platform.runLater(() -> {
             labelStatus.setText("Partita " + gameId + " creata. In attesa dell'avversario...");
             setButtonsDisabled(true);
             disableJoinButtons();
-            handleRefresh();
+            reloadLobby();
         });
     }
 
@@ -428,7 +583,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     public void onJoinRequestReceived(String requesterName) {
         System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onJoinRequestReceived da " + requesterName);
         Platform.runLater(() -> {
-            if (networkServiceInstance == null || !networkServiceInstance.isConnected()) return;
+            if (!session.isConnected()) return;
 
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
             alert.setTitle("Richiesta di Partecipazione");
@@ -447,8 +602,8 @@ public class HomePageController implements Initializable, NetworkService.ServerL
             }
             String statusUpdate = (decision.equals("Accept") ? "Accettazione" : "Rifiuto") + " di " + requesterName + "...";
             labelStatus.setText(statusUpdate);
-            if("Accept".equals(decision)) networkServiceInstance.sendAcceptRequest(requesterName);
-            else networkServiceInstance.sendRejectRequest(requesterName);
+            if("Accept".equals(decision)) session.getNetwork().sendAcceptRequest(requesterName);
+            else session.getNetwork().sendRejectRequest(requesterName);
         });
     }
 
@@ -466,9 +621,9 @@ public class HomePageController implements Initializable, NetworkService.ServerL
         Platform.runLater(() -> {
             showError("Partecipazione Rifiutata", "Richiesta di unirsi alla partita " + gameId + " rifiutata da " + creatorName + ".");
             labelStatus.setText("Richiesta di partecipazione alla partita " + gameId + " rifiutata.");
-            boolean isConnected = (networkServiceInstance != null && networkServiceInstance.isConnected());
+            boolean isConnected = session.isConnected();
             setButtonsDisabled(!isConnected);
-            handleRefresh();
+            reloadLobby();
         });
     }
 
@@ -481,7 +636,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
                 displayMessage = "Richiesta rifiutata da " + message.substring("Rejected request from".length()).trim();
                 labelStatus.setText(displayMessage + ". Ancora in attesa...");
                 setButtonsDisabled(true);
-                handleRefresh();
+                reloadLobby();
                 System.out.println("onActionConfirmed: Utente ha rifiutato giocatore, rimango in stato ATTESA.");
             } else if (message.startsWith("QUIT_OK")) {
             } else {
@@ -494,70 +649,187 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     @Override
     public void onGameStart(int gameId, char symbol, String opponentName) {
         System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onGameStart ricevuto per partita " + gameId);
-        lastReturnReason = null;
+        session.setLastReturnReason(null);
+        amIQueued = false;
         Platform.runLater(() -> labelStatus.setText("Partita " + gameId + " in avvio..."));
-        isNavigatingToGame.set(true);
-        cachedBoardDuringNavigation = null;
-        cachedTurnDuringNavigation.set(false);
+        navigation.begin();
         navigateToGameScreen(gameId, symbol, opponentName);
     }
 
-    @Override public void onBoardUpdate(String[] board) { if (isNavigatingToGame.get()) cachedBoardDuringNavigation = board; else System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onBoardUpdate !!! Board: "+Arrays.toString(board)); }
-    @Override public void onYourTurn() { if (isNavigatingToGame.get()) cachedTurnDuringNavigation.set(true); else System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onYourTurn !!!"); }
-    @Override public void onGameOver(String result) { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onGameOver("+result+") !!!"); }
-    @Override public void onOpponentLeft() { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onOpponentLeft !!!"); }
+    @Override public void onBoardUpdate(char[] board) { if (!navigation.cacheBoard(board)) System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onBoardUpdate !!! Board: "+Arrays.toString(board)); }
+    @Override public void onPremoveQueued(int r, int c) { System.err.println(getCurrentTimestamp()+" - HomePage: Inaspettato onPremoveQueued"); }
+    @Override public void onPremoveRejected(int r, int c) { System.out.println(getCurrentTimestamp()+" - HomePage: Premossa "+r+","+c+" scartata dopo la fine della partita."); }
+    @Override public void onMoveApplied(int r, int c, char s) {
+        if (!navigation.applyMove(r, c, s)) System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onMoveApplied !!! "+r+","+c+"="+s);
+    }
+    @Override public void onYourTurn() { if (!navigation.cacheTurn()) System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onYourTurn !!!"); }
+    @Override public void onGameOver(GameResult result) { if (!navigation.absorbGameOver()) System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onGameOver("+result+") !!!"); }
+    @Override public void onOpponentLeft() { if (!navigation.cacheOpponentLeft()) System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onOpponentLeft !!!"); }
     @Override public void onRematchOffer() { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onRematchOffer !!!");}
     @Override public void onRematchAccepted(int gameId) { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onRematchAccepted("+gameId+") !!!");}
     @Override public void onRematchDeclined() { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onRematchDeclined !!!");}
-    @Override public void onOpponentRematchDecision(boolean opponentAccepted) { System.err.println(getCurrentTimestamp()+" - HomePage: !!! Inaspettato onOpponentRematchDecision("+opponentAccepted+") !!!");}
+    // Il perdente è già in lobby da GAMEOVER LOSE: la scelta del vincitore sulla rivincita gli arriva qui e non cambia nulla.
+    @Override public void onOpponentRematchDecision(boolean opponentAccepted) { System.out.println(getCurrentTimestamp()+" - HomePage: Scelta rivincita dell'avversario ("+(opponentAccepted ? "accettata" : "rifiutata")+") ricevuta in lobby, ignorata."); }
+    // Durante il passaggio alla partita l'orologio resta in NetworkService.getLastClock(), che il GameController legge all'avvio.
+    @Override public void onClock(GameClock clock) { }
+    @FXML
+    private void handleInviaChat() {
+        if (textFieldChat == null) return;
+        String text = textFieldChat.getText() == null ? "" : textFieldChat.getText().trim();
+        if (text.isEmpty()) return;
+        if (!session.isConnected()) {
+            chatLog.appendSystem("Non connesso, messaggio non inviato.");
+            return;
+        }
+        if (session.getNetwork().sendChat(text)) textFieldChat.clear();
+        else chatLog.appendSystem("Coda di invio piena, messaggio non inviato.");
+    }
+
+    @Override
+    public void onChatMessages(List<NetworkService.ChatMessage> messages) {
+        List<NetworkService.ChatMessage> lobbyMessages = new ArrayList<>();
+        for (NetworkService.ChatMessage message : messages) {
+            if ("LOBBY".equals(message.room)) lobbyMessages.add(message);
+        }
+        Platform.runLater(() -> chatLog.append(lobbyMessages));
+    }
+
+    @Override
+    public void onChatRejected(ErrorCode code) {
+        Platform.runLater(() -> chatLog.appendSystem(code.describe(null)));
+    }
+
+    private void requestLeaderboard() {
+        leaderboardRefreshPending = true;
+        session.getNetwork().sendLeaderboardRequest(0, LEADERBOARD_SIZE);
+        session.getNetwork().sendRankRequest();
+    }
+
+    @Override
+    public void onLeaderboard(int offset, int totalPlayers, List<NetworkService.LeaderboardEntry> entries) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onLeaderboard offset " + offset + ", " + entries.size() + " voci su " + totalPlayers);
+        Platform.runLater(() -> {
+            leaderboardRefreshPending = false;
+            if (listViewClassifica == null || offset != 0) return;
+            listViewClassifica.getItems().setAll(entries);
+        });
+    }
+
+    @Override
+    public void onRank(int rank, int rating, int totalPlayers) {
+        Platform.runLater(() -> showMyRank(rank, rating, totalPlayers));
+    }
+
+    // Applica la variazione alla top visualizzata senza richiedere di nuovo l'intera classifica.
+    @Override
+    public void onRatingUpdate(NetworkService.LeaderboardEntry entry, int delta, int totalPlayers) {
+        System.out.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onRatingUpdate " + entry + " (" + (delta >= 0 ? "+" : "") + delta + ")");
+        Platform.runLater(() -> {
+            if (entry.name.equals(session.getPlayerName())) showMyRank(entry.rank, entry.rating, totalPlayers);
+            if (listViewClassifica == null) return;
+            List<NetworkService.LeaderboardEntry> items = listViewClassifica.getItems();
+            items.removeIf(e -> e.name.equals(entry.name));
+            if (entry.rank <= LEADERBOARD_SIZE) {
+                int position = 0;
+                while (position < items.size() && LEADERBOARD_ORDER.compare(items.get(position), entry) < 0) position++;
+                items.add(position, entry);
+            }
+            while (items.size() > LEADERBOARD_SIZE) items.remove(items.size() - 1);
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).rank != i + 1) items.set(i, items.get(i).withRank(i + 1));
+            }
+            if (items.size() < Math.min(totalPlayers, LEADERBOARD_SIZE) && !leaderboardRefreshPending
+                    && session.isConnected()) {
+                leaderboardRefreshPending = true;
+                session.getNetwork().sendLeaderboardRequest(0, LEADERBOARD_SIZE);
+            }
+        });
+    }
+
+    private void showMyRank(int rank, int rating, int totalPlayers) {
+        if (labelMiaPosizione == null) return;
+        if (rank > 0) labelMiaPosizione.setText("La tua posizione: #" + rank + " su " + totalPlayers + " (rating " + rating + ")");
+        else labelMiaPosizione.setText("Non sei ancora in classifica (rating " + rating + ")");
+    }
+
     @Override public void onMessageReceived(String rawMessage) { System.err.println(getCurrentTimestamp() + " - HomePage: !!! Inaspettato messaggio raw: " + rawMessage + " !!!"); }
 
 
     @Override
-    public void onError(String message) {
-        System.err.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onError: " + message + " | isNavigating="+isNavigatingToGame.get());
+    public void onError(ErrorCode code, String detail) {
+        String message = code.describe(detail);
+        System.err.println(getCurrentTimestamp() + " - HomePageController ("+this.hashCode()+"): GUI: onError " + code + ": " + message + " | isNavigating="+navigation.isNavigating());
+        if (code == ErrorCode.NOT_QUEUED) {
+            // "Annulla ricerca" incrociato con l'abbinamento: GAME_START è già arrivato e il passaggio alla partita prosegue
+            System.out.println(getCurrentTimestamp() + " - HomePageController: UNQUEUE arrivato dopo l'abbinamento, ignoro.");
+            return;
+        }
+        if (GameGuard.isLateGameCommand(code, detail)) {
+            System.out.println(getCurrentTimestamp() + " - HomePageController: Comando di partita arrivato dopo il ritorno in lobby, ignoro.");
+            return;
+        }
         Platform.runLater(() -> {
+            ShardRouter router = session.getShardRouter();
+            if (router != null && router.isCreatePending()) {
+                NetworkService next = code == ErrorCode.SERVER_FULL ? router.nextShardForNewGame() : null;
+                if (next != null) {
+                    System.out.println(getCurrentTimestamp() + " - HomePageController: Shard pieno, nuova partita su " + router.getActiveEndpoint());
+                    session.setNetwork(next);
+                    labelStatus.setText("Creazione partita su " + router.getActiveEndpoint() + "...");
+                    next.sendCreateGame();
+                    return;
+                }
+                router.clearPendingCreate();
+            }
             showError("Errore del Server", message);
 
-            if (isNavigatingToGame.compareAndSet(true, false)) {
+            if (navigation.cancel()) {
                 System.err.println(getCurrentTimestamp() + " - HomePage: Errore durante navigazione partita. Annullamento.");
                 if(labelStatus!=null) labelStatus.setText("Errore avvio partita: " + message);
-                boolean stillConnected = (networkServiceInstance != null && networkServiceInstance.isConnected());
+                boolean stillConnected = session.isConnected();
                 setButtonsDisabled(!stillConnected);
-                if(stillConnected) handleRefresh();
+                if(stillConnected) reloadLobby();
                 return;
             }
 
             if(labelStatus != null) labelStatus.setText("Errore: " + message);
 
-            boolean stillConnected = (networkServiceInstance != null && networkServiceInstance.isConnected());
+            boolean stillConnected = session.isConnected();
             setButtonsDisabled(!stillConnected);
-            if(stillConnected && !message.contains("Server is shutting down") && !message.contains("full") && !message.contains("Server si sta spegnendo")){
-                handleRefresh();
+            if(stillConnected && code != ErrorCode.SERVER_FULL && code != ErrorCode.GAME_UNAVAILABLE){
+                reloadLobby();
             }
         });
     }
 
     public void returnToHomePage(String statusMessage) {
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): returnToHomePage CHIAMATO con messaggio: " + statusMessage);
-        lastReturnReason = statusMessage;
+        session.setLastReturnReason(statusMessage);
 
         Platform.runLater(() -> {
             try {
-                System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): returnToHomePage (runLater) START per motivo: " + lastReturnReason);
+                System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): returnToHomePage (runLater) START per motivo: " + session.getLastReturnReason());
+                TrisEvents.SceneNavigation sceneNavigation = new TrisEvents.SceneNavigation();
+                sceneNavigation.begin();
                 Stage stageToUse = getCurrentStage();
                 if (stageToUse == null) throw new IOException("Stage è NULL, impossibile tornare alla home!");
 
-                FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/trisclient/trisclient/home-page-view.fxml"));
+                FXMLLoader loader = session.loader("/org/trisclient/trisclient/home-page-view.fxml");
                 Parent homeRoot = loader.load();
+                LeakTracker.track("home-page-view.fxml", homeRoot);
                 System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): Caricato nuovo home-page-view.fxml. Nuovo controller hash: "+loader.getController().hashCode());
 
                 Scene scene = stageToUse.getScene();
                 if (scene == null) { scene = new Scene(homeRoot); stageToUse.setScene(scene); }
                 else { scene.setRoot(homeRoot); }
 
-                stageToUse.setTitle("Tris - Lobby");
+                stageToUse.setTitle(session.windowTitle("Tris - Lobby"));
                 stageToUse.show();
+                if (sceneNavigation.shouldCommit()) {
+                    sceneNavigation.target = "lobby";
+                    sceneNavigation.reason = statusMessage;
+                    sceneNavigation.commit();
+                }
                 System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): returnToHomePage (runLater) END. Stage mostra Home View.");
 
             } catch (Exception e) {
@@ -572,37 +844,44 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     private void navigateToGameScreen(int gameId, char symbol, String opponentName) {
         System.out.println(getCurrentTimestamp()+" - HomePageController ("+this.hashCode()+"): navigateToGameScreen CHIAMATO per partita " + gameId);
         Platform.runLater(() -> {
-            final String[] boardToPass = cachedBoardDuringNavigation;
-            final boolean turnToPass = cachedTurnDuringNavigation.getAndSet(false);
-            cachedBoardDuringNavigation = null;
+            final NavigationGuard.Handoff handoff = navigation.take();
+            TrisEvents.SceneNavigation sceneNavigation = new TrisEvents.SceneNavigation();
+            sceneNavigation.begin();
 
             try {
                 Stage stageToUse = getCurrentStage();
                 if (stageToUse == null) throw new IOException("Impossibile navigare: Stage non trovato!");
 
-                FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/trisclient/trisclient/game-view.fxml"));
+                FXMLLoader loader = session.loader("/org/trisclient/trisclient/game-view.fxml");
                 Parent gameRoot = loader.load();
+                LeakTracker.track("game-view.fxml", gameRoot);
                 GameController gameController = loader.getController();
                 System.out.println(getCurrentTimestamp()+" - HomePage Nav: game-view caricato. Controller: "+gameController.hashCode());
 
-                gameController.setupGame(networkServiceInstance, gameId, symbol, opponentName, this::returnToHomePage, boardToPass, turnToPass);
+                gameController.setupGame(session.getNetwork(), gameId, symbol, opponentName, this::returnToHomePage,
+                        session::setPendingJoinRequest, handoff.board(), handoff.turn(), handoff.opponentLeft());
 
                 Scene scene = stageToUse.getScene();
                 if (scene == null) { scene = new Scene(gameRoot); stageToUse.setScene(scene); }
                 else { scene.setRoot(gameRoot); }
 
-                stageToUse.setTitle("Tris - Partita " + gameId + " vs " + opponentName);
+                stageToUse.setTitle(session.windowTitle("Tris - Partita " + gameId + " vs " + opponentName));
                 stageToUse.show();
+                if (sceneNavigation.shouldCommit()) {
+                    sceneNavigation.target = "partita";
+                    sceneNavigation.gameId = gameId;
+                    sceneNavigation.commit();
+                }
                 System.out.println(getCurrentTimestamp()+" - HomePage Nav: Stage mostra Game View.");
-                isNavigatingToGame.set(false);
+                navigation.finish();
 
             } catch (Exception e) {
                 System.err.println(getCurrentTimestamp()+" - HomePage Nav: !!! ECCEZIONE navigando alla schermata di gioco !!!");
                 e.printStackTrace();
                 showError("Errore Critico UI", "Impossibile caricare la schermata di gioco.\n" + e.getMessage());
-                isNavigatingToGame.set(false);
-                setButtonsDisabled(!(networkServiceInstance != null && networkServiceInstance.isConnected()));
-                handleRefresh();
+                navigation.finish();
+                setButtonsDisabled(!session.isConnected());
+                reloadLobby();
                 if(labelStatus != null) labelStatus.setText("Errore caricamento partita.");
             }
         });
@@ -630,8 +909,9 @@ public class HomePageController implements Initializable, NetworkService.ServerL
 
     private void setButtonsDisabled(boolean disabled) {
         Platform.runLater(() -> {
-            if (buttonCreaPartita != null) buttonCreaPartita.setDisable(disabled);
+            if (buttonCreaPartita != null) buttonCreaPartita.setDisable(disabled || amIQueued);
             if (buttonRefresh != null) buttonRefresh.setDisable(disabled);
+            if (buttonPartitaRapida != null) buttonPartitaRapida.setDisable(disabled && !amIQueued);
             if(disabled) disableJoinButtons();
         });
     }
@@ -656,6 +936,7 @@ public class HomePageController implements Initializable, NetworkService.ServerL
     }
 
     private Stage getCurrentStageFallback() {
+        if (session.getStage() != null) return session.getStage();
         return Stage.getWindows().stream()
                 .filter(Window::isShowing)
                 .filter(w -> w instanceof Stage)
@@ -0,0 +1,84 @@
+package org.trisclient.trisclient;
+
+import java.util.Locale;
+
+// Istogramma log-lineare in microsecondi, nello stile di HdrHistogram: 64 sotto-intervalli per ogni potenza di 2,
+// quindi errore relativo massimo ~1.6% con memoria fissa e registrazione O(1).
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final long MAX_MICROS = 3_600_000_000L;
+    private static final int BUCKETS = indexOf(MAX_MICROS) + 1;
+
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount = 0;
+    private long maxMicros = 0;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return SUB_COUNT + shift * SUB_COUNT + (int) (micros >>> shift) - SUB_COUNT;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        return (long) (SUB_COUNT + (index - SUB_COUNT) % SUB_COUNT) << shift;
+    }
+
+    private static long upperBound(int index) {
+        return index < SUB_COUNT ? index : lowerBound(index + 1) - 1;
+    }
+
+    public synchronized void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(0, nanos / 1000), MAX_MICROS);
+        counts[indexOf(micros)]++;
+        totalCount++;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    // Valore (limite superiore dell'intervallo) sotto cui cade la percentuale richiesta dei campioni.
+    public synchronized long percentileMicros(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(upperBound(i), maxMicros);
+        }
+        return maxMicros;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxMicros = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String summary() {
+        return String.format(Locale.ROOT, "%s: n=%d p50=%.2f ms p90=%.2f ms p99=%.2f ms max=%.2f ms", name, getTotalCount(),
+                percentileMicros(50) / 1000.0, percentileMicros(90) / 1000.0, percentileMicros(99) / 1000.0, percentileMicros(100) / 1000.0);
+    }
+
+    // Righe CSV "nome,da_us,a_us,conteggio" dei soli intervalli non vuoti: due esportazioni si possono sommare o confrontare offline.
+    public synchronized void appendCsv(StringBuilder out) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0) continue;
+            out.append(name).append(',').append(lowerBound(i)).append(',').append(upperBound(i)).append(',').append(counts[i]).append('\n');
+        }
+    }
+}
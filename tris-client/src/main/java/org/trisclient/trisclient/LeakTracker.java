@@ -0,0 +1,92 @@
+package org.trisclient.trisclient;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Oggetti che dovrebbero sparire a ogni cambio di schermata o di connessione (controller, radici FXML, thread di rete),
+// contati per categoria con riferimenti deboli: dopo una GC completa restano vivi solo quelli ancora raggiungibili.
+// Attivo con -Dtris.leak.track=true o da SoakHarness; spento non registra nulla.
+public final class LeakTracker {
+
+    private static final int PURGE_EVERY = 256;
+
+    private static volatile boolean enabled = Boolean.getBoolean("tris.leak.track");
+    private static final Map<String, List<WeakReference<Object>>> tracked = new TreeMap<>();
+    private static final Map<String, Long> created = new TreeMap<>();
+
+    private LeakTracker() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void track(String category, Object object) {
+        if (!enabled || object == null) return;
+        synchronized (tracked) {
+            List<WeakReference<Object>> refs = tracked.computeIfAbsent(category, k -> new ArrayList<>());
+            if (refs.size() % PURGE_EVERY == PURGE_EVERY - 1) refs.removeIf(ref -> !isLive(ref.get()));
+            refs.add(new WeakReference<>(object));
+            created.merge(category, 1L, Long::sum);
+        }
+    }
+
+    // Un thread terminato ma ancora referenziato non conta: interessa quanti ne girano.
+    private static boolean isLive(Object object) {
+        if (object == null) return false;
+        return !(object instanceof Thread thread) || thread.isAlive();
+    }
+
+    public static Map<String, Integer> liveCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        synchronized (tracked) {
+            for (Map.Entry<String, List<WeakReference<Object>>> entry : tracked.entrySet()) {
+                List<WeakReference<Object>> refs = entry.getValue();
+                refs.removeIf(ref -> !isLive(ref.get()));
+                counts.put(entry.getKey(), refs.size());
+            }
+        }
+        return counts;
+    }
+
+    public static long createdCount(String category) {
+        synchronized (tracked) {
+            return created.getOrDefault(category, 0L);
+        }
+    }
+
+    // Chiede la GC finché un oggetto sentinella non viene raccolto (al massimo una decina di tentativi).
+    public static void collectGarbage() {
+        WeakReference<Object> sentinel = new WeakReference<>(new Object());
+        for (int i = 0; i < 10 && sentinel.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.gc();
+    }
+
+    // "categoria=vivi/creati ..." senza forzare la GC: i vivi comprendono anche gli oggetti non ancora raccolti.
+    public static String summary() {
+        Map<String, Integer> live = liveCounts();
+        StringBuilder text = new StringBuilder();
+        synchronized (tracked) {
+            for (Map.Entry<String, Integer> entry : live.entrySet()) {
+                if (text.length() > 0) text.append(' ');
+                text.append(entry.getKey()).append('=').append(entry.getValue()).append('/').append(created.getOrDefault(entry.getKey(), 0L));
+            }
+        }
+        return text.length() == 0 ? "nessun oggetto tracciato" : text.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package org.trisclient.trisclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class LineDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 8192;
+
+    private static final byte[][] STREAMED_PREFIXES = {
+            "RESP:GAMES_LIST;".getBytes(StandardCharsets.US_ASCII),
+            "RESP:GAMES_PAGE ".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    public interface FrameHandler {
+        void onLine(String line);
+        void onListEntry(String header, String entry);
+        void onListEnd(String header);
+        void onFrameTooLarge(int discardedBytes);
+    }
+
+    private final InputStream in;
+    private final int maxFrameSize;
+    private final byte[] readBuffer = new byte[4096];
+    private final byte[] frame;
+    private int frameLength = 0;
+    private String streamingHeader = null;
+    // l'intestazione di una lista finisce al primo ';': dopo quello il frame è una riga normale e non si ricontrolla
+    private boolean headerChecked = false;
+    private boolean discarding = false;
+    private int discardedBytes = 0;
+
+    public LineDecoder(InputStream in, int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("maxFrameSize deve essere positivo: " + maxFrameSize);
+        this.in = in;
+        this.maxFrameSize = maxFrameSize;
+        this.frame = new byte[maxFrameSize];
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    // Legge un blocco dallo stream e consegna al handler i frame completi. Restituisce false a fine stream.
+    public boolean pump(FrameHandler handler) throws IOException {
+        int read = in.read(readBuffer);
+        if (read < 0) return false;
+        for (int i = 0; i < read; i++) {
+            accept(readBuffer[i], handler);
+        }
+        return true;
+    }
+
+    private void accept(byte b, FrameHandler handler) {
+        if (b == '\r') return;
+
+        if (b == '\n') {
+            if (streamingHeader != null) {
+                String header = streamingHeader;
+                if (discarding) handler.onFrameTooLarge(discardedBytes);
+                else if (frameLength > 0) handler.onListEntry(header, decodeFrame());
+                reset();
+                handler.onListEnd(header);
+            } else if (discarding) {
+                int discarded = discardedBytes;
+                reset();
+                handler.onFrameTooLarge(discarded);
+            } else {
+                String line = decodeFrame();
+                reset();
+                handler.onLine(line);
+            }
+            return;
+        }
+
+        if (streamingHeader != null && b == '|') {
+            if (discarding) handler.onFrameTooLarge(discardedBytes);
+            else handler.onListEntry(streamingHeader, decodeFrame());
+            frameLength = 0;
+            discarding = false;
+            discardedBytes = 0;
+            return;
+        }
+
+        if (discarding) {
+            discardedBytes++;
+            return;
+        }
+        if (frameLength == maxFrameSize) {
+            discarding = true;
+            discardedBytes = frameLength + 1;
+            frameLength = 0;
+            return;
+        }
+        frame[frameLength++] = b;
+
+        if (b == ';' && streamingHeader == null && !headerChecked) {
+            headerChecked = true;
+            int offset = muxPrefixLength();
+            for (byte[] prefix : STREAMED_PREFIXES) {
+                if (frameStartsWith(prefix, offset)) {
+                    streamingHeader = decodeFrame();
+                    frameLength = 0;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Lunghezza del prefisso di sessione "@<id> " dei frame multiplexati, 0 se assente.
+    private int muxPrefixLength() {
+        if (frameLength == 0 || frame[0] != '@') return 0;
+        int i = 1;
+        while (i < frameLength && frame[i] >= '0' && frame[i] <= '9') i++;
+        return (i > 1 && i < frameLength && frame[i] == ' ') ? i + 1 : 0;
+    }
+
+    private boolean frameStartsWith(byte[] prefix, int offset) {
+        if (frameLength - offset < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (frame[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private String decodeFrame() {
+        return new String(frame, 0, frameLength, StandardCharsets.UTF_8);
+    }
+
+    private void reset() {
+        frameLength = 0;
+        streamingHeader = null;
+        headerChecked = false;
+        discarding = false;
+        discardedBytes = 0;
+    }
+}
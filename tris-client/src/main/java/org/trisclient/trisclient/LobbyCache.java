@@ -0,0 +1,231 @@
+package org.trisclient.trisclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Cache della prima pagina della lobby. Usata solo dal thread FX: le richieste partono dai controller e le pagine arrivano con runLater.
+// Una sola LIST della prima pagina in volo alla volta; le risposte del server arrivano in ordine, quindi ogni pagina ricevuta
+// appartiene alla richiesta più vecchia ancora aperta. Con più shard le prime pagine degli altri server (peer) vengono
+// richieste insieme e aggiunte in coda alla lobby quando sono arrivate tutte.
+public class LobbyCache {
+
+    public static final long DEFAULT_TTL_MS = 2000;
+    private static final long IN_FLIGHT_TIMEOUT_MS = 3000;
+
+    public enum Policy {
+        // istantanea se più giovane del TTL, altrimenti LIST
+        CACHED,
+        // istantanea subito (anche vecchia) e LIST in background; la lobby viene ridisegnata solo se è cambiata
+        REVALIDATE,
+        // l'istantanea non vale più (es. dopo CREATE): LIST e nuova istantanea
+        FRESH
+    }
+
+    public interface Sender {
+        boolean send(String command);
+    }
+
+    // Invia la LIST agli altri shard e restituisce gli endpoint a cui è partita.
+    public interface Peers {
+        Set<String> requestLobbies();
+    }
+
+    private static final class Request {
+        final boolean firstPage;
+        final int generation;
+        final long eventSeq;
+        final boolean background;
+        boolean deliver = false;
+        final List<NetworkService.GameInfo> collected = new ArrayList<>();
+        final Set<String> pendingPeers = new HashSet<>();
+        final List<NetworkService.GameInfo> peerGames = new ArrayList<>();
+        boolean ownEnded = false;
+        int nextCursor = 0;
+
+        Request(boolean firstPage, int generation, long eventSeq, boolean background) {
+            this.firstPage = firstPage;
+            this.generation = generation;
+            this.eventSeq = eventSeq;
+            this.background = background;
+        }
+    }
+
+    private final long ttlMillis;
+    private final ArrayDeque<Request> outstanding = new ArrayDeque<>();
+    private List<NetworkService.GameInfo> snapshot = null;
+    private int snapshotNextCursor = 0;
+    private long fetchedAtMillis = 0;
+    private int generation = 0;
+    private long eventSeq = 0;
+    private Request inFlight = null;
+    private long inFlightSinceMillis = 0;
+    private Peers peers = null;
+    private final Map<String, ArrayDeque<Request>> peerOutstanding = new HashMap<>();
+
+    private long served = 0;
+    private long sent = 0;
+    private long coalesced = 0;
+    private long unchanged = 0;
+
+    public LobbyCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    // Cambio di shard attivo: le richieste aperte non aspettano più i vecchi peer.
+    public void setPeers(Peers peers) {
+        this.peers = peers;
+        peerOutstanding.clear();
+        for (Request request : outstanding) request.pendingPeers.clear();
+        if (inFlight != null && inFlight.ownEnded) inFlight = null;
+        snapshot = null;
+        generation++;
+    }
+
+    public boolean request(Policy policy, NetworkService.ServerListener listener, Sender sender) {
+        long now = System.currentTimeMillis();
+        if (inFlight != null && now - inFlightSinceMillis > IN_FLIGHT_TIMEOUT_MS) {
+            // LIST senza GAMES_END (errore o stato non valido): si riparte da zero
+            outstanding.clear();
+            peerOutstanding.clear();
+            inFlight = null;
+        }
+        if (policy == Policy.FRESH) {
+            snapshot = null;
+            // una LIST inviata dopo l'ultimo messaggio del server ne vede già gli effetti: basta aspettare quella
+            if (inFlight == null || inFlight.eventSeq != eventSeq) generation++;
+        }
+        boolean fresh = snapshot != null && now - fetchedAtMillis <= ttlMillis;
+        if (snapshot != null && (fresh || policy == Policy.REVALIDATE)) {
+            served++;
+            if (listener != null) {
+                listener.onGamesPage(0, new ArrayList<>(snapshot));
+                listener.onGamesPageEnd(snapshotNextCursor);
+            }
+            if (fresh) return true;
+        }
+        boolean background = snapshot != null && policy == Policy.REVALIDATE;
+        if (inFlight != null && inFlight.generation == generation) {
+            coalesced++;
+            // chi non ha ricevuto l'istantanea deve vedere il risultato anche se non è cambiato
+            if (!background) inFlight.deliver = true;
+            return true;
+        }
+        Request request = new Request(true, generation, eventSeq, background);
+        if (!sender.send("LIST 0 " + NetworkService.LOBBY_PAGE_SIZE)) return false;
+        sent++;
+        if (peers != null) {
+            for (String endpoint : peers.requestLobbies()) {
+                request.pendingPeers.add(endpoint);
+                peerOutstanding.computeIfAbsent(endpoint, k -> new ArrayDeque<>()).add(request);
+            }
+        }
+        outstanding.add(request);
+        inFlight = request;
+        inFlightSinceMillis = now;
+        return true;
+    }
+
+    // Le pagine successive (scorrimento) non passano dalla cache ma vanno contate per attribuire le risposte.
+    public void onPageRequested() {
+        outstanding.add(new Request(false, generation, eventSeq, false));
+    }
+
+    // Ogni messaggio del server che non sia una pagina della lobby può aver cambiato le partite.
+    public void onServerEvent() {
+        eventSeq++;
+    }
+
+    // true se la pagina va consegnata subito al listener; durante una rivalidazione in background viene trattenuta.
+    public boolean onPage(List<NetworkService.GameInfo> games) {
+        Request head = outstanding.peek();
+        if (head == null || !head.firstPage) return true;
+        head.collected.addAll(games);
+        return !head.background;
+    }
+
+    public void onPageEnd(int nextCursor, NetworkService.ServerListener listener) {
+        Request head = outstanding.poll();
+        if (head == null || !head.firstPage) {
+            if (listener != null) listener.onGamesPageEnd(nextCursor);
+            return;
+        }
+        head.ownEnded = true;
+        head.nextCursor = nextCursor;
+        if (head.pendingPeers.isEmpty()) complete(head, listener);
+    }
+
+    // Le pagine dei peer arrivano dai rispettivi NetworkService, sempre sul thread FX e in ordine per ciascun peer.
+    public void onPeerPage(String endpoint, List<NetworkService.GameInfo> games) {
+        ArrayDeque<Request> queue = peerOutstanding.get(endpoint);
+        Request request = queue != null ? queue.peek() : null;
+        if (request != null) request.peerGames.addAll(games);
+    }
+
+    public void onPeerPageEnd(String endpoint, NetworkService.ServerListener listener) {
+        ArrayDeque<Request> queue = peerOutstanding.get(endpoint);
+        Request request = queue != null ? queue.poll() : null;
+        if (request != null) peerDone(request, endpoint, listener);
+    }
+
+    // Peer disconnesso o in errore: nessuna richiesta lo aspetta più.
+    public void onPeerLost(String endpoint, NetworkService.ServerListener listener) {
+        ArrayDeque<Request> queue = peerOutstanding.remove(endpoint);
+        if (queue == null) return;
+        for (Request request : queue) peerDone(request, endpoint, listener);
+    }
+
+    private void peerDone(Request request, String endpoint, NetworkService.ServerListener listener) {
+        if (request.pendingPeers.remove(endpoint) && request.ownEnded && request.pendingPeers.isEmpty()) complete(request, listener);
+    }
+
+    private void complete(Request request, NetworkService.ServerListener listener) {
+        if (request == inFlight) inFlight = null;
+        request.peerGames.sort(Comparator.comparing((NetworkService.GameInfo g) -> g.endpoint).thenComparingInt(g -> g.id));
+        request.collected.addAll(request.peerGames);
+        boolean current = request.generation == generation;
+        if (request.background) {
+            if (!request.deliver && current && sameGames(snapshot, request.collected) && snapshotNextCursor == request.nextCursor) {
+                unchanged++;
+            } else if (listener != null) {
+                listener.onGamesPage(0, new ArrayList<>(request.collected));
+                listener.onGamesPageEnd(request.nextCursor);
+            }
+        } else if (listener != null) {
+            // le pagine del server attivo sono già state consegnate: si aggiungono quelle degli altri shard
+            if (!request.peerGames.isEmpty()) listener.onGamesPage(-1, new ArrayList<>(request.peerGames));
+            listener.onGamesPageEnd(request.nextCursor);
+        }
+        if (current) {
+            snapshot = request.collected;
+            snapshotNextCursor = request.nextCursor;
+            fetchedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    public void reset() {
+        outstanding.clear();
+        peerOutstanding.clear();
+        inFlight = null;
+        snapshot = null;
+        generation++;
+    }
+
+    private static boolean sameGames(List<NetworkService.GameInfo> a, List<NetworkService.GameInfo> b) {
+        if (a == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            NetworkService.GameInfo x = a.get(i), y = b.get(i);
+            if (x.id != y.id || x.state != y.state || !x.creatorName.equals(y.creatorName) || !x.endpoint.equals(y.endpoint)) return false;
+        }
+        return true;
+    }
+
+    public String getStatsSummary() {
+        return "istantanee servite=" + served + " LIST inviate=" + sent + " accorpate=" + coalesced + " rivalidazioni senza modifiche=" + unchanged;
+    }
+}
@@ -24,10 +24,30 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) {
         System.out.println(getCurrentTimestamp()+" - Applicazione Principale: start() chiamato.");
+        FxWatchdog.start();
+        // -Dtris.seats=N apre N finestre indipendenti nella stessa JVM (banchi di prova, chioschi con più posti)
+        int seats = Math.max(1, Integer.getInteger("tris.seats", 1));
+        for (int i = 0; i < seats; i++) {
+            Stage stage = i == 0 ? primaryStage : new Stage();
+            if (!openSeat(stage, seats > 1 ? "Posto " + (i + 1) : "")) {
+                Platform.exit();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        FxWatchdog.stop();
+    }
+
+    // Una finestra con la sua ClientSession: connessione, nome e navigazione non sono condivisi con le altre.
+    private boolean openSeat(Stage stage, String seatLabel) {
+        ClientSession session = new ClientSession(stage, seatLabel);
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/trisclient/trisclient/home-page-view.fxml"));
+            FXMLLoader loader = session.loader("/org/trisclient/trisclient/home-page-view.fxml");
             Parent root = loader.load();
-            primaryStage.setTitle("Tris Client");
+            stage.setTitle(session.windowTitle("Tris Client"));
             Scene scene = new Scene(root);
             String css = this.getClass().getResource("/org/trisclient/trisclient/style.css").toExternalForm();
             if (css != null) {
@@ -36,27 +56,25 @@ public class Main extends Application {
             } else {
                 System.err.println(getCurrentTimestamp()+" - Applicazione Principale: File CSS non trovato!");
             }
-            primaryStage.setScene(scene);
+            stage.setScene(scene);
 
-            primaryStage.setOnCloseRequest(event -> {
-                System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Richiesta chiusura finestra.");
-                if (HomePageController.networkServiceInstance != null && HomePageController.networkServiceInstance.isConnected()) {
-                    System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Disconnessione NetworkService per chiusura finestra.");
-                    HomePageController.networkServiceInstance.disconnect();
-                }
-                System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Uscita dall'applicazione.");
+            stage.setOnCloseRequest(event -> {
+                System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Richiesta chiusura finestra " + session.windowTitle("sessione " + session.getId()) + ".");
+                session.close();
+                System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Finestra chiusa.");
             });
 
-            primaryStage.show();
-            System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Stage primario mostrato.");
+            stage.show();
+            System.out.println(getCurrentTimestamp()+" - Applicazione Principale: Stage mostrato" + (seatLabel.isEmpty() ? "" : " (" + seatLabel + ")") + ".");
+            return true;
         } catch (IOException e) {
             System.err.println(getCurrentTimestamp()+" - Applicazione Principale: ERRORE FATALE caricamento FXML!");
             e.printStackTrace();
-            Platform.exit();
+            return false;
         } catch (Exception e) {
             System.err.println(getCurrentTimestamp()+" - Applicazione Principale: ERRORE INASPETTATO durante l'avvio!");
             e.printStackTrace();
-            Platform.exit();
+            return false;
         }
     }
 
@@ -65,4 +83,4 @@ public class Main extends Application {
         launch(args);
         System.out.println("-------------------- Chiusura Client Tris ---------------------");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package org.trisclient.trisclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Traccia di una mossa dal clic alla griglia ridisegnata. Ogni fase viene segnata dal thread che la esegue
+// (FX, NetworkWriterThread, NetworkListenerThread) e a mossa completata le durate finiscono negli istogrammi.
+public class MoveTracer {
+
+    public enum Stage {
+        CLICK_TO_QUEUE("clic -> coda"),
+        QUEUE_TO_SOCKET("coda -> socket"),
+        SERVER_ECHO("socket -> eco MOVE"),
+        PARSE("decodifica"),
+        FX_DISPATCH("consegna FX"),
+        RENDER("layout/render"),
+        TOTAL("totale");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class Trace {
+        final long clickNanos;
+        volatile long enqueuedNanos;
+        final AtomicLong writtenNanos = new AtomicLong();
+        volatile long receivedNanos;
+        volatile long decodedNanos;
+        volatile long appliedNanos;
+
+        Trace(long clickNanos) {
+            this.clickNanos = clickNanos;
+        }
+    }
+
+    private final AtomicReference<Trace> current = new AtomicReference<>();
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final AtomicLong abandoned = new AtomicLong();
+
+    public MoveTracer() {
+        for (Stage stage : Stage.values()) histograms.put(stage, new LatencyHistogram(stage.name()));
+    }
+
+    // Thread FX, nel gestore del clic.
+    public void begin() {
+        if (current.getAndSet(new Trace(System.nanoTime())) != null) abandoned.incrementAndGet();
+    }
+
+    // Thread FX, da sendMove subito prima di accodare il comando.
+    public void markEnqueued() {
+        Trace trace = current.get();
+        if (trace != null) trace.enqueuedNanos = System.nanoTime();
+    }
+
+    // NetworkWriterThread, dopo il flush della riga MOVE.
+    public void markWritten(String line, long writtenNanos) {
+        Trace trace = current.get();
+        if (trace != null && line.startsWith("MOVE ")) trace.writtenNanos.compareAndSet(0, writtenNanos);
+    }
+
+    // NetworkListenerThread, alla prima NOTIFY:MOVE (o BOARD) dopo l'invio della mossa.
+    public void markEcho(long receivedNanos, long decodedNanos) {
+        Trace trace = current.get();
+        if (trace == null || trace.enqueuedNanos == 0 || trace.receivedNanos != 0) return;
+        // l'eco può arrivare prima che il writer registri l'istante del flush
+        trace.writtenNanos.compareAndSet(0, receivedNanos);
+        trace.decodedNanos = decodedNanos;
+        trace.receivedNanos = receivedNanos;
+    }
+
+    // Thread FX, dopo aver aggiornato i pulsanti della griglia.
+    public void markApplied() {
+        Trace trace = current.get();
+        if (trace != null && trace.receivedNanos != 0 && trace.appliedNanos == 0) trace.appliedNanos = System.nanoTime();
+    }
+
+    public boolean isAwaitingRender() {
+        Trace trace = current.get();
+        return trace != null && trace.appliedNanos != 0;
+    }
+
+    // Thread FX, nel primo pulse dopo l'aggiornamento: chiude la traccia.
+    public void markRendered() {
+        Trace trace = current.get();
+        if (trace == null || trace.appliedNanos == 0 || !current.compareAndSet(trace, null)) return;
+        long now = System.nanoTime();
+        long written = trace.writtenNanos.get();
+        histograms.get(Stage.CLICK_TO_QUEUE).recordNanos(trace.enqueuedNanos - trace.clickNanos);
+        histograms.get(Stage.QUEUE_TO_SOCKET).recordNanos(written - trace.enqueuedNanos);
+        histograms.get(Stage.SERVER_ECHO).recordNanos(trace.receivedNanos - written);
+        histograms.get(Stage.PARSE).recordNanos(trace.decodedNanos - trace.receivedNanos);
+        histograms.get(Stage.FX_DISPATCH).recordNanos(trace.appliedNanos - trace.decodedNanos);
+        histograms.get(Stage.RENDER).recordNanos(now - trace.appliedNanos);
+        histograms.get(Stage.TOTAL).recordNanos(now - trace.clickNanos);
+    }
+
+    // Mossa rifiutata (errore del server o coda piena): la traccia non viene registrata.
+    public void cancel() {
+        if (current.getAndSet(null) != null) abandoned.incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public String getOverlayText() {
+        LatencyHistogram total = histograms.get(Stage.TOTAL);
+        if (total.getTotalCount() == 0) return "Latenza mossa: nessun campione";
+        LatencyHistogram echo = histograms.get(Stage.SERVER_ECHO);
+        return String.format(Locale.ROOT, "Latenza mossa (n=%d): p50 %.1f ms  p99 %.1f ms | server p50 %.1f ms  p99 %.1f ms",
+                total.getTotalCount(), total.percentileMicros(50) / 1000.0, total.percentileMicros(99) / 1000.0,
+                echo.percentileMicros(50) / 1000.0, echo.percentileMicros(99) / 1000.0);
+    }
+
+    public String getSummary() {
+        StringBuilder out = new StringBuilder("Latenze mosse (scartate: " + abandoned.get() + ")");
+        for (Stage stage : Stage.values()) out.append("\n  ").append(stage.label).append(" - ").append(histograms.get(stage).summary());
+        return out.toString();
+    }
+
+    public void exportCsv(Path file) throws IOException {
+        String version = MoveTracer.class.getPackage().getImplementationVersion();
+        StringBuilder out = new StringBuilder();
+        out.append("# tris-client ").append(version != null ? version : "dev").append(" - ").append(LocalDateTime.now()).append('\n');
+        out.append("fase,da_us,a_us,conteggio\n");
+        for (Stage stage : Stage.values()) histograms.get(stage).appendCsv(out);
+        Files.writeString(file, out.toString(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package org.trisclient.trisclient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Passaggio dalla lobby alla partita: dopo GAME_START griglia, mosse e YOUR_TURN arrivano ancora alla HomePage finché il
+// GameController non diventa il listener, e vanno tenuti da parte per passarglieli in setupGame. Senza JavaFX: lo usano
+// sia HomePageController sia ProtocolSimulator.
+public class NavigationGuard {
+
+    public record Handoff(char[] board, boolean turn, boolean opponentLeft) {}
+
+    private volatile char[] cachedBoard = null;
+    private final AtomicBoolean cachedTurn = new AtomicBoolean(false);
+    private final AtomicBoolean cachedOpponentLeft = new AtomicBoolean(false);
+    private final AtomicBoolean navigating = new AtomicBoolean(false);
+
+    public void reset() {
+        navigating.set(false);
+        cachedBoard = null;
+        cachedTurn.set(false);
+        cachedOpponentLeft.set(false);
+    }
+
+    public void begin() {
+        navigating.set(true);
+        cachedBoard = null;
+        cachedTurn.set(false);
+        cachedOpponentLeft.set(false);
+    }
+
+    public boolean isNavigating() {
+        return navigating.get();
+    }
+
+    // false se non c'è un passaggio in corso: l'evento è inatteso per la lobby
+    public boolean cacheBoard(char[] board) {
+        if (!navigating.get()) return false;
+        cachedBoard = board;
+        return true;
+    }
+
+    // Una mossa dell'avversario durante il passaggio va applicata alla griglia che verrà passata al GameController.
+    public boolean applyMove(int row, int col, char symbol) {
+        char[] board = cachedBoard;
+        if (!navigating.get() || board == null) return false;
+        board[row * ServerEvent.BOARD_SIZE + col] = symbol;
+        return true;
+    }
+
+    public boolean cacheTurn() {
+        if (!navigating.get()) return false;
+        cachedTurn.set(true);
+        return true;
+    }
+
+    // L'avversario è uscito subito dopo GAME_START: il GameController deve mostrarlo appena pronto, il GAMEOVER che segue è ridondante.
+    public boolean cacheOpponentLeft() {
+        if (!navigating.get()) return false;
+        cachedOpponentLeft.set(true);
+        return true;
+    }
+
+    // GAMEOVER WIN che segue OPPONENT_LEFT durante il passaggio: il GameController lo ricava già da opponentLeft.
+    public boolean absorbGameOver() {
+        return navigating.get() && cachedOpponentLeft.get();
+    }
+
+    public Handoff take() {
+        char[] board = cachedBoard;
+        boolean turn = cachedTurn.getAndSet(false);
+        cachedBoard = null;
+        return new Handoff(board, turn, cachedOpponentLeft.getAndSet(false));
+    }
+
+    public void finish() {
+        navigating.set(false);
+    }
+
+    // Errore arrivato durante il passaggio: true solo per il primo che lo annulla.
+    public boolean cancel() {
+        return navigating.compareAndSet(true, false);
+    }
+}
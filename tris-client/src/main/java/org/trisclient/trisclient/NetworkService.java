@@ -2,31 +2,79 @@ package org.trisclient.trisclient;
 
 import javafx.application.Platform;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class NetworkService {
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    // Scritti dal lettore e chiusi da closeResources() su un altro thread: volatili come writer, tls e recorder.
+    private volatile Socket socket;
+    private volatile OutboundWriter writer;
+    private volatile InputStream in;
     private volatile boolean running = false;
     private final AtomicReference<ServerListener> listenerRef = new AtomicReference<>();
     private String currentListenerName = "null";
-    private ExecutorService networkExecutor;
+    // Ciclo di vita della connessione: il lettore gira su un thread virtuale, connected si completa a connessione stabilita e closed
+    // quando il lettore è uscito e le risorse sono chiuse. Nessuna chiamata pubblica aspetta socket o thread.
+    private volatile Thread readerThread;
+    private volatile CompletableFuture<Void> connected = CompletableFuture.failedFuture(new IOException("Non connesso"));
+    private volatile CompletableFuture<Void> closed = CompletableFuture.completedFuture(null);
+    private volatile CompletableFuture<Void> closing = CompletableFuture.completedFuture(null);
+    private volatile List<String> lastEndpoints = List.of();
+    private InboundFrameHandler inboundHandler = new InboundFrameHandler();
+    private final MoveTracer moveTracer = new MoveTracer();
+    // Sequenza dell'ultima mossa applicata (-1 prima della prima griglia completa) e RESYNC in attesa di risposta. Solo thread FX.
+    private int boardSeq = -1;
+    private boolean resyncPending = false;
+    // Classifica in più frame RESP:LEADERBOARD fino a LEADERBOARD_END (-1: nessuna in arrivo). Solo thread FX.
+    private int leaderboardOffset = -1;
+    private int leaderboardTotal = 0;
+    private final List<LeaderboardEntry> leaderboardEntries = new ArrayList<>();
+    private volatile TrafficRecorder recorder;
+    private volatile TlsTransport tls;
+    private volatile String endpoint = "";
+    // RTT misurato con PING/PONG (media mobile, 1/8 per campione, -1 finché non c'è un campione) e ultimo orologio di partita.
+    private volatile long rttNanos = -1;
+    private volatile long lastPingNanos;
+    private volatile boolean pingSent = false;
+    private int pongCount;
+    private volatile GameClock lastClock;
+    private static final long PING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int PING_WARMUP = 3;
+
+    private final NetworkService muxParent;
+    private final int muxSessionId;
+    private final Map<Integer, NetworkService> muxSessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMuxSessionId = new AtomicInteger(1);
+
+    public static final int LOBBY_PAGE_SIZE = 12;
+    private static final int LOBBY_BATCH_SIZE = 16;
+    // Come CHAT_MAX_TEXT_LEN del server: un testo incollato più lungo supererebbe il buffer di riga del server.
+    public static final int CHAT_MAX_LENGTH = 200;
+
+    private final int maxFrameSize = Integer.getInteger("tris.maxFrameSize", LineDecoder.DEFAULT_MAX_FRAME_SIZE);
+    private final int outboundCapacity = Integer.getInteger("tris.outbound.capacity", OutboundWriter.DEFAULT_CAPACITY);
+    private final LobbyCache lobbyCache = new LobbyCache(Long.getLong("tris.lobby.ttlMs", LobbyCache.DEFAULT_TTL_MS));
+    // Thread su cui arrivano i callback dei listener: quello FX, salvo negli strumenti headless (SoakHarness).
+    private static volatile Executor uiExecutor = Platform::runLater;
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
@@ -35,149 +83,420 @@ public class NetworkService {
         return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
     }
 
+    public NetworkService() {
+        this(null, 0);
+    }
+
+    public static void setUiExecutor(Executor executor) {
+        uiExecutor = executor;
+    }
+
+    // Task per il thread FX; con FxWatchdog attivo attesa e durata vanno sotto "listener.callback" (o "listener.TipoEvento").
+    private void runOnUi(String callback, Runnable task) {
+        if (!FxWatchdog.isEnabled()) {
+            uiExecutor.execute(task);
+            return;
+        }
+        ServerListener listener = listenerRef.get();
+        uiExecutor.execute(FxWatchdog.track((listener != null ? listener.getClass().getSimpleName() : "nessun listener") + "." + callback, task));
+    }
+
+    private NetworkService(NetworkService muxParent, int muxSessionId) {
+        this.muxParent = muxParent;
+        this.muxSessionId = muxSessionId;
+    }
+
     public interface ServerListener {
         void onConnected();
-        void onDisconnected(String reason);
+        void onDisconnected(DisconnectReason reason, String detail);
         void onMessageReceived(String rawMessage);
-        void onError(String message);
+        void onError(ErrorCode code, String message);
         void onNameRequested();
         void onNameAccepted();
-        void onNameRejected(String reason);
-        void onGamesList(List<GameInfo> games);
+        void onNameRejected(ErrorCode code);
+        void onGamesPage(int cursor, List<GameInfo> games);
+        void onGamesPageEnd(int nextCursor);
         void onActionConfirmed(String message);
         void onGameCreated(int gameId);
+        void onQueued(int queuedPlayers);
+        void onUnqueued();
         void onJoinRequestSent(int gameId);
         void onJoinRequestReceived(String requesterName);
         void onJoinAccepted(int gameId, char symbol, String opponentName);
         void onJoinRejected(int gameId, String creatorName);
         void onGameStart(int gameId, char symbol, String opponentName);
-        void onBoardUpdate(String[] board);
+        void onBoardUpdate(char[] board);
+        void onMoveApplied(int row, int col, char symbol);
         void onYourTurn();
-        void onGameOver(String result);
+        void onPremoveQueued(int row, int col);
+        void onPremoveRejected(int row, int col);
+        void onGameOver(GameResult result);
         void onOpponentLeft();
         void onRematchOffer();
         void onRematchAccepted(int gameId);
         void onRematchDeclined();
         void onOpponentRematchDecision(boolean opponentAccepted);
+        void onLeaderboard(int offset, int totalPlayers, List<LeaderboardEntry> entries);
+        void onRank(int rank, int rating, int totalPlayers);
+        void onRatingUpdate(LeaderboardEntry entry, int delta, int totalPlayers);
+        void onChatMessages(List<ChatMessage> messages);
+        void onChatRejected(ErrorCode code);
+        void onClock(GameClock clock);
     }
 
     public static class GameInfo {
         public final int id;
         public final String creatorName;
-        public final String state;
+        public final GameState state;
+        public final String endpoint;
 
-        public GameInfo(int id, String creatorName, String state) {
+        public GameInfo(int id, String creatorName, GameState state, String endpoint) {
             this.id = id;
             this.creatorName = creatorName;
             this.state = state;
+            this.endpoint = endpoint;
         }
         @Override public String toString() {
-            return "Partita " + id + " (di " + creatorName + ") - " + state;
+            return "Partita " + id + " (di " + creatorName + ") - " + state.label;
+        }
+    }
+
+    public static class ChatMessage {
+        public final String room;
+        public final String sender;
+        public final String text;
+
+        public ChatMessage(String room, String sender, String text) {
+            this.room = room;
+            this.sender = sender;
+            this.text = text;
+        }
+        @Override public String toString() {
+            return sender + ": " + text;
+        }
+    }
+
+    public static class LeaderboardEntry {
+        public final int rank;
+        public final String name;
+        public final int rating;
+        public final int gamesPlayed;
+
+        public LeaderboardEntry(int rank, String name, int rating, int gamesPlayed) {
+            this.rank = rank;
+            this.name = name;
+            this.rating = rating;
+            this.gamesPlayed = gamesPlayed;
+        }
+        public LeaderboardEntry withRank(int newRank) {
+            return new LeaderboardEntry(newRank, name, rating, gamesPlayed);
+        }
+        @Override public String toString() {
+            return "#" + rank + " " + name + " - " + rating + " (" + gamesPlayed + " partite)";
         }
     }
 
     public void setServerListener(ServerListener newListener) {
         String oldListenerName = this.currentListenerName;
         String newListenerName = (newListener != null) ? newListener.getClass().getSimpleName() + " ("+newListener.hashCode()+")" : "null";
+        TrisEvents.ListenerHandoff handoff = new TrisEvents.ListenerHandoff();
         listenerRef.set(newListener);
         this.currentListenerName = newListenerName;
+        if (handoff.shouldCommit()) {
+            handoff.previous = oldListenerName;
+            handoff.next = newListenerName;
+            handoff.muxSession = muxSessionId;
+            handoff.commit();
+        }
         System.out.println(getCurrentTimestamp() + " - NetworkService: *** setServerListener chiamato *** | Vecchio listener: " + oldListenerName + " | Nuovo listener: " + newListenerName);
     }
 
-    public void connect(String host, int port, ServerListener initialListener) {
-        if (!canAttemptConnect()) {
-            System.out.println(getCurrentTimestamp() + " - NetworkService: connect() chiamato ma impossibile tentare la connessione (già in esecuzione o executor attivo?).");
-            return;
+    public ServerListener getServerListener() {
+        return listenerRef.get();
+    }
+
+    // Ultimo NOTIFY:CLOCK della partita in corso, null dopo un nuovo inizio partita finché non arriva il primo.
+    public GameClock getLastClock() {
+        return lastClock;
+    }
+
+    public long getRttMillis() {
+        long rtt = rttNanos;
+        return rtt < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(rtt);
+    }
+
+    // Il token è l'istante di invio: il PONG lo riporta e dà un campione di RTT senza tenere stato per ogni PING.
+    public boolean sendPing() {
+        lastPingNanos = System.nanoTime();
+        pingSent = true;
+        return sendMessage("PING " + lastPingNanos);
+    }
+
+    private void onPong(long token, long receivedNanos) {
+        long sample = receivedNanos - token;
+        if (sample <= 0 || sample > TimeUnit.MINUTES.toNanos(1)) return;
+        long previous = rttNanos;
+        // i primi PING, appena connessi, pagano l'avvio di JVM e server: se ne mandano PING_WARMUP di fila e si parte dal minimo
+        if (++pongCount <= PING_WARMUP) {
+            rttNanos = previous < 0 ? sample : Math.min(previous, sample);
+            if (pongCount < PING_WARMUP && running) sendPing();
+        } else {
+            rttNanos = previous + (sample - previous) / 8;
+        }
+        System.out.println(getCurrentTimestamp() + " - NetworkService: RTT " + sample / 1000 + " us (media " + rttNanos / 1000 + " us).");
+    }
+
+    // L'orologio prende come riferimento l'arrivo della riga e mezzo RTT per il tragitto server -> client.
+    private ServerEvent syncClock(ServerEvent event, long receivedNanos) {
+        if (event instanceof ServerEvent.GameStart || event instanceof ServerEvent.JoinAccepted) {
+            lastClock = null;
+            return event;
+        }
+        if (!(event instanceof ServerEvent.Clock(GameClock clock))) return event;
+        long rtt = rttNanos;
+        GameClock synced = clock.synced(receivedNanos, rtt < 0 ? 0 : rtt / 2);
+        lastClock = synced;
+        if (!pingSent || receivedNanos - lastPingNanos > PING_INTERVAL_NANOS) sendPing();
+        return new ServerEvent.Clock(synced);
+    }
+
+    // "host:porta" del server (per le sessioni mux quello della connessione principale).
+    public String getEndpoint() {
+        return muxParent != null ? muxParent.getEndpoint() : endpoint;
+    }
+
+    public LobbyCache getLobbyCache() {
+        return lobbyCache;
+    }
+
+    public CompletableFuture<Void> connect(String host, int port, ServerListener initialListener) {
+        return connect(List.of(host + ":" + port), initialListener);
+    }
+
+    // Più endpoint "host:porta" equivalenti: EndpointConnector li prova in parallelo e la connessione va al primo che risponde.
+    // Non blocca: il future si completa quando il socket è pronto (onConnected già accodato) o con l'errore di connessione.
+    // Se la connessione precedente si sta ancora chiudendo, quella nuova parte appena la chiusura è finita.
+    public CompletableFuture<Void> connect(List<String> endpoints, ServerListener initialListener) {
+        if (muxParent != null) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: connect() non valido per la sessione mux " + muxSessionId + ", usa openSession() sulla connessione principale.");
+            return CompletableFuture.failedFuture(new IllegalStateException("connect() su una sessione mux"));
+        }
+        if (running) {
+            System.out.println(getCurrentTimestamp() + " - NetworkService: connect() chiamato con una connessione già attiva o in corso.");
+            return connected;
         }
 
         setServerListener(initialListener);
+        lobbyCache.reset();
+        boardSeq = -1;
+        resyncPending = false;
+        leaderboardOffset = -1;
+        endpoint = endpoints.get(0);
+        lastEndpoints = List.copyOf(endpoints);
+        rttNanos = -1;
+        pongCount = 0;
+        pingSent = false;
+        lastClock = null;
         running = true;
 
-        if (networkExecutor == null || networkExecutor.isShutdown()) {
-            networkExecutor = Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "NetworkListenerThread");
-                t.setDaemon(true);
-                return t;
-            });
-            System.out.println(getCurrentTimestamp()+" - NetworkService: Creato nuovo NetworkExecutor.");
+        CompletableFuture<Void> previous = CompletableFuture.allOf(closed, closing);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        connected = result;
+        closed = done;
+        previous.whenComplete((ignored, error) -> {
+            Thread reader = Thread.ofVirtual().name("NetworkListener-" + endpoints.get(0)).unstarted(() -> readLoop(endpoints, result, done));
+            LeakTracker.track("NetworkListenerThread", reader);
+            readerThread = reader;
+            reader.start();
+        });
+        System.out.println(getCurrentTimestamp()+" - NetworkService: Connessione avviata su un thread virtuale.");
+        return result;
+    }
+
+    // Chiude la connessione attuale e ne apre una nuova sugli stessi endpoint; nessuna attesa sul chiamante.
+    public CompletableFuture<Void> reconnect(ServerListener listener) {
+        List<String> endpoints = lastEndpoints;
+        if (endpoints.isEmpty()) return CompletableFuture.failedFuture(new IllegalStateException("Nessuna connessione precedente"));
+        disconnect();
+        return connect(endpoints, listener);
+    }
+
+    // Una connect() successiva rende vecchio il lettore precedente: da lì in poi non notifica più nulla.
+    private boolean isCurrent(CompletableFuture<Void> done) {
+        return running && closed == done;
+    }
+
+    // Thread virtuale del lettore: collegamento, ciclo di lettura e chiusura delle risorse della connessione.
+    private void readLoop(List<String> endpoints, CompletableFuture<Void> result, CompletableFuture<Void> done) {
+        if (!isCurrent(done)) {
+            // disconnect() arrivato mentre si chiudeva la connessione precedente
+            result.completeExceptionally(new CancellationException("Connessione annullata"));
+            done.complete(null);
+            return;
         }
+        System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Avvio connessione.");
+        try {
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Connessione a " + String.join(", ", endpoints) + "...");
+            EndpointConnector.Connection connection = EndpointConnector.fromProperties().connect(endpoints);
+            Socket connectedSocket = connection.socket();
+            // Prima si pubblica il socket, poi si ricontrolla running: disconnect() fa l'opposto, quindi almeno uno dei due lo chiude.
+            socket = connectedSocket;
+            endpoint = connection.endpoint();
+            if (!isCurrent(done)) throw new SocketException("Connessione annullata durante il collegamento");
+            connectedSocket.setTcpNoDelay(true);
+            OutputStream out = connectedSocket.getOutputStream();
+            in = connectedSocket.getInputStream();
+            if (TlsTransport.isEnabled()) {
+                tls = TlsTransport.open(connectedSocket, ShardRing.parseHost(endpoint), ShardRing.parsePort(endpoint));
+                out = tls.getOutputStream();
+                in = tls.getInputStream();
+            }
+            writer = new OutboundWriter(out, outboundCapacity, this::onWriteFailed);
+            writer.setWriteListener(this::onLineWritten);
+            writer.start();
+            recorder = TrafficRecorder.open(ShardRing.parseHost(endpoint), ShardRing.parsePort(endpoint));
+            if (recorder != null) {
+                in = recorder.tap(in);
+                writer.setRecorder(recorder);
+                System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Cattura del traffico su " + recorder.getFile());
+            }
+            LineDecoder decoder = new LineDecoder(in, maxFrameSize);
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Connessione stabilita.");
 
-        networkExecutor.submit(() -> {
-            System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Avvio task di connessione.");
-            try {
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Connessione a " + host + ":" + port + "...");
-                socket = new Socket(host, port);
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Connessione stabilita.");
-
-                Platform.runLater(() -> {
-                    ServerListener currentListener = listenerRef.get();
-                    if (currentListener != null) {
-                        currentListener.onConnected();
-                    } else {
-                        System.err.println(getCurrentTimestamp()+" - NetworkService: Listener è NULL nel callback onConnected!");
-                    }
-                });
+            notifyConnected();
+            sendPing();
+            result.complete(null);
 
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Thread listener avvia ciclo. Listener attivo: " + currentListenerName);
-                String serverMessage;
-                while (running && (serverMessage = in.readLine()) != null) {
-                    final String message = serverMessage;
-                    System.out.println(getCurrentTimestamp() + " - RAW DAL SERVER: [" + message + "]");
-
-                    Platform.runLater(() -> {
-                        ServerListener currentListener = listenerRef.get();
-                        if (currentListener != null) {
-                            parseServerMessage(message, currentListener);
-                        } else {
-                            System.err.println(getCurrentTimestamp() + " - NetworkService (in runLater): ERRORE - Nessun listener attivo per gestire messaggio: " + message);
-                        }
-                    });
-                }
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Ciclo di lettura terminato. Motivo: running=" + running + " o readLine ha restituito null.");
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Thread listener avvia ciclo. Listener attivo: " + currentListenerName + " | Max frame: " + maxFrameSize + " byte");
+            inboundHandler = new InboundFrameHandler();
+            while (isCurrent(done) && decoder.pump(inboundHandler)) {
+                // i frame completi vengono consegnati a frameHandler
+            }
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Ciclo di lettura terminato. Motivo: running=" + isCurrent(done) + " o fine stream.");
 
-                if (running) {
-                    System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Rilevata chiusura inattesa connessione server (readLine ha restituito null mentre running).");
-                    handleDisconnection("Il server ha chiuso la connessione");
-                }
+            if (isCurrent(done)) {
+                System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Rilevata chiusura inattesa connessione server (fine stream mentre running).");
+                handleDisconnection(DisconnectReason.SERVER_CLOSED, null);
+            }
 
-            } catch (SocketException e) {
-                final String errorMsg = "Errore di connessione: " + e.getMessage();
-                System.err.println(getCurrentTimestamp() + " - NetworkService (in executor): SocketException: " + e.getMessage() + " | running="+running);
-                if (running) {
-                    handleDisconnection(errorMsg);
-                } else {
-                    System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Socket chiuso intenzionalmente o durante lo spegnimento.");
-                }
-            } catch (IOException e) {
-                final String errorMsg = "Errore IO: " + e.getMessage();
-                System.err.println(getCurrentTimestamp() + " - NetworkService (in executor): IOException: " + e.getMessage() + " | running="+running);
-                if (running) {
-                    handleDisconnection(errorMsg);
-                }
-            } finally {
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Ingresso nel blocco finally.");
-                closeResources();
-                System.out.println(getCurrentTimestamp() + " - NetworkService (in executor): Task del listener terminato.");
+        } catch (SocketException e) {
+            result.completeExceptionally(e);
+            System.err.println(getCurrentTimestamp() + " - NetworkService (lettore): SocketException: " + e.getMessage() + " | running="+isCurrent(done));
+            if (isCurrent(done)) {
+                handleDisconnection(DisconnectReason.CONNECTION_ERROR, e.getMessage());
+            } else {
+                System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Socket chiuso intenzionalmente o durante lo spegnimento.");
+            }
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            System.err.println(getCurrentTimestamp() + " - NetworkService (lettore): IOException: " + e.getMessage() + " | running="+isCurrent(done));
+            if (isCurrent(done)) {
+                handleDisconnection(DisconnectReason.IO_ERROR, e.getMessage());
+            }
+        } finally {
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Ingresso nel blocco finally.");
+            closeResources();
+            if (readerThread == Thread.currentThread()) readerThread = null;
+            result.completeExceptionally(new IOException("Connessione chiusa prima di essere stabilita"));
+            done.complete(null);
+            System.out.println(getCurrentTimestamp() + " - NetworkService (lettore): Thread lettore terminato.");
+        }
+    }
+
+    private void notifyConnected() {
+        runOnUi("onConnected", () -> {
+            ServerListener currentListener = listenerRef.get();
+            if (currentListener != null) {
+                currentListener.onConnected();
+            } else {
+                System.err.println(getCurrentTimestamp()+" - NetworkService: Listener è NULL nel callback onConnected!");
             }
         });
-        System.out.println(getCurrentTimestamp()+" - NetworkService: Task di connessione inviato all'executor.");
     }
 
-    private void handleDisconnection(String reason) {
-        System.out.println(getCurrentTimestamp()+" - NetworkService: handleDisconnection chiamato con motivo: "+reason);
+    public NetworkService openSession(ServerListener sessionListener) {
+        if (muxParent != null) {
+            throw new IllegalStateException("Una sessione mux non può aprire altre sessioni");
+        }
+        if (!isConnected()) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: openSession() chiamato senza connessione attiva.");
+            return null;
+        }
+        int sessionId = nextMuxSessionId.getAndIncrement();
+        NetworkService session = new NetworkService(this, sessionId);
+        session.setServerListener(sessionListener);
+        session.running = true;
+        muxSessions.put(sessionId, session);
+        System.out.println(getCurrentTimestamp() + " - NetworkService: Apertura sessione mux " + sessionId + " (" + muxSessions.size() + " sessioni sulla connessione).");
+        sendMessage("MUX OPEN " + sessionId);
+        return session;
+    }
+
+    public boolean isMuxSession() {
+        return muxParent != null;
+    }
+
+    public int getOpenSessionCount() {
+        return muxSessions.size();
+    }
+
+    private NetworkService muxSessionFor(String prefixedLine) {
+        int space = prefixedLine.indexOf(' ');
+        try {
+            int sessionId = Integer.parseInt(prefixedLine.substring(1, space < 0 ? prefixedLine.length() : space));
+            NetworkService session = muxSessions.get(sessionId);
+            if (session == null) {
+                System.err.println(getCurrentTimestamp() + " - NetworkService: Frame per sessione mux sconosciuta " + sessionId + " scartato.");
+            }
+            return session;
+        } catch (NumberFormatException e) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: Prefisso mux non valido: " + prefixedLine);
+            return null;
+        }
+    }
+
+    private static String stripMuxPrefix(String prefixedLine) {
+        int space = prefixedLine.indexOf(' ');
+        return space < 0 ? "" : prefixedLine.substring(space + 1);
+    }
+
+    private boolean handleMuxControl(String line) {
+        boolean opened = line.startsWith("RESP:MUX_OPENED ");
+        if (!opened && !line.startsWith("RESP:MUX_CLOSED ")) return false;
+        NetworkService session;
+        try {
+            int sessionId = Integer.parseInt(line.substring(line.indexOf(' ') + 1).trim());
+            session = opened ? muxSessions.get(sessionId) : muxSessions.remove(sessionId);
+        } catch (NumberFormatException e) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: Risposta mux malformata: " + line);
+            return true;
+        }
+        if (session != null) {
+            if (opened) session.notifyConnected();
+            else session.handleDisconnection(DisconnectReason.SESSION_CLOSED, null);
+        }
+        return true;
+    }
+
+    private void handleDisconnection(DisconnectReason reason, String detail) {
+        System.out.println(getCurrentTimestamp()+" - NetworkService: handleDisconnection chiamato con motivo: "+reason.describe(detail));
         if (!running) {
             System.out.println(getCurrentTimestamp()+" - NetworkService: handleDisconnection ignorato perchè 'running' è già false.");
             return;
         }
         running = false;
 
-        Platform.runLater(() -> {
+        for (NetworkService session : muxSessions.values()) {
+            session.handleDisconnection(reason, detail);
+        }
+        muxSessions.clear();
+
+        runOnUi("onDisconnected", () -> {
             ServerListener currentListener = listenerRef.get();
             if (currentListener != null) {
-                System.out.println(getCurrentTimestamp()+" - NetworkService (in runLater): Notifica al listener "+currentListener.getClass().getSimpleName()+" ("+currentListener.hashCode()+") della disconnessione: "+reason);
-                currentListener.onDisconnected(reason);
+                System.out.println(getCurrentTimestamp()+" - NetworkService (in runLater): Notifica al listener "+currentListener.getClass().getSimpleName()+" ("+currentListener.hashCode()+") della disconnessione: "+reason.describe(detail));
+                currentListener.onDisconnected(reason, detail);
             } else {
                 System.err.println(getCurrentTimestamp()+" - NetworkService: Listener è NULL durante la gestione della disconnessione!");
             }
@@ -185,305 +504,471 @@ public class NetworkService {
     }
 
 
-    private void parseServerMessage(String message, ServerListener currentListener) {
-        if (message == null || message.trim().isEmpty()) return;
-        if(currentListener == null){
-            System.err.println(getCurrentTimestamp()+" - NetworkService: parseServerMessage - Listener è NULL! Impossibile processare: "+message);
+    // Il messaggio è già decodificato: qui resta solo uno switch esaustivo sui tipi di evento.
+    private void dispatchEvent(ServerEvent event, ServerListener currentListener) {
+        if (currentListener == null) {
+            System.err.println(getCurrentTimestamp()+" - NetworkService: dispatchEvent - Listener è NULL! Impossibile processare: "+event);
             return;
         }
 
+        if (!(event instanceof ServerEvent.GamesPageEnd)) lobbyCache.onServerEvent();
         try {
-            if (message.startsWith("CMD:GET_NAME")) {
-                currentListener.onNameRequested();
-            } else if (message.startsWith("RESP:NAME_OK")) {
-                currentListener.onNameAccepted();
-            } else if (message.startsWith("ERROR:NAME_TAKEN")) {
-                currentListener.onNameRejected("Nome già preso.");
-            } else if (message.startsWith("RESP:GAMES_LIST;")) {
-                List<GameInfo> games = new ArrayList<>();
-                String content = message.substring("RESP:GAMES_LIST;".length());
-                if (!content.isEmpty()) {
-                    String[] gameEntries = content.split("\\|");
-                    for (String entry : gameEntries) {
-                        String[] parts = entry.split(",");
-                        if (parts.length >= 3) {
-                            try {
-                                int id = Integer.parseInt(parts[0]);
-                                String name = parts[1];
-                                String state = parts[2];
-                                games.add(new GameInfo(id, name, state));
-                            } catch (NumberFormatException | IndexOutOfBoundsException e) {
-                                System.err.println(getCurrentTimestamp() + " - Errore parsing voce partita nella lista: " + entry);
-                            }
-                        } else {
-                            System.err.println(getCurrentTimestamp() + " - Voce partita malformata nella lista: " + entry);
-                        }
+            switch (event) {
+                case ServerEvent.NameRequested e -> currentListener.onNameRequested();
+                case ServerEvent.NameAccepted e -> currentListener.onNameAccepted();
+                case ServerEvent.NameRejected(ErrorCode code) -> currentListener.onNameRejected(code);
+                case ServerEvent.GamesPageEnd(int nextCursor) -> lobbyCache.onPageEnd(nextCursor, currentListener);
+                case ServerEvent.GameCreated(int gameId) -> currentListener.onGameCreated(gameId);
+                case ServerEvent.Queued(int queuedPlayers) -> currentListener.onQueued(queuedPlayers);
+                case ServerEvent.Unqueued e -> currentListener.onUnqueued();
+                case ServerEvent.Leaderboard(int offset, int total, List<LeaderboardEntry> entries) -> {
+                    if (leaderboardOffset < 0) {
+                        leaderboardOffset = offset;
+                        leaderboardEntries.clear();
                     }
+                    leaderboardTotal = total;
+                    leaderboardEntries.addAll(entries);
                 }
-                currentListener.onGamesList(games);
-            } else if (message.startsWith("RESP:CREATED ")) {
-                try {
-                    int gameId = Integer.parseInt(message.substring("RESP:CREATED ".length()).trim());
-                    currentListener.onGameCreated(gameId);
-                } catch (NumberFormatException e){
-                    System.err.println(getCurrentTimestamp() + " - Errore parsing ID partita in CREATED: " + message);
-                    currentListener.onError("Formato ID partita non valido dal server (CREATED)");
-                }
-            } else if (message.startsWith("RESP:REQUEST_SENT ")) {
-                try {
-                    int gameId = Integer.parseInt(message.substring("RESP:REQUEST_SENT ".length()).trim());
-                    currentListener.onJoinRequestSent(gameId);
-                } catch (NumberFormatException e) {
-                    System.err.println(getCurrentTimestamp() + " - Errore parsing ID partita REQUEST_SENT: " + message);
-                    currentListener.onError("Formato non valido dal server (REQUEST_SENT)");
-                }
-            } else if (message.startsWith("NOTIFY:JOIN_REQUEST ")) {
-                String requesterName = message.substring("NOTIFY:JOIN_REQUEST ".length()).trim();
-                if (!requesterName.isEmpty()) {
-                    currentListener.onJoinRequestReceived(requesterName);
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - JOIN_REQUEST malformato (nome vuoto): " + message);
-                    currentListener.onError("Messaggio JOIN_REQUEST malformato dal server (nome vuoto)");
-                }
-            } else if (message.startsWith("RESP:JOIN_ACCEPTED ")) {
-                String[] parts = message.substring("RESP:JOIN_ACCEPTED ".length()).split(" ");
-                if (parts.length >= 3) {
-                    try {
-                        int gameId = Integer.parseInt(parts[0]);
-                        char symbol = parts[1].charAt(0);
-                        String opponentName = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-                        currentListener.onJoinAccepted(gameId, symbol, opponentName);
-                    } catch(NumberFormatException | IndexOutOfBoundsException e){
-                        System.err.println(getCurrentTimestamp() + " - Errore parsing JOIN_ACCEPTED: " + message);
-                        currentListener.onError("Formato non valido dal server (JOIN_ACCEPTED)");
+                case ServerEvent.LeaderboardEnd e -> {
+                    if (leaderboardOffset >= 0) {
+                        int offset = leaderboardOffset;
+                        leaderboardOffset = -1;
+                        currentListener.onLeaderboard(offset, leaderboardTotal, new ArrayList<>(leaderboardEntries));
                     }
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - Messaggio JOIN_ACCEPTED malformato: " + message);
-                    currentListener.onError("Messaggio JOIN_ACCEPTED malformato dal server");
                 }
-            } else if (message.startsWith("RESP:JOIN_REJECTED ")) {
-                String[] parts = message.substring("RESP:JOIN_REJECTED ".length()).split(" ");
-                if (parts.length >= 2) {
-                    try {
-                        int gameId = Integer.parseInt(parts[0]);
-                        String creatorName = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
-                        currentListener.onJoinRejected(gameId, creatorName);
-                    } catch (NumberFormatException e) {
-                        System.err.println(getCurrentTimestamp() + " - Errore parsing ID partita JOIN_REJECTED: " + message);
-                        currentListener.onError("Formato non valido dal server (JOIN_REJECTED ID)");
-                    }
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - Messaggio JOIN_REJECTED malformato: " + message);
-                    currentListener.onError("Messaggio JOIN_REJECTED malformato dal server");
+                case ServerEvent.Rank(int rank, int rating, int total) -> currentListener.onRank(rank, rating, total);
+                case ServerEvent.RatingUpdate(LeaderboardEntry entry, int delta, int total) -> currentListener.onRatingUpdate(entry, delta, total);
+                case ServerEvent.JoinRequestSent(int gameId) -> currentListener.onJoinRequestSent(gameId);
+                case ServerEvent.JoinRequestReceived(String requesterName) -> currentListener.onJoinRequestReceived(requesterName);
+                case ServerEvent.JoinAccepted(int gameId, char symbol, String opponentName) -> currentListener.onJoinAccepted(gameId, symbol, opponentName);
+                case ServerEvent.JoinRejected(int gameId, String creatorName) -> currentListener.onJoinRejected(gameId, creatorName);
+                case ServerEvent.RejectConfirmed(String rejectedName) -> currentListener.onActionConfirmed("Richiesta rifiutata da " + rejectedName);
+                case ServerEvent.QuitConfirmed(String message) -> currentListener.onActionConfirmed("QUIT_OK " + message);
+                case ServerEvent.GameStart(int gameId, char symbol, String opponentName) -> currentListener.onGameStart(gameId, symbol, opponentName);
+                case ServerEvent.BoardUpdate(char[] cells, int seq) -> {
+                    boardSeq = seq;
+                    resyncPending = false;
+                    currentListener.onBoardUpdate(cells);
                 }
-            } else if (message.startsWith("RESP:REJECT_OK ")) {
-                String rejectedName = message.substring("RESP:REJECT_OK ".length()).trim();
-                currentListener.onActionConfirmed("Richiesta rifiutata da " + rejectedName);
-            } else if (message.startsWith("NOTIFY:GAME_START ")) {
-                String[] parts = message.substring("NOTIFY:GAME_START ".length()).split(" ");
-                if (parts.length >= 3) {
-                    try {
-                        int gameId = Integer.parseInt(parts[0]);
-                        char symbol = parts[1].charAt(0);
-                        String opponentName = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-                        currentListener.onGameStart(gameId, symbol, opponentName);
-                    } catch(NumberFormatException | IndexOutOfBoundsException e){
-                        System.err.println(getCurrentTimestamp() + " - Errore parsing GAME_START: " + message);
-                        currentListener.onError("Formato non valido dal server (GAME_START)");
+                case ServerEvent.MoveDelta(int seq, int row, int col, char symbol) -> {
+                    if (resyncPending || seq <= boardSeq) {
+                        System.out.println(getCurrentTimestamp()+" - NetworkService: MOVE "+seq+" ignorata (ultima "+boardSeq+(resyncPending ? ", RESYNC in corso" : "")+").");
+                    } else if (boardSeq < 0 || seq != boardSeq + 1) {
+                        // mossa mancante: la griglia locale non è più affidabile, si chiede quella completa
+                        System.err.println(getCurrentTimestamp()+" - NetworkService: MOVE "+seq+" dopo "+boardSeq+", invio RESYNC.");
+                        resyncPending = sendMessage("RESYNC");
+                    } else {
+                        boardSeq = seq;
+                        currentListener.onMoveApplied(row, col, symbol);
                     }
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - Messaggio GAME_START malformato: " + message);
-                    currentListener.onError("Messaggio GAME_START malformato dal server");
                 }
-            } else if (message.startsWith("NOTIFY:BOARD ")) {
-                String boardData = message.substring("NOTIFY:BOARD ".length());
-                String[] boardCells = boardData.split(" ");
-                if(boardCells.length == 9) {
-                    currentListener.onBoardUpdate(boardCells);
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - Messaggio BOARD malformato (lunghezza != 9): " + message);
-                    currentListener.onError("Messaggio BOARD malformato dal server");
+                case ServerEvent.YourTurn e -> currentListener.onYourTurn();
+                case ServerEvent.PremoveQueued(int row, int col) -> currentListener.onPremoveQueued(row, col);
+                case ServerEvent.PremoveRejected(int row, int col) -> currentListener.onPremoveRejected(row, col);
+                case ServerEvent.GameOver(GameResult result) -> currentListener.onGameOver(result);
+                case ServerEvent.OpponentLeft e -> currentListener.onOpponentLeft();
+                case ServerEvent.RematchOffer e -> currentListener.onRematchOffer();
+                case ServerEvent.RematchAccepted(int gameId) -> currentListener.onRematchAccepted(gameId);
+                case ServerEvent.RematchDeclined e -> currentListener.onRematchDeclined();
+                case ServerEvent.OpponentRematchDecision(boolean accepted) -> currentListener.onOpponentRematchDecision(accepted);
+                case ServerEvent.Chat(ChatMessage message) -> currentListener.onChatMessages(List.of(message));
+                case ServerEvent.ChatRejected(ErrorCode code) -> currentListener.onChatRejected(code);
+                case ServerEvent.Clock(GameClock clock) -> currentListener.onClock(clock);
+                case ServerEvent.Pong(long token) -> { }
+                case ServerEvent.ServerShutdown e -> {
+                    System.out.println(getCurrentTimestamp()+" - NetworkService: Gestione messaggio Spegnimento Server.");
+                    handleDisconnection(DisconnectReason.SERVER_SHUTDOWN, null);
+                    closeAsync();
                 }
-            } else if (message.startsWith("NOTIFY:YOUR_TURN")) {
-                currentListener.onYourTurn();
-            } else if (message.startsWith("NOTIFY:GAMEOVER ")) {
-                String result = message.substring("NOTIFY:GAMEOVER ".length()).trim();
-                currentListener.onGameOver(result);
-            } else if (message.startsWith("NOTIFY:OPPONENT_LEFT")) {
-                currentListener.onOpponentLeft();
-            } else if (message.startsWith("CMD:REMATCH_OFFER")) {
-                currentListener.onRematchOffer();
-            } else if (message.startsWith("RESP:REMATCH_ACCEPTED ")) {
-                String content = message.substring("RESP:REMATCH_ACCEPTED ".length());
-                String[] parts = content.split(" ");
-                if(parts.length > 0) {
-                    try {
-                        int gameId = Integer.parseInt(parts[0]);
-                        currentListener.onRematchAccepted(gameId);
-                    } catch (NumberFormatException e) {
-                        System.err.println(getCurrentTimestamp() + " - Errore parsing ID partita REMATCH_ACCEPTED: " + message);
-                        currentListener.onError("Formato non valido dal server (REMATCH_ACCEPTED ID)");
-                    }
-                } else {
-                    System.err.println(getCurrentTimestamp() + " - Messaggio REMATCH_ACCEPTED malformato: " + message);
-                    currentListener.onError("Messaggio REMATCH_ACCEPTED malformato dal server");
+                case ServerEvent.ServerError(ErrorCode code, String message) -> currentListener.onError(code, message);
+                case ServerEvent.Unhandled(String rawMessage) -> {
+                    System.out.println(getCurrentTimestamp()+" - NetworkService: Ricevuto tipo di messaggio non gestito.");
+                    currentListener.onMessageReceived(rawMessage);
                 }
-            } else if (message.startsWith("RESP:REMATCH_DECLINED")) {
-                currentListener.onRematchDeclined();
-            } else if (message.startsWith("NOTIFY:OPPONENT_ACCEPTED_REMATCH")) {
-                currentListener.onOpponentRematchDecision(true);
-            } else if (message.startsWith("NOTIFY:OPPONENT_DECLINED")) {
-                currentListener.onOpponentRematchDecision(false);
-            } else if (message.startsWith("NOTIFY:SERVER_SHUTDOWN")) {
-                System.out.println(getCurrentTimestamp()+" - NetworkService: Gestione messaggio Spegnimento Server.");
-                handleDisconnection("Il server si sta spegnendo");
-                closeResources();
-            } else if (message.startsWith("ERROR:")) {
-                String errorMsg = message.substring("ERROR:".length()).trim();
-                String translatedError = errorMsg;
-                if (errorMsg.contains("Unknown command or invalid state")) translatedError = "Comando sconosciuto o stato non valido";
-                else if (errorMsg.contains("Not your turn")) translatedError = "Non è il tuo turno";
-                else if (errorMsg.contains("Invalid move")) translatedError = "Mossa non valida";
-                else if (errorMsg.contains("Game not found")) translatedError = "Partita non trovata";
-                else if (errorMsg.contains("Game is full")) translatedError = "Partita piena";
-                else if (errorMsg.contains("Invalid request")) translatedError = "Richiesta non valida";
-                currentListener.onError(translatedError + " (" + errorMsg + ")");
-            } else {
-                System.out.println(getCurrentTimestamp()+" - NetworkService: Ricevuto tipo di messaggio non gestito.");
-                currentListener.onMessageReceived(message);
             }
         } catch (Exception e) {
-            System.err.println(getCurrentTimestamp() + " - ERRORE CRITICO PARSING messaggio server: [" + message + "]");
+            System.err.println(getCurrentTimestamp() + " - ERRORE CRITICO GESTIONE evento server: [" + event + "]");
             e.printStackTrace();
             try {
-                currentListener.onError("Errore client nel parsing del messaggio: " + e.getMessage());
+                currentListener.onError(ErrorCode.CLIENT_FAILURE, "Errore client nella gestione del messaggio: " + e.getMessage());
             } catch (Exception innerE) {
-                System.err.println(getCurrentTimestamp() + " - Errore chiamata listener.onError dopo eccezione parsing!");
+                System.err.println(getCurrentTimestamp() + " - Errore chiamata listener.onError dopo eccezione!");
                 innerE.printStackTrace();
             }
         }
     }
 
-    public void sendMessage(String message) {
-        final String msgToSend = message;
-        PrintWriter currentOut = this.out;
-        Socket currentSocket = this.socket;
-
-        if (running && currentOut != null && currentSocket != null && currentSocket.isConnected() && !currentSocket.isClosed() && !currentOut.checkError()) {
+    private GameInfo parseGameEntry(String entry) {
+        String[] parts = entry.split(",");
+        if (parts.length >= 3) {
             try {
-                System.out.println(getCurrentTimestamp() + " - NetworkService (invio diretto): Invio: [" + msgToSend + "]");
-                currentOut.println(msgToSend);
-                if (currentOut.checkError()) {
-                    System.err.println(getCurrentTimestamp() + " - NetworkService (invio diretto): Errore PrintWriter rilevato DOPO invio. Probabilmente disconnesso.");
-                    if(running) {
-                        handleDisconnection("Invio fallito (errore PrintWriter)");
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println(getCurrentTimestamp() + " - NetworkService (invio diretto): Eccezione durante invio: "+e.getMessage());
-                if(running) {
-                    handleDisconnection("Invio fallito (Eccezione)");
-                }
+                int id = Integer.parseInt(parts[0]);
+                String name = parts[1];
+                return new GameInfo(id, name, GameState.fromWire(parts[2]), getEndpoint());
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                System.err.println(getCurrentTimestamp() + " - Errore parsing voce partita nella lista: " + entry);
             }
         } else {
-            System.err.println(getCurrentTimestamp() + " - Impossibile inviare messaggio, stato connessione non valido. Messaggio: [" + msgToSend + "]");
-            System.err.println(getCurrentTimestamp() + " - Controllo Invio: running="+running+", socket="+(currentSocket != null)+", socket.isConnected="+(currentSocket != null ? currentSocket.isConnected():"N/D")+", socket.isClosed="+(currentSocket != null ? currentSocket.isClosed():"N/D")+", out="+(currentOut!=null)+", out.checkError="+(currentOut != null ? currentOut.checkError() : "N/D"));
-            if(!running){
-                Platform.runLater(() -> {
+            System.err.println(getCurrentTimestamp() + " - Voce partita malformata nella lista: " + entry);
+        }
+        return null;
+    }
+
+    private void dispatchGamesPage(int cursor, List<GameInfo> games) {
+        runOnUi("onGamesPage", () -> {
+            if (!lobbyCache.onPage(games)) return;
+            ServerListener currentListener = listenerRef.get();
+            if (currentListener != null) {
+                currentListener.onGamesPage(cursor, games);
+            } else {
+                System.err.println(getCurrentTimestamp() + " - NetworkService (in runLater): ERRORE - Nessun listener attivo per pagina partite dal cursore " + cursor);
+            }
+        });
+    }
+
+    private class InboundFrameHandler implements LineDecoder.FrameHandler {
+        private List<GameInfo> batch = new ArrayList<>();
+        private int batchCursor = 0;
+        private int entriesInFrame = 0;
+        private boolean batchDispatched = false;
+        private final ConcurrentLinkedQueue<ChatMessage> pendingChat = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean chatDrainScheduled = new AtomicBoolean(false);
+
+        @Override
+        public void onLine(String line) {
+            long receivedNanos = System.nanoTime();
+            if (line.startsWith("@")) {
+                NetworkService session = muxSessionFor(line);
+                if (session != null) session.inboundHandler.onLine(stripMuxPrefix(line));
+                return;
+            }
+            System.out.println(getCurrentTimestamp() + " - RAW DAL SERVER" + (muxParent != null ? " (sessione " + muxSessionId + ")" : "") + ": [" + line + "]");
+            if (line.trim().isEmpty() || handleMuxControl(line)) return;
+            TrisEvents.MessageReceived received = new TrisEvents.MessageReceived();
+            received.begin();
+            ServerEvent event = syncClock(ServerEvent.decode(line), receivedNanos);
+            if (received.shouldCommit()) {
+                received.type = event.getClass().getSimpleName();
+                received.size = line.length();
+                received.commit();
+            }
+            if (event instanceof ServerEvent.MoveDelta || event instanceof ServerEvent.BoardUpdate) moveTracer.markEcho(receivedNanos, System.nanoTime());
+            if (event instanceof ServerEvent.Chat chat) {
+                enqueueChat(chat.message());
+                return;
+            }
+            if (event instanceof ServerEvent.Pong(long token)) {
+                onPong(token, receivedNanos);
+                return;
+            }
+            if (event instanceof ServerEvent.ServerError error && error.code() == ErrorCode.MALFORMED_MESSAGE) {
+                System.err.println(getCurrentTimestamp() + " - NetworkService: " + error.message() + ": " + line);
+            }
+
+            runOnUi(event.getClass().getSimpleName(), () -> {
+                ServerListener currentListener = listenerRef.get();
+                if (currentListener != null) {
+                    dispatchEvent(event, currentListener);
+                } else {
+                    System.err.println(getCurrentTimestamp() + " - NetworkService (in runLater): ERRORE - Nessun listener attivo per gestire messaggio: " + line);
+                }
+            });
+        }
+
+        // I messaggi di chat arrivati mentre il thread FX è occupato vengono consegnati insieme in un solo runLater.
+        private void enqueueChat(ChatMessage message) {
+            pendingChat.add(message);
+            if (!chatDrainScheduled.compareAndSet(false, true)) return;
+            runOnUi("onChatMessages", () -> {
+                chatDrainScheduled.set(false);
+                List<ChatMessage> messages = new ArrayList<>();
+                ChatMessage next;
+                while ((next = pendingChat.poll()) != null) messages.add(next);
+                ServerListener currentListener = listenerRef.get();
+                if (currentListener != null && !messages.isEmpty()) currentListener.onChatMessages(messages);
+            });
+        }
+
+        @Override
+        public void onListEntry(String header, String entry) {
+            if (header.startsWith("@")) {
+                NetworkService session = muxSessionFor(header);
+                if (session != null) session.inboundHandler.onListEntry(stripMuxPrefix(header), entry);
+                return;
+            }
+            if (entriesInFrame == 0 && !batchDispatched) {
+                batchCursor = parseListCursor(header);
+            }
+            entriesInFrame++;
+            GameInfo game = parseGameEntry(entry);
+            if (game == null) return;
+            batch.add(game);
+            if (batch.size() >= LOBBY_BATCH_SIZE) {
+                flushBatch();
+            }
+        }
+
+        @Override
+        public void onListEnd(String header) {
+            if (header.startsWith("@")) {
+                NetworkService session = muxSessionFor(header);
+                if (session != null) session.inboundHandler.onListEnd(stripMuxPrefix(header));
+                return;
+            }
+            if (entriesInFrame == 0) {
+                batchCursor = parseListCursor(header);
+            }
+            System.out.println(getCurrentTimestamp() + " - RAW DAL SERVER: [" + header + "...] " + entriesInFrame + " voci in streaming.");
+            if (!batch.isEmpty() || !batchDispatched) {
+                flushBatch();
+            }
+            if (header.startsWith("RESP:GAMES_LIST;")) {
+                runOnUi("onGamesPageEnd", () -> lobbyCache.onPageEnd(0, listenerRef.get()));
+            }
+            entriesInFrame = 0;
+            batchDispatched = false;
+        }
+
+        @Override
+        public void onFrameTooLarge(int discardedBytes) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: Frame dal server oltre il limite di " + maxFrameSize + " byte (" + discardedBytes + " byte scartati).");
+            runOnUi("onError", () -> {
+                ServerListener currentListener = listenerRef.get();
+                if (currentListener != null) currentListener.onError(ErrorCode.FRAME_TOO_LARGE, "Messaggio dal server troppo grande, scartato (" + discardedBytes + " byte)");
+            });
+        }
+
+        private void flushBatch() {
+            List<GameInfo> games = batch;
+            batch = new ArrayList<>();
+            dispatchGamesPage(batchCursor, games);
+            if (!games.isEmpty()) batchCursor = games.get(games.size() - 1).id;
+            batchDispatched = true;
+        }
+
+        private int parseListCursor(String header) {
+            if (!header.startsWith("RESP:GAMES_PAGE ")) return 0;
+            try {
+                return Integer.parseInt(header.substring("RESP:GAMES_PAGE ".length(), header.length() - 1).trim());
+            } catch (NumberFormatException e) {
+                System.err.println(getCurrentTimestamp() + " - Errore parsing cursore GAMES_PAGE: " + header);
+                return 0;
+            }
+        }
+    }
+
+    // Accoda il comando per il thread writer senza bloccare il chiamante; false se non connesso o coda piena.
+    public boolean sendMessage(String message) {
+        if (muxParent != null) {
+            if (running && muxParent.isConnected()) {
+                return muxParent.sendMessage("@" + muxSessionId + " " + message);
+            }
+            System.err.println(getCurrentTimestamp() + " - Impossibile inviare messaggio sulla sessione mux " + muxSessionId + " (running=" + running + "). Messaggio: [" + message + "]");
+            if (!running) {
+                runOnUi("onDisconnected", () -> {
                     ServerListener l = listenerRef.get();
-                    if(l != null) l.onDisconnected("Tentativo di invio mentre disconnesso");
+                    if (l != null) l.onDisconnected(DisconnectReason.NOT_CONNECTED, null);
                 });
             }
+            return false;
         }
+        OutboundWriter currentWriter = this.writer;
+
+        if (running && currentWriter != null && currentWriter.isRunning()) {
+            if (currentWriter.offer(message)) {
+                System.out.println(getCurrentTimestamp() + " - NetworkService: Accodato: [" + message + "] (in coda: " + currentWriter.getDepth() + ")");
+                return true;
+            }
+            System.err.println(getCurrentTimestamp() + " - NetworkService: Coda di invio piena (" + currentWriter.getDepth() + "/" + outboundCapacity + "), messaggio rifiutato: [" + message + "]");
+            return false;
+        }
+        System.err.println(getCurrentTimestamp() + " - Impossibile inviare messaggio, stato connessione non valido. Messaggio: [" + message + "]");
+        System.err.println(getCurrentTimestamp() + " - Controllo Invio: running=" + running + ", writer=" + (currentWriter != null) + ", writer.isRunning=" + (currentWriter != null ? currentWriter.isRunning() : "N/D"));
+        if (!running) {
+            runOnUi("onDisconnected", () -> {
+                ServerListener l = listenerRef.get();
+                if (l != null) l.onDisconnected(DisconnectReason.NOT_CONNECTED, null);
+            });
+        }
+        return false;
     }
 
-    public void sendName(String name) { sendMessage("NAME " + name); }
-    public void sendListRequest() { sendMessage("LIST"); }
-    public void sendCreateGame() { sendMessage("CREATE"); }
-    public void sendJoinRequest(int gameId) { sendMessage("JOIN_REQUEST " + gameId); }
-    public void sendAcceptRequest(String playerName) { sendMessage("ACCEPT " + playerName); }
-    public void sendRejectRequest(String playerName) { sendMessage("REJECT " + playerName); }
-    public void sendMove(int row, int col) { sendMessage("MOVE " + row + " " + col); }
-    public void sendQuit() { sendMessage("QUIT"); }
-    public void sendRematchChoice(boolean accept) {
-        sendMessage(accept ? "REMATCH YES" : "REMATCH NO");
+    private void onLineWritten(String line, long writtenNanos) {
+        if (line.startsWith("@")) {
+            NetworkService session = muxSessionFor(line);
+            if (session != null) session.moveTracer.markWritten(stripMuxPrefix(line), writtenNanos);
+            return;
+        }
+        moveTracer.markWritten(line, writtenNanos);
     }
 
-    public void disconnect() {
+    public MoveTracer getMoveTracer() {
+        return moveTracer;
+    }
+
+    private void onWriteFailed(String reason) {
+        System.err.println(getCurrentTimestamp() + " - NetworkService (writer): Scrittura fallita: " + reason);
+        if (running) {
+            handleDisconnection(DisconnectReason.WRITE_FAILED, reason);
+            closeResources();
+        }
+    }
+
+    public int getOutboundQueueDepth() {
+        if (muxParent != null) return muxParent.getOutboundQueueDepth();
+        OutboundWriter currentWriter = this.writer;
+        return currentWriter != null ? currentWriter.getDepth() : 0;
+    }
+
+    public String getOutboundStats() {
+        if (muxParent != null) return muxParent.getOutboundStats();
+        OutboundWriter currentWriter = this.writer;
+        return currentWriter != null ? currentWriter.getStatsSummary() : "nessuna connessione";
+    }
+
+    public boolean sendName(String name) { return sendMessage("NAME " + name); }
+    public boolean sendListRequest() { return requestLobby(LobbyCache.Policy.CACHED); }
+    // Dal thread FX: prima pagina della lobby attraverso la cache (vedi LobbyCache.Policy).
+    public boolean requestLobby(LobbyCache.Policy policy) { return lobbyCache.request(policy, listenerRef.get(), this::sendMessage); }
+    public boolean sendListPage(int cursor, int limit) {
+        if (!sendMessage("LIST " + cursor + " " + limit)) return false;
+        lobbyCache.onPageRequested();
+        return true;
+    }
+    public boolean sendCreateGame() { return sendMessage("CREATE"); }
+    public boolean sendQueue() { return sendMessage("QUEUE"); }
+    public boolean sendUnqueue() { return sendMessage("UNQUEUE"); }
+    public boolean sendLeaderboardRequest(int offset, int limit) { return sendMessage("LEADERBOARD " + offset + " " + limit); }
+    public boolean sendRankRequest() { return sendMessage("RANK"); }
+    public boolean sendChat(String text) {
+        String clean = text.replace('\n', ' ').replace('\r', ' ');
+        if (clean.length() > CHAT_MAX_LENGTH) {
+            int end = Character.isHighSurrogate(clean.charAt(CHAT_MAX_LENGTH - 1)) ? CHAT_MAX_LENGTH - 1 : CHAT_MAX_LENGTH;
+            clean = clean.substring(0, end);
+        }
+        return sendMessage("CHAT " + clean);
+    }
+    public boolean sendChatHistoryRequest() { return sendMessage("CHAT_HISTORY"); }
+    public boolean sendJoinRequest(int gameId) { return sendMessage("JOIN_REQUEST " + gameId); }
+    public boolean sendAcceptRequest(String playerName) { return sendMessage("ACCEPT " + playerName); }
+    public boolean sendRejectRequest(String playerName) { return sendMessage("REJECT " + playerName); }
+    // L'istante di accodamento va segnato prima dell'invio: su loopback l'eco MOVE può arrivare prima che sendMessage ritorni.
+    public boolean sendMove(int row, int col) {
+        moveTracer.markEnqueued();
+        return sendMessage("MOVE " + row + " " + col);
+    }
+    // Mossa durante il turno dell'avversario: il server la gioca appena lui ha mosso, se la cella è ancora libera.
+    public boolean sendPremove(int row, int col) { return sendMessage("PREMOVE " + row + " " + col); }
+    public boolean sendQuit() { return sendMessage("QUIT"); }
+    public boolean sendRematchChoice(boolean accept) {
+        return sendMessage(accept ? "REMATCH YES" : "REMATCH NO");
+    }
+
+    // Ritorna subito: il listener riceve onDisconnected, la chiusura avviene su un thread virtuale e il future si completa
+    // quando il lettore è terminato.
+    public CompletableFuture<Void> disconnect() {
         System.out.println(getCurrentTimestamp() + " - NetworkService: disconnect() CHIAMATO.");
+        if (muxParent != null) {
+            if (running && muxParent.muxSessions.remove(muxSessionId) != null && muxParent.isConnected()) {
+                muxParent.sendMessage("MUX CLOSE " + muxSessionId);
+            }
+            handleDisconnection(DisconnectReason.CLIENT_REQUEST, null);
+            return CompletableFuture.completedFuture(null);
+        }
         if (!running) {
             System.out.println(getCurrentTimestamp() + " - NetworkService: disconnect() ignorato, già non in esecuzione.");
-            shutdownExecutor();
-            return;
+            return CompletableFuture.allOf(closed, closing);
         }
 
-        handleDisconnection("Disconnesso dal client");
-        closeResources();
-        shutdownExecutor();
+        handleDisconnection(DisconnectReason.CLIENT_REQUEST, null);
+        return closeAsync();
+    }
 
-        System.out.println(getCurrentTimestamp() + " - NetworkService: disconnect() terminato.");
+    // Cancellazione: prima si svuota la coda di invio (es. QUIT) e si chiude il socket, che sblocca il lettore; l'interruzione
+    // ferma anche un lettore ancora fermo in EndpointConnector. La connect() successiva parte solo a chiusura finita.
+    private CompletableFuture<Void> closeAsync() {
+        Thread reader = readerThread;
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        closing = finished;
+        Thread.ofVirtual().name("NetworkClose").start(() -> {
+            try {
+                closeResources();
+                if (reader != null) reader.interrupt();
+            } finally {
+                finished.complete(null);
+            }
+        });
+        return CompletableFuture.allOf(closed, finished);
     }
 
     private synchronized void closeResources() {
         System.out.println(getCurrentTimestamp() + " - NetworkService: closeResources() CHIAMATO.");
-        if (out != null) {
-            System.out.println(getCurrentTimestamp() + " - NetworkService: Chiusura PrintWriter.");
-            out.close();
-            out = null;
+        if (writer != null) {
+            System.out.println(getCurrentTimestamp() + " - NetworkService: Arresto writer. Statistiche invio: " + writer.getStatsSummary());
+            writer.close();
+            writer = null;
+            System.out.println(getCurrentTimestamp() + " - NetworkService: Cache lobby: " + lobbyCache.getStatsSummary());
+            exportMoveTraces();
+        }
+        if (recorder != null) {
+            recorder.close();
+            System.out.println(getCurrentTimestamp() + " - NetworkService: Cattura chiusa: " + recorder.getRecords() + " righe in " + recorder.getFile());
+            recorder = null;
         }
-        if (socket != null && !socket.isClosed()) {
+        if (tls != null) {
+            // close_notify prima di chiudere il socket
+            try {
+                tls.close();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - NetworkService: Errore chiusura TLS: " + e.getMessage());
+            }
+            tls = null;
+            System.out.println(getCurrentTimestamp() + " - NetworkService: " + TlsTransport.summary());
+        }
+        Socket currentSocket = socket;
+        if (currentSocket != null && !currentSocket.isClosed()) {
             System.out.println(getCurrentTimestamp() + " - NetworkService: Chiusura Socket.");
             try {
-                socket.close();
+                currentSocket.close();
             } catch (IOException e) {
                 System.err.println(getCurrentTimestamp() + " - NetworkService: Errore chiusura socket: " + e.getMessage());
             }
-            socket = null;
         }
-        if (in != null) {
-            System.out.println(getCurrentTimestamp() + " - NetworkService: Chiusura BufferedReader.");
+        socket = null;
+        InputStream currentIn = in;
+        if (currentIn != null) {
+            System.out.println(getCurrentTimestamp() + " - NetworkService: Chiusura InputStream.");
             try {
-                in.close();
+                currentIn.close();
             } catch (IOException e) {
-                System.err.println(getCurrentTimestamp() + " - NetworkService: Errore chiusura BufferedReader (può essere atteso dopo chiusura socket): " + e.getMessage());
+                System.err.println(getCurrentTimestamp() + " - NetworkService: Errore chiusura InputStream (può essere atteso dopo chiusura socket): " + e.getMessage());
             }
-            in = null;
         }
+        in = null;
         System.out.println(getCurrentTimestamp() + " - NetworkService: Risorse di rete chiuse.");
     }
 
-    private void shutdownExecutor() {
-        if (networkExecutor != null && !networkExecutor.isShutdown()) {
-            System.out.println(getCurrentTimestamp() + " - NetworkService: Spegnimento NetworkExecutor...");
-            networkExecutor.shutdown();
-            try {
-                if (!networkExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
-                    System.err.println(getCurrentTimestamp() + " - NetworkService: Executor non terminato correttamente, forzatura spegnimento.");
-                    networkExecutor.shutdownNow();
-                } else {
-                    System.out.println(getCurrentTimestamp() + " - NetworkService: NetworkExecutor terminato correttamente.");
-                }
-            } catch (InterruptedException ie) {
-                System.err.println(getCurrentTimestamp() + " - NetworkService: Interrotto durante attesa terminazione executor.");
-                networkExecutor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+    private void exportMoveTraces() {
+        if (moveTracer.getHistogram(MoveTracer.Stage.TOTAL).getTotalCount() == 0) return;
+        System.out.println(getCurrentTimestamp() + " - NetworkService: " + moveTracer.getSummary());
+        String file = System.getProperty("tris.trace.file");
+        if (file == null || file.isEmpty()) return;
+        try {
+            moveTracer.exportCsv(Path.of(file));
+            System.out.println(getCurrentTimestamp() + " - NetworkService: Istogrammi latenza mosse esportati in " + file);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - NetworkService: Errore esportazione istogrammi in " + file + ": " + e.getMessage());
         }
     }
 
     public boolean isConnected() {
-        return running && socket != null && socket.isConnected() && !socket.isClosed() && out != null && !out.checkError() ;
+        if (muxParent != null) return running && muxParent.isConnected();
+        Socket currentSocket = socket;
+        OutboundWriter currentWriter = writer;
+        return running && currentSocket != null && currentSocket.isConnected() && !currentSocket.isClosed() && currentWriter != null && currentWriter.isRunning();
     }
     public ServerListener getCurrentListener() {
         return listenerRef.get();
     }
-    public boolean canAttemptConnect() {
-        return !running || (networkExecutor == null || networkExecutor.isShutdown() || networkExecutor.isTerminated());
-    }
-    public void cleanupExecutor() {
-        System.out.println(getCurrentTimestamp() + " - NetworkService: cleanupExecutor() chiamato.");
-        shutdownExecutor();
-        networkExecutor = null;
-    }
 
 }
\ No newline at end of file
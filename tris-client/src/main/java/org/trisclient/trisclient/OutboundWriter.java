@@ -0,0 +1,165 @@
+package org.trisclient.trisclient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Coda di invio limitata svuotata da un thread dedicato: chi chiama sendMessage (spesso il thread FX) non scrive mai sul socket.
+// I comandi accumulati mentre il writer è occupato partono insieme con una sola write e un solo flush.
+public class OutboundWriter {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final int MAX_BATCH = 64;
+    private static final long CLOSE_DRAIN_MS = 200;
+
+    public interface FailureHandler {
+        void onWriteFailed(String reason);
+    }
+
+    public interface WriteListener {
+        void onLineWritten(String line, long writtenNanos);
+    }
+
+    private record Pending(String line, long enqueuedNanos) {}
+
+    private static final Pending STOP = new Pending(null, 0);
+
+    private final ArrayBlockingQueue<Pending> queue;
+    private final Writer out;
+    private final FailureHandler failureHandler;
+    private final Thread thread;
+    private volatile boolean running = false;
+    private volatile WriteListener writeListener;
+    private volatile TrafficRecorder recorder;
+
+    private final AtomicLong linesWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWireNanos = new AtomicLong();
+    private final AtomicLong maxWireNanos = new AtomicLong();
+    private final AtomicInteger peakDepth = new AtomicInteger();
+
+    public OutboundWriter(OutputStream stream, int capacity, FailureHandler failureHandler) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.failureHandler = failureHandler;
+        this.thread = new Thread(this::drainLoop, "NetworkWriterThread");
+        this.thread.setDaemon(true);
+        LeakTracker.track("NetworkWriterThread", thread);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Restituisce false se la coda è piena o il writer è fermo: il chiamante decide come reagire.
+    public boolean offer(String line) {
+        if (!running || !queue.offer(new Pending(line, System.nanoTime()))) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        peakDepth.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    // Le righe vengono catturate prima della write: nel file precedono sempre le risposte del server.
+    public void setRecorder(TrafficRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    // Prova a spedire quanto già accodato (es. QUIT prima della chiusura) entro CLOSE_DRAIN_MS, poi ferma il thread.
+    public void close() {
+        if (!running) return;
+        running = false;
+        if (Thread.currentThread() != thread) {
+            if (!queue.offer(STOP)) thread.interrupt();
+            try {
+                thread.join(CLOSE_DRAIN_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread.interrupt();
+        }
+        queue.clear();
+    }
+
+    private void drainLoop() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder buffer = new StringBuilder();
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                int stopAt = batch.indexOf(STOP);
+                if (stopAt >= 0) {
+                    batch.subList(stopAt, batch.size()).clear();
+                    stopping = true;
+                }
+                if (batch.isEmpty()) break;
+                TrafficRecorder currentRecorder = recorder;
+                for (Pending pending : batch) {
+                    buffer.append(pending.line()).append('\n');
+                    if (currentRecorder != null) currentRecorder.outbound(pending.line(), System.nanoTime());
+                }
+                TrisEvents.OutboundFlush flushEvent = new TrisEvents.OutboundFlush();
+                flushEvent.begin();
+                out.write(buffer.toString());
+                out.flush();
+                if (flushEvent.shouldCommit()) {
+                    flushEvent.lines = batch.size();
+                    flushEvent.size = buffer.length();
+                    flushEvent.queueDepth = queue.size();
+                    flushEvent.commit();
+                }
+                long now = System.nanoTime();
+                WriteListener listener = writeListener;
+                for (Pending pending : batch) {
+                    long wireNanos = now - pending.enqueuedNanos();
+                    totalWireNanos.addAndGet(wireNanos);
+                    maxWireNanos.accumulateAndGet(wireNanos, Math::max);
+                    if (listener != null) listener.onLineWritten(pending.line(), now);
+                }
+                linesWritten.addAndGet(batch.size());
+                flushes.incrementAndGet();
+                batch.clear();
+                buffer.setLength(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (running) {
+                running = false;
+                failureHandler.onWriteFailed(e.getMessage());
+            }
+        }
+    }
+
+    public String getStatsSummary() {
+        long lines = linesWritten.get();
+        return String.format("righe=%d flush=%d rifiutate=%d coda=%d picco=%d attesa media=%.2f ms max=%.2f ms",
+                lines, flushes.get(), rejected.get(), queue.size(), peakDepth.get(),
+                lines > 0 ? totalWireNanos.get() / 1e6 / lines : 0.0, maxWireNanos.get() / 1e6);
+    }
+}
@@ -16,8 +16,10 @@ public class PartitaItemController {
     @FXML private Label labelStatoPartita;
     @FXML private Button buttonUniscitiPartita;
 
+    private final ClientSession session;
     private int gameId;
     private String creatorName;
+    private String endpoint;
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
@@ -26,33 +28,28 @@ public class PartitaItemController {
         return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
     }
 
-    public void setData(int gameId, String creatorName, String state, String loggedInPlayerName, boolean isPlayerAlreadyWaiting) {
+    public PartitaItemController(ClientSession session) {
+        this.session = session;
+    }
+
+    public void setData(int gameId, String creatorName, GameState state, String endpoint, String loggedInPlayerName, boolean isPlayerAlreadyWaiting) {
         this.gameId = gameId;
         this.creatorName = creatorName;
+        this.endpoint = endpoint;
+        String shardLabel = session.shardLabel(endpoint);
 
         Platform.runLater(() -> {
             if (labelNumeroPartita != null) {
-                labelNumeroPartita.setText("Partita " + gameId + "\n(di " + (creatorName != null ? creatorName : "?") + ")");
+                labelNumeroPartita.setText("Partita " + gameId + shardLabel + "\n(di " + (creatorName != null ? creatorName : "?") + ")");
             }
             if (labelStatoPartita != null) {
-                switch (state) {
-                    case "Waiting":
-                        labelStatoPartita.setText("In attesa");
-                        break;
-                    case "In Progress":
-                        labelStatoPartita.setText("In corso");
-                        break;
-                    case "Finished":
-                        labelStatoPartita.setText("Terminata");
-                        break;
-                    default:
-                        labelStatoPartita.setText("");
-                }
-                updateStateStyle(state);
+                labelStatoPartita.setText(state.label);
+                labelStatoPartita.getStyleClass().removeAll(GameState.styleClasses());
+                labelStatoPartita.getStyleClass().add(state.styleClass);
             }
             if (buttonUniscitiPartita != null) {
                 boolean isMyOwnGame = loggedInPlayerName != null && loggedInPlayerName.equals(this.creatorName);
-                boolean canJoinThisState = "Waiting".equalsIgnoreCase(state);
+                boolean canJoinThisState = state == GameState.WAITING;
                 boolean shouldBeDisabled = isPlayerAlreadyWaiting || isMyOwnGame || !canJoinThisState;
 
                 buttonUniscitiPartita.setDisable(shouldBeDisabled);
@@ -60,28 +57,19 @@ public class PartitaItemController {
         });
     }
 
-    private void updateStateStyle(String originalState) {
-        if (labelStatoPartita == null) return;
-        labelStatoPartita.getStyleClass().removeAll("state-waiting", "state-inprogress", "state-unknown", "state-finished");
-        if ("Waiting".equalsIgnoreCase(originalState)) { labelStatoPartita.getStyleClass().add("state-waiting"); }
-        else if ("In Progress".equalsIgnoreCase(originalState)) { labelStatoPartita.getStyleClass().add("state-inprogress"); }
-        else if ("Finished".equalsIgnoreCase(originalState)) { labelStatoPartita.getStyleClass().add("state-finished"); }
-        else { labelStatoPartita.getStyleClass().add("state-unknown"); }
-    }
-
 
     @FXML
     private void handleUniscitiPartita() {
         System.out.println(getCurrentTimestamp() + " - PartitaItemController: Cliccato Unisciti per ID partita: " + gameId + " (creatore: " + this.creatorName + ")");
 
-        if (HomePageController.staticPlayerName != null && HomePageController.staticPlayerName.equals(this.creatorName)) {
+        if (session.getPlayerName() != null && session.getPlayerName().equals(this.creatorName)) {
             System.err.println("Tentativo di unirsi alla propria partita " + gameId + ". Annullamento.");
             showError("Azione non permessa", "Non puoi unirti alla tua stessa partita.");
             if(buttonUniscitiPartita != null) buttonUniscitiPartita.setDisable(true);
             return;
         }
 
-        NetworkService service = HomePageController.networkServiceInstance;
+        NetworkService service = session.activateShard(endpoint);
         if (service != null && service.isConnected()) {
             if (buttonUniscitiPartita != null) buttonUniscitiPartita.setDisable(true);
             System.out.println(getCurrentTimestamp() + " - PartitaItemController: Invio JOIN_REQUEST " + gameId);
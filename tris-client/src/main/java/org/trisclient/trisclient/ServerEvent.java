@@ -0,0 +1,179 @@
+package org.trisclient.trisclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Messaggi del server decodificati una sola volta sul thread di rete: i controller ricevono tipi, enum e array primitivi
+// e NetworkService li smista con uno switch esaustivo sulla gerarchia sigillata.
+public sealed interface ServerEvent {
+
+    char EMPTY_CELL = '-';
+    int BOARD_CELLS = 9;
+    int BOARD_SIZE = 3;
+
+    record NameRequested() implements ServerEvent {}
+    record NameAccepted() implements ServerEvent {}
+    record NameRejected(ErrorCode code) implements ServerEvent {}
+    record GamesPageEnd(int nextCursor) implements ServerEvent {}
+    record GameCreated(int gameId) implements ServerEvent {}
+    record Queued(int queuedPlayers) implements ServerEvent {}
+    record Unqueued() implements ServerEvent {}
+    record Leaderboard(int offset, int totalPlayers, List<NetworkService.LeaderboardEntry> entries) implements ServerEvent {}
+    record LeaderboardEnd(int nextOffset) implements ServerEvent {}
+    record Rank(int rank, int rating, int totalPlayers) implements ServerEvent {}
+    record RatingUpdate(NetworkService.LeaderboardEntry entry, int delta, int totalPlayers) implements ServerEvent {}
+    record JoinRequestSent(int gameId) implements ServerEvent {}
+    record JoinRequestReceived(String requesterName) implements ServerEvent {}
+    record JoinAccepted(int gameId, char symbol, String opponentName) implements ServerEvent {}
+    record JoinRejected(int gameId, String creatorName) implements ServerEvent {}
+    record RejectConfirmed(String rejectedName) implements ServerEvent {}
+    record QuitConfirmed(String message) implements ServerEvent {}
+    record GameStart(int gameId, char symbol, String opponentName) implements ServerEvent {}
+    record BoardUpdate(char[] cells, int seq) implements ServerEvent {}
+    record MoveDelta(int seq, int row, int col, char symbol) implements ServerEvent {}
+    record YourTurn() implements ServerEvent {}
+    record PremoveQueued(int row, int col) implements ServerEvent {}
+    record PremoveRejected(int row, int col) implements ServerEvent {}
+    record GameOver(GameResult result) implements ServerEvent {}
+    record OpponentLeft() implements ServerEvent {}
+    record RematchOffer() implements ServerEvent {}
+    record RematchAccepted(int gameId) implements ServerEvent {}
+    record RematchDeclined() implements ServerEvent {}
+    record OpponentRematchDecision(boolean accepted) implements ServerEvent {}
+    record Chat(NetworkService.ChatMessage message) implements ServerEvent {}
+    record Clock(GameClock clock) implements ServerEvent {}
+    record Pong(long token) implements ServerEvent {}
+    record ChatRejected(ErrorCode code) implements ServerEvent {}
+    record ServerShutdown() implements ServerEvent {}
+    record ServerError(ErrorCode code, String message) implements ServerEvent {}
+    record Unhandled(String rawMessage) implements ServerEvent {}
+
+    static ServerEvent decode(String line) {
+        if (line.startsWith("ERROR:")) return decodeError(line.substring("ERROR:".length()).trim());
+        int space = line.indexOf(' ');
+        String type = space < 0 ? line.trim() : line.substring(0, space);
+        String payload = space < 0 ? "" : line.substring(space + 1).trim();
+        try {
+            return switch (type) {
+                case "CMD:GET_NAME" -> new NameRequested();
+                case "RESP:NAME_OK" -> new NameAccepted();
+                case "RESP:GAMES_END" -> new GamesPageEnd(Integer.parseInt(payload));
+                case "RESP:CREATED" -> new GameCreated(Integer.parseInt(payload));
+                case "RESP:QUEUED" -> new Queued(Integer.parseInt(payload));
+                case "RESP:UNQUEUED" -> new Unqueued();
+                case "RESP:LEADERBOARD" -> decodeLeaderboard(payload);
+                case "RESP:LEADERBOARD_END" -> new LeaderboardEnd(Integer.parseInt(payload));
+                case "RESP:RANK" -> {
+                    String[] parts = payload.split(" ");
+                    yield new Rank(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                }
+                case "NOTIFY:RATING_UPDATE" -> {
+                    String[] parts = payload.split(" ");
+                    NetworkService.LeaderboardEntry entry = new NetworkService.LeaderboardEntry(
+                            Integer.parseInt(parts[3]), parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[5]));
+                    yield new RatingUpdate(entry, Integer.parseInt(parts[2]), Integer.parseInt(parts[4]));
+                }
+                case "RESP:REQUEST_SENT" -> new JoinRequestSent(Integer.parseInt(payload));
+                case "NOTIFY:JOIN_REQUEST" -> payload.isEmpty()
+                        ? new ServerError(ErrorCode.MALFORMED_MESSAGE, "Messaggio JOIN_REQUEST malformato dal server (nome vuoto)")
+                        : new JoinRequestReceived(payload);
+                case "RESP:JOIN_ACCEPTED" -> {
+                    String[] parts = payload.split(" ", 3);
+                    yield new JoinAccepted(Integer.parseInt(parts[0]), parts[1].charAt(0), parts[2]);
+                }
+                case "RESP:JOIN_REJECTED" -> {
+                    String[] parts = payload.split(" ", 2);
+                    yield new JoinRejected(Integer.parseInt(parts[0]), parts[1]);
+                }
+                case "RESP:REJECT_OK" -> new RejectConfirmed(payload);
+                case "RESP:QUIT_OK" -> new QuitConfirmed(payload);
+                case "NOTIFY:GAME_START" -> {
+                    String[] parts = payload.split(" ", 3);
+                    yield new GameStart(Integer.parseInt(parts[0]), parts[1].charAt(0), parts[2]);
+                }
+                case "NOTIFY:BOARD" -> decodeBoard(payload);
+                case "NOTIFY:MOVE" -> decodeMove(payload);
+                case "NOTIFY:YOUR_TURN" -> new YourTurn();
+                case "RESP:PREMOVE_QUEUED" -> {
+                    String[] parts = payload.split(" ");
+                    yield new PremoveQueued(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                }
+                case "RESP:PREMOVE_REJECTED" -> {
+                    String[] parts = payload.split(" ");
+                    yield new PremoveRejected(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                }
+                case "NOTIFY:GAMEOVER" -> new GameOver(GameResult.fromWire(payload));
+                case "NOTIFY:OPPONENT_LEFT" -> new OpponentLeft();
+                case "CMD:REMATCH_OFFER" -> new RematchOffer();
+                case "RESP:REMATCH_ACCEPTED" -> new RematchAccepted(Integer.parseInt(payload.split(" ")[0]));
+                case "RESP:REMATCH_DECLINED" -> new RematchDeclined();
+                case "NOTIFY:OPPONENT_ACCEPTED_REMATCH" -> new OpponentRematchDecision(true);
+                case "NOTIFY:OPPONENT_DECLINED" -> new OpponentRematchDecision(false);
+                case "NOTIFY:CHAT" -> {
+                    String[] parts = payload.split(" ", 3);
+                    yield new Chat(new NetworkService.ChatMessage(parts[0], parts[1], parts[2]));
+                }
+                case "NOTIFY:CLOCK" -> new Clock(GameClock.fromWire(payload, System.nanoTime()));
+                case "PONG" -> new Pong(Long.parseLong(payload));
+                case "NOTIFY:SERVER_SHUTDOWN" -> new ServerShutdown();
+                default -> new Unhandled(line);
+            };
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return new ServerError(ErrorCode.MALFORMED_MESSAGE, "Formato non valido dal server (" + type + ")");
+        }
+    }
+
+    private static ServerEvent decodeError(String text) {
+        ErrorCode code = ErrorCode.fromWire(text);
+        return switch (code) {
+            case NAME_TAKEN, NAME_INVALID -> new NameRejected(code);
+            case CHAT_EMPTY, CHAT_RATE_LIMITED -> new ChatRejected(code);
+            default -> new ServerError(code, text);
+        };
+    }
+
+    // Le 9 celle arrivano separate da spazi ("X O - ..."), seguite dal numero di mosse giocate: si tiene solo il simbolo,
+    // senza creare stringhe. Senza numero finale (server precedenti) la sequenza è il numero di celle occupate.
+    private static ServerEvent decodeBoard(String payload) {
+        char[] cells = new char[BOARD_CELLS];
+        int count = 0;
+        int occupied = 0;
+        int i = 0;
+        for (; i < payload.length() && count < BOARD_CELLS; i++) {
+            char c = payload.charAt(i);
+            if (c == ' ') continue;
+            cells[count++] = c;
+            if (c != EMPTY_CELL) occupied++;
+        }
+        String rest = payload.substring(i).trim();
+        if (count != BOARD_CELLS) return new ServerError(ErrorCode.MALFORMED_MESSAGE, "Messaggio BOARD malformato dal server");
+        return new BoardUpdate(cells, rest.isEmpty() ? occupied : Integer.parseInt(rest));
+    }
+
+    // "<seq> <riga> <colonna> <simbolo>": una sola cella per mossa.
+    private static ServerEvent decodeMove(String payload) {
+        String[] parts = payload.split(" ");
+        int row = Integer.parseInt(parts[1]);
+        int col = Integer.parseInt(parts[2]);
+        char symbol = parts[3].charAt(0);
+        if (row < 0 || row >= BOARD_SIZE || col < 0 || col >= BOARD_SIZE || symbol == EMPTY_CELL) {
+            return new ServerError(ErrorCode.MALFORMED_MESSAGE, "Messaggio MOVE malformato dal server");
+        }
+        return new MoveDelta(Integer.parseInt(parts[0]), row, col, symbol);
+    }
+
+    private static ServerEvent decodeLeaderboard(String payload) {
+        int separator = payload.indexOf(';');
+        String[] header = (separator < 0 ? payload : payload.substring(0, separator)).trim().split(" ");
+        List<NetworkService.LeaderboardEntry> entries = new ArrayList<>();
+        String body = separator < 0 ? "" : payload.substring(separator + 1).trim();
+        if (!body.isEmpty()) {
+            for (String item : body.split("\\|")) {
+                String[] fields = item.split(",");
+                if (fields.length < 4) continue;
+                entries.add(new NetworkService.LeaderboardEntry(Integer.parseInt(fields[0]), fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+            }
+        }
+        return new Leaderboard(Integer.parseInt(header[0]), Integer.parseInt(header[1]), entries);
+    }
+}
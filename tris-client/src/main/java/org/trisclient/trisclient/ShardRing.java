@@ -0,0 +1,99 @@
+package org.trisclient.trisclient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Anello di hashing consistente sugli endpoint "host:porta". Ogni shard occupa VIRTUAL_NODES punti dell'anello, quindi
+// le chiavi si distribuiscono in modo uniforme e aggiungendo o togliendo uno shard se ne sposta solo ~1/N.
+public class ShardRing {
+
+    public static final int VIRTUAL_NODES = 160;
+    public static final String DEFAULT_ENDPOINTS = "127.0.0.1:12345";
+
+    private final List<String> endpoints;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    public ShardRing(List<String> endpoints) {
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("Serve almeno un endpoint");
+        this.endpoints = List.copyOf(endpoints);
+        for (String endpoint : this.endpoints) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) ring.put(hash(endpoint + "#" + i), endpoint);
+        }
+    }
+
+    // Endpoint da -Dtris.servers="host:porta,host:porta,..." (default 127.0.0.1:12345), senza duplicati e nell'ordine dato.
+    public static List<String> endpointsFromProperty() {
+        Set<String> endpoints = new LinkedHashSet<>();
+        for (String item : System.getProperty("tris.servers", DEFAULT_ENDPOINTS).split(",")) {
+            String endpoint = item.trim();
+            if (endpoint.isEmpty()) continue;
+            parsePort(endpoint);
+            endpoints.add(endpoint);
+        }
+        if (endpoints.isEmpty()) endpoints.add(DEFAULT_ENDPOINTS);
+        return new ArrayList<>(endpoints);
+    }
+
+    public static String parseHost(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        return colon < 0 ? endpoint : endpoint.substring(0, colon);
+    }
+
+    public static int parsePort(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(endpoint.substring(colon + 1));
+            if (colon > 0 && port > 0 && port <= 65535) return port;
+        } catch (NumberFormatException e) {
+            // gestito sotto
+        }
+        throw new IllegalArgumentException("Endpoint non valido (atteso host:porta): " + endpoint);
+    }
+
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public String shardFor(String key) {
+        return successor(hash(key)).getValue();
+    }
+
+    // Tutti gli shard nell'ordine in cui si incontrano sull'anello partendo dalla chiave: il primo è il proprietario,
+    // i successivi sono i ripieghi se quello è pieno o non raggiungibile.
+    public List<String> preferenceList(String key) {
+        Set<String> ordered = new LinkedHashSet<>();
+        long point = hash(key);
+        for (Map.Entry<Long, String> entry : ring.tailMap(point, true).entrySet()) {
+            if (ordered.add(entry.getValue()) && ordered.size() == endpoints.size()) return new ArrayList<>(ordered);
+        }
+        for (String endpoint : ring.values()) {
+            if (ordered.add(endpoint) && ordered.size() == endpoints.size()) break;
+        }
+        return new ArrayList<>(ordered);
+    }
+
+    private Map.Entry<Long, String> successor(long point) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(point);
+        return entry != null ? entry : ring.firstEntry();
+    }
+
+    // FNV-1a a 64 bit seguito dal mescolamento finale di MurmurHash3, per spargere bene chiavi simili ("host:porta#1", "#2", ...).
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,244 @@
+package org.trisclient.trisclient;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Connessioni a più istanze del server (shard). Una sola è attiva e parla con i controller; le altre restano in lobby con lo
+// stesso nome e servono solo ad aggregare le loro partite nella lobby. Le nuove partite vanno sullo shard scelto dall'anello
+// di hashing consistente in base al nome del creatore, le JOIN_REQUEST sullo shard che possiede la partita.
+// Tutti i metodi vanno chiamati dal thread FX.
+public class ShardRouter {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private final ShardRing ring;
+    private final Map<String, NetworkService> services = new LinkedHashMap<>();
+    private final Set<String> readyPeers = new HashSet<>();
+    private String activeEndpoint;
+    private String playerName;
+    private List<String> createCandidates = new ArrayList<>();
+    private int createAttempt = 0;
+    private Runnable onPeerReady = null;
+
+    public ShardRouter(List<String> endpoints) {
+        this.ring = new ShardRing(endpoints);
+        this.activeEndpoint = ring.getEndpoints().get(0);
+        services.put(activeEndpoint, new NetworkService());
+    }
+
+    public boolean isSharded() {
+        return ring.getEndpoints().size() > 1;
+    }
+
+    public NetworkService getActive() {
+        return services.get(activeEndpoint);
+    }
+
+    public String getActiveEndpoint() {
+        return activeEndpoint;
+    }
+
+    // Chiamato quando un altro shard accetta il nome: la lobby aggregata può includere le sue partite.
+    public void setOnPeerReady(Runnable onPeerReady) {
+        this.onPeerReady = onPeerReady;
+    }
+
+    // La prima connessione corre su tutti gli shard (EndpointConnector): diventa attivo il primo che risponde.
+    public void connectActive(NetworkService.ServerListener listener) {
+        getActive().connect(ring.getEndpoints(), listener);
+    }
+
+    // Dopo RESP:NAME_OK sullo shard attivo: registra lo stesso nome sugli altri shard.
+    public void connectPeers(String playerName) {
+        this.playerName = playerName;
+        String connected = getActive().getEndpoint();
+        if (!connected.equals(activeEndpoint) && ring.getEndpoints().contains(connected)) {
+            NetworkService active = services.remove(activeEndpoint);
+            NetworkService stale = services.put(connected, active);
+            if (stale != null && stale != active) stale.disconnect();
+            readyPeers.remove(connected);
+            System.out.println(getCurrentTimestamp() + " - ShardRouter: Shard attivo " + activeEndpoint + " -> " + connected + " (primo a rispondere).");
+            activeEndpoint = connected;
+        }
+        getActive().getLobbyCache().setPeers(this::requestPeerLobbies);
+        for (String endpoint : ring.getEndpoints()) {
+            if (endpoint.equals(activeEndpoint) || services.containsKey(endpoint)) continue;
+            NetworkService peer = new NetworkService();
+            services.put(endpoint, peer);
+            System.out.println(getCurrentTimestamp() + " - ShardRouter: Connessione allo shard " + endpoint + " come '" + playerName + "'.");
+            peer.connect(List.of(endpoint), new PeerListener(endpoint, peer));
+        }
+    }
+
+    // Rende attivo lo shard indicato: il listener del controller passa alla sua connessione e la vecchia diventa un peer.
+    // Restituisce null se lo shard non è connesso o non ha ancora accettato il nome.
+    public NetworkService activate(String endpoint) {
+        if (endpoint == null || endpoint.equals(activeEndpoint)) return getActive();
+        NetworkService target = services.get(endpoint);
+        if (target == null || !readyPeers.contains(endpoint) || !target.isConnected()) return null;
+        NetworkService previous = getActive();
+        NetworkService.ServerListener listener = previous.getServerListener();
+        previous.getLobbyCache().setPeers(null);
+        previous.setServerListener(new PeerListener(activeEndpoint, previous));
+        if (previous.isConnected()) readyPeers.add(activeEndpoint);
+        readyPeers.remove(endpoint);
+        System.out.println(getCurrentTimestamp() + " - ShardRouter: Shard attivo " + activeEndpoint + " -> " + endpoint);
+        activeEndpoint = endpoint;
+        target.setServerListener(listener);
+        target.getLobbyCache().setPeers(this::requestPeerLobbies);
+        return target;
+    }
+
+    // Shard per una nuova partita: il proprietario della chiave sull'anello, poi i successivi se è pieno (vedi nextShardForNewGame).
+    public NetworkService firstShardForNewGame(String creatorName) {
+        createCandidates = new ArrayList<>();
+        for (String endpoint : ring.preferenceList(creatorName)) {
+            if (endpoint.equals(activeEndpoint) || readyPeers.contains(endpoint)) createCandidates.add(endpoint);
+        }
+        createAttempt = 0;
+        return createCandidates.isEmpty() ? getActive() : activate(createCandidates.get(0));
+    }
+
+    public NetworkService nextShardForNewGame() {
+        while (++createAttempt < createCandidates.size()) {
+            NetworkService next = activate(createCandidates.get(createAttempt));
+            if (next != null) return next;
+        }
+        createCandidates = new ArrayList<>();
+        return null;
+    }
+
+    public boolean isCreatePending() {
+        return !createCandidates.isEmpty();
+    }
+
+    // Partita creata o errore diverso da "server pieno": niente più ripieghi.
+    public void clearPendingCreate() {
+        createCandidates = new ArrayList<>();
+    }
+
+    // Etichetta breve dello shard per le schede della lobby ("" con un solo server).
+    public String labelFor(String endpoint) {
+        if (!isSharded() || endpoint == null) return "";
+        int index = ring.getEndpoints().indexOf(endpoint);
+        return index < 0 ? "" : " [shard " + (index + 1) + "]";
+    }
+
+    public void disconnectPeers() {
+        for (Map.Entry<String, NetworkService> entry : services.entrySet()) {
+            if (!entry.getKey().equals(activeEndpoint)) entry.getValue().disconnect();
+        }
+        readyPeers.clear();
+    }
+
+    private Set<String> requestPeerLobbies() {
+        Set<String> requested = new HashSet<>();
+        for (String endpoint : readyPeers) {
+            NetworkService peer = services.get(endpoint);
+            if (peer != null && peer.isConnected() && peer.sendListPage(0, NetworkService.LOBBY_PAGE_SIZE)) requested.add(endpoint);
+        }
+        return requested;
+    }
+
+    private void dropPeer(String endpoint, NetworkService peer) {
+        readyPeers.remove(endpoint);
+        if (services.get(endpoint) == peer) services.remove(endpoint);
+        NetworkService active = getActive();
+        active.getLobbyCache().onPeerLost(endpoint, active.getServerListener());
+    }
+
+    // Listener delle connessioni non attive: registra il nome e passa le pagine della lobby alla cache dello shard attivo.
+    private class PeerListener implements NetworkService.ServerListener {
+        private final String endpoint;
+        private final NetworkService service;
+
+        PeerListener(String endpoint, NetworkService service) {
+            this.endpoint = endpoint;
+            this.service = service;
+        }
+
+        @Override
+        public void onNameRequested() {
+            service.sendName(playerName);
+        }
+
+        @Override
+        public void onNameAccepted() {
+            System.out.println(getCurrentTimestamp() + " - ShardRouter: Shard " + endpoint + " pronto.");
+            readyPeers.add(endpoint);
+            if (onPeerReady != null) onPeerReady.run();
+        }
+
+        @Override
+        public void onNameRejected(ErrorCode code) {
+            System.err.println(getCurrentTimestamp() + " - ShardRouter: Nome '" + playerName + "' rifiutato dallo shard " + endpoint + " (" + code + "), shard escluso.");
+            dropPeer(endpoint, service);
+            service.disconnect();
+        }
+
+        @Override
+        public void onGamesPage(int cursor, List<NetworkService.GameInfo> games) {
+            getActive().getLobbyCache().onPeerPage(endpoint, games);
+        }
+
+        @Override
+        public void onGamesPageEnd(int nextCursor) {
+            NetworkService active = getActive();
+            active.getLobbyCache().onPeerPageEnd(endpoint, active.getServerListener());
+        }
+
+        @Override
+        public void onDisconnected(DisconnectReason reason, String detail) {
+            System.out.println(getCurrentTimestamp() + " - ShardRouter: Shard " + endpoint + " disconnesso: " + reason.describe(detail));
+            dropPeer(endpoint, service);
+        }
+
+        // Un peer invia solo NAME e LIST: un errore chiude la richiesta della lobby in corso.
+        @Override
+        public void onError(ErrorCode code, String message) {
+            System.err.println(getCurrentTimestamp() + " - ShardRouter: Errore dallo shard " + endpoint + ": " + code.describe(message));
+            NetworkService active = getActive();
+            active.getLobbyCache().onPeerPageEnd(endpoint, active.getServerListener());
+        }
+
+        @Override public void onConnected() { System.out.println(getCurrentTimestamp() + " - ShardRouter: Connesso allo shard " + endpoint); }
+        @Override public void onMessageReceived(String raw) { }
+        @Override public void onActionConfirmed(String message) { }
+        @Override public void onGameCreated(int gid) { System.err.println(getCurrentTimestamp() + " - ShardRouter: Inaspettato onGameCreated dallo shard " + endpoint); }
+        @Override public void onQueued(int q) { }
+        @Override public void onUnqueued() { }
+        @Override public void onJoinRequestSent(int gid) { }
+        @Override public void onJoinRequestReceived(String name) { System.err.println(getCurrentTimestamp() + " - ShardRouter: Inaspettato onJoinRequestReceived dallo shard " + endpoint); }
+        @Override public void onJoinAccepted(int gid, char s, String o) { }
+        @Override public void onJoinRejected(int gid, String c) { }
+        @Override public void onGameStart(int gid, char s, String o) { System.err.println(getCurrentTimestamp() + " - ShardRouter: Inaspettato onGameStart dallo shard " + endpoint); }
+        @Override public void onBoardUpdate(char[] b) { }
+        @Override public void onMoveApplied(int r, int c, char s) { }
+        @Override public void onYourTurn() { }
+        @Override public void onPremoveQueued(int r, int c) { }
+        @Override public void onPremoveRejected(int r, int c) { }
+        @Override public void onGameOver(GameResult r) { }
+        @Override public void onOpponentLeft() { }
+        @Override public void onRematchOffer() { }
+        @Override public void onRematchAccepted(int gid) { }
+        @Override public void onRematchDeclined() { }
+        @Override public void onOpponentRematchDecision(boolean a) { }
+        @Override public void onLeaderboard(int o, int t, List<NetworkService.LeaderboardEntry> e) { }
+        @Override public void onRank(int r, int rt, int t) { }
+        @Override public void onRatingUpdate(NetworkService.LeaderboardEntry e, int d, int t) { }
+        @Override public void onChatMessages(List<NetworkService.ChatMessage> m) { }
+        @Override public void onChatRejected(ErrorCode c) { }
+        @Override public void onClock(GameClock c) { }
+    }
+}
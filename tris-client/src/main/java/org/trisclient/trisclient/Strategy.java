@@ -0,0 +1,124 @@
+package org.trisclient.trisclient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Un giocatore automatico: riceve la griglia come due maschere di 9 bit (bit i = cella riga*3+colonna) e restituisce la cella
+// in cui muovere, sempre libera. Deve essere senza stato e sicuro fra thread: Arena la usa da tutti i core, StrategyBot su NetworkService.
+@FunctionalInterface
+public interface Strategy {
+
+    int FULL_BOARD = 0x1FF;
+    int[] LINES = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+    List<String> BASELINES = List.of("random", "heuristic", "minimax");
+
+    // mine: celle di chi muove; theirs: celle dell'avversario; random: generatore del thread chiamante
+    int chooseMove(int mine, int theirs, SplittableRandom random);
+
+    static boolean isWin(int mask) {
+        for (int line : LINES) {
+            if ((mask & line) == line) return true;
+        }
+        return false;
+    }
+
+    // Griglia del protocollo ('X', 'O', EMPTY_CELL) -> maschera delle celle di quel simbolo.
+    static int mask(char[] cells, char symbol) {
+        int mask = 0;
+        for (int i = 0; i < ServerEvent.BOARD_CELLS; i++) {
+            if (cells[i] == symbol) mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    static Strategy forName(String name) {
+        return switch (name) {
+            case "random" -> Strategy::randomMove;
+            case "heuristic" -> Strategy::heuristicMove;
+            case "minimax" -> Minimax::bestMove;
+            default -> throw new IllegalArgumentException("Strategia sconosciuta: " + name + " (disponibili: " + String.join(", ", BASELINES) + ")");
+        };
+    }
+
+    // Una cella a caso fra quelle della maschera (non vuota).
+    static int pick(int candidates, SplittableRandom random) {
+        int skip = random.nextInt(Integer.bitCount(candidates));
+        while (skip-- > 0) candidates &= candidates - 1;
+        return Integer.numberOfTrailingZeros(candidates);
+    }
+
+    static int randomMove(int mine, int theirs, SplittableRandom random) {
+        return pick(FULL_BOARD & ~(mine | theirs), random);
+    }
+
+    // Vince se può, altrimenti blocca, altrimenti centro, angolo, lato.
+    static int heuristicMove(int mine, int theirs, SplittableRandom random) {
+        int free = FULL_BOARD & ~(mine | theirs);
+        int winning = 0, blocking = 0;
+        for (int line : LINES) {
+            int open = line & free;
+            if (Integer.bitCount(open) != 1) continue;
+            if ((line & mine) == (line & ~open)) winning |= open;
+            else if ((line & theirs) == (line & ~open)) blocking |= open;
+        }
+        if (winning != 0) return pick(winning, random);
+        if (blocking != 0) return pick(blocking, random);
+        if ((free & 0b000_010_000) != 0) return 4;
+        int corners = free & 0b101_000_101;
+        return pick(corners != 0 ? corners : free, random);
+    }
+
+    // Gioco perfetto da una tabella di tutte le posizioni raggiungibili, calcolata alla prima mossa (4520 posizioni).
+    // A parità di esito preferisce la vittoria più rapida e la sconfitta più lenta; fra le mosse equivalenti sceglie a caso.
+    final class Minimax {
+        private static final byte UNKNOWN = Byte.MIN_VALUE;
+        // indice mine << 9 | theirs
+        private static final byte[] score = new byte[1 << 18];
+        private static final short[] bestMoves = new short[1 << 18];
+
+        static {
+            Arrays.fill(score, UNKNOWN);
+            negamax(0, 0);
+        }
+
+        private Minimax() {
+        }
+
+        // Vittoria di chi muove: +(celle libere dopo la mossa + 1); sconfitta: negativo; pareggio: 0.
+        private static int negamax(int mine, int theirs) {
+            int index = mine << 9 | theirs;
+            if (score[index] != UNKNOWN) return score[index];
+            int free = FULL_BOARD & ~(mine | theirs);
+            int best = Integer.MIN_VALUE, moves = 0;
+            for (int cells = free; cells != 0; cells &= cells - 1) {
+                int bit = cells & -cells;
+                int next = mine | bit;
+                int value;
+                if (isWin(next)) value = Integer.bitCount(free);
+                else if ((next | theirs) == FULL_BOARD) value = 0;
+                else value = -negamax(theirs, next);
+                if (value > best) {
+                    best = value;
+                    moves = bit;
+                } else if (value == best) {
+                    moves |= bit;
+                }
+            }
+            score[index] = (byte) best;
+            bestMoves[index] = (short) moves;
+            return best;
+        }
+
+        static int bestMove(int mine, int theirs, SplittableRandom random) {
+            int moves = bestMoves[mine << 9 | theirs];
+            // posizione non raggiungibile da una partita regolare
+            if (moves == 0) return heuristicMove(mine, theirs, random);
+            return pick(moves, random);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.trisclient.trisclient;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Giocatore automatico in rete: una Strategy su NetworkService, come un utente che usa solo la partita rapida.
+// Si mette in QUEUE, gioca, rifiuta la rivincita e torna in coda, fino a tris.bot.games partite (0 = senza fine).
+// Più bot nello stesso processo (tris.bot.count) giocano fra loro o contro gli utenti in coda; i callback girano su un unico thread.
+public class StrategyBot implements NetworkService.ServerListener {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static PrintStream report = System.out;
+
+    private final String name;
+    private final Strategy strategy;
+    private final SplittableRandom random;
+    private final int maxGames;
+    private final CountDownLatch finished;
+    private final NetworkService service = new NetworkService();
+    private final char[] board = new char[ServerEvent.BOARD_CELLS];
+    // solo thread dei callback
+    private char symbol = ServerEvent.EMPTY_CELL;
+    private String opponent;
+    private int wins = 0, draws = 0, losses = 0;
+    private boolean inGame = false;
+    private boolean done = false;
+
+    public StrategyBot(String name, Strategy strategy, long seed, int maxGames, CountDownLatch finished) {
+        this.name = name;
+        this.strategy = strategy;
+        this.random = new SplittableRandom(seed);
+        this.maxGames = maxGames;
+        this.finished = finished;
+        Arrays.fill(board, ServerEvent.EMPTY_CELL);
+    }
+
+    public void start(String host, int port) {
+        service.connect(host, port, this);
+    }
+
+    private int games() {
+        return wins + draws + losses;
+    }
+
+    // Una volta sola per bot: il processo termina quando tutti hanno raggiunto il limite o sono stati disconnessi.
+    private void finish(String why) {
+        if (done) return;
+        done = true;
+        report.println(getCurrentTimestamp() + " - StrategyBot " + name + ": " + why + " Bilancio " + wins + "V " + draws + "P " + losses + "S.");
+        finished.countDown();
+    }
+
+    public CompletableFuture<Void> stop() {
+        finish("Fine.");
+        return service.disconnect();
+    }
+
+    // Dopo una partita si torna in coda, una volta sola anche quando dopo un pareggio arrivano sia OPPONENT_LEFT sia REMATCH_DECLINED.
+    // Raggiunto il limite si continua a giocare finché non lo raggiungono tutti, altrimenti l'ultimo resterebbe in coda da solo.
+    private void backToLobby() {
+        if (!inGame) return;
+        inGame = false;
+        if (maxGames > 0 && games() >= maxGames) finish(games() + " partite giocate.");
+        if (service.isConnected()) service.sendQueue();
+    }
+
+    @Override public void onConnected() { }
+
+    @Override
+    public void onDisconnected(DisconnectReason reason, String detail) {
+        finish("Disconnesso: " + reason.describe(detail) + ".");
+    }
+
+    @Override public void onMessageReceived(String rawMessage) { }
+
+    @Override
+    public void onError(ErrorCode code, String message) {
+        report.println(getCurrentTimestamp() + " - StrategyBot " + name + ": Errore dal server: " + code.describe(message));
+    }
+
+    @Override public void onNameRequested() { service.sendName(name); }
+    @Override public void onNameAccepted() { service.sendQueue(); }
+
+    @Override
+    public void onNameRejected(ErrorCode code) {
+        finish("Nome rifiutato (" + code + ").");
+    }
+
+    @Override public void onGamesPage(int cursor, List<NetworkService.GameInfo> games) { }
+    @Override public void onGamesPageEnd(int nextCursor) { }
+    @Override public void onActionConfirmed(String message) { }
+    @Override public void onGameCreated(int gameId) { }
+    @Override public void onQueued(int queuedPlayers) { }
+    @Override public void onUnqueued() { }
+    @Override public void onJoinRequestSent(int gameId) { }
+    @Override public void onJoinRequestReceived(String requesterName) { }
+    @Override public void onJoinAccepted(int gameId, char symbol, String opponentName) { }
+    @Override public void onJoinRejected(int gameId, String creatorName) { }
+
+    @Override
+    public void onGameStart(int gameId, char symbol, String opponentName) {
+        this.symbol = symbol;
+        this.opponent = opponentName;
+        inGame = true;
+        Arrays.fill(board, ServerEvent.EMPTY_CELL);
+    }
+
+    @Override
+    public void onBoardUpdate(char[] cells) {
+        System.arraycopy(cells, 0, board, 0, board.length);
+    }
+
+    @Override
+    public void onMoveApplied(int row, int col, char symbol) {
+        board[row * ServerEvent.BOARD_SIZE + col] = symbol;
+    }
+
+    @Override
+    public void onYourTurn() {
+        if (symbol == ServerEvent.EMPTY_CELL) return;
+        int mine = Strategy.mask(board, symbol);
+        int theirs = Strategy.mask(board, symbol == 'X' ? 'O' : 'X');
+        if ((mine | theirs) == Strategy.FULL_BOARD) return;
+        int cell = strategy.chooseMove(mine, theirs, random);
+        service.sendMove(cell / ServerEvent.BOARD_SIZE, cell % ServerEvent.BOARD_SIZE);
+    }
+
+    @Override public void onPremoveQueued(int row, int col) { }
+    @Override public void onPremoveRejected(int row, int col) { }
+
+    @Override
+    public void onGameOver(GameResult result) {
+        switch (result) {
+            case WIN -> wins++;
+            case DRAW -> draws++;
+            default -> losses++;
+        }
+        System.out.println(getCurrentTimestamp() + " - StrategyBot " + name + ": " + result + " contro " + opponent + ".");
+        symbol = ServerEvent.EMPTY_CELL;
+    }
+
+    // Avversario uscito: il server ci ha già rimesso in lobby (a partita in corso segue GAMEOVER WIN).
+    @Override
+    public void onOpponentLeft() {
+        symbol = ServerEvent.EMPTY_CELL;
+        backToLobby();
+    }
+
+    // Niente rivincite: il server rimanda in lobby con REMATCH_DECLINED.
+    @Override public void onRematchOffer() { service.sendRematchChoice(false); }
+    @Override public void onRematchAccepted(int gameId) { }
+    @Override public void onRematchDeclined() { backToLobby(); }
+    @Override public void onOpponentRematchDecision(boolean opponentAccepted) { }
+    @Override public void onLeaderboard(int offset, int totalPlayers, List<NetworkService.LeaderboardEntry> entries) { }
+    @Override public void onRank(int rank, int rating, int totalPlayers) { }
+    @Override public void onRatingUpdate(NetworkService.LeaderboardEntry entry, int delta, int totalPlayers) { }
+    @Override public void onChatMessages(List<NetworkService.ChatMessage> messages) { }
+    @Override public void onChatRejected(ErrorCode code) { }
+    @Override public void onClock(GameClock clock) { }
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int port = Integer.getInteger("tris.server.port", 12345);
+        String strategyName = System.getProperty("tris.bot.strategy", "minimax");
+        int count = Math.max(1, Integer.getInteger("tris.bot.count", 1));
+        int maxGames = Integer.getInteger("tris.bot.games", 0);
+        long seed = Long.getLong("tris.bot.seed", System.nanoTime());
+        Strategy strategy = Strategy.forName(strategyName);
+
+        report = System.out;
+        // i log di NetworkService coprirebbero l'esito delle partite
+        if (!Boolean.getBoolean("tris.bot.verbose")) System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "StrategyBotCallbacks");
+            t.setDaemon(true);
+            return t;
+        });
+        NetworkService.setUiExecutor(callbacks::execute);
+
+        String tag = Integer.toHexString(new SplittableRandom(seed).nextInt(0x1000, 0x10000));
+        CountDownLatch finished = new CountDownLatch(count);
+        List<StrategyBot> bots = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StrategyBot bot = new StrategyBot(strategyName + tag + "-" + (i + 1), strategy, seed + i, maxGames, finished);
+            bots.add(bot);
+            callbacks.execute(() -> bot.start(host, port));
+        }
+        report.println(getCurrentTimestamp() + " - StrategyBot: " + count + " bot '" + strategyName + "' su " + host + ":" + port
+                + (maxGames > 0 ? ", " + maxGames + " partite ciascuno." : ", senza limite di partite."));
+        finished.await();
+        List<CompletableFuture<Void>> closing = callbacks.submit(() -> bots.stream().map(StrategyBot::stop).toList()).get();
+        // i thread di rete sono virtuali: senza attesa la JVM uscirebbe prima di aver chiuso le connessioni
+        CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).join();
+        callbacks.shutdown();
+    }
+}
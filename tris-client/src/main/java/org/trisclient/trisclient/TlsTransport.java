@@ -0,0 +1,399 @@
+package org.trisclient.trisclient;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// TLS opzionale (-Dtris.tls=true) fra NetworkService e il server: un SSLEngine sopra gli stream del socket già connesso.
+// L'SSLContext è unico per il processo, quindi la cache delle sessioni sopravvive alle riconnessioni e con TLS 1.3 il client
+// ripresenta il ticket ricevuto (PSK): l'handshake ripreso salta certificato e firma. Le statistiche separano handshake completi e
+// ripresi e misurano, per ogni record applicativo, il tempo di cifratura/decifratura e i byte aggiunti rispetto al testo in chiaro.
+public class TlsTransport {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static SSLContext context;
+    // messo dal trust manager sul thread che esegue l'handshake (i task delegati girano su quel thread)
+    private static final ThreadLocal<Boolean> CERTIFICATE_CHECKED = new ThreadLocal<>();
+
+    private static final LatencyHistogram fullHandshakes = new LatencyHistogram("handshake completo");
+    private static final LatencyHistogram resumedHandshakes = new LatencyHistogram("handshake ripreso");
+    private static final AtomicLong wrapCount = new AtomicLong();
+    private static final AtomicLong wrapNanos = new AtomicLong();
+    private static final AtomicLong unwrapCount = new AtomicLong();
+    private static final AtomicLong unwrapNanos = new AtomicLong();
+    private static final AtomicLong plainBytes = new AtomicLong();
+    private static final AtomicLong wireBytes = new AtomicLong();
+
+    private final Socket socket;
+    private final SSLEngine engine;
+    private final InputStream rawIn;
+    private final OutputStream rawOut;
+    private final Object writeLock = new Object();
+    // netIn in modalità lettura (flip) fra una chiamata e l'altra, appIn idem
+    private final ByteBuffer netIn;
+    private final ByteBuffer appIn;
+    private final ByteBuffer netOut;
+    private boolean resumed = false;
+    private volatile boolean closed = false;
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("tris.tls");
+    }
+
+    // tris.tls.truststore (PKCS12, password tris.tls.password) per fidarsi di un certificato locale, per esempio quello di TlsStandIn;
+    // senza, valgono le CA della JVM. tris.tls.protocols (default TLSv1.3) limita le versioni accettate.
+    static synchronized SSLContext context() throws IOException {
+        if (context != null) return context;
+        try {
+            SSLContext created = SSLContext.getInstance("TLS");
+            String truststore = System.getProperty("tris.tls.truststore");
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(truststore != null && !truststore.isEmpty() ? loadKeyStore(Path.of(truststore)) : null);
+            X509ExtendedTrustManager delegate = null;
+            for (TrustManager manager : trust.getTrustManagers()) {
+                if (manager instanceof X509ExtendedTrustManager extended) delegate = extended;
+            }
+            if (delegate == null) throw new GeneralSecurityException("Nessun X509TrustManager disponibile");
+            created.init(null, new TrustManager[] {new CountingTrustManager(delegate)}, null);
+            created.getClientSessionContext().setSessionTimeout(Integer.getInteger("tris.tls.sessionTimeoutS", 86_400));
+            context = created;
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Configurazione TLS non valida: " + e.getMessage(), e);
+        }
+    }
+
+    // Il certificato del server si verifica solo negli handshake completi: quello ripreso col ticket non lo rimanda,
+    // ed è l'unico modo di distinguerli da fuori (la sessione ripresa riporta comunque i certificati originali).
+    private static final class CountingTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager delegate;
+
+        CountingTrustManager(X509ExtendedTrustManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            CERTIFICATE_CHECKED.set(Boolean.TRUE);
+            delegate.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            CERTIFICATE_CHECKED.set(Boolean.TRUE);
+            delegate.checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            CERTIFICATE_CHECKED.set(Boolean.TRUE);
+            delegate.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+
+    static KeyStore loadKeyStore(Path file) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(file)) {
+            store.load(input, password());
+        }
+        return store;
+    }
+
+    static char[] password() {
+        return System.getProperty("tris.tls.password", "changeit").toCharArray();
+    }
+
+    static KeyManagerFactory keyManagers(Path keystore) throws IOException, GeneralSecurityException {
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(loadKeyStore(keystore), password());
+        return keys;
+    }
+
+    static String[] protocols() {
+        return System.getProperty("tris.tls.protocols", "TLSv1.3").split(",");
+    }
+
+    private TlsTransport(Socket socket, SSLEngine engine) throws IOException {
+        this.socket = socket;
+        this.engine = engine;
+        this.rawIn = socket.getInputStream();
+        this.rawOut = socket.getOutputStream();
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize()).flip();
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize()).flip();
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+
+    // Bloccante, dal thread di rete: handshake sul socket già connesso. Il nome host verifica il certificato (come HTTPS)
+    // e, con la porta, è la chiave della cache delle sessioni.
+    public static TlsTransport open(Socket socket, String host, int port) throws IOException {
+        SSLEngine engine = context().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        parameters.setProtocols(protocols());
+        engine.setSSLParameters(parameters);
+
+        TlsTransport transport = new TlsTransport(socket, engine);
+        long start = System.nanoTime();
+        transport.handshake();
+        long elapsed = System.nanoTime() - start;
+        (transport.resumed ? resumedHandshakes : fullHandshakes).recordNanos(elapsed);
+        SSLSession session = engine.getSession();
+        System.out.println(getCurrentTimestamp() + " - TlsTransport: Handshake " + (transport.resumed ? "ripreso" : "completo") + " con " + host + ":" + port
+                + " in " + elapsed / 1_000_000.0 + " ms (" + session.getProtocol() + ", " + session.getCipherSuite() + ").");
+        return transport;
+    }
+
+    private void handshake() throws IOException {
+        CERTIFICATE_CHECKED.remove();
+        engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_WRAP -> status = wrap(EMPTY).getHandshakeStatus();
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    SSLEngineResult result = unwrap();
+                    if (result == null) throw new SSLException("Connessione chiusa durante l'handshake");
+                    status = result.getHandshakeStatus();
+                }
+                case NEED_TASK -> {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) task.run();
+                    status = engine.getHandshakeStatus();
+                }
+                default -> throw new SSLException("Stato di handshake inatteso: " + status);
+            }
+        }
+        resumed = CERTIFICATE_CHECKED.get() == null;
+        CERTIFICATE_CHECKED.remove();
+    }
+
+    // Cifra src in un record e lo manda; chiamato con o senza writeLock solo dal thread che già lo detiene o durante l'handshake.
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        synchronized (writeLock) {
+            SSLEngineResult result;
+            do {
+                netOut.clear();
+                long start = System.nanoTime();
+                result = engine.wrap(src, netOut);
+                long elapsed = System.nanoTime() - start;
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0) throw new SSLException("Sessione TLS chiusa");
+                if (result.getStatus() != SSLEngineResult.Status.OK && result.getStatus() != SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("wrap: " + result.getStatus());
+                }
+                if (result.bytesConsumed() > 0) {
+                    wrapCount.incrementAndGet();
+                    wrapNanos.addAndGet(elapsed);
+                    plainBytes.addAndGet(result.bytesConsumed());
+                    wireBytes.addAndGet(result.bytesProduced());
+                }
+                rawOut.write(netOut.array(), 0, netOut.position());
+            } while (src.hasRemaining());
+            rawOut.flush();
+            return result;
+        }
+    }
+
+    // Decifra un record da netIn in appIn, leggendo dal socket quanto serve. null = fine dello stream.
+    private SSLEngineResult unwrap() throws IOException {
+        while (true) {
+            appIn.compact();
+            long start = System.nanoTime();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            long elapsed = System.nanoTime() - start;
+            switch (result.getStatus()) {
+                case OK -> {
+                    if (result.bytesProduced() > 0) {
+                        unwrapCount.incrementAndGet();
+                        unwrapNanos.addAndGet(elapsed);
+                    }
+                    return result;
+                }
+                case CLOSED -> {
+                    return null;
+                }
+                case BUFFER_UNDERFLOW -> {
+                    if (!fill()) return null;
+                }
+                case BUFFER_OVERFLOW -> throw new SSLException("Record TLS più grande del buffer applicativo");
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        netIn.compact();
+        try {
+            if (!netIn.hasRemaining()) throw new SSLException("Record TLS più grande del buffer di rete");
+            int read = rawIn.read(netIn.array(), netIn.position(), netIn.remaining());
+            if (read < 0) return false;
+            netIn.position(netIn.position() + read);
+            return true;
+        } finally {
+            netIn.flip();
+        }
+    }
+
+    // Dopo l'handshake TLS 1.3 arrivano messaggi di servizio (NewSessionTicket, KeyUpdate): il motore può chiedere di rispondere.
+    private void serviceHandshake(SSLEngineResult result) throws IOException {
+        SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+        while (status == SSLEngineResult.HandshakeStatus.NEED_TASK || status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) task.run();
+                status = engine.getHandshakeStatus();
+            } else {
+                status = wrap(EMPTY).getHandshakeStatus();
+            }
+        }
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int read = read(one, 0, 1);
+                return read < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                while (!appIn.hasRemaining()) {
+                    if (closed) return -1;
+                    SSLEngineResult result = unwrap();
+                    if (result == null) return -1;
+                    serviceHandshake(result);
+                }
+                int count = Math.min(length, appIn.remaining());
+                appIn.get(buffer, offset, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return appIn.remaining();
+            }
+
+            @Override
+            public void close() throws IOException {
+                TlsTransport.this.close();
+            }
+        };
+    }
+
+    // Un record per ogni write: OutboundWriter manda già i comandi accumulati con una sola write.
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                if (closed) throw new SSLException("Sessione TLS chiusa");
+                if (length > 0) wrap(ByteBuffer.wrap(buffer, offset, length));
+            }
+
+            @Override
+            public void close() throws IOException {
+                TlsTransport.this.close();
+            }
+        };
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    // close_notify al server, se si riesce, poi chiusura del socket.
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            engine.closeOutbound();
+            if (!socket.isClosed()) wrap(EMPTY);
+        } catch (IOException e) {
+            // il socket è già andato: basta chiuderlo
+        } finally {
+            socket.close();
+        }
+    }
+
+    public static boolean hasStats() {
+        return fullHandshakes.getTotalCount() + resumedHandshakes.getTotalCount() > 0;
+    }
+
+    public static String summary() {
+        long full = fullHandshakes.getTotalCount();
+        long resumedCount = resumedHandshakes.getTotalCount();
+        long records = wrapCount.get();
+        long plain = plainBytes.get();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "TLS: %d handshake, ripresi %.1f%%", full + resumedCount, full + resumedCount == 0 ? 0.0 : 100.0 * resumedCount / (full + resumedCount)));
+        out.append("\n  ").append(fullHandshakes.summary());
+        out.append("\n  ").append(resumedHandshakes.summary());
+        out.append(String.format(Locale.ROOT, "\n  cifratura: %d record, %.2f us/record, +%.1f byte/record (%d -> %d byte)",
+                records, records == 0 ? 0.0 : wrapNanos.get() / 1000.0 / records, records == 0 ? 0.0 : (double) (wireBytes.get() - plain) / records, plain, wireBytes.get()));
+        long decrypted = unwrapCount.get();
+        out.append(String.format(Locale.ROOT, "\n  decifratura: %d record, %.2f us/record", decrypted, decrypted == 0 ? 0.0 : unwrapNanos.get() / 1000.0 / decrypted));
+        return out.toString();
+    }
+}
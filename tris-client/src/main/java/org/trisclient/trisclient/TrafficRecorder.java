@@ -0,0 +1,137 @@
+package org.trisclient.trisclient;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+// Cattura del traffico di una connessione: intestazione "# tris-capture 1 <host>:<porta> <data>" e poi una riga per messaggio
+// "<delta_us> <verso> <riga>", con '<' dal server e '>' verso il server e delta_us misurato con System.nanoTime dalla riga precedente.
+// Le righe in ingresso si leggono dai byte del socket (prefissi mux e liste comprese), quelle in uscita dal writer subito prima della write.
+public class TrafficRecorder {
+
+    public static final String HEADER = "# tris-capture 1";
+    public static final char INBOUND = '<';
+    public static final char OUTBOUND = '>';
+
+    private static final DateTimeFormatter FILE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private final Path file;
+    private final Writer out;
+    private long lastNanos;
+    private long records = 0;
+    private boolean failed = false;
+
+    private TrafficRecorder(Path file, String endpoint) throws IOException {
+        this.file = file;
+        OutputStream stream = Files.newOutputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) stream = new GZIPOutputStream(stream, 8192);
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.out.write(HEADER + " " + endpoint + " " + LocalDateTime.now() + "\n");
+        this.lastNanos = System.nanoTime();
+    }
+
+    // Un file per connessione nella cartella tris.capture.dir (null se la cattura non è attiva). Compressi con gzip salvo tris.capture.gzip=false.
+    // Un errore di apertura disattiva solo la cattura, non la connessione.
+    public static TrafficRecorder open(String host, int port) {
+        String dir = System.getProperty("tris.capture.dir");
+        if (dir == null || dir.isEmpty()) return null;
+        Path directory = Path.of(dir);
+        String name = "tris-" + LocalDateTime.now().format(FILE_FORMATTER) + "-" + sequence.incrementAndGet()
+                + (Boolean.parseBoolean(System.getProperty("tris.capture.gzip", "true")) ? ".cap.gz" : ".cap");
+        try {
+            Files.createDirectories(directory);
+            return new TrafficRecorder(directory.resolve(name), host + ":" + port);
+        } catch (IOException e) {
+            System.err.println("TrafficRecorder: Impossibile creare la cattura in " + directory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    // Il writer e il listener registrano da thread diversi: un istante precedente all'ultima riga registrata diventa delta 0.
+    private synchronized void record(char direction, String line, long nanos) {
+        if (failed) return;
+        long delta = Math.max(0, nanos - lastNanos);
+        lastNanos = Math.max(lastNanos, nanos);
+        try {
+            out.write(Long.toString(delta / 1000));
+            out.write(' ');
+            out.write(direction);
+            out.write(' ');
+            out.write(line);
+            out.write('\n');
+            records++;
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("TrafficRecorder: Errore scrittura cattura " + file + ", cattura interrotta: " + e.getMessage());
+        }
+    }
+
+    public void outbound(String line, long nanos) {
+        record(OUTBOUND, line, nanos);
+    }
+
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("TrafficRecorder: Errore chiusura cattura " + file + ": " + e.getMessage());
+        }
+        failed = true;
+    }
+
+    // Stream del socket che registra ogni riga completa letta, con l'istante della read che l'ha chiusa.
+    public InputStream tap(InputStream in) {
+        return new FilterInputStream(in) {
+            private final ByteArrayOutputStream pending = new ByteArrayOutputStream(256);
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) accept(new byte[] {(byte) b}, 0, 1, System.nanoTime());
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) accept(buffer, offset, read, System.nanoTime());
+                return read;
+            }
+
+            private void accept(byte[] buffer, int offset, int length, long nanos) {
+                int start = offset;
+                for (int i = offset; i < offset + length; i++) {
+                    if (buffer[i] != '\n') continue;
+                    pending.write(buffer, start, i - start);
+                    String line = pending.toString(StandardCharsets.UTF_8);
+                    if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+                    record(INBOUND, line, nanos);
+                    pending.reset();
+                    start = i + 1;
+                }
+                pending.write(buffer, start, offset + length - start);
+            }
+        };
+    }
+}
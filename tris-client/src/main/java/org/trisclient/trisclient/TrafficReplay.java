@@ -0,0 +1,444 @@
+package org.trisclient.trisclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// Rigioca le catture di TrafficRecorder contro un server (o EdgeGateway): ogni file è una connessione e l'insieme dei file
+// uno scenario, lanciato in più copie contemporanee. Ogni comando parte quando è arrivata la risposta che lo precedeva nella
+// cattura (stesso tipo e sessione mux), dopo il tempo di attesa registrato diviso per la velocità (0 = massima).
+// Nomi e id delle partite vengono rimappati per copia, così le copie non si pestano i piedi.
+public class TrafficReplay {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static final int MAX_NAME_LENGTH = 31;
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private record Record(long deltaMicros, char direction, String line) {}
+
+    // Comando da rigiocare: chiave e conteggio della riga ricevuta che lo ha preceduto, pausa registrata dopo di essa.
+    private record Step(String line, String triggerKey, int triggerCount, long thinkMicros) {}
+
+    private record Capture(Path file, long startOffsetMicros, List<Step> steps) {}
+
+    private class Session implements Runnable {
+        final Capture capture;
+        final int copy;
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+        final Map<String, AtomicInteger> received = new HashMap<>();
+        final Map<String, String> pendingCommand = new HashMap<>();
+        final Map<String, Long> pendingSentNanos = new HashMap<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        Session(Capture capture, int copy) throws IOException {
+            this.capture = capture;
+            this.copy = copy;
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String line) {
+            String prefix = muxPrefix(line);
+            synchronized (this) {
+                pendingCommand.put(prefix, commandType(line.substring(prefix.length())));
+                pendingSentNanos.put(prefix, System.nanoTime());
+            }
+            out.print(line);
+            out.print('\n');
+            out.flush();
+            linesSent.incrementAndGet();
+        }
+
+        // Thread lettore: conta le righe per chiave, misura la risposta al comando in sospeso e impara gli id delle partite create.
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    linesReceived.incrementAndGet();
+                    String prefix = muxPrefix(line);
+                    String payload = line.substring(prefix.length());
+                    synchronized (this) {
+                        received.computeIfAbsent(prefix + commandType(payload), k -> new AtomicInteger()).incrementAndGet();
+                        String command = pendingCommand.remove(prefix);
+                        if (command != null) recordLatency(command, now - pendingSentNanos.remove(prefix));
+                        notifyAll();
+                    }
+                    if (payload.startsWith("RESP:CREATED ")) learnGameId(this, prefix, payload);
+                    else if (payload.startsWith("ERROR:")) reportError(capture.file().getFileName() + "#" + copy + ": " + line);
+                }
+            } catch (IOException e) {
+                if (!finished) reportError(capture.file().getFileName() + "#" + copy + " interrotta: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    notifyAll();
+                }
+                closed.countDown();
+            }
+        }
+
+        synchronized boolean awaitTrigger(String key, int count, long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (countOf(key) < count) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || closed.getCount() == 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+
+        private int countOf(String key) {
+            AtomicInteger counter = received.get(key);
+            return counter != null ? counter.get() : 0;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final List<Capture> captures;
+    private final Set<String> scenarioNames;
+    private final int copies;
+    private final double speed;
+    private final long waitTimeoutMs;
+
+    // id registrato -> id reale, per ogni copia dello scenario
+    private final Map<Integer, Map<Integer, Integer>> gameIds = new ConcurrentHashMap<>();
+    // id restituiti da RESP:CREATED nelle catture, in ordine, per file e sessione mux
+    private final Map<String, List<Integer>> recordedCreated = new HashMap<>();
+    private final Map<String, AtomicInteger> createdSeen = new ConcurrentHashMap<>();
+
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LatencyHistogram allLatencies = new LatencyHistogram("tutti");
+    private final AtomicLong linesSent = new AtomicLong();
+    private final AtomicLong linesReceived = new AtomicLong();
+    private final AtomicInteger divergences = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile boolean finished = false;
+
+    public TrafficReplay(String host, int port, List<Path> files, int copies, double speed, long waitTimeoutMs) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.copies = Math.max(1, copies);
+        this.speed = Math.max(0, speed);
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.captures = new ArrayList<>();
+        this.scenarioNames = new LinkedHashSet<>();
+        List<LocalDateTime> starts = new ArrayList<>();
+        List<List<Record>> parsed = new ArrayList<>();
+        for (Path file : files) {
+            starts.add(readStart(file));
+            parsed.add(readRecords(file));
+        }
+        LocalDateTime first = starts.stream().filter(s -> s != null).min(LocalDateTime::compareTo).orElse(null);
+        for (int i = 0; i < files.size(); i++) {
+            long offset = first != null && starts.get(i) != null ? Duration.between(first, starts.get(i)).toNanos() / 1000 : 0;
+            captures.add(buildCapture(files.get(i), offset, parsed.get(i)));
+        }
+    }
+
+    private static InputStream openCapture(Path file) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(file));
+        stream.mark(2);
+        boolean gzip = stream.read() == 0x1f && stream.read() == 0x8b;
+        stream.reset();
+        return gzip ? new GZIPInputStream(stream) : stream;
+    }
+
+    private static LocalDateTime readStart(Path file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openCapture(file), StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(TrafficRecorder.HEADER)) {
+                throw new IOException(file + " non è una cattura tris (intestazione mancante)");
+            }
+            String[] parts = header.split(" ");
+            try {
+                return parts.length >= 5 ? LocalDateTime.parse(parts[4]) : null;
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    private static List<Record> readRecords(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openCapture(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.isEmpty()) continue;
+                int first = line.indexOf(' ');
+                if (first < 0 || line.length() < first + 3) throw new IOException(file + ": riga di cattura malformata: " + line);
+                String text = line.length() > first + 3 ? line.substring(first + 3) : "";
+                records.add(new Record(Long.parseLong(line.substring(0, first)), line.charAt(first + 1), text));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ": tempo non valido nella cattura: " + e.getMessage());
+        }
+        return records;
+    }
+
+    private Capture buildCapture(Path file, long startOffsetMicros, List<Record> records) {
+        List<Step> steps = new ArrayList<>();
+        Map<String, Integer> counts = new HashMap<>();
+        String triggerKey = null;
+        int triggerCount = 0;
+        long sinceGate = 0;
+        for (Record record : records) {
+            sinceGate += record.deltaMicros();
+            if (record.direction() == TrafficRecorder.INBOUND) {
+                String prefix = muxPrefix(record.line());
+                String payload = record.line().substring(prefix.length());
+                String key = prefix + commandType(payload);
+                triggerKey = key;
+                triggerCount = counts.merge(key, 1, Integer::sum);
+                sinceGate = 0;
+                if (payload.startsWith("RESP:CREATED ")) {
+                    parseInt(payload.substring("RESP:CREATED ".length()))
+                            .ifPresent(id -> recordedCreated.computeIfAbsent(file + "|" + prefix, k -> new ArrayList<>()).add(id));
+                }
+            } else {
+                String payload = record.line().substring(muxPrefix(record.line()).length());
+                if (payload.startsWith("NAME ")) scenarioNames.add(payload.substring("NAME ".length()).trim());
+                steps.add(new Step(record.line(), triggerKey, triggerCount, sinceGate));
+                sinceGate = 0;
+            }
+        }
+        return new Capture(file, startOffsetMicros, steps);
+    }
+
+    private static OptionalInt parseInt(String text) {
+        try {
+            return OptionalInt.of(Integer.parseInt(text.trim()));
+        } catch (NumberFormatException e) {
+            return OptionalInt.empty();
+        }
+    }
+
+    private static String muxPrefix(String line) {
+        if (!line.startsWith("@")) return "";
+        int space = line.indexOf(' ');
+        return space < 0 ? "" : line.substring(0, space + 1);
+    }
+
+    // Primo token del messaggio ("RESP:CREATED", "MOVE"); per gli errori basta "ERROR:".
+    private static String commandType(String payload) {
+        if (payload.startsWith("ERROR:")) return "ERROR:";
+        int space = payload.indexOf(' ');
+        return space < 0 ? payload : payload.substring(0, space);
+    }
+
+    private String mapName(String name, int copy) {
+        if (!scenarioNames.contains(name)) return name;
+        String suffix = "_r" + copy;
+        return name.substring(0, Math.min(name.length(), MAX_NAME_LENGTH - suffix.length())) + suffix;
+    }
+
+    private void learnGameId(Session session, String prefix, String payload) {
+        String key = session.capture.file() + "|" + prefix;
+        List<Integer> recorded = recordedCreated.get(key);
+        int index = createdSeen.computeIfAbsent(key + "|" + session.copy, k -> new AtomicInteger()).getAndIncrement();
+        if (recorded == null || index >= recorded.size()) return;
+        parseInt(payload.substring("RESP:CREATED ".length())).ifPresent(live -> {
+            Map<Integer, Integer> ids = gameIds.computeIfAbsent(session.copy, k -> new ConcurrentHashMap<>());
+            synchronized (ids) {
+                ids.put(recorded.get(index), live);
+                ids.notifyAll();
+            }
+        });
+    }
+
+    // JOIN_REQUEST verso una partita creata nello scenario aspetta che la stessa copia l'abbia creata davvero.
+    private int mapGameId(int recorded, int copy) throws InterruptedException {
+        boolean known = recordedCreated.values().stream().anyMatch(ids -> ids.contains(recorded));
+        if (!known) return recorded;
+        Map<Integer, Integer> ids = gameIds.computeIfAbsent(copy, k -> new ConcurrentHashMap<>());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMs);
+        synchronized (ids) {
+            while (!ids.containsKey(recorded)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    divergences.incrementAndGet();
+                    return recorded;
+                }
+                TimeUnit.NANOSECONDS.timedWait(ids, left);
+            }
+            return ids.get(recorded);
+        }
+    }
+
+    private String rewrite(String line, int copy) throws InterruptedException {
+        String prefix = muxPrefix(line);
+        String payload = line.substring(prefix.length());
+        String type = commandType(payload);
+        String argument = payload.length() > type.length() ? payload.substring(type.length() + 1) : "";
+        switch (type) {
+            case "NAME", "ACCEPT", "REJECT" -> {
+                return prefix + type + " " + mapName(argument.trim(), copy);
+            }
+            case "JOIN_REQUEST" -> {
+                OptionalInt id = parseInt(argument);
+                return id.isPresent() ? prefix + type + " " + mapGameId(id.getAsInt(), copy) : line;
+            }
+            default -> {
+                return line;
+            }
+        }
+    }
+
+    private void recordLatency(String command, long nanos) {
+        latencies.computeIfAbsent(command, LatencyHistogram::new).recordNanos(nanos);
+        allLatencies.recordNanos(nanos);
+    }
+
+    private void reportError(String message) {
+        if (errors.incrementAndGet() <= 10) {
+            System.err.println(getCurrentTimestamp() + " - TrafficReplay: " + message);
+        }
+    }
+
+    private void sleepMicros(long micros) throws InterruptedException {
+        if (speed <= 0 || micros <= 0) return;
+        long nanos = (long) (micros * 1000 / speed);
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    private void play(Session session) {
+        try {
+            sleepMicros(session.capture.startOffsetMicros());
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMs);
+            for (Step step : session.capture.steps()) {
+                if (step.triggerKey() != null && !session.awaitTrigger(step.triggerKey(), step.triggerCount(), waitNanos)) {
+                    if (session.closed.getCount() == 0) return;
+                    divergences.incrementAndGet();
+                }
+                sleepMicros(step.thinkMicros());
+                session.send(rewrite(step.line(), session.copy));
+            }
+            // lascia arrivare le ultime risposte prima di chiudere
+            session.closed.await(Math.min(waitTimeoutMs, 500), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        int stepCount = captures.stream().mapToInt(c -> c.steps().size()).sum();
+        System.out.println(getCurrentTimestamp() + " - TrafficReplay: " + captures.size() + " catture (" + stepCount + " comandi) x " + copies
+                + " copie verso " + host + ":" + port + ", velocità " + (speed <= 0 ? "massima" : speed + "x"));
+        List<Session> sessions = new ArrayList<>();
+        for (int copy = 1; copy <= copies; copy++) {
+            for (Capture capture : captures) {
+                Session session = new Session(capture, copy);
+                sessions.add(session);
+                Thread reader = new Thread(session, "ReplayReader-" + copy + "-" + sessions.size());
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Thread> players = new ArrayList<>();
+        for (Session session : sessions) {
+            Thread player = new Thread(() -> play(session), "ReplayPlayer-" + session.copy + "-" + players.size());
+            player.setDaemon(true);
+            players.add(player);
+            player.start();
+        }
+        for (Thread player : players) player.join();
+        long elapsed = System.nanoTime() - start;
+
+        finished = true;
+        for (Session session : sessions) {
+            try {
+                session.socket.close();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - TrafficReplay: Errore chiusura connessione: " + e.getMessage());
+            }
+        }
+        report(sessions.size(), elapsed);
+    }
+
+    private void report(int sessionCount, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("-------------------- Risultati TrafficReplay --------------------");
+        System.out.printf("Connessioni: %d, durata %.2f s%n", sessionCount, seconds);
+        System.out.printf("Righe inviate: %d (%.0f/s), ricevute: %d (%.0f/s)%n",
+                linesSent.get(), linesSent.get() / seconds, linesReceived.get(), linesReceived.get() / seconds);
+        System.out.println("Latenza prima risposta - " + allLatencies.summary());
+        latencies.values().stream()
+                .sorted((a, b) -> Long.compare(b.getTotalCount(), a.getTotalCount()))
+                .forEach(h -> System.out.println("  " + h.summary()));
+        System.out.println("Attese scadute (risposte diverse dalla cattura): " + divergences.get());
+        System.out.println("Errori: " + errors.get());
+
+        String csv = System.getProperty("tris.replay.csv");
+        if (csv == null || csv.isEmpty()) return;
+        StringBuilder out = new StringBuilder("comando,da_us,a_us,conteggio\n");
+        latencies.values().forEach(h -> h.appendCsv(out));
+        try {
+            Files.writeString(Path.of(csv), out.toString(), StandardCharsets.UTF_8);
+            System.out.println("Istogrammi esportati in " + csv);
+        } catch (IOException e) {
+            System.err.println(getCurrentTimestamp() + " - TrafficReplay: Errore esportazione " + csv + ": " + e.getMessage());
+        }
+    }
+
+    // Argomenti: file di cattura o cartelle (tutti i *.cap e *.cap.gz contenuti formano lo scenario).
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int port = Integer.getInteger("tris.server.port", 12345);
+        int copies = Integer.getInteger("tris.replay.copies", 1);
+        double speed = Double.parseDouble(System.getProperty("tris.replay.speed", "1"));
+        long waitMs = Long.getLong("tris.replay.waitMs", 5000L);
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> entries = Files.list(path)) {
+                    entries.filter(p -> p.toString().endsWith(".cap") || p.toString().endsWith(".cap.gz")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Uso: java -cp <jar> [-Dtris.replay.copies=N] [-Dtris.replay.speed=1|N|0] " + TrafficReplay.class.getName() + " <cattura|cartella>...");
+            System.exit(2);
+        }
+        new TrafficReplay(host, port, files, copies, speed, waitMs).run();
+    }
+}
@@ -0,0 +1,104 @@
+package org.trisclient.trisclient;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Eventi JDK Flight Recorder del client. Sono disabilitati di default e si attivano con il profilo tris.jfc:
+// da disabilitati begin()/shouldCommit() non registrano nulla e i campi vengono valorizzati solo se l'evento verrà scritto.
+public final class TrisEvents {
+
+    private TrisEvents() {
+    }
+
+    @Name("tris.MessageReceived")
+    @Label("Messaggio ricevuto")
+    @Description("Decodifica di una riga del server in un ServerEvent")
+    @Category({"Tris", "Protocollo"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class MessageReceived extends Event {
+        @Label("Tipo")
+        public String type;
+
+        @Label("Dimensione")
+        @DataAmount
+        public int size;
+    }
+
+    @Name("tris.OutboundFlush")
+    @Label("Invio al server")
+    @Description("Scrittura e flush di un gruppo di comandi da parte di NetworkWriterThread")
+    @Category({"Tris", "Protocollo"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class OutboundFlush extends Event {
+        @Label("Comandi")
+        public int lines;
+
+        @Label("Dimensione")
+        @DataAmount
+        public int size;
+
+        @Label("Rimasti in coda")
+        public int queueDepth;
+    }
+
+    @Name("tris.ListenerHandoff")
+    @Label("Cambio listener")
+    @Description("Passaggio dei messaggi del server da un controller all'altro")
+    @Category({"Tris", "UI"})
+    @Enabled(false)
+    public static class ListenerHandoff extends Event {
+        @Label("Listener precedente")
+        public String previous;
+
+        @Label("Nuovo listener")
+        public String next;
+
+        @Label("Sessione mux")
+        public int muxSession;
+    }
+
+    @Name("tris.SceneNavigation")
+    @Label("Cambio schermata")
+    @Description("Caricamento FXML e sostituzione della radice della scena")
+    @Category({"Tris", "UI"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class SceneNavigation extends Event {
+        @Label("Destinazione")
+        public String target;
+
+        @Label("Partita")
+        public int gameId;
+
+        @Label("Motivo")
+        public String reason;
+    }
+
+    @Name("tris.LobbyRebuild")
+    @Label("Aggiornamento lobby")
+    @Description("Costruzione delle schede partita per una pagina della lobby")
+    @Category({"Tris", "UI"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class LobbyRebuild extends Event {
+        @Label("Cursore")
+        public int cursor;
+
+        @Label("Partite ricevute")
+        public int games;
+
+        @Label("Schede create")
+        public int itemsAdded;
+
+        @Label("Ricostruzione completa")
+        public boolean fullRebuild;
+    }
+}
@@ -0,0 +1,193 @@
+package org.trisclient.trisclient;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+
+public final class WebSocketCodec {
+
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    public interface FrameHandler {
+        void onText(String text);
+        void onPing(byte[] payload);
+        void onClose();
+        void onProtocolError(String reason);
+    }
+
+    private WebSocketCodec() {
+    }
+
+    // Restituisce la risposta 101 per una richiesta di upgrade valida, altrimenti null.
+    public static String handshakeResponse(String request) {
+        String key = null;
+        boolean upgrade = false;
+        for (String line : request.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("sec-websocket-key")) key = value;
+            else if (name.equals("upgrade")) upgrade = value.equalsIgnoreCase("websocket");
+        }
+        if (!request.startsWith("GET ") || !upgrade || key == null || key.isEmpty()) return null;
+        return "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + HANDSHAKE_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 non disponibile", e);
+        }
+    }
+
+    public static ByteBuffer encodeText(String text) {
+        return encodeFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ByteBuffer encodePong(byte[] payload) {
+        return encodeFrame(OPCODE_PONG, payload);
+    }
+
+    public static ByteBuffer encodeClose() {
+        return encodeFrame(OPCODE_CLOSE, new byte[0]);
+    }
+
+    private static ByteBuffer encodeFrame(int opcode, byte[] payload) {
+        int headerLength = payload.length < 126 ? 2 : (payload.length <= 0xFFFF ? 4 : 10);
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(payload.length);
+        }
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    public static class Decoder {
+        private final int maxMessageSize;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        private boolean inTextMessage = false;
+
+        public Decoder(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+        }
+
+        // Accoda i byte ricevuti e consegna i frame completi; i frame dal client devono essere mascherati.
+        public void feed(ByteBuffer data, FrameHandler handler) {
+            pending.write(data.array(), data.position(), data.remaining());
+            byte[] bytes = pending.toByteArray();
+            int offset = 0;
+            while (true) {
+                int consumed = decodeFrame(bytes, offset, handler);
+                if (consumed <= 0) {
+                    if (consumed < 0) {
+                        pending.reset();
+                        return;
+                    }
+                    break;
+                }
+                offset += consumed;
+            }
+            pending.reset();
+            pending.write(bytes, offset, bytes.length - offset);
+        }
+
+        private int decodeFrame(byte[] bytes, int offset, FrameHandler handler) {
+            int available = bytes.length - offset;
+            if (available < 2) return 0;
+            boolean fin = (bytes[offset] & 0x80) != 0;
+            int opcode = bytes[offset] & 0x0F;
+            boolean masked = (bytes[offset + 1] & 0x80) != 0;
+            long length = bytes[offset + 1] & 0x7F;
+            int headerLength = 2;
+            if (length == 126) {
+                if (available < 4) return 0;
+                length = ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+                headerLength = 4;
+            } else if (length == 127) {
+                if (available < 10) return 0;
+                length = ByteBuffer.wrap(bytes, offset + 2, 8).getLong();
+                headerLength = 10;
+            }
+            if (!masked) {
+                handler.onProtocolError("frame non mascherato dal client");
+                return -1;
+            }
+            if (length < 0 || length > maxMessageSize) {
+                handler.onProtocolError("frame troppo grande (" + length + " byte)");
+                return -1;
+            }
+            int frameLength = headerLength + 4 + (int) length;
+            if (available < frameLength) return 0;
+
+            byte[] payload = new byte[(int) length];
+            int maskOffset = offset + headerLength;
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (bytes[maskOffset + 4 + i] ^ bytes[maskOffset + (i & 3)]);
+            }
+
+            switch (opcode) {
+                case OPCODE_TEXT:
+                case OPCODE_CONTINUATION:
+                    if (opcode == OPCODE_TEXT) {
+                        message.reset();
+                        inTextMessage = true;
+                    } else if (!inTextMessage) {
+                        handler.onProtocolError("continuazione senza messaggio iniziale");
+                        return -1;
+                    }
+                    if (message.size() + payload.length > maxMessageSize) {
+                        handler.onProtocolError("messaggio troppo grande");
+                        return -1;
+                    }
+                    message.write(payload, 0, payload.length);
+                    if (fin) {
+                        inTextMessage = false;
+                        handler.onText(message.toString(StandardCharsets.UTF_8));
+                        message.reset();
+                    }
+                    break;
+                case OPCODE_BINARY:
+                    handler.onProtocolError("frame binari non supportati");
+                    return -1;
+                case OPCODE_CLOSE:
+                    handler.onClose();
+                    return -1;
+                case OPCODE_PING:
+                    handler.onPing(payload);
+                    break;
+                case OPCODE_PONG:
+                    break;
+                default:
+                    handler.onProtocolError("opcode sconosciuto " + opcode);
+                    return -1;
+            }
+            return frameLength;
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package org.trisclient.trisclient;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Banco di prova ripetibile per EdgeGateway senza server C: un finto server che parla il sottoinsieme mux del protocollo
+// (NAME, LIST, CREATE, QUEUE, QUIT, CHAT_HISTORY, con LIST accettata solo in LOBBY/WAITING/QUEUED come nel server vero) e un gateway
+// nello stesso processo, guidato da client TCP e WebSocket. Controlla le risposte, conta le LIST che arrivano al finto server
+// e verifica che un client che non legge venga disconnesso. Esce con codice 1 se un controllo fallisce.
+public class GatewayStandIn {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final String PROBE_NAME = "gateway-lobby";
+    private static final int CHAT_HISTORY_LINES = 32;
+    private static final long REPLY_TIMEOUT_MILLIS = 3000;
+
+    private enum State { CONNECTED, LOBBY, WAITING, QUEUED, PLAYING }
+
+    private static class Session {
+        final Upstream upstream;
+        final int id;
+        State state = State.CONNECTED;
+        String name = "";
+
+        Session(Upstream upstream, int id) {
+            this.upstream = upstream;
+            this.id = id;
+        }
+
+        void send(String payload) {
+            upstream.send("@" + id + " " + payload);
+        }
+    }
+
+    // ---- Finto server: un thread per connessione del gateway, stato condiviso sotto il lock dell'istanza ----
+
+    private final Object lock = new Object();
+    private final List<String> games = new ArrayList<>();
+    private final List<Session> queue = new ArrayList<>();
+    private int nextGameId = 1;
+    private final AtomicInteger clientLists = new AtomicInteger();
+    private final AtomicInteger probeLists = new AtomicInteger();
+    private final Set<String> closedSessions = ConcurrentHashMap.newKeySet();
+    private volatile boolean probeNamed = false;
+
+    private class Upstream implements Runnable {
+        final Socket socket;
+        final PrintWriter out;
+        final Map<Integer, Session> sessions = new HashMap<>();
+
+        Upstream(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+        }
+
+        synchronized void send(String line) {
+            out.print(line);
+            out.print('\n');
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try (socket; BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    synchronized (lock) {
+                        onLine(line);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(getCurrentTimestamp() + " - GatewayStandIn: Connessione dal gateway chiusa: " + e.getMessage());
+            }
+        }
+
+        private void onLine(String line) {
+            if (line.startsWith("MUX OPEN ")) {
+                int id = Integer.parseInt(line.substring("MUX OPEN ".length()).trim());
+                Session session = new Session(this, id);
+                sessions.put(id, session);
+                send("RESP:MUX_OPENED " + id);
+                session.send("CMD:GET_NAME");
+            } else if (line.startsWith("MUX CLOSE ")) {
+                int id = Integer.parseInt(line.substring("MUX CLOSE ".length()).trim());
+                Session session = sessions.remove(id);
+                if (session != null) {
+                    queue.remove(session);
+                    closedSessions.add(session.name);
+                }
+                send("RESP:MUX_CLOSED " + id);
+            } else if (line.startsWith("@")) {
+                int space = line.indexOf(' ');
+                Session session = sessions.get(Integer.parseInt(line.substring(1, space)));
+                if (session == null) send("ERROR:Sessione mux " + line.substring(1, space) + " non aperta");
+                else onCommand(session, line.substring(space + 1));
+            } else {
+                send("ERROR:Comando non valido sulla connessione principale: " + line);
+            }
+        }
+    }
+
+    private void onCommand(Session session, String command) {
+        boolean listAllowed = session.state == State.LOBBY || session.state == State.WAITING || session.state == State.QUEUED;
+        if (command.startsWith("NAME ") && session.state == State.CONNECTED) {
+            session.name = command.substring("NAME ".length());
+            session.state = State.LOBBY;
+            session.send("RESP:NAME_OK");
+            if (session.name.startsWith(PROBE_NAME)) probeNamed = true;
+        } else if ((command.equals("LIST") || command.startsWith("LIST ")) && listAllowed) {
+            (session.name.startsWith(PROBE_NAME) ? probeLists : clientLists).incrementAndGet();
+            if (command.equals("LIST")) {
+                session.send("RESP:GAMES_LIST;" + String.join("|", games));
+                return;
+            }
+            String[] parts = command.substring("LIST ".length()).trim().split(" ");
+            int cursor = Integer.parseInt(parts[0]);
+            StringBuilder page = new StringBuilder("RESP:GAMES_PAGE ").append(cursor).append(';');
+            for (String game : games) {
+                if (Integer.parseInt(game.substring(0, game.indexOf(','))) <= cursor) continue;
+                if (page.charAt(page.length() - 1) != ';') page.append('|');
+                page.append(game);
+            }
+            session.send(page.toString());
+            session.send("RESP:GAMES_END 0");
+        } else if (command.equals("CREATE") && session.state == State.LOBBY) {
+            int id = nextGameId++;
+            games.add(id + "," + session.name + ",Waiting");
+            session.state = State.WAITING;
+            session.send("RESP:CREATED " + id);
+        } else if (command.equals("QUEUE") && session.state == State.LOBBY) {
+            session.state = State.QUEUED;
+            queue.add(session);
+            session.send("RESP:QUEUED " + queue.size());
+            if (queue.size() >= 2) {
+                Session x = queue.remove(0);
+                Session o = queue.remove(0);
+                int id = nextGameId++;
+                games.add(id + "," + x.name + ",In Progress," + o.name);
+                x.state = State.PLAYING;
+                o.state = State.PLAYING;
+                x.send("NOTIFY:GAME_START " + id + " X " + o.name);
+                o.send("NOTIFY:GAME_START " + id + " O " + x.name);
+            }
+        } else if (command.equals("QUIT") && session.state == State.PLAYING) {
+            session.state = State.LOBBY;
+            session.send("RESP:QUIT_OK Tornare alla lobby.");
+        } else if (command.equals("CHAT_HISTORY") && session.state != State.CONNECTED) {
+            String text = "x".repeat(200);
+            for (int i = 0; i < CHAT_HISTORY_LINES; i++) session.send("NOTIFY:CHAT LOBBY " + session.name + " " + text);
+        } else {
+            session.send("ERROR:Comando sconosciuto o stato non valido (" + session.state.ordinal() + ") per il comando: " + command);
+        }
+    }
+
+    private void serve(ServerSocket server) {
+        try {
+            while (true) {
+                Upstream upstream = new Upstream(server.accept());
+                Thread thread = new Thread(upstream, "GatewayStandIn-upstream");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            if (!server.isClosed()) System.err.println(getCurrentTimestamp() + " - GatewayStandIn: Errore accept: " + e.getMessage());
+        }
+    }
+
+    // ---- Client di prova verso il gateway ----
+
+    private abstract static class Probe implements AutoCloseable {
+        final String label;
+        final Socket socket;
+
+        Probe(String label, Socket socket) throws IOException {
+            this.label = label;
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout((int) REPLY_TIMEOUT_MILLIS);
+        }
+
+        abstract void send(String line) throws IOException;
+
+        // Prossima riga dal gateway, null a timeout scaduto.
+        abstract String next() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static class TcpProbe extends Probe {
+        private final BufferedReader in;
+        private final OutputStream out;
+
+        TcpProbe(String label, int port) throws IOException {
+            this(label, port, 0);
+        }
+
+        // receiveBuffer > 0 riduce il buffer del socket prima della connessione, per riempire presto la coda del gateway.
+        TcpProbe(String label, int port, int receiveBuffer) throws IOException {
+            super(label, open(port, receiveBuffer));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+        }
+
+        private static Socket open(int port, int receiveBuffer) throws IOException {
+            Socket socket = new Socket();
+            if (receiveBuffer > 0) socket.setReceiveBufferSize(receiveBuffer);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            return socket;
+        }
+
+        @Override
+        void send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        @Override
+        String next() throws IOException {
+            try {
+                return in.readLine();
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class WebSocketProbe extends Probe {
+        private final DataInputStream in;
+        private final OutputStream out;
+
+        WebSocketProbe(String label, int port) throws IOException {
+            super(label, new Socket("127.0.0.1", port));
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            byte[] nonce = new byte[16];
+            ThreadLocalRandom.current().nextBytes(nonce);
+            String key = Base64.getEncoder().encodeToString(nonce);
+            out.write(("GET /tris HTTP/1.1\r\nHost: 127.0.0.1:" + port + "\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: " + key + "\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            while (!response.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) throw new IOException("handshake interrotto");
+                response.write(b);
+            }
+            String headers = response.toString(StandardCharsets.ISO_8859_1);
+            if (!headers.startsWith("HTTP/1.1 101") || !headers.contains(WebSocketCodec.acceptKey(key))) {
+                throw new IOException("handshake rifiutato: " + headers.lines().findFirst().orElse(""));
+            }
+        }
+
+        // Frame di testo mascherato, come deve mandarlo un client.
+        @Override
+        void send(String line) throws IOException {
+            byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+            byte[] mask = new byte[4];
+            ThreadLocalRandom.current().nextBytes(mask);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(0x81);
+            if (payload.length < 126) {
+                frame.write(0x80 | payload.length);
+            } else {
+                frame.write(0x80 | 126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length & 0xFF);
+            }
+            frame.write(mask);
+            for (int i = 0; i < payload.length; i++) frame.write(payload[i] ^ mask[i & 3]);
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+
+        @Override
+        String next() throws IOException {
+            try {
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0F;
+                    long length = in.readUnsignedByte() & 0x7F;
+                    if (length == 126) length = in.readUnsignedShort();
+                    else if (length == 127) length = in.readLong();
+                    byte[] payload = new byte[(int) length];
+                    in.readFully(payload);
+                    if (opcode == 0x1) return new String(payload, StandardCharsets.UTF_8);
+                    if (opcode == 0x8) return null;
+                }
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+        }
+    }
+
+    // ---- Scenario ----
+
+    private int failures = 0;
+
+    private void check(boolean ok, String description) {
+        if (!ok) failures++;
+        System.out.println((ok ? "  OK   " : "  FAIL ") + description);
+    }
+
+    // Legge fino a una riga che inizia con prefix; le altre righe vengono ignorate.
+    private String await(Probe probe, String prefix) throws IOException {
+        String line;
+        while ((line = probe.next()) != null) {
+            if (line.startsWith(prefix)) return line;
+        }
+        return null;
+    }
+
+    private void login(Probe probe) throws IOException {
+        check(await(probe, "CMD:GET_NAME") != null, probe.label + ": CMD:GET_NAME attraverso il gateway");
+        probe.send("NAME " + probe.label);
+        check(await(probe, "RESP:NAME_OK") != null, probe.label + ": nome accettato");
+    }
+
+    // Una LIST semplice e una paginata; restituisce le voci ricevute, null se la risposta non è arrivata o non è una pagina.
+    private String list(Probe probe, boolean paged) throws IOException {
+        if (!paged) {
+            probe.send("LIST");
+            String line = probe.next();
+            return line != null && line.startsWith("RESP:GAMES_LIST;") ? line.substring(line.indexOf(';') + 1) : null;
+        }
+        probe.send("LIST 0 " + NetworkService.LOBBY_PAGE_SIZE);
+        String page = probe.next();
+        String end = probe.next();
+        if (page == null || !page.startsWith("RESP:GAMES_PAGE ") || end == null || !end.startsWith("RESP:GAMES_END ")) return null;
+        return page.substring(page.indexOf(';') + 1);
+    }
+
+    public int run(int lobbyTtlMillis, int listsPerClient) throws Exception {
+        int tcpPort;
+        int webSocketPort;
+        try (ServerSocket a = new ServerSocket(0); ServerSocket b = new ServerSocket(0)) {
+            tcpPort = a.getLocalPort();
+            webSocketPort = b.getLocalPort();
+        }
+        ServerSocket server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> serve(server), "GatewayStandIn-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        EdgeGateway gateway = new EdgeGateway("127.0.0.1", server.getLocalPort(), tcpPort, webSocketPort, 2, lobbyTtlMillis);
+        Thread gatewayThread = new Thread(() -> {
+            try {
+                gateway.run();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - GatewayStandIn: Gateway terminato: " + e.getMessage());
+            }
+        }, "GatewayStandIn-gateway");
+        gatewayThread.setDaemon(true);
+        gatewayThread.start();
+        long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MILLIS;
+        while (!probeNamed && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        System.out.println("-------------------- Verifica EdgeGateway --------------------");
+        check(probeNamed, "sessione della cache lobby registrata sul finto server");
+
+        List<Probe> probes = new ArrayList<>();
+        try {
+            Probe creator = connect(probes, new TcpProbe("tcp-creatore", tcpPort));
+            Probe tcp = connect(probes, new TcpProbe("tcp-giocatore", tcpPort));
+            Probe ws = connect(probes, new WebSocketProbe("ws-giocatore", webSocketPort));
+            for (Probe probe : probes) login(probe);
+
+            creator.send("CREATE");
+            String created = await(creator, "RESP:CREATED ");
+            check(created != null, "CREATE attraverso il gateway");
+            String gameId = created == null ? "?" : created.substring("RESP:CREATED ".length()).trim();
+            Thread.sleep(lobbyTtlMillis + 100L);
+
+            // Raffica di LIST dalla lobby: tutte servite dalla cache, al finto server arrivano solo gli aggiornamenti della sessione cache.
+            int clientBefore = clientLists.get();
+            int probeBefore = probeLists.get();
+            int answered = 0;
+            int total = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < listsPerClient; i++) {
+                for (Probe probe : probes) {
+                    String entries = list(probe, i % 2 == 1);
+                    total++;
+                    if (entries != null && entries.startsWith(gameId + ",tcp-creatore,Waiting")) answered++;
+                }
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            int refreshes = probeLists.get() - probeBefore;
+            check(answered == total, "LIST dalla lobby: " + answered + "/" + total + " risposte con la partita creata");
+            check(clientLists.get() == clientBefore, "LIST dalla lobby arrivate al server: " + (clientLists.get() - clientBefore) + " (attese 0)");
+            check(refreshes >= 1 && refreshes <= 2 + elapsedMillis / Math.max(1, lobbyTtlMillis),
+                    "aggiornamenti della cache in " + elapsedMillis + " ms: " + refreshes + " per " + total + " LIST");
+
+            // In partita la LIST va al server, che risponde con un errore come senza gateway.
+            tcp.send("QUEUE");
+            ws.send("QUEUE");
+            check(await(tcp, "NOTIFY:GAME_START ") != null && await(ws, "NOTIFY:GAME_START ") != null, "QUEUE abbina tcp e ws");
+            int playingBefore = clientLists.get();
+            tcp.send("LIST");
+            String tcpReply = tcp.next();
+            ws.send("LIST 0 " + NetworkService.LOBBY_PAGE_SIZE);
+            String wsReply = ws.next();
+            check(tcpReply != null && tcpReply.startsWith("ERROR:") && wsReply != null && wsReply.startsWith("ERROR:"),
+                    "LIST in partita: errore dal server (" + tcpReply + " / " + wsReply + ")");
+            check(clientLists.get() == playingBefore, "LIST in partita inoltrate e rifiutate dal server senza passare dalla cache");
+
+            // Tornato in lobby, la prima LIST va al server e conferma lo stato; le successive tornano alla cache.
+            tcp.send("QUIT");
+            check(await(tcp, "RESP:QUIT_OK") != null, "QUIT riporta tcp in lobby");
+            int lobbyBefore = clientLists.get();
+            check(list(tcp, false) != null, "prima LIST dopo la partita: pagina dal server");
+            check(list(tcp, true) != null && list(tcp, false) != null, "LIST successive: pagine dalla cache");
+            check(clientLists.get() - lobbyBefore == 1, "LIST arrivate al server dopo il ritorno in lobby: " + (clientLists.get() - lobbyBefore) + " (attesa 1)");
+
+            // Un client che non legge: le risposte in coda superano il tetto del gateway, che lo chiude (MUX CLOSE al server); gli altri restano.
+            try (TcpProbe slow = new TcpProbe("tcp-lento", tcpPort, 4096)) {
+                login(slow);
+                long closeDeadline = System.currentTimeMillis() + 10 * REPLY_TIMEOUT_MILLIS;
+                try {
+                    for (int i = 0; i < 4000 && !closedSessions.contains(slow.label); i++) slow.send("CHAT_HISTORY");
+                } catch (IOException e) {
+                    // il gateway ha già chiuso la connessione
+                }
+                while (!closedSessions.contains(slow.label) && System.currentTimeMillis() < closeDeadline) Thread.sleep(20);
+                check(closedSessions.contains(slow.label), "client che non legge disconnesso dal gateway");
+            }
+            check(list(creator, true) != null, "gli altri client restano serviti");
+        } finally {
+            for (Probe probe : probes) probe.close();
+            gateway.stop();
+            gatewayThread.join(REPLY_TIMEOUT_MILLIS);
+            server.close();
+        }
+        System.out.println("LIST arrivate al server: " + clientLists.get() + " dai client, " + probeLists.get() + " dalla cache del gateway.");
+        System.out.println("Controlli falliti: " + failures);
+        return failures;
+    }
+
+    private static Probe connect(List<Probe> probes, Probe probe) {
+        probes.add(probe);
+        return probe;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lobbyTtl = Integer.getInteger("tris.gateway.lobbyTtlMs", 500);
+        int lists = Integer.getInteger("tris.standin.lists", 200);
+        int failures = new GatewayStandIn().run(lobbyTtl, lists);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,71 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("vuoto");
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.percentileMicros(99));
+        StringBuilder csv = new StringBuilder();
+        histogram.appendCsv(csv);
+        assertEquals("", csv.toString());
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("piccoli");
+        for (int micros = 1; micros <= 60; micros++) histogram.recordNanos(micros * 1000L);
+        assertEquals(60, histogram.getTotalCount());
+        assertEquals(30, histogram.percentileMicros(50));
+        assertEquals(54, histogram.percentileMicros(90));
+        assertEquals(60, histogram.percentileMicros(100));
+    }
+
+    @Test
+    void percentilesStayWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram("rtt");
+        for (long micros = 1; micros <= 100_000; micros++) histogram.recordNanos(micros * 1000);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double exact = percentile / 100.0 * 100_000;
+            long reported = histogram.percentileMicros(percentile);
+            assertTrue(reported >= exact && reported <= exact * 1.016, percentile + ": " + reported + " invece di " + exact);
+        }
+        assertEquals(100_000, histogram.percentileMicros(100));
+    }
+
+    @Test
+    void clampsOutOfRangeSamples() {
+        LatencyHistogram histogram = new LatencyHistogram("limiti");
+        histogram.recordNanos(-5);
+        histogram.recordNanos(Long.MAX_VALUE);
+        assertEquals(2, histogram.getTotalCount());
+        assertEquals(0, histogram.percentileMicros(50));
+        assertEquals(3_600_000_000L, histogram.percentileMicros(100));
+    }
+
+    @Test
+    void csvListsNonEmptyBucketsAndResetClears() {
+        LatencyHistogram histogram = new LatencyHistogram("mossa");
+        histogram.recordNanos(5_000);
+        histogram.recordNanos(5_000);
+        histogram.recordNanos(1_000_000);
+        StringBuilder csv = new StringBuilder();
+        histogram.appendCsv(csv);
+        String[] rows = csv.toString().split("\n");
+        assertEquals(2, rows.length);
+        assertEquals("mossa,5,5,2", rows[0]);
+        String[] bucket = rows[1].split(",");
+        assertTrue(Long.parseLong(bucket[1]) <= 1000 && Long.parseLong(bucket[2]) >= 1000, rows[1]);
+        assertEquals("1", bucket[3]);
+
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.percentileMicros(100));
+    }
+}
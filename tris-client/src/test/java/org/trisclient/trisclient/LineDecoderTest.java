@@ -0,0 +1,108 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LineDecoderTest {
+
+    // Registra i callback come stringhe, nell'ordine in cui arrivano.
+    private static class Recorder implements LineDecoder.FrameHandler {
+        final List<String> events = new ArrayList<>();
+
+        @Override public void onLine(String line) {
+            events.add("line " + line);
+        }
+        @Override public void onListEntry(String header, String entry) {
+            events.add("entry " + header + " " + entry);
+        }
+        @Override public void onListEnd(String header) {
+            events.add("end " + header);
+        }
+        @Override public void onFrameTooLarge(int discardedBytes) {
+            events.add("large " + discardedBytes);
+        }
+    }
+
+    // Restituisce al più chunk byte per read, per spezzare i frame fra una pump e l'altra.
+    private static InputStream chunked(String data, int chunk) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)) {
+            @Override public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    private static List<String> decode(String data, int maxFrameSize, int chunk) throws IOException {
+        LineDecoder decoder = new LineDecoder(chunked(data, chunk), maxFrameSize);
+        Recorder recorder = new Recorder();
+        while (decoder.pump(recorder)) {
+            // fino a fine stream
+        }
+        return recorder.events;
+    }
+
+    @Test
+    void splitsLinesAndDropsCarriageReturns() throws IOException {
+        assertEquals(List.of("line CMD:GET_NAME", "line RESP:NAME_OK", "line "),
+                decode("CMD:GET_NAME\r\nRESP:NAME_OK\n\n", 64, 4096));
+    }
+
+    @Test
+    void streamsGamesListEntries() throws IOException {
+        List<String> expected = List.of(
+                "entry RESP:GAMES_LIST; 1,anna,WAITING",
+                "entry RESP:GAMES_LIST; 2,bruno,PLAYING",
+                "end RESP:GAMES_LIST;",
+                "line RESP:NAME_OK");
+        String data = "RESP:GAMES_LIST;1,anna,WAITING|2,bruno,PLAYING\nRESP:NAME_OK\n";
+        assertEquals(expected, decode(data, 64, 4096));
+        assertEquals(expected, decode(data, 64, 1));
+    }
+
+    @Test
+    void emptyListOnlyEnds() throws IOException {
+        assertEquals(List.of("end RESP:GAMES_LIST;"), decode("RESP:GAMES_LIST;\n", 64, 4096));
+    }
+
+    @Test
+    void streamsPagesBehindMuxPrefix() throws IOException {
+        assertEquals(List.of("entry @12 RESP:GAMES_PAGE 0; 5,carla,WAITING", "end @12 RESP:GAMES_PAGE 0;"),
+                decode("@12 RESP:GAMES_PAGE 0;5,carla,WAITING\n", 64, 3));
+    }
+
+    @Test
+    void laterSemicolonsDoNotStartAList() throws IOException {
+        String line = "NOTIFY:CHAT lobby anna ciao; RESP:GAMES_LIST;1,x,WAITING";
+        assertEquals(List.of("line " + line, "line RESP:LEADERBOARD 0 1;1,anna,1500,3"),
+                decode(line + "\nRESP:LEADERBOARD 0 1;1,anna,1500,3\n", 128, 5));
+    }
+
+    @Test
+    void listLargerThanFrameLimitIsStreamed() throws IOException {
+        StringBuilder data = new StringBuilder("RESP:GAMES_LIST;");
+        for (int i = 0; i < 100; i++) data.append(i == 0 ? "" : "|").append(i).append(",giocatore").append(i).append(",WAITING");
+        List<String> events = decode(data.append('\n').toString(), 32, 4096);
+        assertEquals(101, events.size());
+        assertEquals("entry RESP:GAMES_LIST; 99,giocatore99,WAITING", events.get(99));
+    }
+
+    @Test
+    void oversizedFrameIsDiscardedAndDecodingResumes() throws IOException {
+        String big = "x".repeat(40);
+        assertEquals(List.of("large 40", "line RESP:NAME_OK"), decode(big + "\nRESP:NAME_OK\n", 16, 7));
+    }
+
+    @Test
+    void oversizedListEntryIsReportedAndListContinues() throws IOException {
+        String data = "RESP:GAMES_LIST;" + "y".repeat(30) + "|1,anna,WAITING\n";
+        assertEquals(List.of("large 30", "entry RESP:GAMES_LIST; 1,anna,WAITING", "end RESP:GAMES_LIST;"), decode(data, 20, 4096));
+    }
+}
@@ -0,0 +1,211 @@
+package org.trisclient.trisclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Strumento di carico headless: apre molte sessioni mux su poche connessioni, le mette tutte in QUEUE e misura il tempo di abbinamento.
+public class LoadTool {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static class Player {
+        final int sessionId;
+        final String name;
+        volatile long queuedAtNanos = 0;
+        volatile long matchedAtNanos = 0;
+
+        Player(int sessionId, String name) {
+            this.sessionId = sessionId;
+            this.name = name;
+        }
+    }
+
+    private class Link implements Runnable {
+        final int index;
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+        final Map<Integer, Player> players = new ConcurrentHashMap<>();
+
+        Link(int index, String host, int port) throws IOException {
+            this.index = index;
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        synchronized void send(String line) {
+            out.print(line);
+            out.print('\n');
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith("@")) {
+                        if (line.startsWith("ERROR:")) reportError("connessione " + index + ": " + line);
+                        continue;
+                    }
+                    int space = line.indexOf(' ');
+                    if (space < 0) continue;
+                    Player player = players.get(Integer.parseInt(line.substring(1, space)));
+                    if (player != null) onSessionLine(this, player, line.substring(space + 1));
+                }
+            } catch (IOException | NumberFormatException e) {
+                if (!finished) reportError("connessione " + index + " interrotta: " + e.getMessage());
+            }
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int connectionCount;
+    private final int playerCount;
+    private final long timeoutSeconds;
+
+    private final List<Link> links = new ArrayList<>();
+    private final List<Player> players = new ArrayList<>();
+    private final CountDownLatch namedLatch;
+    private final CountDownLatch matchedLatch;
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile boolean finished = false;
+
+    public LoadTool(String host, int port, int connectionCount, int playerCount, long timeoutSeconds) {
+        this.host = host;
+        this.port = port;
+        this.connectionCount = Math.max(1, connectionCount);
+        this.playerCount = playerCount + (playerCount % 2);
+        this.timeoutSeconds = timeoutSeconds;
+        this.namedLatch = new CountDownLatch(this.playerCount);
+        this.matchedLatch = new CountDownLatch(this.playerCount);
+    }
+
+    private void onSessionLine(Link link, Player player, String payload) {
+        if (payload.startsWith("CMD:GET_NAME")) {
+            link.send("@" + player.sessionId + " NAME " + player.name);
+        } else if (payload.startsWith("RESP:NAME_OK")) {
+            namedLatch.countDown();
+        } else if (payload.startsWith("NOTIFY:GAME_START ")) {
+            if (player.matchedAtNanos == 0) {
+                player.matchedAtNanos = System.nanoTime();
+                matchedLatch.countDown();
+            }
+        } else if (payload.startsWith("ERROR:")) {
+            reportError(player.name + ": " + payload);
+        }
+    }
+
+    private void reportError(String message) {
+        if (errors.incrementAndGet() <= 10) {
+            System.err.println(getCurrentTimestamp() + " - LoadTool: " + message);
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        System.out.println(getCurrentTimestamp() + " - LoadTool: " + playerCount + " giocatori su " + connectionCount + " connessioni verso " + host + ":" + port);
+        for (int i = 0; i < connectionCount; i++) {
+            Link link = new Link(i, host, port);
+            links.add(link);
+            Thread reader = new Thread(link, "LoadToolReader-" + i);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        long openStart = System.nanoTime();
+        for (int i = 0; i < playerCount; i++) {
+            Link link = links.get(i % connectionCount);
+            int sessionId = i / connectionCount + 1;
+            Player player = new Player(sessionId, "load" + i);
+            players.add(player);
+            link.players.put(sessionId, player);
+            link.send("MUX OPEN " + sessionId);
+        }
+        if (!namedLatch.await(timeoutSeconds, TimeUnit.SECONDS)) {
+            System.err.println(getCurrentTimestamp() + " - LoadTool: Timeout registrazione nomi, registrati " + (playerCount - namedLatch.getCount()) + "/" + playerCount
+                    + ". Il server ha abbastanza slot? (make CPPFLAGS=-DMAX_MUX_CLIENTS=...)");
+            shutdown();
+            return;
+        }
+        System.out.printf("%s - LoadTool: %d sessioni registrate in %.1f ms%n", getCurrentTimestamp(), playerCount, (System.nanoTime() - openStart) / 1e6);
+
+        long queueStart = System.nanoTime();
+        for (int i = 0; i < playerCount; i++) {
+            Player player = players.get(i);
+            player.queuedAtNanos = System.nanoTime();
+            links.get(i % connectionCount).send("@" + player.sessionId + " QUEUE");
+        }
+        boolean allMatched = matchedLatch.await(timeoutSeconds, TimeUnit.SECONDS);
+        long queueElapsed = System.nanoTime() - queueStart;
+
+        report(allMatched, queueElapsed);
+        shutdown();
+    }
+
+    private void report(boolean allMatched, long elapsedNanos) {
+        long[] waits = players.stream()
+                .filter(p -> p.matchedAtNanos != 0)
+                .mapToLong(p -> p.matchedAtNanos - p.queuedAtNanos)
+                .sorted()
+                .toArray();
+        System.out.println("-------------------- Risultati LoadTool --------------------");
+        System.out.println("Giocatori abbinati: " + waits.length + "/" + playerCount + (allMatched ? "" : " (timeout dopo " + timeoutSeconds + " s)"));
+        if (waits.length > 0) {
+            System.out.printf("Tempo di abbinamento (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                    percentile(waits, 0.50) / 1e6, percentile(waits, 0.90) / 1e6, percentile(waits, 0.99) / 1e6, waits[waits.length - 1] / 1e6);
+            System.out.printf("Partite avviate: %d in %.1f ms (%.0f partite/s)%n",
+                    waits.length / 2, elapsedNanos / 1e6, (waits.length / 2) / (elapsedNanos / 1e9));
+        }
+        System.out.println("Errori: " + errors.get());
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private void shutdown() {
+        finished = true;
+        for (Link link : links) {
+            for (Player player : link.players.values()) {
+                link.send("MUX CLOSE " + player.sessionId);
+            }
+            try {
+                link.socket.close();
+            } catch (IOException e) {
+                System.err.println(getCurrentTimestamp() + " - LoadTool: Errore chiusura connessione " + link.index + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int port = Integer.getInteger("tris.server.port", 12345);
+        int connections = Integer.getInteger("tris.load.connections", 8);
+        int players = Integer.getInteger("tris.load.players", 2000);
+        long timeout = Long.getLong("tris.load.timeoutSec", 60L);
+        if (args.length > 0) players = Integer.parseInt(args[0]);
+        new LoadTool(host, port, connections, players, timeout).run();
+    }
+}
@@ -0,0 +1,1892 @@
+package org.trisclient.trisclient;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Simulatore deterministico a eventi discreti del protocollo di partita: due client contro un modello del server, su un solo
+// thread e con un orologio virtuale. Ritardi di rete, code del thread FX, tempi di risposta dell'utente, abbandoni e chiusure
+// della finestra escono da un generatore con seme, quindi lo stesso seme riproduce sempre la stessa esecuzione.
+// GameController e HomePageController dipendono da FXML e Alert e non girano senza JavaFX: Home e Game qui sotto ne tengono
+// solo la parte grafica (griglia, avvisi, runLater) e prendono ogni decisione dagli stessi GameGuard e NavigationGuard dei
+// controller; le righe del server passano dal vero ServerEvent.decode. Il server è un modello di protocol.c, game_logic.c,
+// game_clock.c e matchmaking.c per CREATE, LIST, QUEUE, JOIN_REQUEST, ACCEPT, REJECT, MOVE, PREMOVE, RESYNC, REMATCH, QUIT,
+// scadenze dell'orologio e disconnessione. La LIST arriva alla lobby come una pagina unica, senza la cache di LobbyCache.
+public class ProtocolSimulator {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private static final String VIOLATION = "VIOLAZIONE ";
+    private static final String ANOMALY = "anomalia ";
+    private static final int MAX_GAMES = 4;
+    private static final int LOBBY_ACTIONS = 3;
+    private static final long MAX_STEPS = 200_000;
+    // finestra in cui cadono abbandoni e chiusure della finestra (µs virtuali)
+    private static final long FAULT_WINDOW_US = 20_000_000;
+    private static final char EMPTY = ServerEvent.EMPTY_CELL;
+    private static final long CLOCK_TICK_US = 100_000;
+    private static final long MATCHMAKING_TICK_US = 100_000;
+
+    private record Task(long time, long seq, Runnable action) implements Comparable<Task> {
+        @Override
+        public int compareTo(Task other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(seq, other.seq);
+        }
+    }
+
+    private final SplittableRandom random;
+    private final long netDelayUs;
+    private final List<String> trace;
+    private final PriorityQueue<Task> agenda = new PriorityQueue<>();
+    private final Map<String, String> findings = new LinkedHashMap<>();
+    private final SimServer server = new SimServer();
+    private final SimClient[] clients = {new SimClient(0, "Anna"), new SimClient(1, "Bruno")};
+    private long now = 0;
+    private long taskSeq = 0;
+    private long steps = 0;
+    // CLOCK_GAME_MS, CLOCK_MOVE_MS e CLOCK_REMATCH_MS di questa esecuzione, come se il server fosse compilato con -D: senza limiti
+    // per turno una partita ferma resta visibile a fine esecuzione, con limiti stretti scadono turni e rivincite.
+    private final long clockGameMs;
+    private final long clockMoveMs;
+    private final long clockRematchMs;
+
+    private ProtocolSimulator(long seed, long netDelayMs, boolean tracing) {
+        this.random = new SplittableRandom(seed);
+        this.netDelayUs = Math.max(1, netDelayMs * 1000);
+        this.trace = tracing ? new ArrayList<>() : null;
+        if (random.nextInt(100) < 40) {
+            clockGameMs = 0;
+            clockMoveMs = 0;
+            clockRematchMs = 30_000;
+        } else {
+            clockGameMs = random.nextBoolean() ? 0 : 3_000 + random.nextLong(9_000);
+            clockMoveMs = 1_000 + random.nextLong(3_000);
+            clockRematchMs = 1_500 + random.nextLong(6_500);
+        }
+    }
+
+    // ---- motore: agenda ordinata per (istante, ordine di inserimento) ----
+
+    private void at(long time, Runnable action) {
+        agenda.add(new Task(time, taskSeq++, action));
+    }
+
+    private void after(long delayUs, Runnable action) {
+        at(now + delayUs, action);
+    }
+
+    // Quasi sempre sotto netDelay, una volta su dieci una coda lunga (ritrasmissioni, Wi-Fi).
+    private long networkDelay() {
+        long base = 100 + random.nextLong(netDelayUs);
+        return random.nextInt(10) == 0 ? base * (2 + random.nextInt(7)) : base;
+    }
+
+    // Il thread FX di solito svuota la coda in pochi ms; una volta su cento è fermo (layout, GC) fino a mezzo secondo.
+    private long fxDelay() {
+        return random.nextInt(100) == 0 ? 100_000 + random.nextLong(400_000) : random.nextLong(2_000);
+    }
+
+    private long userDelay(long minMs, long maxMs) {
+        return (minMs + random.nextLong(maxMs - minMs + 1)) * 1000;
+    }
+
+    private void log(String text) {
+        if (trace != null) trace.add(String.format("%10.3f ms  %s", now / 1000.0, text));
+    }
+
+    // Violazione: client e server non sono d'accordo (o nessuno può più andare avanti). Anomalia: il controller ha registrato
+    // un evento inatteso o mostrato un errore all'utente.
+    private void violation(String kind, String detail) {
+        record(VIOLATION + kind, detail);
+    }
+
+    private void anomaly(String kind, String detail) {
+        record(ANOMALY + kind, detail);
+    }
+
+    private void record(String kind, String detail) {
+        log("!! " + kind + ": " + detail);
+        findings.putIfAbsent(kind, detail);
+    }
+
+    // Canale FIFO con ritardo variabile: un messaggio non supera mai il precedente, come su TCP e nella coda di runLater.
+    private final class Link {
+        private long lastArrival = 0;
+
+        void send(long delayUs, Runnable delivery) {
+            long arrival = Math.max(now + delayUs, lastArrival);
+            lastArrival = arrival;
+            at(arrival, delivery);
+        }
+    }
+
+    private void run() {
+        log("orologio: partita " + clockGameMs + " ms, mossa " + clockMoveMs + " ms, rivincita " + clockRematchMs + " ms");
+        for (SimClient client : clients) client.start();
+        if (random.nextInt(100) < 25) {
+            SimClient client = clients[random.nextInt(clients.length)];
+            after(random.nextLong(FAULT_WINDOW_US), () -> client.runLater(client::clickLeave));
+        }
+        if (random.nextInt(100) < 15) {
+            SimClient client = clients[random.nextInt(clients.length)];
+            after(random.nextLong(FAULT_WINDOW_US), client::closeWindow);
+        }
+        Task task;
+        while ((task = agenda.poll()) != null) {
+            if (++steps > MAX_STEPS) {
+                violation("NON_TERMINA", steps + " eventi senza quiete");
+                return;
+            }
+            now = task.time();
+            task.action().run();
+        }
+        checkQuiescence();
+    }
+
+    // Agenda vuota: nessun messaggio in volo e nessuna scelta dell'utente in sospeso. Ogni client deve essere in lobby e
+    // il suo stato deve coincidere con quello che il server ha per lui.
+    private void checkQuiescence() {
+        for (SimClient client : clients) {
+            if (client.closedByUser || !client.connected) continue;
+            ServerClient slot = server.slots[client.fd];
+            String where = client.name + " (server " + slot.state + ")";
+            if (client.inGameView) {
+                violation("BLOCCATO_IN_PARTITA", where + " vede ancora la partita");
+            } else if (client.listener instanceof Game) {
+                violation("LOBBY_SENZA_LISTENER", where + " vede la lobby ma gli eventi vanno alla partita chiusa");
+            } else {
+                switch (client.status) {
+                    case LOADING -> violation("LISTA_SENZA_RISPOSTA", where + " aspetta la lista delle partite");
+                    case JOINING -> violation("RICHIESTA_SENZA_RISPOSTA", where + " aspetta la risposta a JOIN_REQUEST");
+                    case CREATING -> violation("CREATE_SENZA_RISPOSTA", where + " aspetta RESP:CREATED");
+                    case QUEUING -> violation("QUEUE_SENZA_RISPOSTA", where + " aspetta RESP:QUEUED");
+                    case QUEUED -> violation("CODA_FANTASMA", where + " crede di essere in coda");
+                    case HOSTING -> {
+                        if (slot.state != ClientState.WAITING) violation("ATTESA_FANTASMA", where + " crede di ospitare una partita");
+                    }
+                    case IDLE -> {
+                        if (slot.state == ClientState.WAITING) violation("ATTESA_NON_MOSTRATA", where + " ospita una partita senza saperlo");
+                        else if (slot.state == ClientState.QUEUED) violation("CODA_NON_MOSTRATA", where + " è in coda senza saperlo");
+                        else if (slot.state == ClientState.PLAYING) violation("FANTASMA_IN_PARTITA", where + " è in lobby");
+                    }
+                }
+            }
+        }
+        for (ServerGame game : server.games) {
+            if (game.status == GameStatus.IN_PROGRESS) {
+                violation("PARTITA_BLOCCATA", "partita " + game.id + " in corso senza mosse possibili, turno di fd " + game.turn);
+            } else if (game.status == GameStatus.FINISHED && !server.hasMember(game.id)) {
+                violation("SLOT_NON_LIBERATO", "partita " + game.id + " terminata senza più giocatori");
+            } else if (game.status == GameStatus.WAITING && game.pending >= 0 && !server.slots[game.pending].active) {
+                violation("RICHIESTA_ORFANA", "partita " + game.id + " tiene la richiesta di un client disconnesso");
+            }
+        }
+    }
+
+    // ---- server: modello di protocol.c / game_logic.c / game_clock.c / matchmaking.c (fd = indice del client, -2 = giocatore uscito) ----
+
+    private enum ClientState { CONNECTED, LOBBY, WAITING, PLAYING, QUEUED }
+
+    private enum GameStatus { EMPTY, WAITING, IN_PROGRESS, FINISHED }
+
+    private enum Choice { PENDING, YES, NO }
+
+    private static final class ServerClient {
+        boolean active = true;
+        String name;
+        ClientState state = ClientState.LOBBY;
+        int gameId = 0;
+        long queuedSinceUs = 0;
+    }
+
+    private static final class ServerGame {
+        int id = 0;
+        GameStatus status = GameStatus.EMPTY;
+        final char[] board = new char[9];
+        int p1 = -1, p2 = -1, turn = -1, winner = -1, pending = -1;
+        String p1Name = "", p2Name = "", pendingName = "";
+        Choice r1 = Choice.PENDING, r2 = Choice.PENDING;
+        int seq = 0;
+        int premoveFd = -1, premoveRow = -1, premoveCol = -1;
+        // tempi residui di X e O, inizio del turno e scadenza in ms virtuali; timerGen scarta i timer rimpiazzati o cancellati
+        final long[] clockMs = new long[2];
+        long turnStartedMs = 0;
+        long deadlineMs = 0;
+        int timerGen = 0;
+
+        void reset() {
+            id = 0;
+            status = GameStatus.EMPTY;
+            Arrays.fill(board, EMPTY);
+            p1 = -1; p2 = -1; turn = -1; winner = -1; pending = -1;
+            p1Name = ""; p2Name = ""; pendingName = "";
+            r1 = Choice.PENDING; r2 = Choice.PENDING;
+            seq = 0;
+            premoveFd = -1; premoveRow = -1; premoveCol = -1;
+            clockMs[0] = 0; clockMs[1] = 0;
+            turnStartedMs = 0;
+            deadlineMs = 0;
+            timerGen++;
+        }
+    }
+
+    private final class SimServer {
+        final ServerClient[] slots = new ServerClient[2];
+        final ServerGame[] games = new ServerGame[MAX_GAMES];
+        int nextGameId = 1;
+        boolean matchmakingScheduled = false;
+
+        SimServer() {
+            for (int i = 0; i < games.length; i++) {
+                games[i] = new ServerGame();
+                games[i].reset();
+            }
+        }
+
+        void send(int fd, String line) {
+            if (fd < 0 || !slots[fd].active) return;
+            if (trace != null) log("S -> " + slots[fd].name + ": " + line);
+            SimClient client = clients[fd];
+            client.down.send(networkDelay(), () -> client.receive(line));
+        }
+
+        ServerGame find(int gameId) {
+            if (gameId <= 0) return null;
+            for (ServerGame game : games) {
+                if (game.status != GameStatus.EMPTY && game.id == gameId) return game;
+            }
+            return null;
+        }
+
+        int indexOf(int fd) {
+            return fd >= 0 && slots[fd].active ? fd : -1;
+        }
+
+        int opponent(ServerGame game, int fd) {
+            if (fd < 0) return -1;
+            if (game.p1 == fd) return game.p2;
+            if (game.p2 == fd) return game.p1;
+            return -1;
+        }
+
+        boolean hasMember(int gameId) {
+            for (ServerClient slot : slots) {
+                if (slot.active && slot.gameId == gameId) return true;
+            }
+            return false;
+        }
+
+        // dispatch_command di client_handler.c
+        void receive(int fd, String command) {
+            ServerClient slot = slots[fd];
+            if (!slot.active) return;
+            if (trace != null) log(slot.name + " -> S: " + command + " (stato " + slot.state + ")");
+            ClientState state = slot.state;
+            boolean inLobby = state == ClientState.LOBBY || state == ClientState.WAITING || state == ClientState.QUEUED;
+            if (command.equals("LIST") && inLobby) {
+                list(fd);
+            } else if (command.equals("QUEUE") && state == ClientState.LOBBY) {
+                queue(fd);
+            } else if (command.equals("UNQUEUE") && state != ClientState.CONNECTED) {
+                unqueue(fd);
+            } else if (command.equals("CREATE") && state == ClientState.LOBBY) {
+                create(fd);
+            } else if (command.startsWith("JOIN_REQUEST ") && state == ClientState.LOBBY) {
+                joinRequest(fd, Integer.parseInt(command.substring("JOIN_REQUEST ".length())));
+            } else if (command.startsWith("ACCEPT ") && state == ClientState.WAITING) {
+                accept(fd, command.substring("ACCEPT ".length()));
+            } else if (command.startsWith("REJECT ") && state == ClientState.WAITING) {
+                reject(fd, command.substring("REJECT ".length()));
+            } else if (command.startsWith("MOVE ") && state == ClientState.PLAYING) {
+                move(fd, command.charAt(5) - '0', command.charAt(7) - '0');
+            } else if (command.startsWith("PREMOVE ")) {
+                premove(fd, command.charAt(8) - '0', command.charAt(10) - '0');
+            } else if (command.equals("RESYNC")) {
+                resync(fd);
+            } else if (command.equals("REMATCH YES") || command.equals("REMATCH NO")) {
+                if (state == ClientState.PLAYING) rematch(fd, command.endsWith("YES"));
+                else unknown(fd, command);
+            } else if (command.equals("QUIT")) {
+                if (quit(fd)) closeConnection(fd);
+            } else {
+                unknown(fd, command);
+            }
+        }
+
+        void unknown(int fd, String command) {
+            send(fd, "ERROR:Comando sconosciuto o stato non valido (" + slots[fd].state.ordinal() + ") per il comando: " + command);
+        }
+
+        // process_list_command: tutte le partite non vuote. Arriva al client già divisa in voci, come dopo InboundFrameHandler.
+        void list(int fd) {
+            List<ListedGame> listed = new ArrayList<>();
+            for (ServerGame game : games) {
+                if (game.status != GameStatus.EMPTY) listed.add(new ListedGame(game.id, game.p1Name, game.status == GameStatus.WAITING));
+            }
+            if (trace != null) log("S -> " + slots[fd].name + ": RESP:GAMES_LIST " + listed);
+            SimClient client = clients[fd];
+            client.down.send(networkDelay(), () -> client.receiveGames(listed));
+        }
+
+        void queue(int fd) {
+            ServerClient slot = slots[fd];
+            slot.state = ClientState.QUEUED;
+            slot.queuedSinceUs = now;
+            int queued = 0;
+            for (ServerClient other : slots) {
+                if (other.active && other.state == ClientState.QUEUED) queued++;
+            }
+            send(fd, "RESP:QUEUED " + queued);
+            scheduleMatchmaking();
+        }
+
+        void unqueue(int fd) {
+            if (slots[fd].state != ClientState.QUEUED) {
+                send(fd, "ERROR:Non sei in coda per una partita rapida");
+                return;
+            }
+            slots[fd].state = ClientState.LOBBY;
+            slots[fd].queuedSinceUs = 0;
+            send(fd, "RESP:UNQUEUED");
+        }
+
+        // Il thread di matchmaking gira ogni 100 ms; qui solo finché qualcuno è in coda, così l'agenda si svuota.
+        void scheduleMatchmaking() {
+            if (matchmakingScheduled) return;
+            matchmakingScheduled = true;
+            at((now / MATCHMAKING_TICK_US + 1) * MATCHMAKING_TICK_US, this::matchmakingRound);
+        }
+
+        // run_matchmaking_round con i rating tutti uguali: si abbinano i primi due, X a chi aspetta da più tempo.
+        void matchmakingRound() {
+            matchmakingScheduled = false;
+            List<Integer> queued = new ArrayList<>();
+            for (int fd = 0; fd < slots.length; fd++) {
+                if (slots[fd].active && slots[fd].state == ClientState.QUEUED) queued.add(fd);
+            }
+            if (queued.isEmpty()) return;
+            queued.sort((a, b) -> Long.compare(slots[a].queuedSinceUs, slots[b].queuedSinceUs));
+            ServerGame game = null;
+            for (ServerGame candidate : games) {
+                if (candidate.status == GameStatus.EMPTY) {
+                    game = candidate;
+                    break;
+                }
+            }
+            if (queued.size() < 2 || game == null) {
+                scheduleMatchmaking();
+                return;
+            }
+            int x = queued.get(0), o = queued.get(1);
+            game.reset();
+            game.id = nextGameId++;
+            game.status = GameStatus.IN_PROGRESS;
+            game.p1 = x;
+            game.p2 = o;
+            game.turn = x;
+            game.p1Name = slots[x].name;
+            game.p2Name = slots[o].name;
+            clockStart(game);
+            for (int fd : new int[] {x, o}) {
+                slots[fd].state = ClientState.PLAYING;
+                slots[fd].gameId = game.id;
+                slots[fd].queuedSinceUs = 0;
+            }
+            send(o, "NOTIFY:GAME_START " + game.id + " O " + game.p1Name);
+            send(x, "NOTIFY:GAME_START " + game.id + " X " + game.p2Name);
+            broadcastGameState(game);
+            if (queued.size() > 2) scheduleMatchmaking();
+        }
+
+        void create(int fd) {
+            ServerGame game = null;
+            for (ServerGame candidate : games) {
+                if (candidate.status == GameStatus.EMPTY) {
+                    game = candidate;
+                    break;
+                }
+            }
+            if (game == null) {
+                send(fd, "ERROR:Server pieno, impossibile creare una partita (nessuno slot disponibile)");
+                return;
+            }
+            game.reset();
+            game.id = nextGameId++;
+            game.status = GameStatus.WAITING;
+            game.p1 = fd;
+            game.p1Name = slots[fd].name;
+            slots[fd].state = ClientState.WAITING;
+            slots[fd].gameId = game.id;
+            send(fd, "RESP:CREATED " + game.id);
+        }
+
+        void joinRequest(int fd, int gameId) {
+            ServerGame game = find(gameId);
+            if (game == null) {
+                send(fd, "ERROR:Partita non trovata " + gameId);
+                return;
+            }
+            if (game.status != GameStatus.WAITING) {
+                send(fd, "ERROR:La partita non è in attesa di giocatori");
+            } else if (game.p1 == fd) {
+                send(fd, "ERROR:Non puoi unirti alla tua partita");
+            } else if (game.pending != -1) {
+                send(fd, "ERROR:Il creatore della partita è occupato con un'altra richiesta di adesione");
+            } else if (game.p1 < 0) {
+                send(fd, "ERROR:Il creatore della partita sembra disconnesso.");
+            } else {
+                game.pending = fd;
+                game.pendingName = slots[fd].name;
+                send(game.p1, "NOTIFY:JOIN_REQUEST " + slots[fd].name);
+                send(fd, "RESP:REQUEST_SENT " + gameId);
+            }
+        }
+
+        void accept(int fd, String name) {
+            ServerGame game = find(slots[fd].gameId);
+            if (game == null) {
+                send(fd, "ERROR:Partita non trovata " + slots[fd].gameId);
+            } else if (game.status != GameStatus.WAITING) {
+                send(fd, "ERROR:La partita non è in attesa di giocatori");
+            } else if (game.p1 != fd) {
+                send(fd, "ERROR:Not creator");
+            } else if (game.pending < 0 || !game.pendingName.equals(name)) {
+                send(fd, "ERROR:Nessuna richiesta di adesione in sospeso trovata per questo giocatore '" + name + "'");
+            } else if (indexOf(game.pending) == -1 || slots[game.pending].state != ClientState.LOBBY) {
+                game.pending = -1;
+                game.pendingName = "";
+                send(fd, "ERROR:Il giocatore che ha richiesto di unirsi non è più disponibile.");
+            } else {
+                int joiner = game.pending;
+                game.p2 = joiner;
+                game.p2Name = name;
+                game.status = GameStatus.IN_PROGRESS;
+                game.turn = fd;
+                game.pending = -1;
+                game.pendingName = "";
+                game.premoveFd = -1;
+                clockStart(game);
+                slots[fd].state = ClientState.PLAYING;
+                slots[joiner].state = ClientState.PLAYING;
+                slots[joiner].gameId = game.id;
+                send(joiner, "RESP:JOIN_ACCEPTED " + game.id + " O " + slots[fd].name);
+                send(joiner, "NOTIFY:GAME_START " + game.id + " O " + slots[fd].name);
+                send(fd, "NOTIFY:GAME_START " + game.id + " X " + name);
+                broadcastGameState(game);
+            }
+        }
+
+        void reject(int fd, String name) {
+            ServerGame game = find(slots[fd].gameId);
+            if (game == null) {
+                send(fd, "ERROR:Partita non trovata " + slots[fd].gameId);
+            } else if (game.status != GameStatus.WAITING) {
+                send(fd, "ERROR:La partita non è in attesa di giocatori");
+            } else if (game.p1 != fd) {
+                send(fd, "ERROR:Not creator");
+            } else if (game.pending < 0 || !game.pendingName.equals(name)) {
+                send(fd, "ERROR:Nessuna richiesta di adesione in sospeso trovata per questo giocatore '" + name + "'");
+            } else {
+                int joiner = game.pending;
+                game.pending = -1;
+                game.pendingName = "";
+                send(joiner, "RESP:JOIN_REJECTED " + game.id + " " + slots[fd].name);
+                send(fd, "RESP:REJECT_OK " + name);
+            }
+        }
+
+        String boardLine(ServerGame game) {
+            StringBuilder line = new StringBuilder("NOTIFY:BOARD ");
+            for (int i = 0; i < 9; i++) line.append(game.board[i]).append(' ');
+            return line.append(game.seq).toString();
+        }
+
+        void broadcastGameState(ServerGame game) {
+            String board = boardLine(game);
+            if (game.p1 >= 0) send(game.p1, board);
+            if (game.p2 >= 0) send(game.p2, board);
+            if (game.status == GameStatus.IN_PROGRESS) {
+                sendClock(game, game.p1);
+                sendClock(game, game.p2);
+            }
+            if (game.status == GameStatus.IN_PROGRESS && game.turn >= 0) send(game.turn, "NOTIFY:YOUR_TURN");
+        }
+
+        // broadcast_move: con notifyTurn false il giocatore di turno ha una premossa che viene giocata subito dopo
+        void broadcastMove(ServerGame game, int row, int col, char symbol, int seq, boolean notifyTurn) {
+            String moveLine = "NOTIFY:MOVE " + seq + " " + row + " " + col + " " + symbol;
+            if (game.p1 >= 0) send(game.p1, moveLine);
+            if (game.p2 >= 0) send(game.p2, moveLine);
+            if (seq == game.seq) {
+                sendClock(game, game.p1);
+                sendClock(game, game.p2);
+            }
+            if (notifyTurn && game.status == GameStatus.IN_PROGRESS && game.turn >= 0) send(game.turn, "NOTIFY:YOUR_TURN");
+        }
+
+        // process_move_command: true se la mossa è stata giocata
+        boolean move(int fd, int row, int col) {
+            ServerClient slot = slots[fd];
+            if (slot.gameId <= 0) {
+                send(fd, "ERROR:Comando disponibile solo nello stato PLAYING o a partita terminata");
+                return false;
+            }
+            ServerGame game = find(slot.gameId);
+            if (game == null) {
+                send(fd, "ERROR:Partita non trovata " + slot.gameId);
+                slot.state = ClientState.LOBBY;
+                slot.gameId = 0;
+                return false;
+            }
+            if (game.status != GameStatus.IN_PROGRESS) {
+                send(fd, "ERROR:Partita non in corso");
+                return false;
+            }
+            if (game.turn != fd) {
+                send(fd, "ERROR:Non è il tuo turno");
+                return false;
+            }
+            if (row < 0 || row > 2 || col < 0 || col > 2) {
+                send(fd, "ERROR:Mossa non valida (fuori dai limiti 0-2)");
+                return false;
+            }
+            if (game.board[row * 3 + col] != EMPTY) {
+                send(fd, "ERROR:Mossa non valida (cella occupata)");
+                return false;
+            }
+            char symbol = fd == game.p1 ? 'X' : 'O';
+            game.board[row * 3 + col] = symbol;
+            int seq = ++game.seq;
+            int opponent = opponent(game, fd);
+            boolean over = false;
+            boolean draw = false;
+            if (wins(game.board, symbol)) {
+                over = true;
+                game.status = GameStatus.FINISHED;
+                game.turn = -1;
+                game.winner = fd;
+                if (indexOf(opponent) != -1) {
+                    slots[opponent].state = ClientState.LOBBY;
+                    slots[opponent].gameId = 0;
+                }
+            } else if (full(game.board)) {
+                over = true;
+                draw = true;
+                game.status = GameStatus.FINISHED;
+                game.turn = -1;
+                game.winner = -1;
+            } else {
+                game.turn = opponent;
+            }
+            int premoveIdx = -1;
+            int premoveRow = -1, premoveCol = -1;
+            boolean premoveRejected = false;
+            if (!over && game.premoveFd >= 0 && game.premoveFd == opponent) {
+                premoveRow = game.premoveRow;
+                premoveCol = game.premoveCol;
+                game.premoveFd = -1;
+                if (game.board[premoveRow * 3 + premoveCol] == EMPTY && indexOf(opponent) != -1) premoveIdx = opponent;
+                else premoveRejected = true;
+            }
+            clockAfterMove(game, fd);
+
+            if (premoveRejected) send(opponent, "RESP:PREMOVE_REJECTED " + premoveRow + " " + premoveCol);
+            broadcastMove(game, row, col, symbol, seq, premoveIdx < 0);
+            if (premoveIdx >= 0) {
+                log("S: premossa " + premoveRow + "," + premoveCol + " di " + slots[premoveIdx].name + " giocata");
+                if (move(premoveIdx, premoveRow, premoveCol)) return true;
+                if (find(game.id) == game && game.status == GameStatus.IN_PROGRESS && game.turn == opponent) send(opponent, "NOTIFY:YOUR_TURN");
+            }
+
+            if (over) {
+                send(fd, draw ? "NOTIFY:GAMEOVER DRAW" : "NOTIFY:GAMEOVER WIN");
+                if (opponent >= 0) send(opponent, draw ? "NOTIFY:GAMEOVER DRAW" : "NOTIFY:GAMEOVER LOSE");
+                send(fd, "CMD:REMATCH_OFFER");
+                if (opponent >= 0) send(opponent, draw ? "CMD:REMATCH_OFFER" : "RESP:REMATCH_DECLINED Tornare alla lobby.");
+            }
+            return true;
+        }
+
+        // process_premove_command: fuori dalla partita in corso (o su cella occupata) la premossa viene scartata senza errore
+        void premove(int fd, int row, int col) {
+            ServerClient slot = slots[fd];
+            ServerGame game = slot.state == ClientState.PLAYING ? find(slot.gameId) : null;
+            if (game == null || game.status != GameStatus.IN_PROGRESS || game.board[row * 3 + col] != EMPTY) {
+                send(fd, "RESP:PREMOVE_REJECTED " + row + " " + col);
+            } else if (game.turn == fd) {
+                move(fd, row, col);
+            } else {
+                game.premoveFd = fd;
+                game.premoveRow = row;
+                game.premoveCol = col;
+                send(fd, "RESP:PREMOVE_QUEUED " + row + " " + col);
+            }
+        }
+
+        void resync(int fd) {
+            ServerGame game = find(slots[fd].gameId);
+            if (game == null || game.status == GameStatus.WAITING) {
+                send(fd, "ERROR:Comando disponibile solo nello stato PLAYING o a partita terminata");
+                return;
+            }
+            send(fd, boardLine(game));
+            if (game.status == GameStatus.IN_PROGRESS) sendClock(game, fd);
+            if (game.status == GameStatus.IN_PROGRESS && game.turn == fd) send(fd, "NOTIFY:YOUR_TURN");
+        }
+
+        void rematch(int fd, boolean yes) {
+            ServerClient slot = slots[fd];
+            if (slot.gameId <= 0) {
+                send(fd, "ERROR:Si è verificato un errore interno del server.");
+                return;
+            }
+            ServerGame game = find(slot.gameId);
+            if (game == null) {
+                send(fd, "ERROR:Partita non trovata " + slot.gameId);
+                return;
+            }
+            if (slot.state != ClientState.PLAYING || game.status != GameStatus.FINISHED) {
+                send(fd, "ERROR:Comando rematch non valido nello stato attuale della partita");
+                return;
+            }
+            boolean isP1 = fd == game.p1;
+            boolean isP2 = fd == game.p2;
+            boolean draw = game.winner == -1;
+            boolean winner = !draw && game.winner == fd;
+            if (!isP1 && !isP2) {
+                send(fd, "ERROR:Impossibile richiedere il rematch dopo un pareggio se non si è un giocatore nella partita");
+                return;
+            }
+            if (!draw && !winner) {
+                slot.state = ClientState.LOBBY;
+                slot.gameId = 0;
+                send(fd, "ERROR:Solo il vincitore può decidere il rematch");
+                return;
+            }
+            int opponent = opponent(game, fd);
+            int opponentIdx = indexOf(opponent);
+
+            if (yes && draw) {
+                Choice other;
+                if (isP1) { game.r1 = Choice.YES; other = game.r2; } else { game.r2 = Choice.YES; other = game.r1; }
+                if (other == Choice.YES) {
+                    int p1 = game.p1, p2 = game.p2;
+                    game.status = GameStatus.IN_PROGRESS;
+                    Arrays.fill(game.board, EMPTY);
+                    game.seq = 0;
+                    game.premoveFd = -1;
+                    game.turn = game.p1 >= 0 ? game.p1 : game.p2;
+                    game.winner = -1;
+                    game.r1 = Choice.PENDING;
+                    game.r2 = Choice.PENDING;
+                    clockStart(game);
+                    if (indexOf(p1) != -1) slots[p1].state = ClientState.PLAYING;
+                    if (indexOf(p2) != -1) slots[p2].state = ClientState.PLAYING;
+                    if (p1 >= 0) send(p1, "NOTIFY:GAME_START " + game.id + " X " + (game.p2Name.isEmpty() ? "?" : game.p2Name));
+                    if (p2 >= 0) send(p2, "NOTIFY:GAME_START " + game.id + " O " + (game.p1Name.isEmpty() ? "?" : game.p1Name));
+                    broadcastGameState(game);
+                } else if (other == Choice.NO) {
+                    slot.state = ClientState.LOBBY;
+                    slot.gameId = 0;
+                    send(fd, "RESP:REMATCH_DECLINED Tornare alla lobby.");
+                    game.reset();
+                }
+            } else if (yes) {
+                game.status = GameStatus.WAITING;
+                game.p1 = fd;
+                game.p1Name = slot.name;
+                game.p2 = -1;
+                game.p2Name = "";
+                Arrays.fill(game.board, EMPTY);
+                game.seq = 0;
+                game.turn = -1;
+                game.winner = -1;
+                game.r1 = Choice.PENDING;
+                game.r2 = Choice.PENDING;
+                clockCancel(game);
+                slot.state = ClientState.WAITING;
+                boolean notify = false;
+                if (opponentIdx != -1) {
+                    if (slots[opponent].gameId == game.id) {
+                        slots[opponent].state = ClientState.LOBBY;
+                        slots[opponent].gameId = 0;
+                    }
+                    notify = true;
+                }
+                send(fd, "RESP:REMATCH_ACCEPTED " + game.id + " In attesa di un nuovo avversario.");
+                if (notify) send(opponent, "NOTIFY:OPPONENT_ACCEPTED_REMATCH Tornare alla lobby.");
+            } else {
+                slot.state = ClientState.LOBBY;
+                slot.gameId = 0;
+                boolean notify = false;
+                boolean release = true;
+                if (draw) {
+                    Choice other;
+                    if (isP1) { game.r1 = Choice.NO; other = game.r2; } else { game.r2 = Choice.NO; other = game.r1; }
+                    notify = other != Choice.PENDING && opponentIdx != -1;
+                    release = other != Choice.PENDING;
+                } else {
+                    notify = opponentIdx != -1;
+                }
+                if (notify && slots[opponent].gameId == game.id) {
+                    slots[opponent].state = ClientState.LOBBY;
+                    slots[opponent].gameId = 0;
+                }
+                send(fd, "RESP:REMATCH_DECLINED Tornare alla lobby.");
+                if (notify) send(opponent, "NOTIFY:OPPONENT_DECLINED Tornare alla lobby.");
+                if (release) game.reset();
+            }
+        }
+
+        // true se il server chiude la connessione (QUIT fuori da partita e lobby)
+        boolean quit(int fd) {
+            ServerClient slot = slots[fd];
+            if (slot.state == ClientState.PLAYING || slot.state == ClientState.WAITING) {
+                ServerGame game = find(slot.gameId);
+                if (game != null) leaving(game, fd, slot.name);
+                slot.state = ClientState.LOBBY;
+                slot.gameId = 0;
+                send(fd, "RESP:QUIT_OK Tornare alla lobby.");
+                return false;
+            }
+            if (slot.state == ClientState.LOBBY) {
+                send(fd, "RESP:QUIT_OK Tornare alla lobby.");
+                return false;
+            }
+            return true;
+        }
+
+        void closeConnection(int fd) {
+            log("S: chiusura della connessione di " + slots[fd].name);
+            release(fd);
+            SimClient client = clients[fd];
+            client.down.send(networkDelay(), client::onServerClosed);
+        }
+
+        // release_client_slot: il giocatore esce dalla partita solo se il server la associa ancora a lui (game_id > 0)
+        void release(int fd) {
+            ServerClient slot = slots[fd];
+            if (!slot.active) return;
+            log("S: " + slot.name + " disconnesso (stato " + slot.state + ")");
+            int gameId = slot.gameId;
+            slot.active = false;
+            slot.state = ClientState.CONNECTED;
+            slot.gameId = 0;
+            ServerGame game = find(gameId);
+            if (game != null) leaving(game, fd, slot.name);
+        }
+
+        // handle_player_leaving_game
+        void leaving(ServerGame game, int fd, String name) {
+            GameStatus status = game.status;
+            boolean wasP1 = game.p1 == fd;
+            boolean wasP2 = game.p2 == fd;
+            if (game.pending == fd && status == GameStatus.WAITING) {
+                game.pending = -1;
+                game.pendingName = "";
+                if (game.p1 >= 0) send(game.p1, "NOTIFY:REQUEST_CANCELLED " + name + " se n'è andato");
+            } else if (wasP1 && status == GameStatus.WAITING) {
+                int pending = game.pending;
+                int savedId = game.id;
+                game.reset();
+                if (pending >= 0) {
+                    send(pending, "ERROR:Game " + savedId + " cancelled: creator '" + name + "' left.");
+                    if (indexOf(pending) != -1) {
+                        slots[pending].state = ClientState.LOBBY;
+                        slots[pending].gameId = 0;
+                    }
+                }
+            } else if ((wasP1 || wasP2) && status == GameStatus.IN_PROGRESS) {
+                int opponent = opponent(game, fd);
+                game.status = GameStatus.FINISHED;
+                game.turn = -1;
+                clockFinish(game);
+                game.winner = opponent;
+                if (wasP1) game.p1 = -2; else game.p2 = -2;
+                if (opponent >= 0) {
+                    send(opponent, "NOTIFY:OPPONENT_LEFT Back to lobby.");
+                    send(opponent, "NOTIFY:GAMEOVER WIN");
+                    if (indexOf(opponent) != -1) {
+                        slots[opponent].state = ClientState.LOBBY;
+                        slots[opponent].gameId = 0;
+                    }
+                }
+                game.reset();
+            } else if ((wasP1 || wasP2) && status == GameStatus.FINISHED) {
+                int opponent = opponent(game, fd);
+                int opponentIdx = indexOf(opponent);
+                boolean isWinner = game.winner == fd;
+                boolean isDraw = game.winner == -1;
+                if (wasP1) game.p1 = -2; else game.p2 = -2;
+                if (isWinner || isDraw) {
+                    if (isWinner) game.winner = -2;
+                    if (opponent >= 0 && opponentIdx != -1 && slots[opponent].gameId == game.id) {
+                        send(opponent, isWinner ? "NOTIFY:WINNER_LEFT Back to lobby." : "NOTIFY:OPPONENT_LEFT Back to lobby.");
+                        slots[opponent].state = ClientState.LOBBY;
+                        slots[opponent].gameId = 0;
+                    }
+                    game.reset();
+                } else if (opponent == -2) {
+                    game.reset();
+                }
+            }
+        }
+
+        // ---- game_clock.c: i timer scattano al primo tick di 100 ms dopo la scadenza ----
+
+        long nowMs() {
+            return now / 1000;
+        }
+
+        int side(ServerGame game, int fd) {
+            return fd == game.p1 ? 0 : 1;
+        }
+
+        void schedule(ServerGame game, long deadlineMs) {
+            int gen = ++game.timerGen;
+            game.deadlineMs = Math.max(0, deadlineMs);
+            if (deadlineMs <= 0) return;
+            int gameId = game.id;
+            long tick = Math.max((deadlineMs * 1000 + CLOCK_TICK_US - 1) / CLOCK_TICK_US, now / CLOCK_TICK_US + 1);
+            at(tick * CLOCK_TICK_US, () -> clockTick(game, gen, gameId));
+        }
+
+        void charge(ServerGame game, int side, long nowMs) {
+            if (clockGameMs <= 0) return;
+            game.clockMs[side] = Math.max(0, game.clockMs[side] - (nowMs - game.turnStartedMs));
+        }
+
+        long turnDeadline(ServerGame game) {
+            long limit = clockMoveMs > 0 ? clockMoveMs : -1;
+            if (clockGameMs > 0) {
+                long left = game.clockMs[side(game, game.turn)];
+                if (limit < 0 || left < limit) limit = left;
+            }
+            return limit < 0 ? 0 : game.turnStartedMs + limit;
+        }
+
+        void clockStart(ServerGame game) {
+            game.clockMs[0] = clockGameMs;
+            game.clockMs[1] = clockGameMs;
+            game.turnStartedMs = nowMs();
+            schedule(game, turnDeadline(game));
+        }
+
+        void clockAfterMove(ServerGame game, int mover) {
+            charge(game, side(game, mover), nowMs());
+            game.turnStartedMs = nowMs();
+            if (game.status == GameStatus.IN_PROGRESS) schedule(game, turnDeadline(game));
+            else schedule(game, nowMs() + clockRematchMs);
+        }
+
+        void clockFinish(ServerGame game) {
+            game.turnStartedMs = nowMs();
+            schedule(game, nowMs() + clockRematchMs);
+        }
+
+        void clockCancel(ServerGame game) {
+            game.timerGen++;
+            game.deadlineMs = 0;
+        }
+
+        String clockLine(ServerGame game, char timedOut) {
+            long[] left = {-1, -1};
+            long moveLeft = -1;
+            char turn = '-';
+            if (clockGameMs > 0) {
+                left[0] = game.clockMs[0];
+                left[1] = game.clockMs[1];
+            }
+            if (game.status == GameStatus.IN_PROGRESS && game.turn >= 0) {
+                int side = side(game, game.turn);
+                long elapsed = nowMs() - game.turnStartedMs;
+                turn = side == 0 ? 'X' : 'O';
+                if (left[side] >= 0) left[side] = Math.max(0, left[side] - elapsed);
+                if (game.deadlineMs > 0) moveLeft = Math.max(0, game.deadlineMs - nowMs());
+            }
+            String line = "NOTIFY:CLOCK " + game.seq + " " + left[0] + " " + left[1] + " " + turn + " " + moveLeft;
+            return timedOut != 0 ? line + " " + timedOut : line;
+        }
+
+        void sendClock(ServerGame game, int fd) {
+            if (fd < 0 || (clockGameMs <= 0 && clockMoveMs <= 0)) return;
+            send(fd, clockLine(game, (char) 0));
+        }
+
+        void clockTick(ServerGame game, int gen, int gameId) {
+            if (game.timerGen != gen || game.id != gameId) return;
+            game.deadlineMs = 0;
+            if (game.status == GameStatus.IN_PROGRESS && game.turn >= 0) expireTurn(game);
+            else if (game.status == GameStatus.FINISHED) expireRematch(game);
+        }
+
+        // expire_turn_unsafe: chi deve muovere perde come per una mossa vincente dell'avversario
+        void expireTurn(ServerGame game) {
+            int loser = game.turn;
+            int winner = opponent(game, loser);
+            int loserSide = side(game, loser);
+            char loserSymbol = loserSide == 0 ? 'X' : 'O';
+            log("S: tempo scaduto per " + loserSymbol + " nella partita " + game.id);
+            charge(game, loserSide, nowMs());
+            game.status = GameStatus.FINISHED;
+            game.turn = -1;
+            game.winner = winner;
+            game.premoveFd = -1;
+            if (indexOf(loser) != -1) {
+                slots[loser].state = ClientState.LOBBY;
+                slots[loser].gameId = 0;
+            }
+            String clock = clockLine(game, loserSymbol);
+            send(winner, clock);
+            send(loser, clock);
+            send(winner, "NOTIFY:GAMEOVER WIN");
+            send(loser, "NOTIFY:GAMEOVER LOSE");
+            send(winner, "CMD:REMATCH_OFFER");
+            send(loser, "RESP:REMATCH_DECLINED Tornare alla lobby.");
+            game.turnStartedMs = nowMs();
+            schedule(game, nowMs() + clockRematchMs);
+        }
+
+        // expire_rematch_unsafe: chi deve ancora scegliere rifiuta d'ufficio. Se non è rimasto nessuno lo slot andava già
+        // liberato da chi è uscito per ultimo: il timer lo libera comunque, ma è una perdita nascosta.
+        void expireRematch(ServerGame game) {
+            List<Integer> expiring = new ArrayList<>();
+            int[] fds = {game.p1, game.p2};
+            Choice[] choices = {game.r1, game.r2};
+            for (int p = 0; p < 2; p++) {
+                int fd = indexOf(fds[p]);
+                if (fd != -1 && choices[p] == Choice.PENDING && slots[fd].gameId == game.id && slots[fd].state == ClientState.PLAYING) {
+                    expiring.add(fd);
+                }
+            }
+            if (expiring.isEmpty()) {
+                violation("SLOT_NON_LIBERATO", "partita " + game.id + " terminata senza più giocatori, liberata dal timer della rivincita");
+                game.reset();
+                return;
+            }
+            int gameId = game.id;
+            for (int fd : expiring) {
+                log("S: rivincita scaduta per " + slots[fd].name);
+                if (slots[fd].active && slots[fd].gameId == gameId && slots[fd].state == ClientState.PLAYING) rematch(fd, false);
+            }
+        }
+    }
+
+    private record ListedGame(int id, String creator, boolean waiting) {}
+
+    private static boolean wins(char[] board, char symbol) {
+        int[][] lines = {{0, 1, 2}, {3, 4, 5}, {6, 7, 8}, {0, 3, 6}, {1, 4, 7}, {2, 5, 8}, {0, 4, 8}, {2, 4, 6}};
+        for (int[] line : lines) {
+            if (board[line[0]] == symbol && board[line[1]] == symbol && board[line[2]] == symbol) return true;
+        }
+        return false;
+    }
+
+    private static boolean full(char[] board) {
+        for (char cell : board) {
+            if (cell == EMPTY) return false;
+        }
+        return true;
+    }
+
+    // ---- client: NetworkService + coda FX + i due controller ----
+
+    private enum LobbyStatus { LOADING, IDLE, CREATING, HOSTING, JOINING, QUEUING, QUEUED }
+
+    private final class SimClient {
+        final int fd;
+        final String name;
+        final Link up = new Link();
+        final Link down = new Link();
+        final Link fx = new Link();
+        boolean connected = true;
+        boolean closedByUser = false;
+        Screen listener;
+        Game game = null;
+        boolean inGameView = false;
+        LobbyStatus status = LobbyStatus.LOADING;
+        int lobbyActions = LOBBY_ACTIONS;
+        int boardSeq = -1;
+        boolean resyncPending = false;
+        // Alert modali aperti: finché ce n'è uno la finestra non riceve click
+        int openAlerts = 0;
+        // ClientSession.lastReturnReason e pendingJoinRequest
+        String lastReturnReason = null;
+        String pendingJoinRequest = null;
+
+        SimClient(int fd, String name) {
+            this.fd = fd;
+            this.name = name;
+            ServerClient slot = new ServerClient();
+            slot.name = name;
+            server.slots[fd] = slot;
+        }
+
+        void start() {
+            Home home = new Home(this);
+            listener = home;
+            home.reloadLobby();
+        }
+
+        void runLater(Runnable action) {
+            fx.send(fxDelay(), () -> {
+                if (!closedByUser) action.run();
+            });
+        }
+
+        // Scelta dell'utente (click, pulsante di un Alert): arriva dopo il tempo di reazione come evento del thread FX.
+        void userAction(long delayUs, Runnable action) {
+            after(delayUs, () -> runLater(action));
+        }
+
+        // showInfo/showError: showAndWait blocca il resto del runLater finché l'utente non chiude l'avviso.
+        void alert(Runnable then) {
+            openAlerts++;
+            userAction(userDelay(300, 2500), () -> {
+                openAlerts--;
+                then.run();
+            });
+        }
+
+        boolean send(String line) {
+            if (!connected) return false;
+            up.send(networkDelay(), () -> server.receive(fd, line));
+            return true;
+        }
+
+        void setPendingJoinRequest(String requesterName) {
+            pendingJoinRequest = requesterName;
+        }
+
+        String takePendingJoinRequest() {
+            String requesterName = pendingJoinRequest;
+            pendingJoinRequest = null;
+            return requesterName;
+        }
+
+        // InboundFrameHandler.onLine: decodifica sul thread di rete, consegna al listener corrente con runLater.
+        void receive(String line) {
+            if (!connected) return;
+            if (line.trim().isEmpty()) return;
+            ServerEvent event = ServerEvent.decode(line);
+            runLater(() -> dispatch(event));
+        }
+
+        // Pagine della lista già ricomposte: il simulatore non passa dal cursore di LIST né da LobbyCache.
+        void receiveGames(List<ListedGame> games) {
+            if (!connected) return;
+            runLater(() -> {
+                Screen current = listener;
+                if (trace != null) log(name + " [" + current.label + "] <- GamesList " + games);
+                current.onGamesList(games);
+            });
+        }
+
+        // NetworkService.dispatchEvent, per gli eventi che il server simulato può inviare
+        void dispatch(ServerEvent event) {
+            Screen current = listener;
+            if (trace != null) log(name + " [" + current.label + "] <- " + event.getClass().getSimpleName());
+            switch (event) {
+                case ServerEvent.GameCreated e -> current.onGameCreated(e.gameId());
+                case ServerEvent.Queued e -> current.onQueued(e.queuedPlayers());
+                case ServerEvent.Unqueued e -> current.onUnqueued();
+                case ServerEvent.JoinRequestSent e -> current.onJoinRequestSent(e.gameId());
+                case ServerEvent.JoinRequestReceived e -> current.onJoinRequestReceived(e.requesterName());
+                case ServerEvent.JoinAccepted e -> current.onJoinAccepted(e.gameId());
+                case ServerEvent.JoinRejected e -> current.onJoinRejected(e.gameId());
+                case ServerEvent.RejectConfirmed e -> { }
+                case ServerEvent.QuitConfirmed e -> { }
+                case ServerEvent.GameStart e -> current.onGameStart(e.gameId(), e.symbol());
+                case ServerEvent.BoardUpdate e -> {
+                    boardSeq = e.seq();
+                    resyncPending = false;
+                    current.onBoardUpdate(e.cells());
+                }
+                case ServerEvent.MoveDelta e -> {
+                    if (resyncPending || e.seq() <= boardSeq) {
+                        log(name + ": MOVE " + e.seq() + " ignorata");
+                    } else if (boardSeq < 0 || e.seq() != boardSeq + 1) {
+                        violation("BUCO_SEQUENZA", name + ": MOVE " + e.seq() + " dopo " + boardSeq + " su un canale FIFO");
+                        resyncPending = send("RESYNC");
+                    } else {
+                        boardSeq = e.seq();
+                        current.onMoveApplied(e.row(), e.col(), e.symbol());
+                    }
+                }
+                case ServerEvent.YourTurn e -> current.onYourTurn();
+                case ServerEvent.PremoveQueued e -> current.onPremoveQueued(e.row(), e.col());
+                case ServerEvent.PremoveRejected e -> current.onPremoveRejected(e.row(), e.col());
+                case ServerEvent.Clock e -> current.onClock();
+                case ServerEvent.GameOver e -> current.onGameOver(e.result());
+                case ServerEvent.OpponentLeft e -> current.onOpponentLeft();
+                case ServerEvent.RematchOffer e -> current.onRematchOffer();
+                case ServerEvent.RematchAccepted e -> current.onRematchAccepted(e.gameId());
+                case ServerEvent.RematchDeclined e -> current.onRematchDeclined();
+                case ServerEvent.OpponentRematchDecision e -> current.onOpponentRematchDecision(e.accepted());
+                case ServerEvent.ServerError e -> current.onError(e.code(), e.message());
+                case ServerEvent.Unhandled e -> current.onMessageReceived(e.rawMessage());
+                default -> anomaly("EVENTO_NON_MODELLATO " + event.getClass().getSimpleName(), name);
+            }
+        }
+
+        // Il server ha chiuso il socket: NetworkService avvisa il listener corrente.
+        void onServerClosed() {
+            if (!connected) return;
+            connected = false;
+            violation("DISCONNESSIONE_INATTESA", name + " disconnesso dal server senza averlo chiesto");
+            runLater(() -> listener.onDisconnected(DisconnectReason.SERVER_CLOSED));
+        }
+
+        // Chiusura della finestra: Main chiama disconnect(), il server vede la EOF dopo gli ultimi messaggi inviati.
+        void closeWindow() {
+            if (!connected || closedByUser) return;
+            log(name + ": chiude la finestra");
+            connected = false;
+            closedByUser = true;
+            up.send(networkDelay(), () -> server.release(fd));
+        }
+
+        void clickLeave() {
+            if (inGameView && game != null && game.leaveEnabled && openAlerts == 0) {
+                log(name + ": clicca Abbandona");
+                game.handleLeaveGame();
+            }
+        }
+    }
+
+    // Metodi di ServerListener che il server simulato può far arrivare; senza override l'evento è inatteso, come negli stub dei controller.
+    private abstract class Screen {
+        final SimClient client;
+        final String label;
+
+        Screen(SimClient client, String label) {
+            this.client = client;
+            this.label = label;
+        }
+
+        // Un evento che il controller non sa gestire è un buco nel protocollo, non solo un messaggio nel log.
+        void unexpected(String what) {
+            violation(label + " inaspettato " + what, client.name);
+        }
+
+        void onGamesList(List<ListedGame> games) { unexpected("onGamesList"); }
+        void onGameCreated(int gameId) { unexpected("onGameCreated"); }
+        void onQueued(int queuedPlayers) { unexpected("onQueued"); }
+        void onUnqueued() { unexpected("onUnqueued"); }
+        void onJoinRequestSent(int gameId) { unexpected("onJoinRequestSent"); }
+        void onJoinRequestReceived(String requesterName) { unexpected("onJoinRequestReceived"); }
+        void onJoinAccepted(int gameId) { unexpected("onJoinAccepted"); }
+        void onJoinRejected(int gameId) { unexpected("onJoinRejected"); }
+        void onGameStart(int gameId, char symbol) { unexpected("onGameStart"); }
+        void onBoardUpdate(char[] cells) { unexpected("onBoardUpdate"); }
+        void onMoveApplied(int row, int col, char symbol) { unexpected("onMoveApplied"); }
+        void onYourTurn() { unexpected("onYourTurn"); }
+        void onPremoveQueued(int row, int col) { }
+        void onPremoveRejected(int row, int col) { }
+        void onClock() { }
+        void onGameOver(GameResult result) { unexpected("onGameOver"); }
+        void onOpponentLeft() { unexpected("onOpponentLeft"); }
+        void onRematchOffer() { unexpected("onRematchOffer"); }
+        void onRematchAccepted(int gameId) { unexpected("onRematchAccepted"); }
+        void onRematchDeclined() { unexpected("onRematchDeclined"); }
+        void onOpponentRematchDecision(boolean accepted) { unexpected("onOpponentRematchDecision(" + accepted + ")"); }
+        void onMessageReceived(String raw) { unexpected("messaggio " + raw.trim().split(" ")[0]); }
+        abstract void onError(ErrorCode code, String detail);
+        abstract void onDisconnected(DisconnectReason reason);
+    }
+
+    // HomePageController: ogni ritorno dalla partita carica un nuovo FXML, quindi una nuova istanza.
+    private final class Home extends Screen {
+        final NavigationGuard navigation = new NavigationGuard();
+        boolean amIWaiting = false;
+        boolean amIQueued = false;
+        List<ListedGame> lobbyGames = List.of();
+
+        Home(SimClient client) {
+            super(client, "HomePage");
+        }
+
+        // initialize e il suo runLater: la scena mostra già la lobby, ma il listener passa a questa istanza solo al giro successivo.
+        void initialize() {
+            String reason = client.lastReturnReason;
+            client.lastReturnReason = null;
+            client.inGameView = false;
+            client.runLater(() -> {
+                if (!client.connected) {
+                    log(client.name + ": lobby senza connessione");
+                    return;
+                }
+                prepareForReturn(reason);
+            });
+        }
+
+        void prepareForReturn(String reason) {
+            navigation.reset();
+            client.listener = this;
+            String pendingJoinRequest = client.takePendingJoinRequest();
+            boolean rematchAccepted = reason != null && reason.contains("Rivincita accettata");
+            client.runLater(() -> {
+                if (rematchAccepted) {
+                    client.status = LobbyStatus.HOSTING;
+                    if (pendingJoinRequest != null) onJoinRequestReceived(pendingJoinRequest);
+                } else {
+                    requestList();
+                }
+            });
+        }
+
+        void requestList() {
+            client.status = LobbyStatus.LOADING;
+            client.send("LIST");
+        }
+
+        void reloadLobby() {
+            if (client.connected) requestList();
+        }
+
+        @Override
+        void onGamesList(List<ListedGame> games) {
+            client.runLater(() -> {
+                lobbyGames = games;
+                amIWaiting = false;
+                for (ListedGame game : games) {
+                    if (game.waiting() && game.creator().equals(client.name)) amIWaiting = true;
+                }
+                updateLobbyControls();
+            });
+        }
+
+        private void updateLobbyControls() {
+            if (!client.connected) return;
+            if (amIWaiting) {
+                client.status = LobbyStatus.HOSTING;
+            } else if (amIQueued) {
+                client.status = LobbyStatus.QUEUED;
+            } else {
+                client.status = LobbyStatus.IDLE;
+                scheduleLobbyAction();
+            }
+        }
+
+        // Con i pulsanti attivi l'utente entra in una partita della lista, cerca una partita rapida o ne crea una.
+        void scheduleLobbyAction() {
+            if (client.status != LobbyStatus.IDLE || client.lobbyActions <= 0) return;
+            client.userAction(userDelay(300, 4000), () -> {
+                if (client.listener != this || client.inGameView || navigation.isNavigating() || !client.connected) return;
+                if (client.status != LobbyStatus.IDLE || client.lobbyActions <= 0) return;
+                client.lobbyActions--;
+                List<Integer> joinable = new ArrayList<>();
+                for (ListedGame game : lobbyGames) {
+                    if (game.waiting() && !game.creator().equals(client.name)) joinable.add(game.id());
+                }
+                int roll = random.nextInt(10);
+                if (!joinable.isEmpty() && roll < 5) {
+                    int target = joinable.get(random.nextInt(joinable.size()));
+                    log(client.name + ": chiede di unirsi alla partita " + target);
+                    client.status = LobbyStatus.JOINING;
+                    client.send("JOIN_REQUEST " + target);
+                } else if (roll % 2 == 0) {
+                    log(client.name + ": cerca una partita rapida");
+                    client.status = LobbyStatus.QUEUING;
+                    client.send("QUEUE");
+                } else {
+                    log(client.name + ": crea una partita");
+                    client.status = LobbyStatus.CREATING;
+                    client.send("CREATE");
+                }
+            });
+        }
+
+        void returnToHomePage(String reason) {
+            log(client.name + ": returnToHomePage(" + reason + ")");
+            client.lastReturnReason = reason;
+            client.runLater(() -> new Home(client).initialize());
+        }
+
+        @Override
+        void onGameCreated(int gameId) {
+            client.runLater(() -> {
+                client.status = LobbyStatus.HOSTING;
+                reloadLobby();
+            });
+        }
+
+        @Override
+        void onQueued(int queuedPlayers) {
+            client.runLater(() -> {
+                amIQueued = true;
+                client.status = LobbyStatus.QUEUED;
+                // "Annulla ricerca": prima o poi l'utente si stanca di aspettare
+                client.userAction(userDelay(500, 8000), () -> {
+                    if (client.listener != this || client.inGameView || navigation.isNavigating() || !client.connected) return;
+                    if (!amIQueued) return;
+                    log(client.name + ": annulla la ricerca");
+                    client.send("UNQUEUE");
+                });
+            });
+        }
+
+        @Override
+        void onUnqueued() {
+            client.runLater(() -> {
+                amIQueued = false;
+                reloadLobby();
+            });
+        }
+
+        @Override
+        void onJoinRequestSent(int gameId) { }
+
+        @Override
+        void onJoinRequestReceived(String requesterName) {
+            client.runLater(() -> {
+                if (!client.connected) return;
+                // Alert di conferma: showAndWait apre un ciclo annidato e gli altri eventi FX continuano ad arrivare
+                boolean accept = random.nextInt(100) < 85;
+                client.openAlerts++;
+                client.userAction(userDelay(300, 3000), () -> {
+                    client.openAlerts--;
+                    client.send((accept ? "ACCEPT " : "REJECT ") + requesterName);
+                });
+            });
+        }
+
+        @Override
+        void onJoinAccepted(int gameId) { }
+
+        @Override
+        void onJoinRejected(int gameId) {
+            client.runLater(() -> client.alert(this::reloadLobby));
+        }
+
+        @Override
+        void onGameStart(int gameId, char symbol) {
+            client.lastReturnReason = null;
+            amIQueued = false;
+            navigation.begin();
+            client.runLater(() -> navigateToGameScreen(gameId, symbol));
+        }
+
+        private void navigateToGameScreen(int gameId, char symbol) {
+            NavigationGuard.Handoff handoff = navigation.take();
+            Game game = new Game(client, gameId, symbol);
+            game.setupGame(handoff.board(), handoff.turn(), handoff.opponentLeft(), this::returnToHomePage, client::setPendingJoinRequest);
+            client.inGameView = true;
+            navigation.finish();
+        }
+
+        @Override
+        void onBoardUpdate(char[] cells) {
+            if (!navigation.cacheBoard(cells)) unexpected("onBoardUpdate");
+        }
+
+        @Override
+        void onMoveApplied(int row, int col, char symbol) {
+            if (!navigation.applyMove(row, col, symbol)) unexpected("onMoveApplied");
+        }
+
+        @Override
+        void onYourTurn() {
+            if (!navigation.cacheTurn()) unexpected("onYourTurn");
+        }
+
+        @Override
+        void onOpponentLeft() {
+            if (!navigation.cacheOpponentLeft()) unexpected("onOpponentLeft");
+        }
+
+        @Override
+        void onGameOver(GameResult result) {
+            if (!navigation.absorbGameOver()) unexpected("onGameOver");
+        }
+
+        @Override
+        void onPremoveQueued(int row, int col) {
+            unexpected("onPremoveQueued");
+        }
+
+        @Override
+        void onOpponentRematchDecision(boolean accepted) { }
+
+        @Override
+        void onError(ErrorCode code, String detail) {
+            if (code == ErrorCode.NOT_QUEUED || GameGuard.isLateGameCommand(code, detail)) return;
+            client.runLater(() -> {
+                anomaly("HomePage errore mostrato " + code.name(), client.name + ": " + detail);
+                client.alert(() -> {
+                    if (navigation.cancel()) {
+                        reloadLobby();
+                    } else if (client.connected && code != ErrorCode.SERVER_FULL && code != ErrorCode.GAME_UNAVAILABLE) {
+                        reloadLobby();
+                    } else {
+                        updateLobbyControls();
+                    }
+                });
+            });
+        }
+
+        @Override
+        void onDisconnected(DisconnectReason reason) {
+            log(client.name + ": lobby disconnessa (" + reason + ")");
+        }
+    }
+
+    // GameController: board è il testo dei pulsanti (premossa compresa), gridDisabled lo stato di gridPane.
+    private final class Game extends Screen {
+        final int gameId;
+        char mySymbol;
+        final char[] board = new char[9];
+        final GameGuard guard = new GameGuard();
+        boolean gridDisabled = true;
+        boolean leaveEnabled = true;
+        // cella con lo stile della premossa, -1 se nessuna
+        int premoveShownAt = -1;
+        boolean clickPending = false;
+        Runnable closeRematchAlert = null;
+        Consumer<String> returnToHomeCallback;
+        Consumer<String> joinRequestCallback;
+
+        Game(SimClient client, int gameId, char symbol) {
+            super(client, "GC");
+            this.gameId = gameId;
+            this.mySymbol = symbol;
+            Arrays.fill(board, EMPTY);
+        }
+
+        void setupGame(char[] initialBoard, boolean initialTurn, boolean opponentLeft, Consumer<String> returnCallback,
+                       Consumer<String> joinCallback) {
+            returnToHomeCallback = returnCallback;
+            joinRequestCallback = joinCallback;
+            guard.setup(initialBoard, initialTurn, opponentLeft);
+            client.listener = this;
+            client.game = this;
+            client.runLater(() -> {
+                if (!guard.completeSetup()) return;
+                gridDisabled = true;
+                leaveEnabled = true;
+                processCachedMessages();
+            });
+        }
+
+        private void processCachedMessages() {
+            char[] boardToProcess = guard.takeCachedBoard();
+            if (boardToProcess != null) handleBoardUpdateInternal(boardToProcess);
+            if (guard.takeCachedOpponentLeft()) {
+                handleOpponentLeftInternal();
+                return;
+            }
+            if (guard.takeCachedTurn()) handleYourTurnInternal();
+        }
+
+        @Override
+        void onBoardUpdate(char[] cells) {
+            if (guard.board(cells) == GameGuard.Delivery.APPLIED) handleBoardUpdateInternal(cells);
+        }
+
+        private void handleBoardUpdateInternal(char[] cells) {
+            System.arraycopy(cells, 0, board, 0, board.length);
+            premoveShownAt = -1;
+            if (guard.hasPremove()) checkPremove(cells[guard.getPremoveRow() * 3 + guard.getPremoveCol()]);
+            updateGridEnabled();
+        }
+
+        @Override
+        void onMoveApplied(int row, int col, char symbol) {
+            switch (guard.move(row, col, symbol)) {
+                case LOST -> {
+                    unexpected("mossa prima della griglia");
+                    return;
+                }
+                case CACHED, IGNORED -> {
+                    return;
+                }
+                case APPLIED -> { }
+            }
+            board[row * 3 + col] = symbol;
+            if (premoveShownAt == row * 3 + col) premoveShownAt = -1;
+            if (guard.isPremoveAt(row, col)) checkPremove(symbol);
+            updateGridEnabled();
+        }
+
+        private void checkPremove(char symbol) {
+            switch (guard.checkPremove(symbol, mySymbol)) {
+                case PLAYED -> log(client.name + ": premossa giocata dal server");
+                case PENDING -> showPremove();
+                case TAKEN -> log(client.name + ": premossa annullata, cella occupata");
+            }
+        }
+
+        @Override
+        void onYourTurn() {
+            if (guard.yourTurn() == GameGuard.Delivery.APPLIED) handleYourTurnInternal();
+        }
+
+        private void updateGridEnabled() {
+            setGridDisabled(!guard.isGridEnabled());
+        }
+
+        // Con la griglia attiva l'utente prima o poi clicca: nel proprio turno è una mossa, fuori turno a volte una premossa.
+        private void setGridDisabled(boolean disabled) {
+            gridDisabled = disabled;
+            if (disabled || clickPending) return;
+            clickPending = true;
+            client.userAction(userDelay(150, 2500), () -> {
+                clickPending = false;
+                if (client.game != this || !client.inGameView || gridDisabled) return;
+                if (!guard.isMyTurn() && random.nextInt(100) >= 40) return;
+                clickRandomCell();
+            });
+        }
+
+        private void showPremove() {
+            int cell = guard.getPremoveRow() * 3 + guard.getPremoveCol();
+            board[cell] = mySymbol;
+            premoveShownAt = cell;
+        }
+
+        private void clearPremove() {
+            if (!guard.hasPremove()) return;
+            int cell = guard.getPremoveRow() * 3 + guard.getPremoveCol();
+            if (premoveShownAt == cell) {
+                board[cell] = EMPTY;
+                premoveShownAt = -1;
+            }
+            guard.clearPremove();
+        }
+
+        private void handleYourTurnInternal() {
+            if (guard.startTurn() != GameGuard.TurnStart.MY_TURN) return;
+            client.runLater(() -> setGridDisabled(false));
+        }
+
+        private void clickRandomCell() {
+            int free = 0;
+            for (char cell : board) if (cell == EMPTY) free++;
+            if (free == 0) return;
+            int pick = random.nextInt(free);
+            for (int i = 0; i < board.length; i++) {
+                if (board[i] == EMPTY && pick-- == 0) {
+                    handleCellClick(i / 3, i % 3);
+                    return;
+                }
+            }
+        }
+
+        private void handleCellClick(int row, int col) {
+            int cell = row * 3 + col;
+            switch (guard.click(row, col, board[cell] == EMPTY, true)) {
+                case MOVE -> {
+                    board[cell] = mySymbol;
+                    gridDisabled = true;
+                    if (!client.send("MOVE " + row + " " + col)) {
+                        guard.moveNotSent();
+                        board[cell] = EMPTY;
+                        setGridDisabled(false);
+                    }
+                }
+                case PREMOVE -> {
+                    log(client.name + ": premossa " + row + "," + col);
+                    showPremove();
+                    gridDisabled = true;
+                    if (!client.send("PREMOVE " + row + " " + col)) {
+                        clearPremove();
+                        updateGridEnabled();
+                    }
+                }
+                case IGNORED -> { }
+            }
+        }
+
+        @Override
+        void onPremoveRejected(int row, int col) {
+            if (!guard.isPremoveAt(row, col)) return;
+            clearPremove();
+            if (!guard.isActive()) return;
+            updateGridEnabled();
+        }
+
+        @Override
+        void onOpponentLeft() {
+            if (guard.opponentLeft() == GameGuard.Delivery.CACHED) return;
+            handleOpponentLeftInternal();
+        }
+
+        private void handleOpponentLeftInternal() {
+            client.runLater(() -> {
+                Runnable close = closeRematchAlert;
+                closeRematchAlert = null;
+                if (close != null) close.run();
+                gridDisabled = true;
+                client.alert(() -> returnToHomeCallback.accept("Avversario disconnesso - Hai Vinto!"));
+            });
+        }
+
+        @Override
+        void onRematchOffer() {
+            if (guard.isReturningHome()) return;
+            if (!guard.isWaitingRematch()) unexpected("onRematchOffer senza attesa rivincita");
+            client.runLater(() -> {
+                if (!guard.canOfferRematch()) {
+                    unexpected("offerta rivincita dopo " + guard.getLastResult());
+                    returnToHomeCallback.accept("Errore: Offerta rivincita inaspettata");
+                    return;
+                }
+                // Alert della rivincita: il server può chiuderlo (REMATCH_DECLINED per tempo scaduto) prima della scelta
+                boolean yes = random.nextInt(100) < 60;
+                boolean[] closed = {false};
+                client.openAlerts++;
+                closeRematchAlert = () -> {
+                    closed[0] = true;
+                    client.openAlerts--;
+                    rematchChosen(false);
+                };
+                client.userAction(userDelay(300, 5000), () -> {
+                    if (closed[0]) return;
+                    closeRematchAlert = null;
+                    client.openAlerts--;
+                    rematchChosen(yes);
+                });
+            });
+        }
+
+        private void rematchChosen(boolean yes) {
+            switch (guard.rematchChosen(yes)) {
+                case CLOSED_BY_SERVER -> log(client.name + ": scelta della rivincita chiusa dal server");
+                case OPPONENT_DECLINED ->
+                        client.runLater(() -> client.alert(() -> returnToHomeCallback.accept("Avversario ha rifiutato (mentre decidevi)")));
+                case YES -> {
+                    log(client.name + ": rivincita SI");
+                    client.send("REMATCH YES");
+                    guard.awaitRematch();
+                }
+                case NO -> {
+                    log(client.name + ": rivincita NO");
+                    leaveEnabled = false;
+                    client.send("REMATCH NO");
+                }
+            }
+        }
+
+        @Override
+        void onRematchAccepted(int receivedGameId) {
+            if (!guard.rematchAccepted()) return;
+            client.runLater(() -> client.alert(() -> returnToHomeCallback.accept("Rivincita accettata, in attesa")));
+        }
+
+        @Override
+        void onGameOver(GameResult result) {
+            if (!guard.gameOver(result)) return;
+            clearPremove();
+            client.runLater(() -> {
+                gridDisabled = true;
+                leaveEnabled = guard.canLeave();
+            });
+        }
+
+        @Override
+        void onRematchDeclined() {
+            GameGuard.Return back = guard.rematchDeclined();
+            if (back == null) return;
+            client.runLater(() -> {
+                Runnable close = closeRematchAlert;
+                closeRematchAlert = null;
+                if (back.popup()) client.alert(() -> returnToHomeCallback.accept(back.reason()));
+                else returnToHomeCallback.accept(back.reason());
+                if (close != null) close.run();
+            });
+        }
+
+        @Override
+        void onOpponentRematchDecision(boolean opponentAccepted) {
+            switch (guard.opponentDecision(opponentAccepted)) {
+                case LOSER -> unexpected("onOpponentRematchDecision(false) per il perdente");
+                case UNEXPECTED_ACCEPT -> unexpected("onOpponentRematchDecision(true) senza pareggio");
+                case DECLINED -> client.runLater(() -> client.alert(() -> returnToHomeCallback.accept("Avversario ha rifiutato la rivincita")));
+                default -> { }
+            }
+        }
+
+        @Override
+        void onError(ErrorCode code, String detail) {
+            GameGuard.ErrorAction action = guard.error(code, detail);
+            if (action == GameGuard.ErrorAction.EXPECTED || action == GameGuard.ErrorAction.IGNORED) return;
+            client.runLater(() -> {
+                if (action == GameGuard.ErrorAction.RETRY_MOVE) {
+                    anomaly("GC errore di mossa " + code.name(), client.name + ": " + detail);
+                    setGridDisabled(!guard.canMove());
+                    return;
+                }
+                anomaly("GC errore mostrato " + code.name(), client.name + ": " + detail);
+                client.alert(() -> {
+                    gridDisabled = true;
+                    guard.stop();
+                    returnToHomeCallback.accept("Errore del Server");
+                });
+            });
+        }
+
+        void handleLeaveGame() {
+            if (!guard.leave()) return;
+            client.runLater(() -> {
+                gridDisabled = true;
+                leaveEnabled = false;
+            });
+            if (client.connected) client.send("QUIT");
+            client.runLater(() -> client.alert(() -> returnToHomeCallback.accept("ABBANDONO_VOLONTARIO")));
+        }
+
+        @Override
+        void onDisconnected(DisconnectReason reason) {
+            guard.leave();
+            client.runLater(() -> {
+                gridDisabled = true;
+                leaveEnabled = false;
+                if (reason != DisconnectReason.CLIENT_REQUEST) client.alert(() -> returnToHomeCallback.accept("Disconnesso: " + reason));
+                else returnToHomeCallback.accept("Disconnesso: " + reason);
+            });
+        }
+
+        @Override
+        void onJoinRequestReceived(String requesterName) {
+            if (guard.isHostingAfterRematch() && joinRequestCallback != null) joinRequestCallback.accept(requesterName);
+            else unexpected("onJoinRequestReceived");
+        }
+
+        @Override
+        void onGameStart(int recGameId, char recSymbol) {
+            if (gameId != recGameId) {
+                unexpected("onGameStart per la partita " + recGameId);
+                return;
+            }
+            boolean isDrawRematch = guard.gameStart();
+            mySymbol = recSymbol;
+            if (isDrawRematch) {
+                Arrays.fill(board, EMPTY);
+                premoveShownAt = -1;
+                leaveEnabled = true;
+            } else if (guard.isSetupComplete()) {
+                processCachedMessages();
+            }
+        }
+    }
+
+    // ---- esecuzione ----
+
+    private static final class Summary {
+        long count = 0;
+        long firstSeed = Long.MAX_VALUE;
+        String detail;
+
+        void add(long seed, String text) {
+            count++;
+            if (seed < firstSeed) {
+                firstSeed = seed;
+                detail = text;
+            }
+        }
+
+        void merge(Summary other) {
+            count += other.count;
+            if (other.firstSeed < firstSeed) {
+                firstSeed = other.firstSeed;
+                detail = other.detail;
+            }
+        }
+    }
+
+    private record WorkerResult(Map<String, Summary> summaries, long events) {}
+
+    private static WorkerResult runSeeds(AtomicLong nextSeed, long endSeed, long netDelayMs) {
+        Map<String, Summary> summaries = new HashMap<>();
+        long events = 0;
+        long seed;
+        while ((seed = nextSeed.getAndIncrement()) < endSeed) {
+            ProtocolSimulator simulator = new ProtocolSimulator(seed, netDelayMs, false);
+            try {
+                simulator.run();
+            } catch (RuntimeException e) {
+                simulator.findings.putIfAbsent(VIOLATION + "ECCEZIONE_MODELLO", e.toString());
+            }
+            events += simulator.steps;
+            for (Map.Entry<String, String> finding : simulator.findings.entrySet()) {
+                summaries.computeIfAbsent(finding.getKey(), k -> new Summary()).add(seed, finding.getValue());
+            }
+        }
+        return new WorkerResult(summaries, events);
+    }
+
+    private static void replay(long seed, long netDelayMs) {
+        ProtocolSimulator simulator = new ProtocolSimulator(seed, netDelayMs, true);
+        try {
+            simulator.run();
+        } finally {
+            for (String line : simulator.trace) System.out.println(line);
+        }
+        System.out.println("ProtocolSimulator: seme " + seed + ", " + simulator.steps + " eventi, " + simulator.findings.size() + " segnalazioni.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        long runs = Long.getLong("tris.sim.runs", 200_000L);
+        long firstSeed = Long.getLong("tris.sim.seed", 1L);
+        int threads = Integer.getInteger("tris.sim.threads", Runtime.getRuntime().availableProcessors());
+        long netDelayMs = Long.getLong("tris.sim.netDelayMs", 40L);
+        if (args.length > 0) runs = Long.parseLong(args[0]);
+        if (Boolean.getBoolean("tris.sim.trace")) {
+            replay(firstSeed, netDelayMs);
+            return;
+        }
+
+        System.out.println(getCurrentTimestamp() + " - ProtocolSimulator: " + runs + " esecuzioni dal seme " + firstSeed + " su " + threads + " thread...");
+        long start = System.nanoTime();
+        AtomicLong nextSeed = new AtomicLong(firstSeed);
+        long endSeed = firstSeed + runs;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<WorkerResult>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) futures.add(pool.submit(() -> runSeeds(nextSeed, endSeed, netDelayMs)));
+        Map<String, Summary> summaries = new HashMap<>();
+        long events = 0;
+        for (Future<WorkerResult> future : futures) {
+            WorkerResult result = future.get();
+            events += result.events();
+            result.summaries().forEach((kind, summary) -> summaries.computeIfAbsent(kind, k -> new Summary()).merge(summary));
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s - ProtocolSimulator: %d esecuzioni, %d eventi in %.1f s (%.0f esecuzioni/minuto).%n",
+                getCurrentTimestamp(), runs, events, seconds, runs / seconds * 60);
+        List<Map.Entry<String, Summary>> sorted = new ArrayList<>(summaries.entrySet());
+        sorted.sort((a, b) -> {
+            boolean va = a.getKey().startsWith(VIOLATION), vb = b.getKey().startsWith(VIOLATION);
+            if (va != vb) return va ? -1 : 1;
+            return Long.compare(b.getValue().count, a.getValue().count);
+        });
+        boolean violations = false;
+        for (Map.Entry<String, Summary> entry : sorted) {
+            Summary summary = entry.getValue();
+            violations |= entry.getKey().startsWith(VIOLATION);
+            System.out.printf("  %-60s %9d (%.3f%%)  seme %d: %s%n", entry.getKey(), summary.count, 100.0 * summary.count / runs,
+                    summary.firstSeed, summary.detail);
+        }
+        if (sorted.isEmpty()) System.out.println("  Nessuna violazione né anomalia.");
+        else System.out.println("Per la traccia di un seme: -Dtris.sim.seed=<seme> -Dtris.sim.trace=true");
+        if (violations) System.exit(1);
+    }
+}
@@ -0,0 +1,111 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class ServerEventTest {
+
+    private static void assertMalformed(String line) {
+        ServerEvent.ServerError error = assertInstanceOf(ServerEvent.ServerError.class, ServerEvent.decode(line), line);
+        assertEquals(ErrorCode.MALFORMED_MESSAGE, error.code(), line);
+    }
+
+    @Test
+    void decodesSimpleResponses() {
+        assertEquals(new ServerEvent.NameRequested(), ServerEvent.decode("CMD:GET_NAME"));
+        assertEquals(new ServerEvent.NameAccepted(), ServerEvent.decode("RESP:NAME_OK"));
+        assertEquals(new ServerEvent.GamesPageEnd(41), ServerEvent.decode("RESP:GAMES_END 41"));
+        assertEquals(new ServerEvent.GameCreated(7), ServerEvent.decode("RESP:CREATED 7"));
+        assertEquals(new ServerEvent.Queued(3), ServerEvent.decode("RESP:QUEUED 3"));
+        assertEquals(new ServerEvent.LeaderboardEnd(50), ServerEvent.decode("RESP:LEADERBOARD_END 50"));
+        assertEquals(new ServerEvent.Rank(4, 1532, 60), ServerEvent.decode("RESP:RANK 4 1532 60"));
+        assertEquals(new ServerEvent.QuitConfirmed("Uscito dalla partita 7"), ServerEvent.decode("RESP:QUIT_OK Uscito dalla partita 7"));
+        assertEquals(new ServerEvent.RematchAccepted(9), ServerEvent.decode("RESP:REMATCH_ACCEPTED 9 X"));
+        assertEquals(new ServerEvent.OpponentRematchDecision(false), ServerEvent.decode("NOTIFY:OPPONENT_DECLINED"));
+        assertEquals(new ServerEvent.GameOver(GameResult.DRAW), ServerEvent.decode("NOTIFY:GAMEOVER DRAW"));
+        assertEquals(new ServerEvent.GameOver(GameResult.UNKNOWN), ServerEvent.decode("NOTIFY:GAMEOVER ???"));
+        assertEquals(new ServerEvent.Pong(123456789012L), ServerEvent.decode("PONG 123456789012"));
+        assertEquals(new ServerEvent.Unhandled("NOTIFY:NUOVO 1 2"), ServerEvent.decode("NOTIFY:NUOVO 1 2"));
+    }
+
+    @Test
+    void keepsSpacesInTrailingNames() {
+        assertEquals(new ServerEvent.GameStart(12, 'O', "Anna Maria"), ServerEvent.decode("NOTIFY:GAME_START 12 O Anna Maria"));
+        assertEquals(new ServerEvent.JoinAccepted(5, 'X', "Bruno Rossi"), ServerEvent.decode("RESP:JOIN_ACCEPTED 5 X Bruno Rossi"));
+        assertEquals(new ServerEvent.JoinRejected(5, "Carla Bianchi"), ServerEvent.decode("RESP:JOIN_REJECTED 5 Carla Bianchi"));
+        ServerEvent.Chat chat = assertInstanceOf(ServerEvent.Chat.class, ServerEvent.decode("NOTIFY:CHAT lobby anna ciao a tutti"));
+        assertEquals("lobby", chat.message().room);
+        assertEquals("anna", chat.message().sender);
+        assertEquals("ciao a tutti", chat.message().text);
+    }
+
+    @Test
+    void decodesBoardWithAndWithoutSequence() {
+        ServerEvent.BoardUpdate board = assertInstanceOf(ServerEvent.BoardUpdate.class,
+                ServerEvent.decode("NOTIFY:BOARD X O - - X - - - O 6"));
+        assertArrayEquals("XO--X---O".toCharArray(), board.cells());
+        assertEquals(6, board.seq());
+
+        ServerEvent.BoardUpdate legacy = assertInstanceOf(ServerEvent.BoardUpdate.class,
+                ServerEvent.decode("NOTIFY:BOARD X O - - X - - - O"));
+        assertEquals(4, legacy.seq());
+
+        assertMalformed("NOTIFY:BOARD X O -");
+        assertMalformed("NOTIFY:BOARD X O - - X - - - O sei");
+    }
+
+    @Test
+    void decodesMovesAndRejectsOffBoardCells() {
+        assertEquals(new ServerEvent.MoveDelta(3, 2, 0, 'O'), ServerEvent.decode("NOTIFY:MOVE 3 2 0 O"));
+        assertEquals(new ServerEvent.PremoveQueued(1, 1), ServerEvent.decode("RESP:PREMOVE_QUEUED 1 1"));
+        assertMalformed("NOTIFY:MOVE 3 3 0 O");
+        assertMalformed("NOTIFY:MOVE 3 0 -1 X");
+        assertMalformed("NOTIFY:MOVE 3 0 0 -");
+        assertMalformed("NOTIFY:MOVE 3 0");
+    }
+
+    @Test
+    void decodesLeaderboardChunks() {
+        ServerEvent.Leaderboard page = assertInstanceOf(ServerEvent.Leaderboard.class,
+                ServerEvent.decode("RESP:LEADERBOARD 20 60;21,anna,1532,14|22,bruno,1510,9|incompleta"));
+        assertEquals(20, page.offset());
+        assertEquals(60, page.totalPlayers());
+        assertEquals(2, page.entries().size());
+        assertEquals("#22 bruno - 1510 (9 partite)", page.entries().get(1).toString());
+
+        ServerEvent.Leaderboard empty = assertInstanceOf(ServerEvent.Leaderboard.class, ServerEvent.decode("RESP:LEADERBOARD 0 0;"));
+        assertEquals(List.of(), empty.entries());
+    }
+
+    @Test
+    void decodesRatingUpdate() {
+        ServerEvent.RatingUpdate update = assertInstanceOf(ServerEvent.RatingUpdate.class,
+                ServerEvent.decode("NOTIFY:RATING_UPDATE anna 1516 16 3 60 14"));
+        assertEquals(16, update.delta());
+        assertEquals(60, update.totalPlayers());
+        assertEquals("#3 anna - 1516 (14 partite)", update.entry().toString());
+    }
+
+    @Test
+    void mapsErrorsToTypedEvents() {
+        assertEquals(new ServerEvent.NameRejected(ErrorCode.NAME_TAKEN), ServerEvent.decode("ERROR:NAME_TAKEN"));
+        assertEquals(new ServerEvent.ChatRejected(ErrorCode.CHAT_RATE_LIMITED), ServerEvent.decode("ERROR:CHAT_RATE_LIMITED"));
+        assertEquals(new ServerEvent.ServerError(ErrorCode.GAME_NOT_FOUND, "Partita non trovata 9"),
+                ServerEvent.decode("ERROR: Partita non trovata 9"));
+        assertEquals(new ServerEvent.ServerError(ErrorCode.GENERIC, "qualcosa di nuovo"), ServerEvent.decode("ERROR:qualcosa di nuovo"));
+        assertInstanceOf(ServerEvent.ServerError.class, ServerEvent.decode("NOTIFY:JOIN_REQUEST"));
+    }
+
+    @Test
+    void malformedNumbersBecomeErrors() {
+        assertMalformed("RESP:CREATED sette");
+        assertMalformed("RESP:RANK 4 1532");
+        assertMalformed("NOTIFY:GAME_START 12 O");
+        assertMalformed("RESP:LEADERBOARD 0;1,anna,1500,3");
+    }
+}
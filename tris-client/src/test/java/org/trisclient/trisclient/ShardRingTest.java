@@ -0,0 +1,87 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRingTest {
+
+    private static final List<String> THREE = List.of("10.0.0.1:12345", "10.0.0.2:12345", "10.0.0.3:12345");
+    private static final int KEYS = 30_000;
+
+    @Test
+    void ownerLeadsPreferenceListOfAllShards() {
+        ShardRing ring = new ShardRing(THREE);
+        for (int i = 0; i < 1000; i++) {
+            String key = "giocatore" + i;
+            List<String> preference = ring.preferenceList(key);
+            assertEquals(ring.shardFor(key), preference.get(0));
+            assertEquals(new HashSet<>(THREE), new HashSet<>(preference));
+            assertEquals(THREE.size(), preference.size());
+            assertEquals(preference, ring.preferenceList(key));
+        }
+    }
+
+    @Test
+    void spreadsKeysEvenly() {
+        ShardRing ring = new ShardRing(THREE);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) counts.merge(ring.shardFor("giocatore" + i), 1, Integer::sum);
+        for (String endpoint : THREE) {
+            double share = counts.getOrDefault(endpoint, 0) / (double) KEYS;
+            assertTrue(share > 0.25 && share < 0.42, endpoint + " ha " + share + " delle chiavi");
+        }
+    }
+
+    @Test
+    void addingShardMovesOnlyItsShare() {
+        ShardRing before = new ShardRing(THREE);
+        String added = "10.0.0.4:12345";
+        ShardRing after = new ShardRing(List.of(THREE.get(0), THREE.get(1), THREE.get(2), added));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "giocatore" + i;
+            String owner = after.shardFor(key);
+            if (owner.equals(before.shardFor(key))) continue;
+            assertEquals(added, owner, key + " spostata fra shard già esistenti");
+            moved++;
+        }
+        double share = moved / (double) KEYS;
+        assertTrue(share > 0.15 && share < 0.35, "spostate " + share + " delle chiavi");
+    }
+
+    @Test
+    void parsesEndpoints() {
+        assertEquals("tris.example.org", ShardRing.parseHost("tris.example.org:12345"));
+        assertEquals(12345, ShardRing.parsePort("tris.example.org:12345"));
+        assertEquals("[::1]", ShardRing.parseHost("[::1]:4000"));
+        assertEquals(4000, ShardRing.parsePort("[::1]:4000"));
+        for (String invalid : List.of("localhost", ":12345", "localhost:0", "localhost:65536", "localhost:porta")) {
+            assertThrows(IllegalArgumentException.class, () -> ShardRing.parsePort(invalid), invalid);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of()));
+    }
+
+    @Test
+    void readsEndpointsFromProperty() {
+        String previous = System.getProperty("tris.servers");
+        try {
+            System.setProperty("tris.servers", " b:2 , a:1,,b:2 ");
+            assertEquals(List.of("b:2", "a:1"), ShardRing.endpointsFromProperty());
+            System.setProperty("tris.servers", " , ");
+            assertEquals(List.of(ShardRing.DEFAULT_ENDPOINTS), ShardRing.endpointsFromProperty());
+            System.setProperty("tris.servers", "a:1,b");
+            assertThrows(IllegalArgumentException.class, ShardRing::endpointsFromProperty);
+        } finally {
+            if (previous == null) System.clearProperty("tris.servers");
+            else System.setProperty("tris.servers", previous);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package org.trisclient.trisclient;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Prova di durata headless per i chioschi: due posti giocano migliaia di cicli lobby -> partita -> rivincita contro un server vero
+// con NetworkService come fa l'applicazione (stessa istanza per tutta la sessione, un listener nuovo a ogni schermata, riconnessione
+// periodica che ricrea executor e writer). I callback girano su un thread che fa le veci di quello FX. Ogni tris.soak.sampleEvery
+// cicli, dopo una GC completa, misura heap, thread e oggetti ancora vivi (LeakTracker) e fallisce se la crescita supera il budget.
+public class SoakHarness {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private record Sample(int cycle, long heapBytes, int threads, Map<String, Integer> live) {}
+
+    // Un giocatore: la sua connessione e gli eventi che la schermata corrente passa al thread che guida la prova.
+    private final class Seat {
+        final String label;
+        final NetworkService service = new NetworkService();
+        final LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final SplittableRandom random;
+        String name;
+        int connections = 0;
+        // schermata corrente, solo thread "FX"
+        Screen screen;
+
+        Seat(String label, long seed) {
+            this.label = label;
+            this.random = new SplittableRandom(seed);
+        }
+    }
+
+    // Listener di una schermata: come HomePageController e GameController ne nasce uno nuovo a ogni cambio lobby <-> partita.
+    private final class Screen implements NetworkService.ServerListener {
+        final Seat seat;
+        final boolean game;
+        final char[] board = new char[ServerEvent.BOARD_CELLS];
+
+        Screen(Seat seat, boolean game) {
+            this.seat = seat;
+            this.game = game;
+            Arrays.fill(board, ServerEvent.EMPTY_CELL);
+            LeakTracker.track(game ? "listener partita" : "listener lobby", this);
+        }
+
+        private void post(String event) {
+            seat.events.add(event);
+        }
+
+        // navigateToGameScreen / returnToHomePage + prepareForReturn, in un solo passo sul thread "FX"
+        private Screen switchTo(boolean toGame) {
+            Screen next = new Screen(seat, toGame);
+            seat.screen = next;
+            seat.service.setServerListener(next);
+            return next;
+        }
+
+        @Override public void onConnected() { post("CONNECTED"); }
+        @Override public void onDisconnected(DisconnectReason reason, String detail) { post("DISCONNECTED " + reason.describe(detail)); }
+        @Override public void onMessageReceived(String rawMessage) { }
+        @Override public void onError(ErrorCode code, String message) { post("ERROR " + code.describe(message)); }
+        @Override public void onNameRequested() { seat.service.sendName(seat.name); }
+        @Override public void onNameAccepted() { post("NAME_OK"); }
+        @Override public void onNameRejected(ErrorCode code) { post("ERROR nome rifiutato " + code); }
+        @Override public void onGamesPage(int cursor, List<NetworkService.GameInfo> games) { }
+        @Override public void onGamesPageEnd(int nextCursor) { }
+        @Override public void onActionConfirmed(String message) { }
+        @Override public void onGameCreated(int gameId) { post("CREATED " + gameId); }
+        @Override public void onQueued(int queuedPlayers) { }
+        @Override public void onUnqueued() { }
+        @Override public void onJoinRequestSent(int gameId) { }
+        @Override public void onJoinRequestReceived(String requesterName) { post("JOIN_REQUEST " + requesterName); }
+        @Override public void onJoinAccepted(int gameId, char symbol, String opponentName) { }
+        @Override public void onJoinRejected(int gameId, String creatorName) { post("ERROR richiesta rifiutata da " + creatorName); }
+
+        @Override
+        public void onGameStart(int gameId, char symbol, String opponentName) {
+            // pareggio: la rivincita riparte sulla stessa schermata, come in GameController
+            if (game) Arrays.fill(board, ServerEvent.EMPTY_CELL);
+            else switchTo(true);
+            post("GAME_START " + gameId);
+        }
+
+        @Override
+        public void onBoardUpdate(char[] cells) {
+            if (game) System.arraycopy(cells, 0, board, 0, board.length);
+        }
+
+        @Override
+        public void onMoveApplied(int row, int col, char symbol) {
+            if (game) board[row * ServerEvent.BOARD_SIZE + col] = symbol;
+        }
+
+        @Override
+        public void onYourTurn() {
+            if (!game) return;
+            int free = 0;
+            for (char cell : board) if (cell == ServerEvent.EMPTY_CELL) free++;
+            if (free == 0) return;
+            int pick = seat.random.nextInt(free);
+            for (int i = 0; i < board.length; i++) {
+                if (board[i] == ServerEvent.EMPTY_CELL && pick-- == 0) {
+                    seat.service.sendMove(i / ServerEvent.BOARD_SIZE, i % ServerEvent.BOARD_SIZE);
+                    return;
+                }
+            }
+        }
+
+        @Override public void onPremoveQueued(int row, int col) { }
+        @Override public void onPremoveRejected(int row, int col) { }
+        @Override public void onGameOver(GameResult result) { post("GAMEOVER " + result); }
+        @Override public void onOpponentLeft() { post("ERROR avversario uscito"); }
+        @Override public void onRematchOffer() { post("REMATCH_OFFER"); }
+
+        @Override
+        public void onRematchAccepted(int gameId) {
+            switchTo(false);
+            post("REMATCH_ACCEPTED " + gameId);
+        }
+
+        @Override
+        public void onRematchDeclined() {
+            if (game) switchTo(false);
+            post("REMATCH_DECLINED");
+        }
+
+        @Override public void onOpponentRematchDecision(boolean opponentAccepted) { post("OPPONENT_DECISION " + opponentAccepted); }
+        @Override public void onLeaderboard(int offset, int totalPlayers, List<NetworkService.LeaderboardEntry> entries) { }
+        @Override public void onRank(int rank, int rating, int totalPlayers) { }
+        @Override public void onRatingUpdate(NetworkService.LeaderboardEntry entry, int delta, int totalPlayers) { }
+        @Override public void onChatMessages(List<NetworkService.ChatMessage> messages) { }
+        @Override public void onChatRejected(ErrorCode code) { }
+        @Override public void onClock(GameClock clock) { }
+    }
+
+    private final String host;
+    private final int port;
+    private final int cycles;
+    private final int sampleEvery;
+    private final int warmupCycles;
+    private final int reconnectEvery;
+    private final long heapBytesPerCycle;
+    private final int threadSlack;
+    private final int maxLive;
+    private final long timeoutMs;
+    private final PrintStream report;
+
+    private final ExecutorService fxThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SoakFxThread");
+        t.setDaemon(true);
+        return t;
+    });
+    private final String runTag = Integer.toHexString(new SplittableRandom().nextInt(0x1000, 0x10000));
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private Seat hostSeat;
+    private Seat guestSeat;
+    private int hostGameId = 0;
+    private long games = 0;
+    private long draws = 0;
+    private long reconnections = 0;
+    private final List<String> failures = new ArrayList<>();
+
+    public SoakHarness(String host, int port, int cycles, PrintStream report) {
+        this.host = host;
+        this.port = port;
+        this.cycles = cycles;
+        this.report = report;
+        this.sampleEvery = Math.max(1, Integer.getInteger("tris.soak.sampleEvery", 100));
+        this.warmupCycles = Integer.getInteger("tris.soak.warmup", 200);
+        this.reconnectEvery = Integer.getInteger("tris.soak.reconnectEvery", 50);
+        this.heapBytesPerCycle = Long.getLong("tris.soak.heapBytesPerCycle", 4096L);
+        this.threadSlack = Integer.getInteger("tris.soak.threadSlack", 2);
+        this.maxLive = Integer.getInteger("tris.soak.maxLive", 4);
+        this.timeoutMs = Long.getLong("tris.soak.timeoutMs", 10_000L);
+        long seed = Long.getLong("tris.soak.seed", 1L);
+        this.hostSeat = new Seat("A", seed);
+        this.guestSeat = new Seat("B", seed + 1);
+    }
+
+    // Aspetta il primo evento con quel prefisso; gli altri vengono scartati, salvo errori e disconnessioni che fanno fallire la prova.
+    private String expect(Seat seat, String prefix) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            String event = seat.events.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (event == null) throw new IllegalStateException(seat.name + ": nessun " + prefix.trim() + " entro " + timeoutMs + " ms");
+            if (event.startsWith(prefix)) return event;
+            if (event.startsWith("ERROR") || event.startsWith("DISCONNECTED")) {
+                throw new IllegalStateException(seat.name + ": " + event + " (in attesa di " + prefix.trim() + ")");
+            }
+        }
+    }
+
+    private static int lastNumber(String event) {
+        return Integer.parseInt(event.substring(event.lastIndexOf(' ') + 1));
+    }
+
+    // Come askForNameAndConnect: la stessa istanza di NetworkService si riconnette con un listener di lobby nuovo.
+    private void connect(Seat seat) throws Exception {
+        seat.name = "soak" + seat.label + runTag + "-" + (++seat.connections);
+        fxThread.submit(() -> {
+            seat.events.clear();
+            seat.screen = new Screen(seat, false);
+            seat.service.connect(host, port, seat.screen);
+        }).get();
+        expect(seat, "NAME_OK");
+    }
+
+    private void reconnect() throws Exception {
+        for (Seat seat : new Seat[] {hostSeat, guestSeat}) seat.service.disconnect();
+        for (Seat seat : new Seat[] {hostSeat, guestSeat}) connect(seat);
+        hostGameId = 0;
+        reconnections++;
+    }
+
+    // Un ciclo: (CREATE) -> JOIN_REQUEST -> ACCEPT -> partite fino a una vittoria (sui pareggi entrambi accettano la rivincita);
+    // il vincitore accetta la rivincita e ospita il ciclo successivo, il perdente torna in lobby e sarà lo sfidante.
+    private void runCycle() throws Exception {
+        if (hostGameId == 0) {
+            hostSeat.service.sendCreateGame();
+            hostGameId = lastNumber(expect(hostSeat, "CREATED "));
+        }
+        guestSeat.service.sendJoinRequest(hostGameId);
+        expect(hostSeat, "JOIN_REQUEST " + guestSeat.name);
+        hostSeat.service.sendAcceptRequest(guestSeat.name);
+        expect(hostSeat, "GAME_START ");
+        expect(guestSeat, "GAME_START ");
+        while (true) {
+            games++;
+            String hostResult = expect(hostSeat, "GAMEOVER ");
+            expect(guestSeat, "GAMEOVER ");
+            if (hostResult.endsWith(GameResult.DRAW.name())) {
+                draws++;
+                expect(hostSeat, "REMATCH_OFFER");
+                expect(guestSeat, "REMATCH_OFFER");
+                hostSeat.service.sendRematchChoice(true);
+                guestSeat.service.sendRematchChoice(true);
+                expect(hostSeat, "GAME_START ");
+                expect(guestSeat, "GAME_START ");
+                continue;
+            }
+            Seat winner = hostResult.endsWith(GameResult.WIN.name()) ? hostSeat : guestSeat;
+            Seat loser = winner == hostSeat ? guestSeat : hostSeat;
+            expect(winner, "REMATCH_OFFER");
+            expect(loser, "REMATCH_DECLINED");
+            winner.service.sendRematchChoice(true);
+            hostGameId = lastNumber(expect(winner, "REMATCH_ACCEPTED "));
+            expect(loser, "OPPONENT_DECISION true");
+            hostSeat = winner;
+            guestSeat = loser;
+            return;
+        }
+    }
+
+    private Sample sample(int cycle) throws Exception {
+        // niente callback in coda mentre si misura
+        fxThread.submit(() -> { }).get();
+        LeakTracker.collectGarbage();
+        return new Sample(cycle, memory.getHeapMemoryUsage().getUsed(), threadBean.getThreadCount(), LeakTracker.liveCounts());
+    }
+
+    // Confronto con il campione preso a fine riscaldamento: crescita dell'heap per ciclo, thread in più, oggetti ancora vivi.
+    private void check(Sample baseline, Sample current) {
+        StringBuilder live = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : current.live().entrySet()) {
+            live.append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append('/').append(LeakTracker.createdCount(entry.getKey()));
+            if (entry.getValue() > maxLive) failures.add("ciclo " + current.cycle() + ": " + entry.getValue() + " " + entry.getKey() + " ancora vivi (massimo " + maxLive + ")");
+        }
+        String growth = "";
+        if (baseline != null && current.cycle() > baseline.cycle()) {
+            int elapsed = current.cycle() - baseline.cycle();
+            long perCycle = (current.heapBytes() - baseline.heapBytes()) / elapsed;
+            int extraThreads = current.threads() - baseline.threads();
+            growth = String.format(" (%+d B/ciclo)", perCycle);
+            // su pochi cicli il rumore della GC pesa troppo: il budget dell'heap vale da due campioni dopo il riscaldamento
+            if (elapsed >= 2 * sampleEvery && perCycle > heapBytesPerCycle) {
+                failures.add("ciclo " + current.cycle() + ": heap +" + perCycle + " B/ciclo dal ciclo " + baseline.cycle() + " (budget " + heapBytesPerCycle + ")");
+            }
+            if (extraThreads > threadSlack) {
+                failures.add("ciclo " + current.cycle() + ": " + extraThreads + " thread in più dal ciclo " + baseline.cycle() + " (tolleranza " + threadSlack + ")");
+            }
+            growth += String.format(", thread %d (%+d)", current.threads(), extraThreads);
+        } else {
+            growth = ", thread " + current.threads();
+        }
+        report.printf("%s - SoakHarness: ciclo %d: heap %.1f MB%s, vivi:%s%n", getCurrentTimestamp(), current.cycle(),
+                current.heapBytes() / (1024.0 * 1024.0), growth, live);
+    }
+
+    public boolean run() throws Exception {
+        LeakTracker.enable();
+        NetworkService.setUiExecutor(fxThread::execute);
+        report.println(getCurrentTimestamp() + " - SoakHarness: " + cycles + " cicli contro " + host + ":" + port + ", campione ogni " + sampleEvery
+                + ", riscaldamento " + warmupCycles + ", riconnessione ogni " + reconnectEvery + ", budget heap " + heapBytesPerCycle + " B/ciclo");
+        long start = System.nanoTime();
+        Sample baseline = null;
+        int cycle = 0;
+        try {
+            connect(hostSeat);
+            connect(guestSeat);
+            while (cycle < cycles && failures.isEmpty()) {
+                if (cycle > 0 && reconnectEvery > 0 && cycle % reconnectEvery == 0) reconnect();
+                runCycle();
+                cycle++;
+                if (cycle == warmupCycles || (cycle > warmupCycles && cycle % sampleEvery == 0) || cycle == cycles) {
+                    Sample current = sample(cycle);
+                    check(baseline, current);
+                    if (baseline == null) baseline = current;
+                }
+            }
+        } catch (IllegalStateException e) {
+            failures.add("ciclo " + (cycle + 1) + ": " + e.getMessage());
+        } finally {
+            CompletableFuture.allOf(hostSeat.service.disconnect(), guestSeat.service.disconnect()).join();
+            fxThread.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report.printf("%s - SoakHarness: %d cicli, %d partite (%d pareggi), %d riconnessioni in %.1f s (%.1f ms/ciclo).%n",
+                getCurrentTimestamp(), cycle, games, draws, reconnections, seconds, cycle == 0 ? 0.0 : seconds * 1000 / cycle);
+        if (failures.isEmpty()) {
+            report.println(getCurrentTimestamp() + " - SoakHarness: OK, crescita entro il budget.");
+            return true;
+        }
+        for (String failure : failures) report.println(getCurrentTimestamp() + " - SoakHarness: FALLITO " + failure);
+        return false;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int port = Integer.getInteger("tris.server.port", 12345);
+        int cycles = Integer.getInteger("tris.soak.cycles", 2000);
+        if (args.length > 0) cycles = Integer.parseInt(args[0]);
+        PrintStream report = System.out;
+        // i log di NetworkService (una dozzina di righe per mossa) coprirebbero il rapporto
+        if (!Boolean.getBoolean("tris.soak.verbose")) System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        boolean ok = new SoakHarness(host, port, cycles, report).run();
+        System.exit(ok ? 0 : 1);
+    }
+}
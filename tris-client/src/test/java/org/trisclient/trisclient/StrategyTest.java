@@ -0,0 +1,84 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrategyTest {
+
+    private static final int GAMES = 2000;
+
+    // Gioca una partita e restituisce 1 se vince chi apre, -1 se vince l'altro, 0 per il pareggio.
+    private static int play(Strategy first, Strategy second, SplittableRandom random) {
+        int[] masks = new int[2];
+        Strategy[] players = {first, second};
+        for (int turn = 0; ; turn++) {
+            int me = turn & 1;
+            int move = players[me].chooseMove(masks[me], masks[1 - me], random);
+            assertTrue(move >= 0 && move < ServerEvent.BOARD_CELLS, "cella " + move);
+            assertEquals(0, ((masks[0] | masks[1]) >> move) & 1, "cella " + move + " già occupata");
+            masks[me] |= 1 << move;
+            if (Strategy.isWin(masks[me])) return me == 0 ? 1 : -1;
+            if ((masks[0] | masks[1]) == Strategy.FULL_BOARD) return 0;
+        }
+    }
+
+    @Test
+    void masksAndWinsFollowProtocolCells() {
+        char[] cells = "XO-OX---X".toCharArray();
+        int x = Strategy.mask(cells, 'X');
+        assertEquals(0b100_010_001, x);
+        assertEquals(0b000_001_010, Strategy.mask(cells, 'O'));
+        assertTrue(Strategy.isWin(x));
+        assertFalse(Strategy.isWin(0b011_000_011));
+    }
+
+    @Test
+    void everyStrategyPlaysLegalMoves() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (String a : Strategy.BASELINES) {
+            for (String b : Strategy.BASELINES) {
+                for (int i = 0; i < 200; i++) play(Strategy.forName(a), Strategy.forName(b), random);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> Strategy.forName("alfabeta"));
+    }
+
+    @Test
+    void heuristicWinsBeforeBlocking() {
+        SplittableRandom random = new SplittableRandom(2);
+        // chi muove ha 0 e 1, l'avversario 3 e 4: vincere in 2 batte bloccare in 5
+        assertEquals(2, Strategy.heuristicMove(0b000_000_011, 0b000_011_000, random));
+        // solo il blocco in 5
+        assertEquals(5, Strategy.heuristicMove(0b100_000_001, 0b000_011_000, random));
+        assertEquals(4, Strategy.heuristicMove(0, 0, random));
+    }
+
+    @Test
+    void minimaxNeverLoses() {
+        SplittableRandom random = new SplittableRandom(3);
+        Strategy minimax = Strategy.forName("minimax");
+        for (String name : Strategy.BASELINES) {
+            Strategy opponent = Strategy.forName(name);
+            for (int i = 0; i < GAMES; i++) {
+                assertTrue(play(minimax, opponent, random) >= 0, "minimax perde aprendo contro " + name);
+                assertTrue(play(opponent, minimax, random) <= 0, "minimax perde rispondendo a " + name);
+            }
+        }
+        for (int i = 0; i < GAMES; i++) assertEquals(0, play(minimax, minimax, random));
+    }
+
+    @Test
+    void minimaxTakesTheQuickestWin() {
+        SplittableRandom random = new SplittableRandom(4);
+        // X ha 0 e 4, O ha 1 e 2: vince subito in 8 invece di preparare altre minacce
+        for (int i = 0; i < 50; i++) {
+            assertEquals(8, Strategy.Minimax.bestMove(0b000_010_001, 0b000_000_110, random));
+        }
+    }
+}
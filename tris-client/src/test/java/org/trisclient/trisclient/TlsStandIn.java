@@ -0,0 +1,129 @@
+package org.trisclient.trisclient;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Terminatore TLS locale davanti al server C (che parla solo in chiaro): accetta TLS su tris.tls.port e inoltra byte per byte a
+// tris.server.host / tris.server.port. Serve a provare -Dtris.tls=true senza toccare il server. Il certificato è in tris.tls.keystore;
+// se il file non esiste viene creato con keytool, autofirmato per localhost e 127.0.0.1, e lo stesso file fa da truststore al client.
+public class TlsStandIn {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static String getCurrentTimestamp() {
+        return LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+    }
+
+    private final int tlsPort;
+    private final String serverHost;
+    private final int serverPort;
+    private final Path keystore;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final LatencyHistogram handshakes = new LatencyHistogram("handshake lato server");
+
+    public TlsStandIn(int tlsPort, String serverHost, int serverPort, Path keystore) {
+        this.tlsPort = tlsPort;
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.keystore = keystore;
+    }
+
+    private void ensureKeystore() throws IOException, InterruptedException {
+        if (Files.exists(keystore)) return;
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        String password = new String(TlsTransport.password());
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "tris", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "365",
+                "-storetype", "PKCS12", "-keystore", keystore.toString(), "-storepass", password, "-keypass", password)
+                .inheritIO().start();
+        if (process.waitFor() != 0) throw new IOException("keytool terminato con codice " + process.exitValue());
+        System.out.println(getCurrentTimestamp() + " - TlsStandIn: Creato certificato autofirmato in " + keystore);
+    }
+
+    public void run() throws Exception {
+        ensureKeystore();
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(TlsTransport.keyManagers(keystore).getKeyManagers(), null, null);
+        try (SSLServerSocket server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(tlsPort)) {
+            SSLParameters parameters = server.getSSLParameters();
+            parameters.setProtocols(TlsTransport.protocols());
+            server.setSSLParameters(parameters);
+            System.out.println(getCurrentTimestamp() + " - TlsStandIn: TLS su " + tlsPort + " -> " + serverHost + ":" + serverPort + " (truststore per il client: "
+                    + keystore.toAbsolutePath() + ")");
+            while (true) {
+                SSLSocket client = (SSLSocket) server.accept();
+                long id = accepted.incrementAndGet();
+                Thread thread = new Thread(() -> serve(id, client), "TlsStandIn-" + id);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void serve(long id, SSLSocket client) {
+        try (client; Socket upstream = new Socket(serverHost, serverPort)) {
+            client.setTcpNoDelay(true);
+            upstream.setTcpNoDelay(true);
+            long start = System.nanoTime();
+            client.startHandshake();
+            handshakes.recordNanos(System.nanoTime() - start);
+            System.out.println(getCurrentTimestamp() + " - TlsStandIn: Connessione " + id + " da " + client.getRemoteSocketAddress() + ", "
+                    + client.getSession().getProtocol() + " " + client.getSession().getCipherSuite() + ". " + handshakes.summary());
+            Thread back = new Thread(() -> pump(upstream, client), "TlsStandIn-" + id + "-su");
+            back.setDaemon(true);
+            back.start();
+            pump(client, upstream);
+            back.join();
+        } catch (IOException e) {
+            failedHandshakes.incrementAndGet();
+            System.err.println(getCurrentTimestamp() + " - TlsStandIn: Connessione " + id + " terminata: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(getCurrentTimestamp() + " - TlsStandIn: Connessione " + id + " chiusa (" + accepted.get() + " accettate, " + failedHandshakes.get() + " in errore).");
+    }
+
+    // Copia finché una delle due parti chiude, poi chiude l'altra per sbloccare il thread opposto.
+    private static void pump(Socket from, Socket to) {
+        byte[] buffer = new byte[16 * 1024];
+        try {
+            InputStream input = from.getInputStream();
+            OutputStream output = to.getOutputStream();
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // una delle due parti ha chiuso
+        } finally {
+            try {
+                to.close();
+            } catch (IOException e) {
+                // già chiuso
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tlsPort = Integer.getInteger("tris.tls.port", 12443);
+        String host = System.getProperty("tris.server.host", "127.0.0.1");
+        int port = Integer.getInteger("tris.server.port", 12345);
+        Path keystore = Path.of(System.getProperty("tris.tls.keystore", "tris-standin.p12"));
+        if (args.length > 0) tlsPort = Integer.parseInt(args[0]);
+        new TlsStandIn(tlsPort, host, port, keystore).run();
+    }
+}
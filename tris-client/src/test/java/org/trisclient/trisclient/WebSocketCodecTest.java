@@ -0,0 +1,142 @@
+package org.trisclient.trisclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebSocketCodecTest {
+
+    private static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+    private static class Recorder implements WebSocketCodec.FrameHandler {
+        final List<String> events = new ArrayList<>();
+
+        @Override public void onText(String text) {
+            events.add("text " + text);
+        }
+        @Override public void onPing(byte[] payload) {
+            events.add("ping " + new String(payload, StandardCharsets.UTF_8));
+        }
+        @Override public void onClose() {
+            events.add("close");
+        }
+        @Override public void onProtocolError(String reason) {
+            events.add("error " + reason);
+        }
+    }
+
+    // Frame come lo manda un browser: mascherato, con la lunghezza nella forma più corta.
+    private static byte[] clientFrame(boolean fin, int opcode, byte[] payload) {
+        int headerLength = payload.length < 126 ? 2 : 4;
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + 4 + payload.length);
+        frame.put((byte) ((fin ? 0x80 : 0) | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) (0x80 | payload.length));
+        } else {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) payload.length);
+        }
+        frame.put(MASK);
+        for (int i = 0; i < payload.length; i++) frame.put((byte) (payload[i] ^ MASK[i & 3]));
+        return frame.array();
+    }
+
+    private static byte[] clientText(String text) {
+        return clientFrame(true, 0x1, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer all = ByteBuffer.allocate(java.util.Arrays.stream(parts).mapToInt(p -> p.length).sum());
+        for (byte[] part : parts) all.put(part);
+        return all.array();
+    }
+
+    @Test
+    void handshakeUsesRfcAcceptKey() {
+        String response = WebSocketCodec.handshakeResponse("GET /tris HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 101 "));
+        assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    void handshakeRejectsPlainHttp() {
+        assertNull(WebSocketCodec.handshakeResponse("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+        assertNull(WebSocketCodec.handshakeResponse("POST / HTTP/1.1\r\nUpgrade: websocket\r\nSec-WebSocket-Key: abc\r\n\r\n"));
+    }
+
+    @Test
+    void encodesLengthInShortestForm() {
+        assertEquals(2 + 5, WebSocketCodec.encodeText("ciao!").remaining());
+        ByteBuffer medium = WebSocketCodec.encodeText("m".repeat(300));
+        assertEquals(0x81, medium.get(0) & 0xFF);
+        assertEquals(126, medium.get(1));
+        assertEquals(300, medium.getShort(2));
+        ByteBuffer large = WebSocketCodec.encodeText("g".repeat(70_000));
+        assertEquals(127, large.get(1));
+        assertEquals(70_000L, large.getLong(2));
+        assertEquals(10 + 70_000, large.remaining());
+    }
+
+    @Test
+    void decodesFramesSplitAcrossReads() {
+        byte[] data = concat(clientText("LIST"), clientText("è".repeat(200)));
+        WebSocketCodec.Decoder decoder = new WebSocketCodec.Decoder(4096);
+        Recorder recorder = new Recorder();
+        for (int i = 0; i < data.length; i += 3) {
+            decoder.feed(ByteBuffer.wrap(data, i, Math.min(3, data.length - i)), recorder);
+        }
+        assertEquals(List.of("text LIST", "text " + "è".repeat(200)), recorder.events);
+    }
+
+    @Test
+    void joinsFragmentsAndAnswersPingInBetween() {
+        byte[] data = concat(
+                clientFrame(false, 0x1, "CHAT lobby ".getBytes(StandardCharsets.UTF_8)),
+                clientFrame(true, 0x9, "hb".getBytes(StandardCharsets.UTF_8)),
+                clientFrame(true, 0x0, "ciao".getBytes(StandardCharsets.UTF_8)));
+        Recorder recorder = new Recorder();
+        new WebSocketCodec.Decoder(4096).feed(ByteBuffer.wrap(data), recorder);
+        assertEquals(List.of("ping hb", "text CHAT lobby ciao"), recorder.events);
+    }
+
+    @Test
+    void rejectsUnmaskedFrames() {
+        Recorder recorder = new Recorder();
+        new WebSocketCodec.Decoder(4096).feed(WebSocketCodec.encodeText("LIST"), recorder);
+        assertEquals(List.of("error frame non mascherato dal client"), recorder.events);
+    }
+
+    @Test
+    void rejectsOversizedMessages() {
+        Recorder recorder = new Recorder();
+        WebSocketCodec.Decoder decoder = new WebSocketCodec.Decoder(16);
+        decoder.feed(ByteBuffer.wrap(clientText("x".repeat(17))), recorder);
+        assertEquals(List.of("error frame troppo grande (17 byte)"), recorder.events);
+
+        recorder.events.clear();
+        byte[] fragments = concat(clientFrame(false, 0x1, new byte[10]), clientFrame(true, 0x0, new byte[10]));
+        new WebSocketCodec.Decoder(16).feed(ByteBuffer.wrap(fragments), recorder);
+        assertEquals(List.of("error messaggio troppo grande"), recorder.events);
+    }
+
+    @Test
+    void stopsAtCloseAndBinaryFrames() {
+        Recorder recorder = new Recorder();
+        byte[] data = concat(clientText("QUIT"), clientFrame(true, 0x8, new byte[0]), clientText("ignorato"));
+        new WebSocketCodec.Decoder(4096).feed(ByteBuffer.wrap(data), recorder);
+        assertEquals(List.of("text QUIT", "close"), recorder.events);
+
+        recorder.events.clear();
+        new WebSocketCodec.Decoder(4096).feed(ByteBuffer.wrap(clientFrame(true, 0x2, new byte[]{1})), recorder);
+        assertEquals(List.of("error frame binari non supportati"), recorder.events);
+    }
+}
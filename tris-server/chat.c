@@ -0,0 +1,249 @@
+#include "chat.h"
+#include "types.h"
+#include "utils.h"
+#include "game_logic.h"
+#include <stdatomic.h>
+#include <stdlib.h>
+#include <string.h>
+
+const char *CMD_CHAT_PREFIX = "CHAT ";
+const char *CMD_CHAT_HISTORY = "CHAT_HISTORY";
+const char *NOTIFY_CHAT_FMT = "NOTIFY:CHAT %s %s %s\n";
+const char *ERR_CHAT_EMPTY = "ERROR:CHAT_EMPTY\n";
+const char *ERR_CHAT_RATE_LIMITED = "ERROR:CHAT_RATE_LIMITED\n";
+
+// Il messaggio viene formattato una sola volta: storico e destinatari condividono lo stesso buffer.
+typedef struct
+{
+    atomic_int refs;
+    char wire[];
+} ChatMessage;
+
+typedef struct
+{
+    int game_id;
+    ChatMessage *history[CHAT_HISTORY_SIZE];
+    int head;
+    int count;
+} ChatRoom;
+
+typedef struct
+{
+    int game_id;
+    int game_idx;
+    int fd;
+    char name[MAX_NAME_LEN];
+} ChatSender;
+
+static ChatRoom lobby_room;
+static ChatRoom game_rooms[MAX_GAMES];
+static pthread_mutex_t chat_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static ChatMessage *chat_message_create(const char *room_name, const char *sender, const char *text)
+{
+    int len = snprintf(NULL, 0, NOTIFY_CHAT_FMT, room_name, sender, text);
+    ChatMessage *message = malloc(sizeof(ChatMessage) + len + 1);
+    if (!message)
+        return NULL;
+    atomic_init(&message->refs, 1);
+    snprintf(message->wire, len + 1, NOTIFY_CHAT_FMT, room_name, sender, text);
+    return message;
+}
+
+static void chat_message_retain(ChatMessage *message)
+{
+    atomic_fetch_add(&message->refs, 1);
+}
+
+static void chat_message_release(ChatMessage *message)
+{
+    if (message && atomic_fetch_sub(&message->refs, 1) == 1)
+        free(message);
+}
+
+static void clear_room_unsafe(ChatRoom *room, int game_id)
+{
+    for (int i = 0; i < CHAT_HISTORY_SIZE; ++i)
+    {
+        chat_message_release(room->history[i]);
+        room->history[i] = NULL;
+    }
+    room->head = 0;
+    room->count = 0;
+    room->game_id = game_id;
+}
+
+static ChatRoom *room_for_unsafe(const ChatSender *sender)
+{
+    if (sender->game_id <= 0)
+        return &lobby_room;
+    ChatRoom *room = &game_rooms[sender->game_idx];
+    if (room->game_id != sender->game_id)
+        clear_room_unsafe(room, sender->game_id);
+    return room;
+}
+
+static bool take_chat_token_unsafe(ClientInfo *client)
+{
+    long long now = monotonic_ms();
+    if (client->chat_refill_ms == 0)
+        client->chat_refill_ms = now;
+    long long refills = (now - client->chat_refill_ms) / CHAT_REFILL_MS;
+    if (refills > 0)
+    {
+        client->chat_tokens += (int)(refills < CHAT_BURST ? refills : CHAT_BURST);
+        if (client->chat_tokens >= CHAT_BURST)
+        {
+            client->chat_tokens = CHAT_BURST;
+            client->chat_refill_ms = now;
+        }
+        else
+        {
+            client->chat_refill_ms += refills * CHAT_REFILL_MS;
+        }
+    }
+    if (client->chat_tokens <= 0)
+        return false;
+    client->chat_tokens--;
+    return true;
+}
+
+// Stanza del client: la partita se è in gioco o in attesa, altrimenti la lobby. Chiamare con client_list_mutex acquisito.
+static bool resolve_sender_unsafe(int client_idx, ChatSender *sender)
+{
+    if (!clients[client_idx].active)
+        return false;
+    sender->fd = clients[client_idx].fd;
+    strncpy(sender->name, clients[client_idx].name, MAX_NAME_LEN - 1);
+    sender->name[MAX_NAME_LEN - 1] = '\0';
+    sender->game_id = 0;
+    sender->game_idx = -1;
+    if ((clients[client_idx].state == CLIENT_STATE_PLAYING || clients[client_idx].state == CLIENT_STATE_WAITING) &&
+        clients[client_idx].game_id > 0)
+    {
+        pthread_mutex_lock(&game_list_mutex);
+        int game_idx = find_game_index_unsafe(clients[client_idx].game_id);
+        pthread_mutex_unlock(&game_list_mutex);
+        if (game_idx != -1)
+        {
+            sender->game_id = clients[client_idx].game_id;
+            sender->game_idx = game_idx;
+        }
+    }
+    return true;
+}
+
+static int collect_room_members_unsafe(int game_id, int *fds)
+{
+    int count = 0;
+    for (int i = 0; i < MAX_TOTAL_CLIENTS; ++i)
+    {
+        if (!clients[i].active || clients[i].name[0] == '\0')
+            continue;
+        bool member = (game_id > 0)
+                          ? (clients[i].game_id == game_id &&
+                             (clients[i].state == CLIENT_STATE_PLAYING || clients[i].state == CLIENT_STATE_WAITING))
+                          : (clients[i].state == CLIENT_STATE_LOBBY || clients[i].state == CLIENT_STATE_QUEUED);
+        if (member)
+            fds[count++] = clients[i].fd;
+    }
+    return count;
+}
+
+static void sanitize_chat_text(const char *text, char *out)
+{
+    size_t len = 0;
+    while (*text == ' ')
+        text++;
+    for (; *text && len < CHAT_MAX_TEXT_LEN; ++text)
+        out[len++] = ((unsigned char)*text < 0x20) ? ' ' : *text;
+    while (len > 0 && out[len - 1] == ' ')
+        len--;
+    out[len] = '\0';
+}
+
+void process_chat_command(int client_idx, const char *text)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS || !text)
+        return;
+    int member_fds[MAX_TOTAL_CLIENTS];
+    char clean_text[CHAT_MAX_TEXT_LEN + 1];
+    ChatSender sender;
+
+    sanitize_chat_text(text, clean_text);
+
+    pthread_mutex_lock(&client_list_mutex);
+    if (!resolve_sender_unsafe(client_idx, &sender))
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    if (clean_text[0] == '\0')
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        send_to_client(sender.fd, ERR_CHAT_EMPTY);
+        return;
+    }
+    if (!take_chat_token_unsafe(&clients[client_idx]))
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        LOG("Chat: messaggio di %s (fd %d) scartato, limite di frequenza superato.\n", sender.name, sender.fd);
+        send_to_client(sender.fd, ERR_CHAT_RATE_LIMITED);
+        return;
+    }
+    int member_count = collect_room_members_unsafe(sender.game_id, member_fds);
+    pthread_mutex_unlock(&client_list_mutex);
+
+    ChatMessage *message = chat_message_create(sender.game_id > 0 ? "GAME" : "LOBBY", sender.name, clean_text);
+    if (!message)
+    {
+        LOG("Chat: errore allocazione messaggio di %s.\n", sender.name);
+        return;
+    }
+
+    pthread_mutex_lock(&chat_mutex);
+    ChatRoom *room = room_for_unsafe(&sender);
+    chat_message_release(room->history[room->head]);
+    chat_message_retain(message);
+    room->history[room->head] = message;
+    room->head = (room->head + 1) % CHAT_HISTORY_SIZE;
+    if (room->count < CHAT_HISTORY_SIZE)
+        room->count++;
+    pthread_mutex_unlock(&chat_mutex);
+
+    for (int i = 0; i < member_count; ++i)
+        send_to_client(member_fds[i], message->wire);
+    chat_message_release(message);
+}
+
+void process_chat_history_command(int client_idx)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+    ChatMessage *replay[CHAT_HISTORY_SIZE];
+    ChatSender sender;
+    int replay_count = 0;
+
+    pthread_mutex_lock(&client_list_mutex);
+    bool found = resolve_sender_unsafe(client_idx, &sender);
+    pthread_mutex_unlock(&client_list_mutex);
+    if (!found)
+        return;
+
+    pthread_mutex_lock(&chat_mutex);
+    ChatRoom *room = room_for_unsafe(&sender);
+    int oldest = (room->head - room->count + CHAT_HISTORY_SIZE) % CHAT_HISTORY_SIZE;
+    for (int i = 0; i < room->count; ++i)
+    {
+        ChatMessage *message = room->history[(oldest + i) % CHAT_HISTORY_SIZE];
+        chat_message_retain(message);
+        replay[replay_count++] = message;
+    }
+    pthread_mutex_unlock(&chat_mutex);
+
+    for (int i = 0; i < replay_count; ++i)
+    {
+        send_to_client(sender.fd, replay[i]->wire);
+        chat_message_release(replay[i]);
+    }
+}
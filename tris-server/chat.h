@@ -0,0 +1,17 @@
+#ifndef CHAT_H
+#define CHAT_H
+
+#define CHAT_HISTORY_SIZE 32
+#define CHAT_MAX_TEXT_LEN 200
+#define CHAT_REFILL_MS 1000
+
+extern const char* CMD_CHAT_PREFIX;
+extern const char* CMD_CHAT_HISTORY;
+extern const char* NOTIFY_CHAT_FMT;
+extern const char* ERR_CHAT_EMPTY;
+extern const char* ERR_CHAT_RATE_LIMITED;
+
+void process_chat_command(int client_idx, const char *text);
+void process_chat_history_command(int client_idx);
+
+#endif
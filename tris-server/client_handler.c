@@ -3,11 +3,381 @@
 #include "utils.h"
 #include "protocol.h"
 #include "game_logic.h"
+#include "game_clock.h"
+#include "mux.h"
+#include "matchmaking.h"
+#include "rating.h"
+#include "chat.h"
 #include <unistd.h>
 #include <errno.h>
 #include <string.h>
 #include <stdlib.h>
 
+typedef struct
+{
+    int session_id;
+    int client_index;
+} MuxSession;
+
+typedef struct
+{
+    MuxSession sessions[MUX_MAX_SESSIONS];
+    int count;
+} MuxSessionTable;
+
+static bool dispatch_command(int client_index, int client_fd, char *command)
+{
+    ClientState current_state;
+    char current_name[MAX_NAME_LEN];
+    pthread_mutex_lock(&client_list_mutex);
+    if (clients[client_index].active)
+    {
+        current_state = clients[client_index].state;
+        strncpy(current_name, clients[client_index].name, MAX_NAME_LEN - 1);
+        current_name[MAX_NAME_LEN - 1] = '\0';
+    }
+    else
+    {
+        LOG("Attenzione: Indice client %d diventato inattivo durante la lettura dello stato (fd %d).\n", client_index, client_fd);
+        pthread_mutex_unlock(&client_list_mutex);
+        return false;
+    }
+    pthread_mutex_unlock(&client_list_mutex);
+
+    LOG("Ricevuto da fd %d (idx %d, nome '%s', stato %d): [%s]\n",
+        client_fd, client_index, current_name[0] ? current_name : "(no name yet)", current_state, command);
+
+    if (strncmp(command, CMD_PING_PREFIX, strlen(CMD_PING_PREFIX)) == 0 &&
+        (command[strlen(CMD_PING_PREFIX)] == '\0' || command[strlen(CMD_PING_PREFIX)] == ' '))
+    {
+        process_ping_command(client_fd, command + strlen(CMD_PING_PREFIX));
+    }
+
+    else if (strncmp(command, CMD_NAME_PREFIX, strlen(CMD_NAME_PREFIX)) == 0 && current_state == CLIENT_STATE_CONNECTED)
+    {
+        process_name_command(client_index, command + strlen(CMD_NAME_PREFIX));
+    }
+
+    else if (strcmp(command, CMD_LIST) == 0 && (current_state == CLIENT_STATE_LOBBY || current_state == CLIENT_STATE_WAITING || current_state == CLIENT_STATE_QUEUED))
+    {
+        LOG("Elaborazione comando LIST per client %d nello stato %d.\n", client_index, current_state);
+        process_list_command(client_index);
+    }
+    else if (strncmp(command, CMD_LIST_PAGE_PREFIX, strlen(CMD_LIST_PAGE_PREFIX)) == 0 && (current_state == CLIENT_STATE_LOBBY || current_state == CLIENT_STATE_WAITING || current_state == CLIENT_STATE_QUEUED))
+    {
+        process_list_page_command(client_index, command + strlen(CMD_LIST_PAGE_PREFIX));
+    }
+    else if (strcmp(command, CMD_QUEUE) == 0 && current_state == CLIENT_STATE_LOBBY)
+    {
+        process_queue_command(client_index);
+    }
+    else if (strcmp(command, CMD_UNQUEUE) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        // fuori coda (UNQUEUE incrociato con l'abbinamento) la risposta è ERR_NOT_QUEUED, non "comando sconosciuto"
+        process_unqueue_command(client_index);
+    }
+    else if ((strcmp(command, CMD_LEADERBOARD) == 0 || strncmp(command, CMD_LEADERBOARD_PREFIX, strlen(CMD_LEADERBOARD_PREFIX)) == 0) && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_leaderboard_command(client_index, command[strlen(CMD_LEADERBOARD)] == ' ' ? command + strlen(CMD_LEADERBOARD_PREFIX) : NULL);
+    }
+    else if (strcmp(command, CMD_RANK) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_rank_command(client_index);
+    }
+    else if (strncmp(command, CMD_CHAT_PREFIX, strlen(CMD_CHAT_PREFIX)) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_chat_command(client_index, command + strlen(CMD_CHAT_PREFIX));
+    }
+    else if (strcmp(command, CMD_CHAT_HISTORY) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_chat_history_command(client_index);
+    }
+    else if (strcmp(command, CMD_CREATE) == 0 && current_state == CLIENT_STATE_LOBBY)
+    {
+        process_create_command(client_index);
+    }
+    else if (strncmp(command, CMD_JOIN_REQUEST_PREFIX, strlen(CMD_JOIN_REQUEST_PREFIX)) == 0 && current_state == CLIENT_STATE_LOBBY)
+    {
+        process_join_request_command(client_index, command + strlen(CMD_JOIN_REQUEST_PREFIX));
+    }
+    else if (strncmp(command, CMD_ACCEPT_PREFIX, strlen(CMD_ACCEPT_PREFIX)) == 0 && current_state == CLIENT_STATE_WAITING)
+    {
+        process_accept_command(client_index, command + strlen(CMD_ACCEPT_PREFIX));
+    }
+    else if (strncmp(command, CMD_REJECT_PREFIX, strlen(CMD_REJECT_PREFIX)) == 0 && current_state == CLIENT_STATE_WAITING)
+    {
+        process_reject_command(client_index, command + strlen(CMD_REJECT_PREFIX));
+    }
+    else if (strncmp(command, CMD_MOVE_PREFIX, strlen(CMD_MOVE_PREFIX)) == 0 && current_state == CLIENT_STATE_PLAYING)
+    {
+        process_move_command(client_index, command + strlen(CMD_MOVE_PREFIX));
+    }
+    else if (strncmp(command, CMD_PREMOVE_PREFIX, strlen(CMD_PREMOVE_PREFIX)) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_premove_command(client_index, command + strlen(CMD_PREMOVE_PREFIX));
+    }
+    else if (strcmp(command, CMD_RESYNC) == 0 && current_state != CLIENT_STATE_CONNECTED)
+    {
+        process_resync_command(client_index);
+    }
+    else if ((strcmp(command, CMD_REMATCH_YES) == 0 || strcmp(command, CMD_REMATCH_NO) == 0))
+    {
+        if (current_state == CLIENT_STATE_PLAYING)
+        {
+            process_rematch_command(client_index, command);
+        }
+        else
+        {
+            send_unknown_command_error(client_index, command, current_state);
+        }
+    }
+    else if (strcmp(command, CMD_QUIT) == 0)
+    {
+        if (process_quit_command(client_index))
+        {
+            return false;
+        }
+    }
+    else
+    {
+        if (current_state != CLIENT_STATE_CONNECTED)
+        {
+            send_unknown_command_error(client_index, command, current_state);
+        }
+    }
+    return true;
+}
+
+static void release_client_slot(int client_index, int fd)
+{
+    pthread_mutex_lock(&client_list_mutex);
+    pthread_mutex_lock(&game_list_mutex);
+
+    int game_id_leaving = 0;
+    char disconnecting_client_name[MAX_NAME_LEN] = {0};
+
+    if (clients[client_index].active && clients[client_index].fd == fd)
+    {
+        game_id_leaving = clients[client_index].game_id;
+        strncpy(disconnecting_client_name, clients[client_index].name, MAX_NAME_LEN - 1);
+        disconnecting_client_name[MAX_NAME_LEN - 1] = '\0';
+
+        clients[client_index].active = false;
+        clients[client_index].fd = -1;
+        clients[client_index].game_id = 0;
+        clients[client_index].state = CLIENT_STATE_CONNECTED;
+        clients[client_index].name[0] = '\0';
+        clients[client_index].mux_parent_fd = -1;
+        clients[client_index].mux_session_id = 0;
+
+        LOG("Marco l'indice client %d (nome '%s', prev_fd %d) come inattivo.\n",
+            client_index,
+            disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
+            fd);
+    }
+    else
+    {
+        LOG("Salto reset per indice client %d: Slot inattivo o fd non corrispondente (slot fd: %d, fd thread: %d).\n",
+            client_index, clients[client_index].fd, fd);
+    }
+
+    if (game_id_leaving > 0)
+    {
+        int game_idx = find_game_index_unsafe(game_id_leaving);
+        if (game_idx != -1)
+        {
+            LOG("Client '%s' (prev_fd %d) era nella partita %d (idx %d). Gestione uscita.\n",
+                disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
+                fd,
+                game_id_leaving, game_idx);
+
+            handle_player_leaving_game(game_idx, fd, disconnecting_client_name);
+        }
+        else
+        {
+            LOG("Client '%s' (prev_fd %d) disconnesso, ma ID partita associato %d non trovato.\n",
+                disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
+                fd, game_id_leaving);
+        }
+    }
+    else if (disconnecting_client_name[0] != '\0')
+    {
+        LOG("Client '%s' (prev_fd %d) disconnesso da stato non di gioco.\n", disconnecting_client_name, fd);
+    }
+
+    pthread_mutex_unlock(&game_list_mutex);
+    pthread_mutex_unlock(&client_list_mutex);
+}
+
+static int find_mux_session(const MuxSessionTable *table, int session_id)
+{
+    for (int i = 0; i < table->count; ++i)
+    {
+        if (table->sessions[i].session_id == session_id)
+            return i;
+    }
+    return -1;
+}
+
+static bool parse_mux_session_id(const char *text, int *session_id)
+{
+    char *endptr;
+    errno = 0;
+    long value = strtol(text, &endptr, 10);
+    if (endptr == text || errno != 0 || value <= 0 || value > MUX_FD_BASE)
+        return false;
+    if (*endptr != '\0' && *endptr != ' ')
+        return false;
+    *session_id = (int)value;
+    return true;
+}
+
+static void open_mux_session(int parent_fd, const char *args, MuxSessionTable *table)
+{
+    char response[BUFFER_SIZE];
+    int session_id;
+    if (!parse_mux_session_id(args, &session_id))
+    {
+        send_to_client(parent_fd, ERR_MUX_FORMAT);
+        return;
+    }
+    if (find_mux_session(table, session_id) != -1)
+    {
+        snprintf(response, sizeof(response), ERR_MUX_DUPLICATE_SESSION_FMT, session_id);
+        send_to_client(parent_fd, response);
+        return;
+    }
+    if (table->count >= MUX_MAX_SESSIONS)
+    {
+        send_to_client(parent_fd, ERR_MUX_TOO_MANY_SESSIONS);
+        return;
+    }
+
+    int session_index = -1;
+    int virtual_fd = -1;
+    pthread_mutex_lock(&client_list_mutex);
+    for (int i = MAX_DIRECT_CLIENTS; i < MAX_TOTAL_CLIENTS; ++i)
+    {
+        if (!clients[i].active)
+        {
+            session_index = i;
+            break;
+        }
+    }
+    if (session_index != -1)
+    {
+        virtual_fd = mux_virtual_fd_for_index(session_index);
+        clients[session_index].active = true;
+        clients[session_index].fd = virtual_fd;
+        clients[session_index].state = CLIENT_STATE_CONNECTED;
+        clients[session_index].game_id = 0;
+        clients[session_index].name[0] = '\0';
+        clients[session_index].thread_id = pthread_self();
+        clients[session_index].mux_parent_fd = parent_fd;
+        clients[session_index].mux_session_id = session_id;
+        clients[session_index].rating = DEFAULT_RATING;
+        clients[session_index].queued_since_ms = 0;
+        clients[session_index].leaderboard_subscribed = false;
+        clients[session_index].chat_tokens = CHAT_BURST;
+        clients[session_index].chat_refill_ms = 0;
+        mux_register_route(virtual_fd, parent_fd, session_id);
+    }
+    pthread_mutex_unlock(&client_list_mutex);
+
+    if (session_index == -1)
+    {
+        LOG("Sessioni mux esaurite (raggiunto MAX_MUX_CLIENTS), rifiuto sessione mux %d sulla connessione fd %d\n", session_id, parent_fd);
+        snprintf(response, sizeof(response), "@%d %s", session_id, ERR_SERVER_FULL_SLOTS);
+        send_to_client(parent_fd, response);
+        return;
+    }
+
+    table->sessions[table->count].session_id = session_id;
+    table->sessions[table->count].client_index = session_index;
+    table->count++;
+
+    LOG("Sessione mux %d aperta sulla connessione fd %d (indice %d, fd virtuale %d)\n", session_id, parent_fd, session_index, virtual_fd);
+    snprintf(response, sizeof(response), RESP_MUX_OPENED_FMT, session_id);
+    send_to_client(parent_fd, response);
+    send_to_client(virtual_fd, CMD_GET_NAME);
+}
+
+static void close_mux_session(int parent_fd, int position, MuxSessionTable *table, bool notify)
+{
+    int session_id = table->sessions[position].session_id;
+    int session_index = table->sessions[position].client_index;
+    int virtual_fd = mux_virtual_fd_for_index(session_index);
+
+    mux_unregister_route(virtual_fd);
+    release_client_slot(session_index, virtual_fd);
+
+    table->sessions[position] = table->sessions[table->count - 1];
+    table->count--;
+
+    LOG("Sessione mux %d chiusa sulla connessione fd %d (indice %d)\n", session_id, parent_fd, session_index);
+    if (notify)
+    {
+        char response[64];
+        snprintf(response, sizeof(response), RESP_MUX_CLOSED_FMT, session_id);
+        send_to_client(parent_fd, response);
+    }
+}
+
+// Restituisce false se la connessione fisica deve essere chiusa.
+static bool handle_connection_line(int client_index, int client_fd, char *line, MuxSessionTable *table)
+{
+    int session_id;
+    if (line[0] == '@')
+    {
+        char *payload = strchr(line, ' ');
+        if (!parse_mux_session_id(line + 1, &session_id) || !payload)
+        {
+            send_to_client(client_fd, ERR_MUX_FORMAT);
+            return true;
+        }
+        int position = find_mux_session(table, session_id);
+        if (position == -1)
+        {
+            char response[BUFFER_SIZE];
+            snprintf(response, sizeof(response), ERR_MUX_UNKNOWN_SESSION_FMT, session_id);
+            send_to_client(client_fd, response);
+            return true;
+        }
+        int session_index = table->sessions[position].client_index;
+        // come su una connessione diretta: solo un QUIT prima del nome o dalla coda chiude; dalla lobby si usa MUX CLOSE
+        if (!dispatch_command(session_index, mux_virtual_fd_for_index(session_index), payload + 1))
+        {
+            close_mux_session(client_fd, position, table, true);
+        }
+        return true;
+    }
+    if (strncmp(line, CMD_MUX_OPEN_PREFIX, strlen(CMD_MUX_OPEN_PREFIX)) == 0)
+    {
+        open_mux_session(client_fd, line + strlen(CMD_MUX_OPEN_PREFIX), table);
+        return true;
+    }
+    if (strncmp(line, CMD_MUX_CLOSE_PREFIX, strlen(CMD_MUX_CLOSE_PREFIX)) == 0)
+    {
+        int position = -1;
+        if (!parse_mux_session_id(line + strlen(CMD_MUX_CLOSE_PREFIX), &session_id))
+        {
+            send_to_client(client_fd, ERR_MUX_FORMAT);
+        }
+        else if ((position = find_mux_session(table, session_id)) == -1)
+        {
+            char response[BUFFER_SIZE];
+            snprintf(response, sizeof(response), ERR_MUX_UNKNOWN_SESSION_FMT, session_id);
+            send_to_client(client_fd, response);
+        }
+        else
+        {
+            close_mux_session(client_fd, position, table, true);
+        }
+        return true;
+    }
+    return dispatch_command(client_index, client_fd, line);
+}
+
 void *handle_client(void *arg)
 {
     if (!arg)
@@ -49,6 +419,8 @@ void *handle_client(void *arg)
 
     LOG("Thread avviato per il client fd %d (indice %d)\n", client_fd, client_index);
 
+    MuxSessionTable mux_sessions = {.count = 0};
+
     if (client_needs_name)
     {
         if (!send_to_client(client_fd, CMD_GET_NAME))
@@ -59,12 +431,14 @@ void *handle_client(void *arg)
     }
 
     char buffer[BUFFER_SIZE];
+    size_t buffered = 0;
+    // Dopo un comando troppo lungo si scarta tutto fino al '\n' che lo chiude: la coda non deve valere come comando a sé.
+    bool discarding_line = false;
     bool client_connected = true;
 
     while (client_connected && keep_running)
     {
-        memset(buffer, 0, BUFFER_SIZE);
-        ssize_t bytes_read = read(client_fd, buffer, BUFFER_SIZE - 1);
+        ssize_t bytes_read = read(client_fd, buffer + buffered, BUFFER_SIZE - 1 - buffered);
 
         if (bytes_read == 0)
         {
@@ -91,84 +465,42 @@ void *handle_client(void *arg)
             break;
         }
 
-        buffer[strcspn(buffer, "\r\n")] = 0;
+        buffered += (size_t)bytes_read;
+        buffer[buffered] = '\0';
 
-        ClientState current_state;
-        char current_name[MAX_NAME_LEN];
-        pthread_mutex_lock(&client_list_mutex);
-        if (clients[client_index].active)
+        if (discarding_line)
         {
-            current_state = clients[client_index].state;
-            strncpy(current_name, clients[client_index].name, MAX_NAME_LEN - 1);
-            current_name[MAX_NAME_LEN - 1] = '\0';
-        }
-        else
-        {
-            LOG("Attenzione: Indice client %d diventato inattivo durante la lettura dello stato (fd %d).\n", client_index, client_fd);
-            pthread_mutex_unlock(&client_list_mutex);
-            client_connected = false;
-            break;
-        }
-        pthread_mutex_unlock(&client_list_mutex);
-
-        LOG("Ricevuto da fd %d (idx %d, nome '%s', stato %d): [%s]\n",
-            client_fd, client_index, current_name[0] ? current_name : "(no name yet)", current_state, buffer);
-
-        if (strncmp(buffer, CMD_NAME_PREFIX, strlen(CMD_NAME_PREFIX)) == 0 && current_state == CLIENT_STATE_CONNECTED)
-        {
-            process_name_command(client_index, buffer + strlen(CMD_NAME_PREFIX));
-        }
-
-        else if (strcmp(buffer, CMD_LIST) == 0 && (current_state == CLIENT_STATE_LOBBY || current_state == CLIENT_STATE_WAITING))
-        {
-            LOG("Elaborazione comando LIST per client %d nello stato %d.\n", client_index, current_state);
-            process_list_command(client_index);
-        }
-        else if (strcmp(buffer, CMD_CREATE) == 0 && current_state == CLIENT_STATE_LOBBY)
-        {
-            process_create_command(client_index);
-        }
-        else if (strncmp(buffer, CMD_JOIN_REQUEST_PREFIX, strlen(CMD_JOIN_REQUEST_PREFIX)) == 0 && current_state == CLIENT_STATE_LOBBY)
-        {
-            process_join_request_command(client_index, buffer + strlen(CMD_JOIN_REQUEST_PREFIX));
-        }
-        else if (strncmp(buffer, CMD_ACCEPT_PREFIX, strlen(CMD_ACCEPT_PREFIX)) == 0 && current_state == CLIENT_STATE_WAITING)
-        {
-            process_accept_command(client_index, buffer + strlen(CMD_ACCEPT_PREFIX));
-        }
-        else if (strncmp(buffer, CMD_REJECT_PREFIX, strlen(CMD_REJECT_PREFIX)) == 0 && current_state == CLIENT_STATE_WAITING)
-        {
-            process_reject_command(client_index, buffer + strlen(CMD_REJECT_PREFIX));
-        }
-        else if (strncmp(buffer, CMD_MOVE_PREFIX, strlen(CMD_MOVE_PREFIX)) == 0 && current_state == CLIENT_STATE_PLAYING)
-        {
-            process_move_command(client_index, buffer + strlen(CMD_MOVE_PREFIX));
-        }
-        else if ((strcmp(buffer, CMD_REMATCH_YES) == 0 || strcmp(buffer, CMD_REMATCH_NO) == 0))
-        {
-            if (current_state == CLIENT_STATE_PLAYING)
+            char *end = memchr(buffer, '\n', buffered);
+            if (end == NULL)
             {
-                process_rematch_command(client_index, buffer);
-            }
-            else
-            {
-                send_unknown_command_error(client_index, buffer, current_state);
+                buffered = 0;
+                continue;
             }
+            size_t rest = buffered - (size_t)(end + 1 - buffer);
+            memmove(buffer, end + 1, rest + 1);
+            buffered = rest;
+            discarding_line = false;
         }
-        else if (strcmp(buffer, CMD_QUIT) == 0)
+
+        char *line = buffer;
+        char *newline;
+        while (client_connected && (newline = memchr(line, '\n', buffered - (size_t)(line - buffer))) != NULL)
         {
-            if (process_quit_command(client_index))
-            {
-                client_connected = false;
-            }
+            *newline = '\0';
+            line[strcspn(line, "\r")] = 0;
+            client_connected = handle_connection_line(client_index, client_fd, line, &mux_sessions);
+            line = newline + 1;
         }
-        else
+
+        size_t remaining = buffered - (size_t)(line - buffer);
+        if (remaining == BUFFER_SIZE - 1)
         {
-            if (current_state != CLIENT_STATE_CONNECTED)
-            {
-                send_unknown_command_error(client_index, buffer, current_state);
-            }
+            LOG("Comando troppo lungo dal client fd %d (indice %d), scartato fino a fine riga.\n", client_fd, client_index);
+            remaining = 0;
+            discarding_line = true;
         }
+        memmove(buffer, line, remaining);
+        buffered = remaining;
     }
 
 cleanup_connection:
@@ -176,67 +508,18 @@ cleanup_connection:
     int fd_handled_by_this_thread = client_fd;
     LOG("Pulizia connessione client avviata per fd %d (indice %d)\n", fd_handled_by_this_thread, client_index);
 
-    if (fd_handled_by_this_thread >= 0)
+    while (mux_sessions.count > 0)
     {
-        close(fd_handled_by_this_thread);
+        close_mux_session(fd_handled_by_this_thread, mux_sessions.count - 1, &mux_sessions, false);
     }
 
-    pthread_mutex_lock(&client_list_mutex);
-    pthread_mutex_lock(&game_list_mutex);
-
-    int game_id_leaving = 0;
-    char disconnecting_client_name[MAX_NAME_LEN] = {0};
-
-    if (clients[client_index].active && clients[client_index].fd == fd_handled_by_this_thread)
-    {
-        game_id_leaving = clients[client_index].game_id;
-        strncpy(disconnecting_client_name, clients[client_index].name, MAX_NAME_LEN - 1);
-        disconnecting_client_name[MAX_NAME_LEN - 1] = '\0';
-
-        clients[client_index].active = false;
-        clients[client_index].fd = -1;
-        clients[client_index].game_id = 0;
-        clients[client_index].state = CLIENT_STATE_CONNECTED;
-        clients[client_index].name[0] = '\0';
-
-        LOG("Marco l'indice client %d (nome '%s', prev_fd %d) come inattivo.\n",
-            client_index,
-            disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
-            fd_handled_by_this_thread);
-    }
-    else
-    {
-        LOG("Salto reset per indice client %d: Slot inattivo o fd non corrispondente (slot fd: %d, fd thread: %d).\n",
-            client_index, clients[client_index].fd, fd_handled_by_this_thread);
-    }
-
-    if (game_id_leaving > 0)
-    {
-        int game_idx = find_game_index_unsafe(game_id_leaving);
-        if (game_idx != -1)
-        {
-            LOG("Client '%s' (prev_fd %d) era nella partita %d (idx %d). Gestione uscita.\n",
-                disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
-                fd_handled_by_this_thread,
-                game_id_leaving, game_idx);
-
-            handle_player_leaving_game(game_idx, fd_handled_by_this_thread, disconnecting_client_name);
-        }
-        else
-        {
-            LOG("Client '%s' (prev_fd %d) disconnesso, ma ID partita associato %d non trovato.\n",
-                disconnecting_client_name[0] ? disconnecting_client_name : "N/A",
-                fd_handled_by_this_thread, game_id_leaving);
-        }
-    }
-    else if (disconnecting_client_name[0] != '\0')
+    if (fd_handled_by_this_thread >= 0)
     {
-        LOG("Client '%s' (prev_fd %d) disconnesso da stato non di gioco.\n", disconnecting_client_name, fd_handled_by_this_thread);
+        close(fd_handled_by_this_thread);
     }
 
-    pthread_mutex_unlock(&game_list_mutex);
-    pthread_mutex_unlock(&client_list_mutex);
+    release_client_slot(client_index, fd_handled_by_this_thread);
 
     LOG("Thread terminato per la connessione relativa all'indice client %d (prev_fd %d).\n", client_index, fd_handled_by_this_thread);
     return NULL;
-}
\ No newline at end of file
+}
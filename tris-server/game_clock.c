@@ -0,0 +1,419 @@
+#include "game_clock.h"
+#include "game_logic.h"
+#include "protocol.h"
+#include "rating.h"
+#include "utils.h"
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+const char *CMD_PING_PREFIX = "PING";
+const char *RESP_PONG_FMT = "PONG %s\n";
+const char *NOTIFY_CLOCK_FMT = "NOTIFY:CLOCK %d %lld %lld %c %lld\n";
+static const char *NOTIFY_CLOCK_TIMEOUT_FMT = "NOTIFY:CLOCK %d %lld %lld %c %lld %c\n";
+
+#define CLOCK_MESSAGE_LEN 96
+#define CLOCK_MESSAGES_PER_GAME 6
+
+// Ruota dei timer (hashed timing wheel): un nodo per slot partita, agganciato allo slot della ruota del tick in cui scade.
+// Un giro copre CLOCK_WHEEL_SLOTS * CLOCK_TICK_MS; una scadenza più lontana resta nel suo slot e scatta al giro giusto.
+// Come le partite che descrive è protetta da game_list_mutex: un solo thread per tutte le partite, nessun thread per partita.
+typedef struct
+{
+    int prev;
+    int next;
+    int wheel_slot;
+    int game_id;
+    long long deadline_ms;
+} ClockTimer;
+
+typedef struct
+{
+    int fd;
+    char text[CLOCK_MESSAGE_LEN];
+} ClockMessage;
+
+typedef struct
+{
+    int client_idx;
+    int game_id;
+} RematchExpiry;
+
+static ClockTimer timers[MAX_GAMES];
+static int wheel[CLOCK_WHEEL_SLOTS];
+static long long processed_tick = 0;
+static bool wheel_ready = false;
+static long long expired_turns = 0;
+static long long expired_rematches = 0;
+
+static void ensure_wheel_unsafe(void)
+{
+    if (wheel_ready)
+        return;
+    for (int s = 0; s < CLOCK_WHEEL_SLOTS; ++s)
+        wheel[s] = -1;
+    for (int i = 0; i < MAX_GAMES; ++i)
+    {
+        timers[i].prev = -1;
+        timers[i].next = -1;
+        timers[i].wheel_slot = -1;
+    }
+    processed_tick = monotonic_ms() / CLOCK_TICK_MS;
+    wheel_ready = true;
+}
+
+static void unlink_timer_unsafe(int game_idx)
+{
+    ClockTimer *timer = &timers[game_idx];
+    if (timer->wheel_slot < 0)
+        return;
+    if (timer->prev >= 0)
+        timers[timer->prev].next = timer->next;
+    else
+        wheel[timer->wheel_slot] = timer->next;
+    if (timer->next >= 0)
+        timers[timer->next].prev = timer->prev;
+    timer->prev = -1;
+    timer->next = -1;
+    timer->wheel_slot = -1;
+}
+
+// deadline_ms <= 0: nessuna scadenza. Una scadenza già passata va nel prossimo tick.
+static void schedule_unsafe(int game_idx, long long deadline_ms)
+{
+    ensure_wheel_unsafe();
+    unlink_timer_unsafe(game_idx);
+    games[game_idx].deadline_ms = deadline_ms > 0 ? deadline_ms : 0;
+    if (deadline_ms <= 0)
+        return;
+
+    long long tick = (deadline_ms + CLOCK_TICK_MS - 1) / CLOCK_TICK_MS;
+    if (tick <= processed_tick)
+        tick = processed_tick + 1;
+    int slot = (int)(tick % CLOCK_WHEEL_SLOTS);
+    ClockTimer *timer = &timers[game_idx];
+    timer->game_id = games[game_idx].id;
+    timer->deadline_ms = deadline_ms;
+    timer->wheel_slot = slot;
+    timer->prev = -1;
+    timer->next = wheel[slot];
+    if (timer->next >= 0)
+        timers[timer->next].prev = game_idx;
+    wheel[slot] = game_idx;
+}
+
+// X è sempre player1.
+static int side_of(const GameInfo *game, int fd)
+{
+    return fd == game->player1_fd ? 0 : 1;
+}
+
+static void charge_unsafe(GameInfo *game, int side, long long now)
+{
+    if (CLOCK_GAME_MS <= 0)
+        return;
+    long long left = game->clock_ms[side] - (now - game->turn_started_ms);
+    game->clock_ms[side] = left > 0 ? left : 0;
+}
+
+// Scadenza del turno in corso: il minore fra il tempo per mossa e il tempo residuo di chi deve muovere.
+static long long turn_deadline_unsafe(const GameInfo *game)
+{
+    long long limit = -1;
+    if (CLOCK_MOVE_MS > 0)
+        limit = CLOCK_MOVE_MS;
+    if (CLOCK_GAME_MS > 0)
+    {
+        long long left = game->clock_ms[side_of(game, game->current_turn_fd)];
+        if (limit < 0 || left < limit)
+            limit = left;
+    }
+    return limit < 0 ? 0 : game->turn_started_ms + limit;
+}
+
+void game_clock_start_unsafe(int game_idx)
+{
+    if (game_idx < 0 || game_idx >= MAX_GAMES)
+        return;
+    GameInfo *game = &games[game_idx];
+    game->clock_ms[0] = CLOCK_GAME_MS;
+    game->clock_ms[1] = CLOCK_GAME_MS;
+    game->turn_started_ms = monotonic_ms();
+    schedule_unsafe(game_idx, turn_deadline_unsafe(game));
+}
+
+// Mossa già applicata: il tempo del turno va a chi ha mosso, poi parte il turno successivo o, a partita finita, il tempo per la rivincita.
+void game_clock_after_move_unsafe(int game_idx, int mover_fd)
+{
+    if (game_idx < 0 || game_idx >= MAX_GAMES)
+        return;
+    GameInfo *game = &games[game_idx];
+    long long now = monotonic_ms();
+    charge_unsafe(game, side_of(game, mover_fd), now);
+    game->turn_started_ms = now;
+    if (game->state == GAME_STATE_IN_PROGRESS)
+        schedule_unsafe(game_idx, turn_deadline_unsafe(game));
+    else
+        schedule_unsafe(game_idx, now + CLOCK_REMATCH_MS);
+}
+
+// Partita finita senza mossa (uscita di un giocatore): parte il tempo per la rivincita, che libera lo slot anche se nessuno risponde.
+void game_clock_finish_unsafe(int game_idx)
+{
+    if (game_idx < 0 || game_idx >= MAX_GAMES)
+        return;
+    long long now = monotonic_ms();
+    games[game_idx].turn_started_ms = now;
+    schedule_unsafe(game_idx, now + CLOCK_REMATCH_MS);
+}
+
+void game_clock_cancel_unsafe(int game_idx)
+{
+    if (game_idx < 0 || game_idx >= MAX_GAMES || !wheel_ready)
+        return;
+    unlink_timer_unsafe(game_idx);
+    games[game_idx].deadline_ms = 0;
+}
+
+// "NOTIFY:CLOCK <seq> <ms X> <ms O> <turno> <ms mossa> [<scaduto>]": tempi residui al momento dell'invio (-1 = senza limite),
+// turno '-' a partita ferma. Il client li fa scorrere da solo fino al punto di sincronizzazione successivo.
+static void format_clock_unsafe(const GameInfo *game, long long now, char timed_out, char *out, size_t len)
+{
+    long long left[2] = {-1, -1};
+    long long move_left = -1;
+    char turn = '-';
+    if (CLOCK_GAME_MS > 0)
+    {
+        left[0] = game->clock_ms[0];
+        left[1] = game->clock_ms[1];
+    }
+    if (game->state == GAME_STATE_IN_PROGRESS && game->current_turn_fd >= 0)
+    {
+        int side = side_of(game, game->current_turn_fd);
+        long long elapsed = now - game->turn_started_ms;
+        turn = side == 0 ? 'X' : 'O';
+        if (left[side] >= 0)
+            left[side] = left[side] > elapsed ? left[side] - elapsed : 0;
+        if (game->deadline_ms > 0)
+            move_left = game->deadline_ms > now ? game->deadline_ms - now : 0;
+    }
+    if (timed_out)
+        snprintf(out, len, NOTIFY_CLOCK_TIMEOUT_FMT, game->move_seq, left[0], left[1], turn, move_left, timed_out);
+    else
+        snprintf(out, len, NOTIFY_CLOCK_FMT, game->move_seq, left[0], left[1], turn, move_left);
+}
+
+void send_clock_unsafe(const GameInfo *game, int fd)
+{
+    if (fd < 0 || (CLOCK_GAME_MS <= 0 && CLOCK_MOVE_MS <= 0))
+        return;
+    char message[CLOCK_MESSAGE_LEN];
+    format_clock_unsafe(game, monotonic_ms(), 0, message, sizeof(message));
+    send_to_client(fd, message);
+}
+
+static void add_message(ClockMessage *messages, int *count, int fd, const char *text)
+{
+    if (fd < 0)
+        return;
+    messages[*count].fd = fd;
+    strncpy(messages[*count].text, text, CLOCK_MESSAGE_LEN - 1);
+    messages[*count].text[CLOCK_MESSAGE_LEN - 1] = '\0';
+    (*count)++;
+}
+
+// Tempo scaduto per chi deve muovere: perde come per una mossa vincente dell'avversario, che riceve l'offerta di rivincita.
+static void expire_turn_unsafe(int game_idx, long long now, ClockMessage *messages, int *count)
+{
+    GameInfo *game = &games[game_idx];
+    int loser_fd = game->current_turn_fd;
+    int winner_fd = find_opponent_fd(game, loser_fd);
+    int loser_side = side_of(game, loser_fd);
+    char loser_symbol = loser_side == 0 ? 'X' : 'O';
+    char clock_message[CLOCK_MESSAGE_LEN];
+
+    charge_unsafe(game, loser_side, now);
+    game->state = GAME_STATE_FINISHED;
+    game->current_turn_fd = -1;
+    game->winner_fd = winner_fd;
+    game->premove_fd = -1;
+    expired_turns++;
+    LOG("Tempo scaduto per %c nella partita %d (slot %d): vince %s. Tempi scaduti finora: %lld.\n",
+        loser_symbol, game->id, game_idx, loser_side == 0 ? game->player2_name : game->player1_name, expired_turns);
+    rating_record_game_unsafe(loser_side == 0 ? game->player2_name : game->player1_name,
+                              loser_side == 0 ? game->player1_name : game->player2_name, 1.0);
+
+    int loser_idx = find_client_index_unsafe(loser_fd);
+    if (loser_idx != -1 && clients[loser_idx].active)
+    {
+        clients[loser_idx].state = CLIENT_STATE_LOBBY;
+        clients[loser_idx].game_id = 0;
+    }
+
+    format_clock_unsafe(game, now, loser_symbol, clock_message, sizeof(clock_message));
+    add_message(messages, count, winner_fd, clock_message);
+    add_message(messages, count, loser_fd, clock_message);
+    add_message(messages, count, winner_fd, NOTIFY_GAMEOVER_WIN);
+    add_message(messages, count, loser_fd, NOTIFY_GAMEOVER_LOSE);
+    add_message(messages, count, winner_fd, CMD_REMATCH_OFFER);
+    add_message(messages, count, loser_fd, RESP_REMATCH_DECLINED);
+
+    game->turn_started_ms = now;
+    schedule_unsafe(game_idx, now + CLOCK_REMATCH_MS);
+}
+
+// Rivincita senza risposta: chi deve ancora scegliere la rifiuta d'ufficio (fuori dai lock, con process_rematch_command);
+// se non c'è più nessuno lo slot si libera subito.
+static int expire_rematch_unsafe(int game_idx, RematchExpiry *expiries, int count)
+{
+    GameInfo *game = &games[game_idx];
+    int found = 0;
+    int fds[2] = {game->player1_fd, game->player2_fd};
+    RematchChoice choices[2] = {game->player1_accepted_rematch, game->player2_accepted_rematch};
+    for (int p = 0; p < 2; ++p)
+    {
+        int client_idx = find_client_index_unsafe(fds[p]);
+        if (client_idx != -1 && choices[p] == REMATCH_CHOICE_PENDING && clients[client_idx].game_id == game->id &&
+            clients[client_idx].state == CLIENT_STATE_PLAYING)
+        {
+            expiries[count + found].client_idx = client_idx;
+            expiries[count + found].game_id = game->id;
+            found++;
+        }
+    }
+    expired_rematches++;
+    if (found == 0)
+    {
+        LOG("Rivincita scaduta per la partita %d senza giocatori rimasti: libero lo slot %d.\n", game->id, game_idx);
+        reset_game_slot_to_empty_unsafe(game_idx);
+    }
+    else
+    {
+        LOG("Rivincita scaduta per la partita %d: %d giocatori la rifiutano d'ufficio.\n", game->id, found);
+    }
+    return found;
+}
+
+static void run_clock_tick(ClockMessage *messages, RematchExpiry *expiries)
+{
+    int due[MAX_GAMES];
+    int due_count = 0;
+    int message_count = 0;
+    int expiry_count = 0;
+
+    pthread_mutex_lock(&client_list_mutex);
+    pthread_mutex_lock(&game_list_mutex);
+    ensure_wheel_unsafe();
+
+    long long now = monotonic_ms();
+    long long current = now / CLOCK_TICK_MS;
+    long long first = processed_tick + 1;
+    // dopo una pausa lunga basta un giro: ogni slot viene visitato una volta
+    if (current - first >= CLOCK_WHEEL_SLOTS)
+        first = current - CLOCK_WHEEL_SLOTS + 1;
+    for (long long tick = first; tick <= current; ++tick)
+    {
+        int idx = wheel[tick % CLOCK_WHEEL_SLOTS];
+        while (idx >= 0)
+        {
+            int next = timers[idx].next;
+            if (timers[idx].deadline_ms <= now)
+            {
+                unlink_timer_unsafe(idx);
+                due[due_count++] = idx;
+            }
+            idx = next;
+        }
+    }
+    processed_tick = current;
+
+    for (int i = 0; i < due_count; ++i)
+    {
+        int game_idx = due[i];
+        GameInfo *game = &games[game_idx];
+        if (game->id != timers[game_idx].game_id)
+            continue;
+        game->deadline_ms = 0;
+        if (game->state == GAME_STATE_IN_PROGRESS && game->current_turn_fd >= 0)
+            expire_turn_unsafe(game_idx, now, messages, &message_count);
+        else if (game->state == GAME_STATE_FINISHED)
+            expiry_count += expire_rematch_unsafe(game_idx, expiries, expiry_count);
+    }
+
+    pthread_mutex_unlock(&game_list_mutex);
+    pthread_mutex_unlock(&client_list_mutex);
+
+    for (int m = 0; m < message_count; ++m)
+        send_to_client(messages[m].fd, messages[m].text);
+
+    for (int e = 0; e < expiry_count; ++e)
+    {
+        pthread_mutex_lock(&client_list_mutex);
+        bool still_there = clients[expiries[e].client_idx].active && clients[expiries[e].client_idx].game_id == expiries[e].game_id &&
+                           clients[expiries[e].client_idx].state == CLIENT_STATE_PLAYING;
+        pthread_mutex_unlock(&client_list_mutex);
+        if (still_there)
+            process_rematch_command(expiries[e].client_idx, CMD_REMATCH_NO);
+    }
+}
+
+static void *clock_loop(void *arg)
+{
+    (void)arg;
+    ClockMessage *messages = malloc(sizeof(ClockMessage) * MAX_GAMES * CLOCK_MESSAGES_PER_GAME);
+    RematchExpiry *expiries = malloc(sizeof(RematchExpiry) * MAX_GAMES * 2);
+    if (!messages || !expiries)
+    {
+        LOG_PERROR("Allocazione buffer orologi fallita");
+        free(messages);
+        free(expiries);
+        return NULL;
+    }
+
+    struct timespec tick = {CLOCK_TICK_MS / 1000, (CLOCK_TICK_MS % 1000) * 1000000L};
+    while (keep_running)
+    {
+        nanosleep(&tick, NULL);
+        run_clock_tick(messages, expiries);
+    }
+
+    free(messages);
+    free(expiries);
+    return NULL;
+}
+
+// PING [<token>]: risposta immediata in qualsiasi stato, il client ne ricava il tempo di andata e ritorno.
+void process_ping_command(int client_fd, const char *token)
+{
+    char safe_token[33];
+    size_t len = 0;
+    while (token && *token == ' ')
+        token++;
+    while (token && token[len] && len < sizeof(safe_token) - 1 && token[len] != ' ')
+    {
+        safe_token[len] = token[len];
+        len++;
+    }
+    safe_token[len] = '\0';
+    char response[64];
+    snprintf(response, sizeof(response), RESP_PONG_FMT, safe_token);
+    send_to_client(client_fd, response);
+}
+
+bool start_clock_thread(void)
+{
+    pthread_mutex_lock(&game_list_mutex);
+    ensure_wheel_unsafe();
+    pthread_mutex_unlock(&game_list_mutex);
+
+    pthread_t thread_id;
+    if (pthread_create(&thread_id, NULL, clock_loop, NULL) != 0)
+    {
+        LOG_PERROR("Creazione thread orologi fallita");
+        return false;
+    }
+    pthread_detach(thread_id);
+    LOG("Thread orologi avviato (partita %d ms, mossa %d ms, rivincita %d ms, ruota %d x %d ms).\n",
+        CLOCK_GAME_MS, CLOCK_MOVE_MS, CLOCK_REMATCH_MS, CLOCK_WHEEL_SLOTS, CLOCK_TICK_MS);
+    return true;
+}
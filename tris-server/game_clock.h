@@ -0,0 +1,33 @@
+#ifndef GAME_CLOCK_H
+#define GAME_CLOCK_H
+
+#include "types.h"
+#include <stdbool.h>
+#include <stddef.h>
+
+// Tempo totale per giocatore e tempo massimo per mossa (0 = senza limite), tempo per decidere la rivincita.
+#ifndef CLOCK_GAME_MS
+#define CLOCK_GAME_MS 120000
+#endif
+#ifndef CLOCK_MOVE_MS
+#define CLOCK_MOVE_MS 30000
+#endif
+#ifndef CLOCK_REMATCH_MS
+#define CLOCK_REMATCH_MS 30000
+#endif
+#define CLOCK_TICK_MS 100
+#define CLOCK_WHEEL_SLOTS 256
+
+extern const char* CMD_PING_PREFIX;
+extern const char* RESP_PONG_FMT;
+extern const char* NOTIFY_CLOCK_FMT;
+
+void game_clock_start_unsafe(int game_idx);
+void game_clock_after_move_unsafe(int game_idx, int mover_fd);
+void game_clock_finish_unsafe(int game_idx);
+void game_clock_cancel_unsafe(int game_idx);
+void send_clock_unsafe(const GameInfo* game, int fd);
+void process_ping_command(int client_fd, const char* token);
+bool start_clock_thread(void);
+
+#endif
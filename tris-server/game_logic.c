@@ -1,6 +1,8 @@
 #include "game_logic.h"
 #include "utils.h"
 #include "protocol.h"
+#include "rating.h"
+#include "game_clock.h"
 #include <string.h>
 #include <stdio.h>
 
@@ -11,6 +13,7 @@ const char *NOTIFY_GAMEOVER_LOSE = "NOTIFY:GAMEOVER LOSE\n";
 const char *NOTIFY_GAMEOVER_DRAW = "NOTIFY:GAMEOVER DRAW\n";
 const char *NOTIFY_YOUR_TURN = "NOTIFY:YOUR_TURN\n";
 const char *NOTIFY_BOARD_PREFIX = "NOTIFY:BOARD ";
+const char *NOTIFY_MOVE_FMT = "NOTIFY:MOVE %d %d %d %c\n";
 const char *RESP_ERROR_PREFIX = "ERROR:";
 
 void init_board(Cell board[3][3])
@@ -141,6 +144,7 @@ void reset_game_slot_to_empty_unsafe(int game_idx)
         LOG("Reimposto lo slot partita indice %d (ID Partita Precedente: %d) a EMPTY\n", game_idx, games[game_idx].id);
     }
 
+    game_clock_cancel_unsafe(game_idx);
     memset(&games[game_idx], 0, sizeof(GameInfo));
 
     games[game_idx].id = 0;
@@ -150,6 +154,7 @@ void reset_game_slot_to_empty_unsafe(int game_idx)
     games[game_idx].current_turn_fd = -1;
     games[game_idx].pending_joiner_fd = -1;
     games[game_idx].winner_fd = -1;
+    games[game_idx].premove_fd = -1;
 }
 
 bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char *leaving_client_name)
@@ -229,6 +234,7 @@ bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char
 
         game->state = GAME_STATE_FINISHED;
         game->current_turn_fd = -1;
+        game_clock_finish_unsafe(game_idx);
 
         game->winner_fd = opponent_fd;
 
@@ -255,14 +261,13 @@ bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char
         {
             LOG("Avversario per il giocatore %d che è uscito non trovato o già disconnesso.\n", leaving_client_fd);
         }
-        LOG("Partita %d (indice %d) impostata a FINISHED a causa dell'uscita del giocatore IN_PROGRESS.\n", game->id, game_idx);
+        rating_record_game_unsafe(was_player1 ? game->player2_name : game->player1_name,
+                                  was_player1 ? game->player1_name : game->player2_name, 1.0);
 
-        if (opponent_fd < 0)
-        {
-            LOG("Entrambi i giocatori sembrano disconnessi per la partita %d dopo che uno è uscito IN_PROGRESS. Reset dello slot.\n", game->id);
-            reset_game_slot_to_empty_unsafe(game_idx);
-            game_reset_to_empty = true;
-        }
+        // il vincitore è già in lobby con game_id 0 e non riceve offerte di rivincita: nessuno farebbe più uscire la partita da FINISHED
+        LOG("Partita %d (indice %d) senza più giocatori dopo l'uscita IN_PROGRESS. Reset dello slot.\n", game->id, game_idx);
+        reset_game_slot_to_empty_unsafe(game_idx);
+        game_reset_to_empty = true;
     }
     else if ((was_player1 || was_player2) && state_at_entry == GAME_STATE_FINISHED)
     {
@@ -286,7 +291,8 @@ bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char
                 leaving_client_name, leaving_client_fd, game->id);
             game->winner_fd = -2;
 
-            if (opponent_fd >= 0 && opponent_idx != -1 && clients[opponent_idx].active)
+            // il perdente è in lobby dalla fine della partita: nel frattempo può essersi messo in coda o essere in un'altra
+            if (opponent_fd >= 0 && opponent_idx != -1 && clients[opponent_idx].active && clients[opponent_idx].game_id == game->id)
             {
                 LOG("Notifico al perdente '%s' (fd %d) che il vincitore è uscito. Sposto in LOBBY.\n", clients[opponent_idx].name, opponent_fd);
                 send_to_client(opponent_fd, NOTIFY_WINNER_LEFT_AFTER_GAME);
@@ -295,21 +301,19 @@ bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char
             }
             else
             {
-                LOG("Perdente (fd originale %d) già disconnesso o inattivo.\n", opponent_fd);
-
-                if (opponent_fd == -2)
-                {
-                    LOG("Sia il vincitore che il perdente sono -2 per la partita %d. Reset dello slot.\n", game->id);
-                    reset_game_slot_to_empty_unsafe(game_idx);
-                    game_reset_to_empty = true;
-                }
+                LOG("Perdente (fd originale %d) già in lobby, disconnesso o inattivo.\n", opponent_fd);
             }
+            // come per il NO del vincitore: nessuno può più chiedere la rivincita
+            LOG("Partita %d senza più giocatori dopo l'uscita del vincitore. Reset dello slot.\n", game->id);
+            reset_game_slot_to_empty_unsafe(game_idx);
+            game_reset_to_empty = true;
         }
         else if (is_draw)
         {
             LOG("Giocatore '%s' (fd %d) ha lasciato la partita %d dopo un PAREGGIO.\n", leaving_client_name, leaving_client_fd, game->id);
 
-            if (opponent_fd >= 0 && opponent_idx != -1 && clients[opponent_idx].active)
+            // se l'altro ha già rifiutato è tornato in lobby e può essersi messo in coda o essere in un'altra partita
+            if (opponent_fd >= 0 && opponent_idx != -1 && clients[opponent_idx].active && clients[opponent_idx].game_id == game->id)
             {
                 LOG("Notifico all'avversario '%s' (fd %d) che l'altro giocatore è uscito dopo un pareggio. Sposto in LOBBY.\n", clients[opponent_idx].name, opponent_fd);
                 send_to_client(opponent_fd, NOTIFY_OPPONENT_LEFT);
@@ -318,15 +322,11 @@ bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char
             }
             else
             {
-                LOG("L'altro giocatore (fd originale %d) nel pareggio è già disconnesso o inattivo.\n", opponent_fd);
-
-                if (opponent_fd == -2)
-                {
-                    LOG("Entrambi i giocatori sono -2 per la partita %d dopo un pareggio. Reset dello slot.\n", game->id);
-                    reset_game_slot_to_empty_unsafe(game_idx);
-                    game_reset_to_empty = true;
-                }
+                LOG("L'altro giocatore (fd originale %d) nel pareggio è già in lobby, disconnesso o inattivo.\n", opponent_fd);
             }
+            LOG("Partita %d senza più giocatori dopo l'uscita dal pareggio. Reset dello slot.\n", game->id);
+            reset_game_slot_to_empty_unsafe(game_idx);
+            game_reset_to_empty = true;
         }
         else
         {
@@ -372,19 +372,19 @@ void broadcast_game_state(int game_idx)
         return;
     }
 
-    char board_msg[BUFFER_SIZE];
-    char board_str[20];
-
-    board_to_string(game->board, board_str, sizeof(board_str));
-    snprintf(board_msg, sizeof(board_msg), "%s%s\n", NOTIFY_BOARD_PREFIX, board_str);
-
     if (game->player1_fd >= 0)
     {
-        send_to_client(game->player1_fd, board_msg);
+        send_board_snapshot(game, game->player1_fd);
     }
     if (game->player2_fd >= 0)
     {
-        send_to_client(game->player2_fd, board_msg);
+        send_board_snapshot(game, game->player2_fd);
+    }
+
+    if (game->state == GAME_STATE_IN_PROGRESS)
+    {
+        send_clock_unsafe(game, game->player1_fd);
+        send_clock_unsafe(game, game->player2_fd);
     }
 
     if (game->state == GAME_STATE_IN_PROGRESS && game->current_turn_fd >= 0)
@@ -403,4 +403,48 @@ void broadcast_game_state(int game_idx)
             game->id, game->state, game->current_turn_fd,
             p1n, p2n);
     }
-}
\ No newline at end of file
+}
+
+// Griglia completa seguita dal numero di mosse giocate: "NOTIFY:BOARD X - O ... <seq>". Solo all'inizio della partita e su RESYNC.
+void send_board_snapshot(const GameInfo *game, int fd)
+{
+    char board_msg[BUFFER_SIZE];
+    char board_str[20];
+
+    board_to_string(game->board, board_str, sizeof(board_str));
+    snprintf(board_msg, sizeof(board_msg), "%s%s %d\n", NOTIFY_BOARD_PREFIX, board_str, game->move_seq);
+    send_to_client(fd, board_msg);
+}
+
+// Dopo una mossa si invia solo la cella cambiata: "NOTIFY:MOVE <seq> <riga> <colonna> <simbolo>", poi YOUR_TURN a chi tocca.
+void broadcast_move(int game_idx, int row, int col, Cell symbol, int seq, bool notify_turn)
+{
+    if (game_idx < 0 || game_idx >= MAX_GAMES)
+    {
+        LOG("Errore: game_idx %d non valido per broadcast_move\n", game_idx);
+        return;
+    }
+
+    GameInfo *game = &games[game_idx];
+    char move_msg[64];
+    snprintf(move_msg, sizeof(move_msg), NOTIFY_MOVE_FMT, seq, row, col, symbol == CELL_X ? 'X' : 'O');
+
+    if (game->player1_fd >= 0)
+    {
+        send_to_client(game->player1_fd, move_msg);
+    }
+    if (game->player2_fd >= 0)
+    {
+        send_to_client(game->player2_fd, move_msg);
+    }
+    // a partita finita l'orologio fermo con i tempi finali; con una premossa già giocata vale quello della mossa successiva
+    if (seq == game->move_seq)
+    {
+        send_clock_unsafe(game, game->player1_fd);
+        send_clock_unsafe(game, game->player2_fd);
+    }
+    if (notify_turn && game->state == GAME_STATE_IN_PROGRESS && game->current_turn_fd >= 0)
+    {
+        send_to_client(game->current_turn_fd, NOTIFY_YOUR_TURN);
+    }
+}
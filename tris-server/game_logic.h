@@ -10,6 +10,7 @@ extern const char* NOTIFY_GAMEOVER_LOSE;
 extern const char* NOTIFY_GAMEOVER_DRAW;
 extern const char* NOTIFY_YOUR_TURN;
 extern const char* NOTIFY_BOARD_PREFIX;
+extern const char* NOTIFY_MOVE_FMT;
 extern const char* RESP_ERROR_PREFIX;
 
 void init_board(Cell board[3][3]);
@@ -23,5 +24,7 @@ int find_opponent_fd(const GameInfo* game, int player_fd);
 void reset_game_slot_to_empty_unsafe(int game_idx);
 bool handle_player_leaving_game(int game_idx, int leaving_client_fd, const char* leaving_client_name);
 void broadcast_game_state(int game_idx);
+void send_board_snapshot(const GameInfo* game, int fd);
+void broadcast_move(int game_idx, int row, int col, Cell symbol, int seq, bool notify_turn);
 
 #endif
\ No newline at end of file
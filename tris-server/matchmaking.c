@@ -0,0 +1,284 @@
+#include "matchmaking.h"
+#include "types.h"
+#include "utils.h"
+#include "protocol.h"
+#include "game_logic.h"
+#include "game_clock.h"
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+const char *CMD_QUEUE = "QUEUE";
+const char *CMD_UNQUEUE = "UNQUEUE";
+const char *RESP_QUEUED_FMT = "RESP:QUEUED %d\n";
+const char *RESP_UNQUEUED = "RESP:UNQUEUED\n";
+const char *ERR_NOT_QUEUED = "ERROR:Non sei in coda per una partita rapida\n";
+
+typedef struct
+{
+    int client_idx;
+    int rating;
+    long long waited_ms;
+} QueueCandidate;
+
+typedef struct
+{
+    int game_idx;
+    int game_id;
+    int fd_x;
+    int fd_o;
+    char name_x[MAX_NAME_LEN];
+    char name_o[MAX_NAME_LEN];
+} PendingMatch;
+
+static int count_queued_unsafe(void)
+{
+    int queued = 0;
+    for (int i = 0; i < MAX_TOTAL_CLIENTS; ++i)
+    {
+        if (clients[i].active && clients[i].state == CLIENT_STATE_QUEUED)
+            queued++;
+    }
+    return queued;
+}
+
+void process_queue_command(int client_idx)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+    char response[BUFFER_SIZE];
+    int client_fd = -1;
+    pthread_mutex_lock(&client_list_mutex);
+    if (!clients[client_idx].active)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    client_fd = clients[client_idx].fd;
+    if (clients[client_idx].state != CLIENT_STATE_LOBBY)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        send_to_client(client_fd, ERR_NOT_IN_LOBBY);
+        return;
+    }
+    clients[client_idx].state = CLIENT_STATE_QUEUED;
+    clients[client_idx].queued_since_ms = monotonic_ms();
+    int queued = count_queued_unsafe();
+    LOG("Client %s (fd %d, rating %d) in coda per partita rapida. Giocatori in coda: %d\n",
+        clients[client_idx].name, client_fd, clients[client_idx].rating, queued);
+    pthread_mutex_unlock(&client_list_mutex);
+
+    snprintf(response, sizeof(response), RESP_QUEUED_FMT, queued);
+    send_to_client(client_fd, response);
+}
+
+void process_unqueue_command(int client_idx)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+    int client_fd = -1;
+    bool was_queued = false;
+    pthread_mutex_lock(&client_list_mutex);
+    if (!clients[client_idx].active)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    client_fd = clients[client_idx].fd;
+    if (clients[client_idx].state == CLIENT_STATE_QUEUED)
+    {
+        clients[client_idx].state = CLIENT_STATE_LOBBY;
+        clients[client_idx].queued_since_ms = 0;
+        was_queued = true;
+        LOG("Client %s (fd %d) uscito dalla coda.\n", clients[client_idx].name, client_fd);
+    }
+    pthread_mutex_unlock(&client_list_mutex);
+
+    send_to_client(client_fd, was_queued ? RESP_UNQUEUED : ERR_NOT_QUEUED);
+}
+
+// La finestra di rating accettata cresce con l'attesa, così nessuno resta in coda indefinitamente.
+int matchmaking_window(long long waited_ms)
+{
+    return MATCHMAKING_BASE_WINDOW + (int)(waited_ms / 1000) * MATCHMAKING_WIDEN_PER_SECOND;
+}
+
+static int compare_queue_candidates(const void *a, const void *b)
+{
+    const QueueCandidate *ca = (const QueueCandidate *)a;
+    const QueueCandidate *cb = (const QueueCandidate *)b;
+    if (ca->rating != cb->rating)
+        return (ca->rating > cb->rating) - (ca->rating < cb->rating);
+    return (ca->waited_ms < cb->waited_ms) - (ca->waited_ms > cb->waited_ms);
+}
+
+static int find_empty_game_slot_unsafe(int start)
+{
+    for (int i = start; i < MAX_GAMES; ++i)
+    {
+        if (games[i].state == GAME_STATE_EMPTY)
+            return i;
+    }
+    return -1;
+}
+
+static void start_matched_game_unsafe(int game_idx, int idx_x, int idx_o, PendingMatch *match)
+{
+    GameInfo *game = &games[game_idx];
+    int game_id = next_game_id++;
+    game->id = game_id;
+    game->state = GAME_STATE_IN_PROGRESS;
+    init_board(game->board);
+    game->move_seq = 0;
+    game->player1_fd = clients[idx_x].fd;
+    game->player2_fd = clients[idx_o].fd;
+    game->current_turn_fd = clients[idx_x].fd;
+    game->winner_fd = -1;
+    game->premove_fd = -1;
+    game->player1_accepted_rematch = REMATCH_CHOICE_PENDING;
+    game->player2_accepted_rematch = REMATCH_CHOICE_PENDING;
+    strncpy(game->player1_name, clients[idx_x].name, MAX_NAME_LEN - 1);
+    game->player1_name[MAX_NAME_LEN - 1] = '\0';
+    strncpy(game->player2_name, clients[idx_o].name, MAX_NAME_LEN - 1);
+    game->player2_name[MAX_NAME_LEN - 1] = '\0';
+    game->pending_joiner_fd = -1;
+    game->pending_joiner_name[0] = '\0';
+    game_clock_start_unsafe(game_idx);
+
+    clients[idx_x].state = CLIENT_STATE_PLAYING;
+    clients[idx_x].game_id = game_id;
+    clients[idx_x].queued_since_ms = 0;
+    clients[idx_o].state = CLIENT_STATE_PLAYING;
+    clients[idx_o].game_id = game_id;
+    clients[idx_o].queued_since_ms = 0;
+
+    match->game_idx = game_idx;
+    match->game_id = game_id;
+    match->fd_x = game->player1_fd;
+    match->fd_o = game->player2_fd;
+    strncpy(match->name_x, game->player1_name, MAX_NAME_LEN);
+    strncpy(match->name_o, game->player2_name, MAX_NAME_LEN);
+
+    LOG("Matchmaking: partita %d tra %s (rating %d) e %s (rating %d) nello slot %d.\n",
+        game_id, game->player1_name, clients[idx_x].rating, game->player2_name, clients[idx_o].rating, game_idx);
+}
+
+static int run_matchmaking_round(QueueCandidate *candidates, PendingMatch *matches)
+{
+    static bool games_full_logged = false;
+    long long now = monotonic_ms();
+    int count = 0;
+    int match_count = 0;
+
+    pthread_mutex_lock(&client_list_mutex);
+    pthread_mutex_lock(&game_list_mutex);
+
+    for (int i = 0; i < MAX_TOTAL_CLIENTS; ++i)
+    {
+        if (clients[i].active && clients[i].state == CLIENT_STATE_QUEUED)
+        {
+            candidates[count].client_idx = i;
+            candidates[count].rating = clients[i].rating;
+            candidates[count].waited_ms = now - clients[i].queued_since_ms;
+            count++;
+        }
+    }
+
+    if (count >= 2)
+    {
+        qsort(candidates, count, sizeof(QueueCandidate), compare_queue_candidates);
+        int slot_hint = 0;
+        int i = 0;
+        while (i + 1 < count)
+        {
+            const QueueCandidate *a = &candidates[i];
+            const QueueCandidate *b = &candidates[i + 1];
+            int window_a = matchmaking_window(a->waited_ms);
+            int window_b = matchmaking_window(b->waited_ms);
+            int window = window_a < window_b ? window_a : window_b;
+            if (abs(a->rating - b->rating) > window)
+            {
+                i++;
+                continue;
+            }
+
+            int game_idx = find_empty_game_slot_unsafe(slot_hint);
+            if (game_idx == -1)
+            {
+                if (!games_full_logged)
+                    LOG("Matchmaking: nessuno slot partita libero, %d giocatori restano in coda.\n", count - 2 * match_count);
+                games_full_logged = true;
+                break;
+            }
+            games_full_logged = false;
+            slot_hint = game_idx + 1;
+
+            bool a_waited_longer = a->waited_ms >= b->waited_ms;
+            start_matched_game_unsafe(game_idx,
+                                      a_waited_longer ? a->client_idx : b->client_idx,
+                                      a_waited_longer ? b->client_idx : a->client_idx,
+                                      &matches[match_count]);
+            match_count++;
+            i += 2;
+        }
+    }
+
+    pthread_mutex_unlock(&game_list_mutex);
+    pthread_mutex_unlock(&client_list_mutex);
+
+    if (match_count > 0)
+        LOG("Matchmaking: %d partite create, %d giocatori ancora in coda.\n", match_count, count - 2 * match_count);
+    return match_count;
+}
+
+static void *matchmaking_loop(void *arg)
+{
+    (void)arg;
+    QueueCandidate *candidates = malloc(sizeof(QueueCandidate) * MAX_TOTAL_CLIENTS);
+    PendingMatch *matches = malloc(sizeof(PendingMatch) * (MAX_TOTAL_CLIENTS / 2 + 1));
+    if (!candidates || !matches)
+    {
+        LOG_PERROR("Allocazione buffer matchmaking fallita");
+        free(candidates);
+        free(matches);
+        return NULL;
+    }
+
+    struct timespec tick = {MATCHMAKING_TICK_MS / 1000, (MATCHMAKING_TICK_MS % 1000) * 1000000L};
+    while (keep_running)
+    {
+        nanosleep(&tick, NULL);
+        int match_count = run_matchmaking_round(candidates, matches);
+        for (int m = 0; m < match_count; ++m)
+        {
+            char notify_x[BUFFER_SIZE];
+            char notify_o[BUFFER_SIZE];
+            snprintf(notify_x, sizeof(notify_x), NOTIFY_GAME_START_FMT, matches[m].game_id, 'X', matches[m].name_o);
+            snprintf(notify_o, sizeof(notify_o), NOTIFY_GAME_START_FMT, matches[m].game_id, 'O', matches[m].name_x);
+            send_to_client(matches[m].fd_o, notify_o);
+            send_to_client(matches[m].fd_x, notify_x);
+
+            pthread_mutex_lock(&game_list_mutex);
+            if (games[matches[m].game_idx].id == matches[m].game_id && games[matches[m].game_idx].state == GAME_STATE_IN_PROGRESS)
+                broadcast_game_state(matches[m].game_idx);
+            pthread_mutex_unlock(&game_list_mutex);
+        }
+    }
+
+    free(candidates);
+    free(matches);
+    return NULL;
+}
+
+bool start_matchmaking_thread(void)
+{
+    pthread_t thread_id;
+    if (pthread_create(&thread_id, NULL, matchmaking_loop, NULL) != 0)
+    {
+        LOG_PERROR("Creazione thread matchmaking fallita");
+        return false;
+    }
+    pthread_detach(thread_id);
+    LOG("Thread matchmaking avviato (tick %d ms, finestra rating %d +%d/s).\n", MATCHMAKING_TICK_MS, MATCHMAKING_BASE_WINDOW, MATCHMAKING_WIDEN_PER_SECOND);
+    return true;
+}
@@ -0,0 +1,21 @@
+#ifndef MATCHMAKING_H
+#define MATCHMAKING_H
+
+#include <stdbool.h>
+
+#define MATCHMAKING_TICK_MS 100
+#define MATCHMAKING_BASE_WINDOW 50
+#define MATCHMAKING_WIDEN_PER_SECOND 25
+
+extern const char* CMD_QUEUE;
+extern const char* CMD_UNQUEUE;
+extern const char* RESP_QUEUED_FMT;
+extern const char* RESP_UNQUEUED;
+extern const char* ERR_NOT_QUEUED;
+
+void process_queue_command(int client_idx);
+void process_unqueue_command(int client_idx);
+int matchmaking_window(long long waited_ms);
+bool start_matchmaking_thread(void);
+
+#endif
@@ -0,0 +1,124 @@
+#include "mux.h"
+#include "types.h"
+#include "utils.h"
+#include <pthread.h>
+
+const char *CMD_MUX_OPEN_PREFIX = "MUX OPEN ";
+const char *CMD_MUX_CLOSE_PREFIX = "MUX CLOSE ";
+const char *RESP_MUX_OPENED_FMT = "RESP:MUX_OPENED %d\n";
+const char *RESP_MUX_CLOSED_FMT = "RESP:MUX_CLOSED %d\n";
+const char *ERR_MUX_FORMAT = "ERROR:Formato mux non valido. Usa: MUX OPEN <sessione>, MUX CLOSE <sessione> o @<sessione> <comando>\n";
+const char *ERR_MUX_UNKNOWN_SESSION_FMT = "ERROR:Sessione mux %d non aperta\n";
+const char *ERR_MUX_DUPLICATE_SESSION_FMT = "ERROR:Sessione mux %d già aperta\n";
+const char *ERR_MUX_TOO_MANY_SESSIONS = "ERROR:Troppe sessioni mux su questa connessione\n";
+
+typedef struct
+{
+    bool active;
+    int real_fd;
+    int session_id;
+} MuxRoute;
+
+static MuxRoute routes[MAX_TOTAL_CLIENTS];
+static pthread_mutex_t mux_route_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+bool mux_is_virtual_fd(int fd)
+{
+    return fd >= MUX_FD_BASE && fd < MUX_FD_BASE + MAX_TOTAL_CLIENTS;
+}
+
+int mux_virtual_fd_for_index(int client_idx)
+{
+    return MUX_FD_BASE + client_idx;
+}
+
+void mux_register_route(int virtual_fd, int real_fd, int session_id)
+{
+    if (!mux_is_virtual_fd(virtual_fd))
+        return;
+    pthread_mutex_lock(&mux_route_mutex);
+    routes[virtual_fd - MUX_FD_BASE].active = true;
+    routes[virtual_fd - MUX_FD_BASE].real_fd = real_fd;
+    routes[virtual_fd - MUX_FD_BASE].session_id = session_id;
+    pthread_mutex_unlock(&mux_route_mutex);
+}
+
+void mux_unregister_route(int virtual_fd)
+{
+    if (!mux_is_virtual_fd(virtual_fd))
+        return;
+    pthread_mutex_lock(&mux_route_mutex);
+    routes[virtual_fd - MUX_FD_BASE].active = false;
+    routes[virtual_fd - MUX_FD_BASE].real_fd = -1;
+    pthread_mutex_unlock(&mux_route_mutex);
+}
+
+bool mux_resolve_route(int virtual_fd, int *real_fd, int *session_id)
+{
+    if (!mux_is_virtual_fd(virtual_fd))
+        return false;
+    bool found = false;
+    pthread_mutex_lock(&mux_route_mutex);
+    if (routes[virtual_fd - MUX_FD_BASE].active)
+    {
+        *real_fd = routes[virtual_fd - MUX_FD_BASE].real_fd;
+        *session_id = routes[virtual_fd - MUX_FD_BASE].session_id;
+        found = true;
+    }
+    pthread_mutex_unlock(&mux_route_mutex);
+    return found;
+}
+
+// Ogni riga del messaggio viene prefissata con "@<sessione> " e spedita sul socket reale in un'unica send.
+bool mux_send(int virtual_fd, const char *message)
+{
+    int real_fd = -1;
+    int session_id = 0;
+    if (!mux_resolve_route(virtual_fd, &real_fd, &session_id))
+    {
+        LOG("Invio a sessione mux chiusa (fd virtuale %d) ignorato.\n", virtual_fd);
+        return true;
+    }
+
+    char prefix[16];
+    int prefix_len = snprintf(prefix, sizeof(prefix), "@%d ", session_id);
+    size_t message_len = strlen(message);
+    size_t line_count = 1;
+    for (size_t i = 0; i < message_len; ++i)
+        if (message[i] == '\n')
+            line_count++;
+
+    size_t capacity = message_len + line_count * (prefix_len + 1) + 1;
+    char stack_buffer[BUFFER_SIZE * 2];
+    char *framed = capacity <= sizeof(stack_buffer) ? stack_buffer : malloc(capacity);
+    if (!framed)
+    {
+        LOG_PERROR("Allocazione buffer mux fallita");
+        return false;
+    }
+
+    size_t framed_len = 0;
+    const char *line = message;
+    while (*line)
+    {
+        const char *end = strchr(line, '\n');
+        size_t line_len = end ? (size_t)(end - line) : strlen(line);
+        if (line_len > 0)
+        {
+            memcpy(framed + framed_len, prefix, prefix_len);
+            framed_len += prefix_len;
+            memcpy(framed + framed_len, line, line_len);
+            framed_len += line_len;
+            framed[framed_len++] = '\n';
+        }
+        if (!end)
+            break;
+        line = end + 1;
+    }
+    framed[framed_len] = '\0';
+
+    bool result = framed_len == 0 ? true : send_to_client(real_fd, framed);
+    if (framed != stack_buffer)
+        free(framed);
+    return result;
+}
@@ -0,0 +1,28 @@
+#ifndef MUX_H
+#define MUX_H
+
+#include <stdbool.h>
+#include "types.h"
+
+#define MUX_FD_BASE 1000000
+#ifndef MUX_MAX_SESSIONS
+#define MUX_MAX_SESSIONS MAX_MUX_CLIENTS
+#endif
+
+extern const char* CMD_MUX_OPEN_PREFIX;
+extern const char* CMD_MUX_CLOSE_PREFIX;
+extern const char* RESP_MUX_OPENED_FMT;
+extern const char* RESP_MUX_CLOSED_FMT;
+extern const char* ERR_MUX_FORMAT;
+extern const char* ERR_MUX_UNKNOWN_SESSION_FMT;
+extern const char* ERR_MUX_DUPLICATE_SESSION_FMT;
+extern const char* ERR_MUX_TOO_MANY_SESSIONS;
+
+bool mux_is_virtual_fd(int fd);
+int mux_virtual_fd_for_index(int client_idx);
+void mux_register_route(int virtual_fd, int real_fd, int session_id);
+void mux_unregister_route(int virtual_fd);
+bool mux_resolve_route(int virtual_fd, int *real_fd, int *session_id);
+bool mux_send(int virtual_fd, const char *message);
+
+#endif
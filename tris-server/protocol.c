@@ -1,17 +1,22 @@
 #include "protocol.h"
 #include "utils.h"
 #include "game_logic.h"
+#include "game_clock.h"
+#include "rating.h"
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
 
 const char *CMD_NAME_PREFIX = "NAME ";
 const char *CMD_LIST = "LIST";
+const char *CMD_LIST_PAGE_PREFIX = "LIST ";
 const char *CMD_CREATE = "CREATE";
 const char *CMD_JOIN_REQUEST_PREFIX = "JOIN_REQUEST ";
 const char *CMD_ACCEPT_PREFIX = "ACCEPT ";
 const char *CMD_REJECT_PREFIX = "REJECT ";
 const char *CMD_MOVE_PREFIX = "MOVE ";
+const char *CMD_PREMOVE_PREFIX = "PREMOVE ";
+const char *CMD_RESYNC = "RESYNC";
 const char *CMD_QUIT = "QUIT";
 const char *CMD_REMATCH_YES = "REMATCH YES";
 const char *CMD_REMATCH_NO = "REMATCH NO";
@@ -20,6 +25,8 @@ const char *CMD_REMATCH_OFFER = "CMD:REMATCH_OFFER\n";
 const char *RESP_NAME_OK = "RESP:NAME_OK\n";
 const char *RESP_CREATED_FMT = "RESP:CREATED %d\n";
 const char *RESP_GAMES_LIST_PREFIX = "RESP:GAMES_LIST;";
+const char *RESP_GAMES_PAGE_PREFIX_FMT = "RESP:GAMES_PAGE %d;";
+const char *RESP_GAMES_END_FMT = "RESP:GAMES_END %d\n";
 const char *RESP_REQUEST_SENT_FMT = "RESP:REQUEST_SENT %d\n";
 const char *RESP_JOIN_ACCEPTED_FMT = "RESP:JOIN_ACCEPTED %d %c %s\n";
 const char *RESP_REJECT_OK_FMT = "RESP:REJECT_OK %s\n";
@@ -27,6 +34,8 @@ const char *RESP_JOIN_REJECTED_FMT = "RESP:JOIN_REJECTED %d %s\n";
 const char *RESP_QUIT_OK = "RESP:QUIT_OK Tornare alla lobby.\n";
 const char *RESP_REMATCH_ACCEPTED_FMT = "RESP:REMATCH_ACCEPTED %d In attesa di un nuovo avversario.\n";
 const char *RESP_REMATCH_DECLINED = "RESP:REMATCH_DECLINED Tornare alla lobby.\n";
+const char *RESP_PREMOVE_QUEUED_FMT = "RESP:PREMOVE_QUEUED %d %d\n";
+const char *RESP_PREMOVE_REJECTED_FMT = "RESP:PREMOVE_REJECTED %d %d\n";
 const char *NOTIFY_JOIN_REQUEST_FMT = "NOTIFY:JOIN_REQUEST %s\n";
 const char *NOTIFY_GAME_START_FMT = "NOTIFY:GAME_START %d %c %s\n";
 const char *NOTIFY_REQUEST_CANCELLED_FMT = "NOTIFY:REQUEST_CANCELLED %s se n'è andato\n";
@@ -39,14 +48,14 @@ const char *ERR_INVALID_MOVE_FORMAT = "ERROR:Formato della mossa non valido. Usa
 const char *ERR_INVALID_MOVE_BOUNDS = "ERROR:Mossa non valida (fuori dai limiti 0-2)\n";
 const char *ERR_INVALID_MOVE_OCCUPIED = "ERROR:Mossa non valida (cella occupata)\n";
 const char *ERR_NOT_YOUR_TURN = "ERROR:Non è il tuo turno\n";
-const char *ERR_GAME_NOT_FOUND = "ERROR:Partita non trovata\n";
+const char *ERR_GAME_NOT_FOUND_FMT = "ERROR:Partita non trovata %d\n";
 const char *ERR_GAME_NOT_IN_PROGRESS = "ERROR:Partita non in corso\n";
 const char *ERR_GAME_NOT_WAITING = "ERROR:La partita non è in attesa di giocatori\n";
 const char *ERR_GAME_ALREADY_STARTED = "ERROR:Partita già iniziata\n";
 const char *ERR_GAME_FINISHED = "ERROR:Partita terminata\n";
 const char *ERR_CANNOT_JOIN_OWN_GAME = "ERROR:Non puoi unirti alla tua partita\n";
 const char *ERR_ALREADY_PENDING = "ERROR:Il creatore della partita è occupato con un'altra richiesta di adesione\n";
-const char *ERR_NO_PENDING_REQUEST = "ERROR:Nessuna richiesta di adesione in sospeso trovata per questo giocatore\n";
+const char *ERR_NO_PENDING_REQUEST_FMT = "ERROR:Nessuna richiesta di adesione in sospeso trovata per questo giocatore '%s'\n";
 const char *ERR_JOINER_LEFT = "ERROR:Il giocatore che ha richiesto di unirsi non è più disponibile.\n";
 const char *ERR_CREATOR_LEFT = "ERROR:Il creatore della partita sembra disconnesso.\n";
 const char *ERR_NOT_IN_LOBBY = "ERROR:Comando disponibile solo nello stato LOBBY\n";
@@ -116,13 +125,40 @@ void process_name_command(int client_idx, const char *name_arg)
         strncpy(clients[client_idx].name, clean_name, MAX_NAME_LEN - 1);
         clients[client_idx].name[MAX_NAME_LEN - 1] = '\0';
         clients[client_idx].state = CLIENT_STATE_LOBBY;
-        LOG("Client fd %d (idx %d) ha registrato il nome: %s\n", fd, client_idx, clients[client_idx].name);
+        clients[client_idx].rating = rating_get(clean_name);
+        LOG("Client fd %d (idx %d) ha registrato il nome: %s (rating %d)\n", fd, client_idx, clients[client_idx].name, clients[client_idx].rating);
 
         pthread_mutex_unlock(&client_list_mutex);
         send_to_client(fd, RESP_NAME_OK);
     }
 }
 
+static void format_game_entry_unsafe(const GameInfo *game, char *out, size_t out_len)
+{
+    const char *state_str;
+    switch (game->state)
+    {
+    case GAME_STATE_WAITING:
+        state_str = "Waiting";
+        break;
+    case GAME_STATE_IN_PROGRESS:
+        state_str = "In Progress";
+        break;
+    case GAME_STATE_FINISHED:
+        state_str = "Finished";
+        break;
+    default:
+        state_str = "Unknown";
+        break;
+    }
+    snprintf(out, out_len, "%d,%s,%s", game->id, game->player1_name[0] ? game->player1_name : "?", state_str);
+    if ((game->state == GAME_STATE_IN_PROGRESS || game->state == GAME_STATE_FINISHED) && game->player2_name[0])
+    {
+        strncat(out, ",", out_len - strlen(out) - 1);
+        strncat(out, game->player2_name, out_len - strlen(out) - 1);
+    }
+}
+
 void process_list_command(int client_idx)
 {
     if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
@@ -148,29 +184,8 @@ void process_list_command(int client_idx)
         {
             if (!first_game)
                 strncat(response, "|", sizeof(response) - strlen(response) - 1);
-            char state_str[20];
-            switch (games[i].state)
-            {
-            case GAME_STATE_WAITING:
-                strcpy(state_str, "Waiting");
-                break;
-            case GAME_STATE_IN_PROGRESS:
-                strcpy(state_str, "In Progress");
-                break;
-            case GAME_STATE_FINISHED:
-                strcpy(state_str, "Finished");
-                break;
-            default:
-                strcpy(state_str, "Unknown");
-                break;
-            }
-            char game_info[150];
-            snprintf(game_info, sizeof(game_info), "%d,%s,%s", games[i].id, games[i].player1_name[0] ? games[i].player1_name : "?", state_str);
-            if ((games[i].state == GAME_STATE_IN_PROGRESS || games[i].state == GAME_STATE_FINISHED) && games[i].player2_name[0])
-            {
-                strncat(game_info, ",", sizeof(game_info) - strlen(game_info) - 1);
-                strncat(game_info, games[i].player2_name, sizeof(game_info) - strlen(game_info) - 1);
-            }
+            char game_info[GAME_ENTRY_LEN];
+            format_game_entry_unsafe(&games[i], game_info, sizeof(game_info));
             strncat(response, game_info, sizeof(response) - strlen(response) - 1);
             first_game = false;
         }
@@ -180,6 +195,101 @@ void process_list_command(int client_idx)
     send_to_client(client_fd, response);
 }
 
+typedef struct
+{
+    int id;
+    int idx;
+} ListCandidate;
+
+static int compare_list_candidates(const void *a, const void *b)
+{
+    const ListCandidate *ca = a;
+    const ListCandidate *cb = b;
+    return (ca->id > cb->id) - (ca->id < cb->id);
+}
+
+void process_list_page_command(int client_idx, const char *args)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS || !args)
+        return;
+    int cursor = 0;
+    int limit = LIST_PAGE_DEFAULT;
+    int client_fd = -1;
+    pthread_mutex_lock(&client_list_mutex);
+    if (!clients[client_idx].active)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    client_fd = clients[client_idx].fd;
+    pthread_mutex_unlock(&client_list_mutex);
+
+    if (sscanf(args, "%d %d", &cursor, &limit) < 1 || cursor < 0)
+    {
+        send_to_client(client_fd, "ERROR:Formato LIST non valido. Usa: LIST <cursore> <limite>\n");
+        return;
+    }
+    if (limit <= 0 || limit > LIST_PAGE_MAX)
+        limit = LIST_PAGE_MAX;
+
+    ListCandidate candidates[MAX_GAMES];
+    char page_entries[LIST_PAGE_MAX][GAME_ENTRY_LEN];
+    int page_ids[LIST_PAGE_MAX];
+    int candidate_count = 0;
+    int page_count = 0;
+
+    pthread_mutex_lock(&game_list_mutex);
+    for (int i = 0; i < MAX_GAMES; ++i)
+    {
+        if (games[i].state != GAME_STATE_EMPTY && games[i].id > cursor)
+        {
+            candidates[candidate_count].id = games[i].id;
+            candidates[candidate_count].idx = i;
+            candidate_count++;
+        }
+    }
+    qsort(candidates, candidate_count, sizeof(ListCandidate), compare_list_candidates);
+    for (int i = 0; i < candidate_count && page_count < limit; ++i)
+    {
+        format_game_entry_unsafe(&games[candidates[i].idx], page_entries[page_count], GAME_ENTRY_LEN);
+        page_ids[page_count] = candidates[i].id;
+        page_count++;
+    }
+    pthread_mutex_unlock(&game_list_mutex);
+
+    int next_cursor = (candidate_count > page_count && page_count > 0) ? page_ids[page_count - 1] : 0;
+
+    char frame[BUFFER_SIZE];
+    int frame_len = snprintf(frame, sizeof(frame), RESP_GAMES_PAGE_PREFIX_FMT, cursor);
+    bool frame_has_entries = false;
+    for (int i = 0; i < page_count; ++i)
+    {
+        size_t entry_len = strlen(page_entries[i]);
+        if (frame_has_entries && frame_len + entry_len + 2 >= sizeof(frame))
+        {
+            frame[frame_len++] = '\n';
+            frame[frame_len] = '\0';
+            if (!send_to_client(client_fd, frame))
+                return;
+            frame_len = snprintf(frame, sizeof(frame), RESP_GAMES_PAGE_PREFIX_FMT, page_ids[i - 1]);
+            frame_has_entries = false;
+        }
+        if (frame_has_entries)
+            frame[frame_len++] = '|';
+        memcpy(frame + frame_len, page_entries[i], entry_len);
+        frame_len += entry_len;
+        frame_has_entries = true;
+    }
+    frame[frame_len++] = '\n';
+    frame[frame_len] = '\0';
+    if (!send_to_client(client_fd, frame))
+        return;
+
+    char end_marker[64];
+    snprintf(end_marker, sizeof(end_marker), RESP_GAMES_END_FMT, next_cursor);
+    send_to_client(client_fd, end_marker);
+}
+
 void process_create_command(int client_idx)
 {
     if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
@@ -214,6 +324,7 @@ void process_create_command(int client_idx)
         games[game_idx].id = created_game_id;
         games[game_idx].state = GAME_STATE_WAITING;
         init_board(games[game_idx].board);
+        games[game_idx].move_seq = 0;
         games[game_idx].player1_fd = client_fd;
         games[game_idx].player2_fd = -1;
         games[game_idx].current_turn_fd = -1;
@@ -225,6 +336,7 @@ void process_create_command(int client_idx)
         games[game_idx].player2_name[0] = '\0';
         games[game_idx].pending_joiner_fd = -1;
         games[game_idx].pending_joiner_name[0] = '\0';
+        games[game_idx].premove_fd = -1;
         clients[client_idx].state = CLIENT_STATE_WAITING;
         clients[client_idx].game_id = created_game_id;
         snprintf(response, sizeof(response), RESP_CREATED_FMT, created_game_id);
@@ -270,7 +382,7 @@ void process_join_request_command(int client_idx, const char *game_id_str)
     game_idx = find_game_index_unsafe(game_id_to_join);
     if (game_idx == -1)
     {
-        snprintf(response_requester, sizeof(response_requester), "%s %d\n", ERR_GAME_NOT_FOUND, game_id_to_join);
+        snprintf(response_requester, sizeof(response_requester), ERR_GAME_NOT_FOUND_FMT, game_id_to_join);
         goto join_req_cleanup;
     }
     GameInfo *game = &games[game_idx];
@@ -358,7 +470,7 @@ void process_accept_command(int client_idx, const char *accepted_player_name)
     game_idx = find_game_index_unsafe(current_game_id);
     if (game_idx == -1)
     {
-        snprintf(response_creator, sizeof(response_creator), "%s %d\n", ERR_GAME_NOT_FOUND, current_game_id);
+        snprintf(response_creator, sizeof(response_creator), ERR_GAME_NOT_FOUND_FMT, current_game_id);
         goto accept_cleanup;
     }
     GameInfo *game = &games[game_idx];
@@ -374,12 +486,13 @@ void process_accept_command(int client_idx, const char *accepted_player_name)
     }
     if (game->pending_joiner_fd < 0 || strcmp(game->pending_joiner_name, accepted_player_name) != 0)
     {
-        snprintf(response_creator, sizeof(response_creator), "%s '%s'\n", ERR_NO_PENDING_REQUEST, accepted_player_name);
+        snprintf(response_creator, sizeof(response_creator), ERR_NO_PENDING_REQUEST_FMT, accepted_player_name);
         goto accept_cleanup;
     }
     joiner_fd = game->pending_joiner_fd;
     joiner_idx = find_client_index_unsafe(joiner_fd);
-    if (joiner_idx == -1 || !clients[joiner_idx].active)
+    // chi ha chiesto di unirsi può aver creato una partita o essere entrato in coda nel frattempo: non è più disponibile
+    if (joiner_idx == -1 || !clients[joiner_idx].active || clients[joiner_idx].state != CLIENT_STATE_LOBBY)
     {
         snprintf(response_creator, sizeof(response_creator), "%s\n", ERR_JOINER_LEFT);
         game->pending_joiner_fd = -1;
@@ -392,8 +505,10 @@ void process_accept_command(int client_idx, const char *accepted_player_name)
     game->player2_name[MAX_NAME_LEN - 1] = '\0';
     game->state = GAME_STATE_IN_PROGRESS;
     game->current_turn_fd = creator_fd;
+    game->premove_fd = -1;
     game->pending_joiner_fd = -1;
     game->pending_joiner_name[0] = '\0';
+    game_clock_start_unsafe(game_idx);
     clients[creator_idx].state = CLIENT_STATE_PLAYING;
     clients[joiner_idx].state = CLIENT_STATE_PLAYING;
     clients[joiner_idx].game_id = current_game_id;
@@ -445,7 +560,7 @@ void process_reject_command(int client_idx, const char *rejected_player_name)
     game_idx = find_game_index_unsafe(current_game_id);
     if (game_idx == -1)
     {
-        snprintf(response_creator, sizeof(response_creator), "%s %d\n", ERR_GAME_NOT_FOUND, current_game_id);
+        snprintf(response_creator, sizeof(response_creator), ERR_GAME_NOT_FOUND_FMT, current_game_id);
         goto reject_cleanup;
     }
     GameInfo *game = &games[game_idx];
@@ -461,7 +576,7 @@ void process_reject_command(int client_idx, const char *rejected_player_name)
     }
     if (game->pending_joiner_fd < 0 || strcmp(game->pending_joiner_name, rejected_player_name) != 0)
     {
-        snprintf(response_creator, sizeof(response_creator), "%s '%s'\n", ERR_NO_PENDING_REQUEST, rejected_player_name);
+        snprintf(response_creator, sizeof(response_creator), ERR_NO_PENDING_REQUEST_FMT, rejected_player_name);
         goto reject_cleanup;
     }
     joiner_fd = game->pending_joiner_fd;
@@ -485,10 +600,10 @@ reject_cleanup:
     }
 }
 
-void process_move_command(int client_idx, const char *move_args)
+bool process_move_command(int client_idx, const char *move_args)
 {
     if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS || !move_args)
-        return;
+        return false;
     int r, c;
     int player_fd = -1;
     int game_idx = -1;
@@ -502,6 +617,11 @@ void process_move_command(int client_idx, const char *move_args)
     int opponent_fd_if_game_over = -1;
     int opponent_idx_if_game_over = -1;
     char client_name[MAX_NAME_LEN] = {0};
+    Cell moved_symbol = CELL_EMPTY;
+    int moved_seq = 0;
+    int premove_idx = -1;
+    int premove_r = -1, premove_c = -1;
+    char premove_rejected[BUFFER_SIZE] = {0};
 
     if (sscanf(move_args, "%d %d", &r, &c) != 2)
     {
@@ -539,7 +659,7 @@ void process_move_command(int client_idx, const char *move_args)
     game_idx = find_game_index_unsafe(current_game_id);
     if (game_idx == -1)
     {
-        snprintf(response, sizeof(response), "%s %d\n", ERR_GAME_NOT_FOUND, current_game_id);
+        snprintf(response, sizeof(response), ERR_GAME_NOT_FOUND_FMT, current_game_id);
         clients[client_idx].state = CLIENT_STATE_LOBBY;
         clients[client_idx].game_id = 0;
         goto move_cleanup;
@@ -569,6 +689,8 @@ void process_move_command(int client_idx, const char *move_args)
 
     Cell player_symbol = (player_fd == game->player1_fd) ? CELL_X : CELL_O;
     game->board[r][c] = player_symbol;
+    moved_symbol = player_symbol;
+    moved_seq = ++game->move_seq;
     LOG("Giocatore '%s' (fd %d, %c) ha mosso in %d,%d nella partita %d.\n", client_name, player_fd, (player_symbol == CELL_X ? 'X' : 'O'), r, c, current_game_id);
     move_made = true;
     opponent_fd_if_game_over = find_opponent_fd(game, player_fd);
@@ -584,6 +706,7 @@ void process_move_command(int client_idx, const char *move_args)
         strcpy(game_over_status_self, "WIN");
         strcpy(game_over_status_opponent, "LOSE");
         LOG("Partita %d terminata. Vincitore: '%s' (fd %d).\n", current_game_id, client_name, player_fd);
+        rating_record_game_unsafe(client_name, (player_symbol == CELL_X) ? game->player2_name : game->player1_name, 1.0);
 
         if (opponent_idx_if_game_over != -1 && clients[opponent_idx_if_game_over].active)
         {
@@ -603,11 +726,29 @@ void process_move_command(int client_idx, const char *move_args)
         strcpy(game_over_status_self, "DRAW");
         strcpy(game_over_status_opponent, "DRAW");
         LOG("Partita %d terminata. Risultato: PAREGGIO.\n", current_game_id);
+        rating_record_game_unsafe(game->player1_name, game->player2_name, 0.5);
     }
     else
     {
         game->current_turn_fd = opponent_fd_if_game_over;
+        // Premossa dell'avversario: si gioca subito se la cella è ancora libera, altrimenti viene scartata.
+        if (game->premove_fd >= 0 && game->premove_fd == opponent_fd_if_game_over)
+        {
+            premove_r = game->premove_row;
+            premove_c = game->premove_col;
+            game->premove_fd = -1;
+            if (game->board[premove_r][premove_c] == CELL_EMPTY && opponent_idx_if_game_over != -1)
+            {
+                premove_idx = opponent_idx_if_game_over;
+            }
+            else
+            {
+                LOG("Premossa di fd %d in %d,%d scartata nella partita %d (cella occupata).\n", opponent_fd_if_game_over, premove_r, premove_c, current_game_id);
+                snprintf(premove_rejected, sizeof(premove_rejected), RESP_PREMOVE_REJECTED_FMT, premove_r, premove_c);
+            }
+        }
     }
+    game_clock_after_move_unsafe(game_idx, player_fd);
 
 move_cleanup:
     pthread_mutex_unlock(&game_list_mutex);
@@ -615,13 +756,33 @@ move_cleanup:
 
     if (move_made)
     {
+        if (premove_rejected[0] != '\0')
+            send_to_client(opponent_fd_if_game_over, premove_rejected);
+
+        // Con una premossa pronta il giocatore che la aspetta non riceve YOUR_TURN: la sua mossa segue subito.
         pthread_mutex_lock(&game_list_mutex);
         if (find_game_index_unsafe(current_game_id) == game_idx)
         {
-            broadcast_game_state(game_idx);
+            broadcast_move(game_idx, r, c, moved_symbol, moved_seq, premove_idx < 0);
         }
         pthread_mutex_unlock(&game_list_mutex);
 
+        if (premove_idx >= 0)
+        {
+            char premove_args[32];
+            snprintf(premove_args, sizeof(premove_args), "%d %d", premove_r, premove_c);
+            LOG("Applico la premossa in %d,%d per la partita %d.\n", premove_r, premove_c, current_game_id);
+            if (process_move_command(premove_idx, premove_args))
+                return true;
+            pthread_mutex_lock(&game_list_mutex);
+            if (find_game_index_unsafe(current_game_id) == game_idx && games[game_idx].state == GAME_STATE_IN_PROGRESS &&
+                games[game_idx].current_turn_fd == opponent_fd_if_game_over)
+            {
+                send_to_client(opponent_fd_if_game_over, NOTIFY_YOUR_TURN);
+            }
+            pthread_mutex_unlock(&game_list_mutex);
+        }
+
         if (game_over)
         {
             char notify_self[BUFFER_SIZE], notify_opponent[BUFFER_SIZE];
@@ -660,6 +821,114 @@ move_cleanup:
             send_to_client(player_fd, response);
         }
     }
+    return move_made;
+}
+
+// RESYNC: il client ha visto un buco nei numeri di sequenza di NOTIFY:MOVE e chiede la griglia completa.
+void process_resync_command(int client_idx)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+
+    pthread_mutex_lock(&client_list_mutex);
+    pthread_mutex_lock(&game_list_mutex);
+
+    if (clients[client_idx].active)
+    {
+        int fd = clients[client_idx].fd;
+        int game_idx = clients[client_idx].game_id > 0 ? find_game_index_unsafe(clients[client_idx].game_id) : -1;
+        if (game_idx == -1 || games[game_idx].state == GAME_STATE_EMPTY || games[game_idx].state == GAME_STATE_WAITING)
+        {
+            char response[BUFFER_SIZE];
+            snprintf(response, sizeof(response), "%s\n", ERR_NOT_PLAYING);
+            send_to_client(fd, response);
+        }
+        else
+        {
+            GameInfo *game = &games[game_idx];
+            LOG("RESYNC da '%s' (fd %d) per la partita %d alla mossa %d.\n", clients[client_idx].name, fd, game->id, game->move_seq);
+            send_board_snapshot(game, fd);
+            if (game->state == GAME_STATE_IN_PROGRESS)
+                send_clock_unsafe(game, fd);
+            if (game->state == GAME_STATE_IN_PROGRESS && game->current_turn_fd == fd)
+                send_to_client(fd, NOTIFY_YOUR_TURN);
+        }
+    }
+
+    pthread_mutex_unlock(&game_list_mutex);
+    pthread_mutex_unlock(&client_list_mutex);
+}
+
+// PREMOVE <riga> <colonna>: mossa condizionata inviata durante il turno dell'avversario. Resta in attesa nella partita
+// (una sola per giocatore, l'ultima sostituisce la precedente) e viene giocata appena l'avversario ha mosso, se la cella è ancora libera.
+void process_premove_command(int client_idx, const char *move_args)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS || !move_args)
+        return;
+    int r, c;
+    int player_fd = -1;
+    bool play_now = false;
+    char response[BUFFER_SIZE] = {0};
+
+    pthread_mutex_lock(&client_list_mutex);
+    pthread_mutex_lock(&game_list_mutex);
+
+    if (!clients[client_idx].active)
+    {
+        goto premove_cleanup;
+    }
+    player_fd = clients[client_idx].fd;
+    if (sscanf(move_args, "%d %d", &r, &c) != 2)
+    {
+        snprintf(response, sizeof(response), "%s\n", ERR_INVALID_MOVE_FORMAT);
+        goto premove_cleanup;
+    }
+    if (r < 0 || r > 2 || c < 0 || c > 2)
+    {
+        snprintf(response, sizeof(response), "%s\n", ERR_INVALID_MOVE_BOUNDS);
+        goto premove_cleanup;
+    }
+
+    // Partita già finita (o mai iniziata): la premossa non ha più senso, ma non è un errore del client.
+    int game_idx = -1;
+    if (clients[client_idx].state == CLIENT_STATE_PLAYING && clients[client_idx].game_id > 0)
+        game_idx = find_game_index_unsafe(clients[client_idx].game_id);
+    if (game_idx == -1 || games[game_idx].state != GAME_STATE_IN_PROGRESS || games[game_idx].board[r][c] != CELL_EMPTY)
+    {
+        snprintf(response, sizeof(response), RESP_PREMOVE_REJECTED_FMT, r, c);
+        goto premove_cleanup;
+    }
+
+    GameInfo *game = &games[game_idx];
+    if (game->current_turn_fd == player_fd)
+    {
+        // YOUR_TURN e PREMOVE si sono incrociati: è una mossa normale
+        play_now = true;
+    }
+    else
+    {
+        game->premove_fd = player_fd;
+        game->premove_row = r;
+        game->premove_col = c;
+        LOG("Premossa di '%s' (fd %d) in %d,%d accodata nella partita %d.\n", clients[client_idx].name, player_fd, r, c, game->id);
+        snprintf(response, sizeof(response), RESP_PREMOVE_QUEUED_FMT, r, c);
+    }
+
+premove_cleanup:
+    pthread_mutex_unlock(&game_list_mutex);
+    pthread_mutex_unlock(&client_list_mutex);
+
+    if (play_now)
+    {
+        char args[32];
+        snprintf(args, sizeof(args), "%d %d", r, c);
+        process_move_command(client_idx, args);
+        return;
+    }
+    if (player_fd >= 0 && response[0] != '\0')
+    {
+        send_to_client(player_fd, response);
+    }
 }
 
 void process_rematch_command(int client_idx, const char *choice)
@@ -682,6 +951,7 @@ void process_rematch_command(int client_idx, const char *choice)
     bool send_direct_response_to_caller = false;
     bool send_fail_response_to_caller_due_to_opponent_no = false;
     bool restart_draw_game = false;
+    bool release_game_slot = false;
     int player_to_start_draw_rematch = -1;
 
     pthread_mutex_lock(&client_list_mutex);
@@ -703,7 +973,7 @@ void process_rematch_command(int client_idx, const char *choice)
     game_idx = find_game_index_unsafe(current_game_id);
     if (game_idx == -1)
     {
-        snprintf(error_response, sizeof(error_response), "%s %d\n", ERR_GAME_NOT_FOUND, current_game_id);
+        snprintf(error_response, sizeof(error_response), ERR_GAME_NOT_FOUND_FMT, current_game_id);
         goto rematch_cleanup;
     }
     GameInfo *game = &games[game_idx];
@@ -756,6 +1026,8 @@ void process_rematch_command(int client_idx, const char *choice)
                 LOG("Rematch PAREGGIO ACCETTATO da entrambi nella partita %d! Riavvio partita.\n", game->id);
                 game->state = GAME_STATE_IN_PROGRESS;
                 init_board(game->board);
+                game->move_seq = 0;
+                game->premove_fd = -1;
 
                 game->current_turn_fd = game->player1_fd >= 0 ? game->player1_fd : game->player2_fd;
                 if (game->current_turn_fd < 0)
@@ -780,6 +1052,7 @@ void process_rematch_command(int client_idx, const char *choice)
                     game->winner_fd = -1;
                     game->player1_accepted_rematch = REMATCH_CHOICE_PENDING;
                     game->player2_accepted_rematch = REMATCH_CHOICE_PENDING;
+                    game_clock_start_unsafe(game_idx);
 
                     if (p1_idx != -1 && clients[p1_idx].active)
                         clients[p1_idx].state = CLIENT_STATE_PLAYING;
@@ -797,6 +1070,7 @@ void process_rematch_command(int client_idx, const char *choice)
                 clients[client_idx].game_id = 0;
                 snprintf(response_caller, sizeof(response_caller), "%s", RESP_REMATCH_DECLINED);
                 send_fail_response_to_caller_due_to_opponent_no = true;
+                release_game_slot = true;
             }
             else
             {
@@ -814,15 +1088,21 @@ void process_rematch_command(int client_idx, const char *choice)
             game->player2_fd = -1;
             game->player2_name[0] = '\0';
             init_board(game->board);
+            game->move_seq = 0;
             game->current_turn_fd = -1;
             game->winner_fd = -1;
             game->player1_accepted_rematch = REMATCH_CHOICE_PENDING;
             game->player2_accepted_rematch = REMATCH_CHOICE_PENDING;
+            game_clock_cancel_unsafe(game_idx);
             clients[client_idx].state = CLIENT_STATE_WAITING;
             if (opponent_idx != -1 && clients[opponent_idx].active && clients[opponent_idx].fd == opponent_fd)
             {
-                clients[opponent_idx].state = CLIENT_STATE_LOBBY;
-                clients[opponent_idx].game_id = 0;
+                // il perdente è in lobby dalla fine della partita: nel frattempo può essersi messo in coda o essere in un'altra
+                if (clients[opponent_idx].game_id == game->id)
+                {
+                    clients[opponent_idx].state = CLIENT_STATE_LOBBY;
+                    clients[opponent_idx].game_id = 0;
+                }
                 snprintf(notify_opponent_on_fail, sizeof(notify_opponent_on_fail), "%s", NOTIFY_OPPONENT_ACCEPTED_REMATCH);
                 LOG("Sposto perdente '%s' (fd %d) in LOBBY poiché il vincitore ha accettato rematch per partita %d.\n", clients[opponent_idx].name, opponent_fd, game->id);
             }
@@ -863,11 +1143,16 @@ void process_rematch_command(int client_idx, const char *choice)
             else
             {
                 LOG("Partita %d: %s ha detto NO (pareggio). L'avversario aveva già scelto (%d). Notifico l'avversario.\n", game->id, caller_name, opponent_choice);
+                release_game_slot = true;
                 if (opponent_idx != -1 && clients[opponent_idx].active && clients[opponent_idx].fd == opponent_fd)
                 {
 
-                    clients[opponent_idx].state = CLIENT_STATE_LOBBY;
-                    clients[opponent_idx].game_id = 0;
+                    // se aveva già rifiutato è tornato in lobby e può essersi messo in coda o essere in un'altra partita
+                    if (clients[opponent_idx].game_id == game->id)
+                    {
+                        clients[opponent_idx].state = CLIENT_STATE_LOBBY;
+                        clients[opponent_idx].game_id = 0;
+                    }
                     snprintf(notify_opponent_on_fail, sizeof(notify_opponent_on_fail), "%s", NOTIFY_OPPONENT_DECLINED);
                     LOG("Sposto avversario '%s' (fd %d) in LOBBY (rematch-pareggio NO finale da %s).\n", clients[opponent_idx].name, opponent_fd, caller_name);
                 }
@@ -876,10 +1161,15 @@ void process_rematch_command(int client_idx, const char *choice)
         else
         {
             LOG("Gestione VINCITORE NO da %s per partita %d\n", caller_name, game->id);
+            release_game_slot = true;
             if (opponent_idx != -1 && clients[opponent_idx].active && clients[opponent_idx].fd == opponent_fd)
             {
-                clients[opponent_idx].state = CLIENT_STATE_LOBBY;
-                clients[opponent_idx].game_id = 0;
+                // come per il SÌ del vincitore: il perdente non è più in questa partita
+                if (clients[opponent_idx].game_id == game->id)
+                {
+                    clients[opponent_idx].state = CLIENT_STATE_LOBBY;
+                    clients[opponent_idx].game_id = 0;
+                }
                 snprintf(notify_opponent_on_fail, sizeof(notify_opponent_on_fail), "%s", NOTIFY_OPPONENT_DECLINED);
                 LOG("Notifico al perdente '%s' (fd %d) che il vincitore ha rifiutato rematch per partita %d.\n", clients[opponent_idx].name, opponent_fd, game->id);
             }
@@ -895,6 +1185,12 @@ void process_rematch_command(int client_idx, const char *choice)
     }
 
 rematch_cleanup:
+    // Rivincita rifiutata da entrambi: nessuno è più nella partita e lo slot torna libero per CREATE e QUEUE.
+    if (release_game_slot && game_idx != -1)
+    {
+        LOG("Partita %d senza più giocatori dopo il rifiuto della rivincita: libero lo slot.\n", current_game_id);
+        reset_game_slot_to_empty_unsafe(game_idx);
+    }
     pthread_mutex_unlock(&game_list_mutex);
     pthread_mutex_unlock(&client_list_mutex);
 
@@ -996,6 +1292,13 @@ bool process_quit_command(int client_idx)
         send_to_client(client_fd, RESP_QUIT_OK);
         request_disconnect = false;
     }
+    else if (current_state == CLIENT_STATE_LOBBY)
+    {
+        // QUIT incrociato con la fine della partita (sconfitta, REMATCH NO, tempo scaduto): il client è già in lobby
+        LOG("Client %s ha inviato QUIT dalla lobby: partita già chiusa, resta connesso.\n", client_name);
+        send_to_client(client_fd, RESP_QUIT_OK);
+        request_disconnect = false;
+    }
     else
     {
         LOG("Client %s ha inviato QUIT dallo stato %d. Interpreto come disconnessione.\n", client_name, current_state);
@@ -0,0 +1,402 @@
+#include "rating.h"
+#include "types.h"
+#include "utils.h"
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define RATING_HASH_BUCKETS 4096
+#define LEADERBOARD_ENTRY_LEN (MAX_NAME_LEN + 48)
+
+const char *CMD_LEADERBOARD = "LEADERBOARD";
+const char *CMD_LEADERBOARD_PREFIX = "LEADERBOARD ";
+const char *CMD_RANK = "RANK";
+const char *RESP_LEADERBOARD_PREFIX_FMT = "RESP:LEADERBOARD %d %d;";
+const char *RESP_LEADERBOARD_END_FMT = "RESP:LEADERBOARD_END %d\n";
+const char *RESP_RANK_FMT = "RESP:RANK %d %d %d\n";
+const char *NOTIFY_RATING_UPDATE_FMT = "NOTIFY:RATING_UPDATE %s %d %d %d %d %d\n";
+
+// Treap ordinato per (rating decrescente, nome crescente) con dimensione dei sottoalberi:
+// posizione in classifica e k-esimo giocatore costano O(log n) senza riordinare nulla.
+typedef struct RatingNode
+{
+    char name[MAX_NAME_LEN];
+    int rating;
+    int games_played;
+    unsigned int priority;
+    int size;
+    struct RatingNode *left;
+    struct RatingNode *right;
+    struct RatingNode *next_in_bucket;
+} RatingNode;
+
+typedef struct
+{
+    char name[MAX_NAME_LEN];
+    int rating;
+    int delta;
+    int rank;
+    int games_played;
+} RatingChange;
+
+static RatingNode *buckets[RATING_HASH_BUCKETS];
+static RatingNode *root = NULL;
+static unsigned int priority_state = 2463534242u;
+static pthread_mutex_t rating_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static unsigned int next_priority(void)
+{
+    priority_state ^= priority_state << 13;
+    priority_state ^= priority_state >> 17;
+    priority_state ^= priority_state << 5;
+    return priority_state;
+}
+
+static unsigned int hash_name(const char *name)
+{
+    unsigned int hash = 5381;
+    for (const unsigned char *p = (const unsigned char *)name; *p; ++p)
+        hash = hash * 33 + *p;
+    return hash % RATING_HASH_BUCKETS;
+}
+
+static int node_size(const RatingNode *node)
+{
+    return node ? node->size : 0;
+}
+
+static void update_size(RatingNode *node)
+{
+    node->size = 1 + node_size(node->left) + node_size(node->right);
+}
+
+static int compare_to_key(const RatingNode *node, int rating, const char *name)
+{
+    if (node->rating != rating)
+        return node->rating > rating ? -1 : 1;
+    return strcmp(node->name, name);
+}
+
+static void split(RatingNode *tree, int rating, const char *name, RatingNode **left, RatingNode **right)
+{
+    if (!tree)
+    {
+        *left = NULL;
+        *right = NULL;
+        return;
+    }
+    if (compare_to_key(tree, rating, name) < 0)
+    {
+        split(tree->right, rating, name, &tree->right, right);
+        *left = tree;
+    }
+    else
+    {
+        split(tree->left, rating, name, left, &tree->left);
+        *right = tree;
+    }
+    update_size(tree);
+}
+
+static RatingNode *merge(RatingNode *left, RatingNode *right)
+{
+    if (!left)
+        return right;
+    if (!right)
+        return left;
+    if (left->priority > right->priority)
+    {
+        left->right = merge(left->right, right);
+        update_size(left);
+        return left;
+    }
+    right->left = merge(left, right->left);
+    update_size(right);
+    return right;
+}
+
+static void tree_insert(RatingNode *node)
+{
+    RatingNode *left, *right;
+    node->left = NULL;
+    node->right = NULL;
+    node->size = 1;
+    split(root, node->rating, node->name, &left, &right);
+    root = merge(merge(left, node), right);
+}
+
+static RatingNode *tree_remove(RatingNode *tree, RatingNode *node)
+{
+    if (!tree)
+        return NULL;
+    if (tree == node)
+        return merge(tree->left, tree->right);
+    if (compare_to_key(tree, node->rating, node->name) < 0)
+        tree->right = tree_remove(tree->right, node);
+    else
+        tree->left = tree_remove(tree->left, node);
+    update_size(tree);
+    return tree;
+}
+
+static int rank_of_unsafe(const RatingNode *node)
+{
+    int before = 0;
+    const RatingNode *current = root;
+    while (current)
+    {
+        int cmp = compare_to_key(current, node->rating, node->name);
+        if (cmp < 0)
+        {
+            before += node_size(current->left) + 1;
+            current = current->right;
+        }
+        else if (cmp > 0)
+        {
+            current = current->left;
+        }
+        else
+        {
+            before += node_size(current->left);
+            break;
+        }
+    }
+    return before + 1;
+}
+
+static const RatingNode *select_unsafe(int position)
+{
+    const RatingNode *current = root;
+    while (current)
+    {
+        int left_size = node_size(current->left);
+        if (position < left_size)
+            current = current->left;
+        else if (position == left_size)
+            return current;
+        else
+        {
+            position -= left_size + 1;
+            current = current->right;
+        }
+    }
+    return NULL;
+}
+
+static RatingNode *find_unsafe(const char *name)
+{
+    for (RatingNode *node = buckets[hash_name(name)]; node; node = node->next_in_bucket)
+    {
+        if (strcmp(node->name, name) == 0)
+            return node;
+    }
+    return NULL;
+}
+
+static RatingNode *find_or_create_unsafe(const char *name)
+{
+    RatingNode *node = find_unsafe(name);
+    if (node)
+        return node;
+    node = calloc(1, sizeof(RatingNode));
+    if (!node)
+    {
+        LOG("Errore allocazione record rating per '%s'.\n", name);
+        return NULL;
+    }
+    strncpy(node->name, name, MAX_NAME_LEN - 1);
+    node->rating = DEFAULT_RATING;
+    node->priority = next_priority();
+    unsigned int bucket = hash_name(name);
+    node->next_in_bucket = buckets[bucket];
+    buckets[bucket] = node;
+    tree_insert(node);
+    return node;
+}
+
+int rating_get(const char *name)
+{
+    pthread_mutex_lock(&rating_mutex);
+    RatingNode *node = find_unsafe(name);
+    int rating = node ? node->rating : DEFAULT_RATING;
+    pthread_mutex_unlock(&rating_mutex);
+    return rating;
+}
+
+static void apply_rating_unsafe(RatingNode *node, int new_rating)
+{
+    root = tree_remove(root, node);
+    node->rating = new_rating;
+    node->games_played++;
+    tree_insert(node);
+}
+
+// Chiamare con client_list_mutex acquisito; rating_mutex è sempre l'ultimo lock preso.
+void rating_record_game_unsafe(const char *name_a, const char *name_b, double score_a)
+{
+    if (!name_a || !name_b || name_a[0] == '\0' || name_b[0] == '\0' || strcmp(name_a, name_b) == 0)
+        return;
+
+    RatingChange changes[2];
+    int total;
+
+    pthread_mutex_lock(&rating_mutex);
+    RatingNode *a = find_or_create_unsafe(name_a);
+    RatingNode *b = find_or_create_unsafe(name_b);
+    if (!a || !b)
+    {
+        pthread_mutex_unlock(&rating_mutex);
+        return;
+    }
+    double expected_a = 1.0 / (1.0 + pow(10.0, (b->rating - a->rating) / 400.0));
+    int delta = (int)lround(RATING_K_FACTOR * (score_a - expected_a));
+    apply_rating_unsafe(a, a->rating + delta);
+    apply_rating_unsafe(b, b->rating - delta);
+
+    RatingNode *updated[2] = {a, b};
+    for (int i = 0; i < 2; ++i)
+    {
+        strncpy(changes[i].name, updated[i]->name, MAX_NAME_LEN);
+        changes[i].rating = updated[i]->rating;
+        changes[i].delta = (i == 0) ? delta : -delta;
+        changes[i].rank = rank_of_unsafe(updated[i]);
+        changes[i].games_played = updated[i]->games_played;
+    }
+    total = node_size(root);
+    pthread_mutex_unlock(&rating_mutex);
+
+    LOG("Rating aggiornati: %s %d (%+d, #%d), %s %d (%+d, #%d). Giocatori in classifica: %d\n",
+        changes[0].name, changes[0].rating, changes[0].delta, changes[0].rank,
+        changes[1].name, changes[1].rating, changes[1].delta, changes[1].rank, total);
+
+    char notify[2][BUFFER_SIZE];
+    for (int i = 0; i < 2; ++i)
+    {
+        snprintf(notify[i], sizeof(notify[i]), NOTIFY_RATING_UPDATE_FMT,
+                 changes[i].name, changes[i].rating, changes[i].delta, changes[i].rank, total, changes[i].games_played);
+    }
+
+    for (int i = 0; i < MAX_TOTAL_CLIENTS; ++i)
+    {
+        if (!clients[i].active)
+            continue;
+        for (int c = 0; c < 2; ++c)
+        {
+            if (strcmp(clients[i].name, changes[c].name) == 0)
+                clients[i].rating = changes[c].rating;
+        }
+        if (clients[i].leaderboard_subscribed &&
+            (clients[i].state == CLIENT_STATE_LOBBY || clients[i].state == CLIENT_STATE_QUEUED))
+        {
+            send_to_client(clients[i].fd, notify[0]);
+            send_to_client(clients[i].fd, notify[1]);
+        }
+    }
+}
+
+void process_leaderboard_command(int client_idx, const char *args)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+    int offset = 0;
+    int limit = LEADERBOARD_PAGE_MAX;
+    int client_fd = -1;
+
+    if (args && sscanf(args, "%d %d", &offset, &limit) < 1)
+    {
+        offset = 0;
+        limit = LEADERBOARD_PAGE_MAX;
+    }
+    if (offset < 0)
+        offset = 0;
+    if (limit <= 0 || limit > LEADERBOARD_PAGE_MAX)
+        limit = LEADERBOARD_PAGE_MAX;
+
+    pthread_mutex_lock(&client_list_mutex);
+    if (!clients[client_idx].active)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    client_fd = clients[client_idx].fd;
+    clients[client_idx].leaderboard_subscribed = true;
+    pthread_mutex_unlock(&client_list_mutex);
+
+    char page_entries[LEADERBOARD_PAGE_MAX][LEADERBOARD_ENTRY_LEN];
+    int page_count = 0;
+
+    pthread_mutex_lock(&rating_mutex);
+    int total = node_size(root);
+    for (int i = 0; i < limit && offset + i < total; ++i)
+    {
+        const RatingNode *node = select_unsafe(offset + i);
+        if (!node)
+            break;
+        snprintf(page_entries[page_count], LEADERBOARD_ENTRY_LEN, "%d,%s,%d,%d",
+                 offset + i + 1, node->name, node->rating, node->games_played);
+        page_count++;
+    }
+    pthread_mutex_unlock(&rating_mutex);
+
+    // Come GAMES_PAGE: frame entro BUFFER_SIZE, ognuno con la posizione della sua prima voce, poi LEADERBOARD_END.
+    char frame[BUFFER_SIZE];
+    int frame_len = snprintf(frame, sizeof(frame), RESP_LEADERBOARD_PREFIX_FMT, offset, total);
+    bool frame_has_entries = false;
+    for (int i = 0; i < page_count; ++i)
+    {
+        size_t entry_len = strlen(page_entries[i]);
+        if (frame_has_entries && frame_len + entry_len + 2 >= sizeof(frame))
+        {
+            frame[frame_len++] = '\n';
+            frame[frame_len] = '\0';
+            if (!send_to_client(client_fd, frame))
+                return;
+            frame_len = snprintf(frame, sizeof(frame), RESP_LEADERBOARD_PREFIX_FMT, offset + i, total);
+            frame_has_entries = false;
+        }
+        if (frame_has_entries)
+            frame[frame_len++] = '|';
+        memcpy(frame + frame_len, page_entries[i], entry_len);
+        frame_len += entry_len;
+        frame_has_entries = true;
+    }
+    frame[frame_len++] = '\n';
+    frame[frame_len] = '\0';
+    if (!send_to_client(client_fd, frame))
+        return;
+
+    char end_marker[64];
+    snprintf(end_marker, sizeof(end_marker), RESP_LEADERBOARD_END_FMT, offset + page_count < total ? offset + page_count : 0);
+    send_to_client(client_fd, end_marker);
+}
+
+void process_rank_command(int client_idx)
+{
+    if (client_idx < 0 || client_idx >= MAX_TOTAL_CLIENTS)
+        return;
+    char name[MAX_NAME_LEN];
+    char response[BUFFER_SIZE];
+    int client_fd = -1;
+
+    pthread_mutex_lock(&client_list_mutex);
+    if (!clients[client_idx].active)
+    {
+        pthread_mutex_unlock(&client_list_mutex);
+        return;
+    }
+    client_fd = clients[client_idx].fd;
+    strncpy(name, clients[client_idx].name, MAX_NAME_LEN - 1);
+    name[MAX_NAME_LEN - 1] = '\0';
+    pthread_mutex_unlock(&client_list_mutex);
+
+    pthread_mutex_lock(&rating_mutex);
+    RatingNode *node = find_unsafe(name);
+    int rank = node ? rank_of_unsafe(node) : 0;
+    int rating = node ? node->rating : DEFAULT_RATING;
+    int total = node_size(root);
+    pthread_mutex_unlock(&rating_mutex);
+
+    snprintf(response, sizeof(response), RESP_RANK_FMT, rank, rating, total);
+    send_to_client(client_fd, response);
+}
@@ -0,0 +1,20 @@
+#ifndef RATING_H
+#define RATING_H
+
+#define RATING_K_FACTOR 32
+#define LEADERBOARD_PAGE_MAX 50
+
+extern const char* CMD_LEADERBOARD;
+extern const char* CMD_LEADERBOARD_PREFIX;
+extern const char* CMD_RANK;
+extern const char* RESP_LEADERBOARD_PREFIX_FMT;
+extern const char* RESP_LEADERBOARD_END_FMT;
+extern const char* RESP_RANK_FMT;
+extern const char* NOTIFY_RATING_UPDATE_FMT;
+
+int rating_get(const char *name);
+void rating_record_game_unsafe(const char *name_a, const char *name_b, double score_a);
+void process_leaderboard_command(int client_idx, const char *args);
+void process_rank_command(int client_idx);
+
+#endif
@@ -3,6 +3,9 @@
 #include "client_handler.h"
 #include "protocol.h"
 #include "game_logic.h"
+#include "mux.h"
+#include "matchmaking.h"
+#include "game_clock.h"
 
 #include <stdio.h>
 #include <stdlib.h>
@@ -43,7 +46,8 @@ void cleanup_server()
 
             send_to_client(clients[i].fd, "NOTIFY:SERVER_SHUTDOWN\n");
 
-            close(clients[i].fd);
+            if (!mux_is_virtual_fd(clients[i].fd))
+                close(clients[i].fd);
             clients[i].fd = -1;
         }
     }
@@ -56,11 +60,25 @@ void cleanup_server()
     LOG("Pulizia server completata.\n");
 }
 
-int main()
+int main(int argc, char *argv[])
 {
     struct sockaddr_in address;
     int opt = 1;
     int addrlen = sizeof(address);
+    int port = PORT;
+
+    // porta opzionale da riga di comando, per avviare più istanze (shard) sulla stessa macchina
+    if (argc > 1)
+    {
+        char *end = NULL;
+        long requested = strtol(argv[1], &end, 10);
+        if (end == argv[1] || *end != '\0' || requested <= 0 || requested > 65535)
+        {
+            fprintf(stderr, "Uso: %s [porta]\n", argv[0]);
+            exit(EXIT_FAILURE);
+        }
+        port = (int)requested;
+    }
 
     struct sigaction action;
     memset(&action, 0, sizeof(action));
@@ -83,6 +101,13 @@ int main()
         clients[i].state = CLIENT_STATE_CONNECTED;
         clients[i].game_id = 0;
         clients[i].name[0] = '\0';
+        clients[i].mux_parent_fd = -1;
+        clients[i].mux_session_id = 0;
+        clients[i].rating = DEFAULT_RATING;
+        clients[i].queued_since_ms = 0;
+        clients[i].leaderboard_subscribed = false;
+        clients[i].chat_tokens = CHAT_BURST;
+        clients[i].chat_refill_ms = 0;
     }
     pthread_mutex_unlock(&client_list_mutex);
 
@@ -108,7 +133,7 @@ int main()
 
     address.sin_family = AF_INET;
     address.sin_addr.s_addr = INADDR_ANY;
-    address.sin_port = htons(PORT);
+    address.sin_port = htons(port);
 
     if (bind(server_fd, (struct sockaddr *)&address, sizeof(address)) < 0)
     {
@@ -117,14 +142,20 @@ int main()
         exit(EXIT_FAILURE);
     }
 
-    if (listen(server_fd, MAX_TOTAL_CLIENTS) < 0)
+    if (listen(server_fd, MAX_DIRECT_CLIENTS) < 0)
     {
         LOG_PERROR("listen fallito");
         close(server_fd);
         exit(EXIT_FAILURE);
     }
 
-    LOG("Server in ascolto sulla porta %d... (Max Client Connessi: %d, Max Partite: %d)\n", PORT, MAX_TOTAL_CLIENTS, MAX_GAMES);
+    LOG("Server in ascolto sulla porta %d... (Max Client Connessi: %d, Max Sessioni Mux: %d, Max Partite: %d)\n", port, MAX_DIRECT_CLIENTS, MAX_MUX_CLIENTS, MAX_GAMES);
+
+    if (!start_matchmaking_thread() || !start_clock_thread())
+    {
+        close(server_fd);
+        exit(EXIT_FAILURE);
+    }
 
     while (keep_running)
     {
@@ -154,7 +185,7 @@ int main()
 
         pthread_mutex_lock(&client_list_mutex);
         int client_index = -1;
-        for (int i = 0; i < MAX_TOTAL_CLIENTS; ++i)
+        for (int i = 0; i < MAX_DIRECT_CLIENTS; ++i)
         {
             if (!clients[i].active)
             {
@@ -170,6 +201,13 @@ int main()
             clients[client_index].state = CLIENT_STATE_CONNECTED;
             clients[client_index].game_id = 0;
             clients[client_index].name[0] = '\0';
+            clients[client_index].mux_parent_fd = -1;
+            clients[client_index].mux_session_id = 0;
+            clients[client_index].rating = DEFAULT_RATING;
+            clients[client_index].queued_since_ms = 0;
+            clients[client_index].leaderboard_subscribed = false;
+            clients[client_index].chat_tokens = CHAT_BURST;
+            clients[client_index].chat_refill_ms = 0;
 
             int *p_client_index = malloc(sizeof(int));
             if (p_client_index == NULL)
@@ -200,7 +238,7 @@ int main()
         }
         else
         {
-            LOG("Server pieno (raggiunto MAX_TOTAL_CLIENTS), rifiuto connessione fd %d\n", new_socket);
+            LOG("Server pieno (raggiunto MAX_DIRECT_CLIENTS), rifiuto connessione fd %d\n", new_socket);
 
             send(new_socket, ERR_SERVER_FULL_SLOTS, strlen(ERR_SERVER_FULL_SLOTS), MSG_NOSIGNAL);
             close(new_socket);
@@ -8,16 +8,29 @@
 
 #define PORT 12345
 #define BUFFER_SIZE 1024
-#define MAX_TOTAL_CLIENTS 10
+// Connessioni dirette (un thread ciascuna) e sessioni mux (nessun thread proprio) hanno capienze separate:
+// la tabella clients tiene prima le dirette, poi le sessioni.
+#ifndef MAX_DIRECT_CLIENTS
+#define MAX_DIRECT_CLIENTS 10
+#endif
+#ifndef MAX_MUX_CLIENTS
+#define MAX_MUX_CLIENTS 1024
+#endif
+#define MAX_TOTAL_CLIENTS (MAX_DIRECT_CLIENTS + MAX_MUX_CLIENTS)
+#ifndef MAX_GAMES
 #define MAX_GAMES 10
+#endif
 #define MAX_NAME_LEN 32
+#define DEFAULT_RATING 1200
+#define CHAT_BURST 5
 
 typedef enum
 {
     CLIENT_STATE_CONNECTED,
     CLIENT_STATE_LOBBY,
     CLIENT_STATE_WAITING,
-    CLIENT_STATE_PLAYING
+    CLIENT_STATE_PLAYING,
+    CLIENT_STATE_QUEUED
 } ClientState;
 
 typedef enum
@@ -57,6 +70,13 @@ typedef struct
     int winner_fd;
     RematchChoice player1_accepted_rematch;
     RematchChoice player2_accepted_rematch;
+    int move_seq;
+    int premove_fd;
+    int premove_row;
+    int premove_col;
+    long long clock_ms[2];
+    long long turn_started_ms;
+    long long deadline_ms;
 } GameInfo;
 
 typedef struct
@@ -67,6 +87,13 @@ typedef struct
     int game_id;
     bool active;
     pthread_t thread_id;
+    int mux_parent_fd;
+    int mux_session_id;
+    int rating;
+    long long queued_since_ms;
+    bool leaderboard_subscribed;
+    int chat_tokens;
+    long long chat_refill_ms;
 } ClientInfo;
 
 extern GameInfo games[MAX_GAMES];
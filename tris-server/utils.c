@@ -1,4 +1,5 @@
 #include "utils.h"
+#include "mux.h"
 
 void get_timestamp(char *buffer, size_t len)
 {
@@ -12,6 +13,13 @@ void get_timestamp(char *buffer, size_t len)
     snprintf(buffer + strlen(buffer), len - strlen(buffer), ".%03d", ms);
 }
 
+long long monotonic_ms(void)
+{
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (long long)now.tv_sec * 1000 + now.tv_nsec / 1000000;
+}
+
 bool send_to_client(int client_fd, const char *message)
 {
     if (client_fd < 0)
@@ -23,6 +31,10 @@ bool send_to_client(int client_fd, const char *message)
         LOG("Tentativo di invio messaggio NULL a fd %d\n", client_fd);
         return false;
     }
+    if (mux_is_virtual_fd(client_fd))
+    {
+        return mux_send(client_fd, message);
+    }
 
     ssize_t bytes_sent = send(client_fd, message, strlen(message), MSG_NOSIGNAL);
 
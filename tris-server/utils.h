@@ -12,6 +12,7 @@
 #include <stdbool.h>
 
 void get_timestamp(char *buffer, size_t len);
+long long monotonic_ms(void);
 
 #define LOG(...)                                     \
     do                                               \